@@ -0,0 +1,12 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+commands=${1:--}
+
+cd $root/java
+
+# Run the operations from a file of commands (JSON lines or CSV), or from
+# stdin, writing one JSON line of results per command to stdout.
+# Example: ./batch.sh fixes.jsonl > results.jsonl
+java -cp lib/*:bin/ Ticketmaster $dbname $PGPORT $(logname) --batch $commands
@@ -0,0 +1,13 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+commands=${1:-$root/java/budgets.jsonl}
+
+cd $root/java
+
+# Check that the operations stay within their round trip budgets
+# (Operations); exits with status 1 when one goes over.  The commands
+# run in a transaction that is rolled back, so the database is left as is.
+# Example: ./budgets.sh [commands.jsonl]
+java -cp lib/*:bin/ RoundTripBudget $dbname $PGPORT $(logname) $commands
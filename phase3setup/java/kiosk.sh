@@ -0,0 +1,13 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+snapshot=${1:-$root/java/catalog.snapshot}
+
+cd $root/java
+
+# Refresh the snapshot while the database is reachable, then serve the
+# listings from it.
+# Example: ./kiosk.sh [snapshot file]
+java -cp lib/*:bin/ CatalogSnapshot $dbname $PGPORT $(logname) $snapshot
+java -cp lib/*:bin/ Ticketmaster --kiosk $snapshot
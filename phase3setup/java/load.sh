@@ -0,0 +1,11 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Rebuilds the tables from sql/create.sql, streaming data/*.csv from this
+# machine instead of copying them into PGDATA.
+# Example: ./load.sh
+java -cp lib/*:bin/ BulkLoader $dbname $PGPORT $(logname) $root/sql/create.sql $root/data
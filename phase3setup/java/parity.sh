@@ -0,0 +1,12 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+
+cd $root/java
+
+# Check that MemoryBookingStore answers like JdbcBookingStore (StoreParity);
+# exits with status 1 when a call answers differently.  Everything it
+# writes is rolled back.
+# Example: ./parity.sh
+java -cp lib/*:bin/ StoreParity $dbname $PGPORT $(logname)
@@ -0,0 +1,17 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+recording=${1:-ticketmaster.jfr}
+shift
+
+cd $root/java
+
+# Run with a flight recording of the JVM and of the Ticketmaster events
+# (ticketmaster.jfc), written when the program exits; any further
+# arguments are passed on, e.g. --serve 8080.
+# Example: ./profile.sh [recording.jfr] [--serve 8080 | --batch commands.csv]
+#          jfr print --events 'ticketmaster.*' ticketmaster.jfr
+#          jfr summary ticketmaster.jfr
+java -XX:StartFlightRecording=settings=default,settings=$root/java/ticketmaster.jfc,filename=$recording,dumponexit=true \
+	-cp lib/*:bin/ Ticketmaster $dbname $PGPORT $(logname) "$@"
@@ -0,0 +1,14 @@
+#!/bin/bash
+root=$(realpath $(dirname "$0"))
+root=$(dirname $root)
+dbname=$(logname)_db
+port=${1:-8080}
+
+cd $root/java
+
+# Serve the operations as a JSON API instead of the menu.
+# It listens on localhost only; add -Dticketmaster.apihost=<address> to
+# the java options to bind another address (0.0.0.0 for every interface).
+# Example: ./serve.sh [http port]
+#          curl localhost:8080/api
+java -cp lib/*:bin/ Ticketmaster $dbname $PGPORT $(logname) --serve $port
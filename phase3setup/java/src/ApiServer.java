@@ -0,0 +1,358 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * This class serves the operations over HTTP as JSON, one endpoint per
+ * menu operation (see Operations):
+ *
+ *   GET  /api              the operations and their arguments
+ *   GET  /api/<operation>?name=value...
+ *   POST /api/<operation>  with a JSON object of arguments (query
+ *                          parameters are taken too)
+ *
+ * A result is {"ok":true, fields...}, or for a listing
+ * {"ok":true, "columns":[...], "rows":[[...], ...], "next":token}; the
+ * rows are written as they are read, chunked, and gzipped when the client
+ * accepts it.  A failure is {"ok":false, "error":..., "message":...} with
+ * 400 (invalid), 404 (not_found), 409 (conflict), 503 (no connection came
+ * free) or 500.
+ *
+ *   GET  /seats/<sid>      the live seat map of a show, as server-sent
+ *                          events: a "snapshot" (SeatFeed), then a "delta"
+ *                          of the claimed and released seats whenever
+ *                          some change, and a comment every 15 s
+ *
+ * The server listens on the loopback address only, unless
+ * -Dticketmaster.apihost names the address to bind (e.g. 0.0.0.0 for
+ * every interface, behind a proxy that authenticates the clients).
+ *
+ * Each request runs on a thread of its own (a virtual thread when the
+ * Java runtime has them) with a connection from a ConnectionPool, so the
+ * number of statements in flight is bounded by the pool, not the number
+ * of clients.  Connections are kept alive between requests by the JDK
+ * server (sun.net.httpserver.idleInterval, default 30 s).
+ *
+ */
+
+public class ApiServer{
+	private static final int GZIP_BUFFER = 8192;
+	private static final long HEARTBEAT_MILLIS = 15000;
+
+	private final Ticketmaster _esql;
+	private final ConnectionPool _pool;
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+	private final SeatFeed _seats;
+	//how long a seat map delta gathers changes, -Dticketmaster.seatlingerms
+	private final long _linger = Long.getLong("ticketmaster.seatlingerms", 50L);
+
+	/**
+	 * @param esql the main connection, with the caches and events
+	 * @param port the port to listen on
+	 * @throws java.io.IOException when failed to bind the port
+	 */
+	public ApiServer(Ticketmaster esql, int port) throws IOException {
+		this._esql = esql;
+		this._pool = ConnectionPool.fromSystemProperties(esql);
+		String host = System.getProperty("ticketmaster.apihost");
+		InetAddress address = host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+		this._server = HttpServer.create(new InetSocketAddress(address, port), Integer.getInteger("ticketmaster.backlog", 256));
+		this._executor = threadPerRequest();
+		this._server.setExecutor(this._executor);
+		this._seats = new SeatFeed(esql);
+		this._server.createContext("/api", this::handle);
+		this._server.createContext("/seats", this::seats);
+	}
+
+	/**
+	 * Method to start serving.  The show caches are loaded first, so the
+	 * first requests do not race to load them.
+	 *
+	 * @throws java.sql.SQLException when failed to load the caches
+	 */
+	public void start() throws SQLException {
+		this._esql.getShowGraph();
+		this._esql.getShowIndex();
+		this._server.start();
+		System.out.println("Serving the API on " + this._server.getAddress().getAddress().getHostAddress() + " port " + this._server.getAddress().getPort());
+	}
+
+	/**
+	 * Method to stop serving, letting requests in progress end first.
+	 *
+	 * @param seconds how long to wait for them
+	 */
+	public void stop(int seconds){
+		this._server.stop(seconds);
+		this._executor.shutdown();
+		this._pool.close();
+	}
+
+	/**
+	 * Method to make an executor running each task on a new virtual thread,
+	 * or on a cached platform thread when the runtime has no virtual
+	 * threads.  It is looked up by name, so this compiles for older
+	 * runtimes.
+	 */
+	static ExecutorService threadPerRequest(){
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch (ReflectiveOperationException | RuntimeException e){
+			// no virtual threads (before Java 21, or a preview not enabled)
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try{
+			Map<String, Object> args = new LinkedHashMap<String, Object>();
+			String body = read(exchange.getRequestBody());
+			if (!body.trim().isEmpty()) args.putAll(Json.parseObject(body));
+			query(exchange.getRequestURI().getRawQuery(), args);
+			String path = exchange.getRequestURI().getPath().replaceAll("/+$", "");
+			if (path.equals("/api")){
+				Map<String, Object> operations = new LinkedHashMap<String, Object>();
+				for (String name : Operations.names()) operations.put(name, Operations.usage(name));
+				Map<String, Object> index = new LinkedHashMap<String, Object>();
+				index.put("ok", true);
+				index.put("operations", operations);
+				send(exchange, 200, index);
+			}else{
+				run(exchange, path.substring(path.lastIndexOf('/') + 1), new Operations.Arguments(args));
+			}
+		}catch (Exception e){
+			// a listing cut short has sent its status already
+			if (exchange.getResponseCode() < 0){
+				if (e instanceof IllegalArgumentException) fail(exchange, 400, Operations.INVALID, e.getMessage());
+				else fail(exchange, 500, "failed", e.getMessage());
+			}
+		}finally{
+			exchange.close();
+		}
+	}
+
+	private void run(HttpExchange exchange, String operation, Operations.Arguments args) throws IOException, SQLException {
+		Ticketmaster db;
+		try{
+			db = this._pool.take();
+		}catch (SQLException | InterruptedException e){
+			fail(exchange, 503, "unavailable", e.getMessage());
+			return;
+		}
+		Exception failure = null;
+		try{
+			Operations.Result result = Operations.run(this._esql, db, operation, args);
+			if (result.error != null){
+				fail(exchange, status(result.error), result.error, String.valueOf(result.fields.get("message")));
+			}else if (result.isListing()){
+				stream(exchange, db, result);
+			}else{
+				Map<String, Object> reply = new LinkedHashMap<String, Object>();
+				reply.put("ok", true);
+				reply.putAll(result.fields);
+				send(exchange, 200, reply);
+			}
+		}catch (SQLException | RuntimeException e){
+			failure = e;
+			throw e;
+		}finally{
+			this._pool.give(db, failure);
+		}
+	}
+
+	/**
+	 * Method to write a listing as it is read.  The status is sent before
+	 * the further pages are read; should one fail, the body is cut short
+	 * and the client sees invalid JSON.
+	 */
+	private void stream(HttpExchange exchange, Ticketmaster db, final Operations.Result result) throws IOException, SQLException {
+		Headers headers = exchange.getResponseHeaders();
+		headers.set("Content-Type", "application/json; charset=utf-8");
+		OutputStream body = exchange.getResponseBody();
+		String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+		if (accepted != null && accepted.contains("gzip")){
+			headers.set("Content-Encoding", "gzip");
+			exchange.sendResponseHeaders(200, 0);
+			body = new GZIPOutputStream(body, GZIP_BUFFER);
+		}else{
+			exchange.sendResponseHeaders(200, 0);
+		}
+		final Writer out = new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+		out.write("{\"ok\":true,\"columns\":");
+		Json.write(out, result.columns());
+		for (Map.Entry<String, Object> field : result.fields.entrySet()){
+			out.write(',');
+			Json.string(out, field.getKey());
+			out.write(':');
+			Json.write(out, field.getValue());
+		}
+		out.write(",\"rows\":[");
+		final boolean[] first = {true};
+		String next = result.rows(db, row -> {
+			if (!first[0]) out.write(',');
+			Json.write(out, row);
+			first[0] = false;
+		});
+		out.write("],\"next\":");
+		Json.write(out, next);
+		out.write('}');
+		out.close();
+	}
+
+	/**
+	 * Method to push the seat map of a show until the client goes away.
+	 * The subscriber's thread does all the writing, so a slow client only
+	 * delays itself.
+	 */
+	private void seats(HttpExchange exchange) throws IOException {
+		SeatFeed.Subscription subscription = null;
+		try{
+			read(exchange.getRequestBody());
+			String path = exchange.getRequestURI().getPath().replaceAll("/+$", "");
+			long sid;
+			try{
+				sid = Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+			}catch (NumberFormatException e){
+				fail(exchange, 400, Operations.INVALID, "Expected /seats/<sid>");
+				return;
+			}
+			Ticketmaster db = this._pool.take();
+			Exception failure = null;
+			try{
+				subscription = this._seats.subscribe(db, sid);
+			}catch (SQLException e){
+				failure = e;
+				throw e;
+			}finally{
+				this._pool.give(db, failure);
+			}
+			if (((long[]) subscription.snapshot().get("ssids")).length == 0){
+				fail(exchange, 404, Operations.NOT_FOUND, "Show " + sid + " has no seats");
+				return;
+			}
+			Headers headers = exchange.getResponseHeaders();
+			headers.set("Content-Type", "text/event-stream; charset=utf-8");
+			headers.set("Cache-Control", "no-cache");
+			exchange.sendResponseHeaders(200, 0);
+			Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8));
+			event(out, "snapshot", subscription.snapshot());
+			while (true){
+				Map<String, Object> delta = subscription.next(HEARTBEAT_MILLIS, this._linger);
+				if (delta == null){
+					out.write(": keep-alive\n\n");
+					out.flush();
+				}else{
+					event(out, "delta", delta);
+				}
+			}
+		}catch (IOException e){
+			// the client went away
+		}catch (Exception e){
+			if (exchange.getResponseCode() < 0) fail(exchange, 503, "unavailable", e.getMessage());
+		}finally{
+			if (subscription != null) subscription.close();
+			exchange.close();
+		}
+	}
+
+	private static void event(Writer out, String name, Map<String, Object> data) throws IOException {
+		out.write("event: " + name + "\nid: " + data.get("version") + "\ndata: ");
+		Json.write(out, data);
+		out.write("\n\n");
+		out.flush();
+	}
+
+	private static void send(HttpExchange exchange, int status, Object reply) throws IOException {
+		byte[] bytes = Json.toJson(reply).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		OutputStream body = exchange.getResponseBody();
+		body.write(bytes);
+		body.close();
+	}
+
+	private static void fail(HttpExchange exchange, int status, String error, String message) throws IOException {
+		Map<String, Object> reply = new LinkedHashMap<String, Object>();
+		reply.put("ok", false);
+		reply.put("error", error);
+		reply.put("message", message);
+		send(exchange, status, reply);
+	}
+
+	private static int status(String error){
+		switch (error){
+			case Operations.INVALID: return 400;
+			case Operations.NOT_FOUND: return 404;
+			case Operations.CONFLICT: return 409;
+			default: return 500;
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		try{
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}finally{
+			in.close();
+		}
+	}
+
+	/**
+	 * Method to add the parameters of a query string to the arguments.
+	 */
+	private static void query(String query, Map<String, Object> args){
+		if (query == null) return;
+		for (String parameter : query.split("&")){
+			if (parameter.isEmpty()) continue;
+			int eq = parameter.indexOf('=');
+			String name = URLDecoder.decode(eq < 0 ? parameter : parameter.substring(0, eq), StandardCharsets.UTF_8);
+			String value = eq < 0 ? "" : URLDecoder.decode(parameter.substring(eq + 1), StandardCharsets.UTF_8);
+			args.put(name, value);
+		}
+	}
+
+	/**
+	 * Method to serve until the process is stopped; the main connection is
+	 * closed on the way out.
+	 *
+	 * @param esql the main connection
+	 * @param port the port to listen on
+	 * @throws Exception when failed to start
+	 */
+	public static void serve(Ticketmaster esql, int port) throws Exception {
+		final ApiServer server = new ApiServer(esql, port);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.stop(2);
+			esql.cleanup();
+		}));
+		server.start();
+		Thread.currentThread().join();
+	}
+}//end ApiServer
@@ -0,0 +1,412 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * This class runs operations from a file or stream of commands instead of
+ * the menu, through the same Operations as ApiServer.  A command is one
+ * line, in either of two formats:
+ *
+ *   JSON lines   {"op":"add-user","fname":"Ann","lname":"Lee",...}
+ *   CSV          a header naming the columns, one of them "op", then one
+ *                row per command; empty cells are left out
+ *
+ * The format is told by the first line ('{' for JSON).  Blank lines and
+ * lines starting with # are skipped.  Every command gives one JSON line of
+ * output: {"line":n,"op":...,"ok":true, fields..., "columns", "rows"} or
+ * {"line":n,"op":...,"ok":false,"error":...,"message":...}.
+ *
+ * Consecutive commands are run -Dticketmaster.batchsize (default 100) at a
+ * time in one transaction, each in a savepoint of its own so a failed one
+ * is undone alone; their output is written once the batch commits.  The
+ * booking events and cache updates of its commands are held by the
+ * connection until then too (see Ticketmaster.afterCommit), and dropped
+ * with a command that is undone.  When the commit itself fails, every
+ * command of the batch is reported failed and none of them is sent.
+ * -Dticketmaster.batchthreads (default 1) batches run at once, each on a
+ * pooled connection; with more than one, commands of different batches
+ * may run in any order and output lines come in the order batches finish.
+ *
+ */
+
+public class BatchRunner{
+	private final Ticketmaster _esql;
+	private final int _threads;
+	private final int _batchSize;
+	private final Writer _out;
+	private final AtomicLong _succeeded = new AtomicLong();
+	private final AtomicLong _failed = new AtomicLong();
+
+	/**
+	 * One command read from the input.
+	 */
+	static class Command{
+		final long line;
+		final String op;
+		final Map<String, Object> args;
+		//why the line could not be read, or null
+		final String error;
+
+		Command(long line, String op, Map<String, Object> args, String error){
+			this.line = line;
+			this.op = op;
+			this.args = args;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * @param esql the main connection, whose caches and events are updated
+	 * @param threads how many batches run at once
+	 * @param batchSize how many commands share a transaction
+	 * @param out where the results go
+	 */
+	public BatchRunner(Ticketmaster esql, int threads, int batchSize, Writer out){
+		this._esql = esql;
+		this._threads = Math.max(1, threads);
+		this._batchSize = Math.max(1, batchSize);
+		this._out = out;
+	}
+
+	public static BatchRunner fromSystemProperties(Ticketmaster esql, Writer out){
+		return new BatchRunner(esql, Integer.getInteger("ticketmaster.batchthreads", 1), Integer.getInteger("ticketmaster.batchsize", 100), out);
+	}
+
+	/**
+	 * Method to run every command of the input.
+	 *
+	 * @param in the commands
+	 * @return the number of commands that failed
+	 * @throws java.io.IOException when failed to read the commands or write the results, or a worker died
+	 * @throws InterruptedException when interrupted while waiting for the workers
+	 */
+	public long run(BufferedReader in) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		ConnectionPool pool = new ConnectionPool(this._esql, this._threads);
+		// a bounded queue, so reading waits for the workers instead of filling memory
+		final BlockingQueue<List<Command>> batches = new ArrayBlockingQueue<List<Command>>(2 * this._threads);
+		Metrics.BATCH_QUEUE.supply(batches::size);
+		// why a worker stopped early: the output failed, or a batch threw
+		final AtomicReference<Throwable> died = new AtomicReference<Throwable>();
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int i = 0; i < this._threads; ++i){
+			Thread worker = new Thread(() -> {
+				try{
+					work(pool, batches);
+				}catch (InterruptedException e){
+					// stopped
+				}catch (Throwable e){
+					died.compareAndSet(null, e);
+				}
+			}, "batch-" + i);
+			worker.start();
+			workers.add(worker);
+		}
+		try{
+			read(in, batches, workers, died);
+		}finally{
+			// only as many end marks as there are workers left to take them
+			for (int i = 0; i < this._threads; ++i){
+				if (!queue(batches, Collections.<Command>emptyList(), workers, null)) break;
+			}
+			for (Thread worker : workers) worker.join();
+			pool.close();
+			this._out.flush();
+		}
+		Throwable failure = died.get();
+		if (failure instanceof IOException) throw (IOException) failure;
+		if (failure != null) throw new IOException("A batch worker failed: " + failure, failure);
+		long commands = this._succeeded.get() + this._failed.get();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.printf("Ran %d commands: %d succeeded, %d failed, in %.1f s (%.0f commands/s)%n",
+			commands, this._succeeded.get(), this._failed.get(), seconds, commands / Math.max(seconds, 1e-3));
+		return this._failed.get();
+	}
+
+	/**
+	 * Method to read the commands and queue them a batch at a time.
+	 */
+	private void read(BufferedReader in, BlockingQueue<List<Command>> batches, List<Thread> workers, AtomicReference<Throwable> died)
+			throws IOException, InterruptedException {
+		Commands commands = new Commands(in);
+		List<Command> batch = new ArrayList<Command>();
+		for (Command command; (command = commands.next()) != null; ){
+			batch.add(command);
+			if (batch.size() == this._batchSize){
+				if (!queue(batches, batch, workers, died)) return;
+				batch = new ArrayList<Command>();
+			}
+		}
+		if (!batch.isEmpty()) queue(batches, batch, workers, died);
+	}
+
+	/**
+	 * Method to queue a batch for the workers, waiting while the queue is
+	 * full but giving up once a worker died or none is left, so a failed
+	 * worker can not leave the reader waiting forever.
+	 *
+	 * @param died set when a worker died, or null to only wait for live workers
+	 * @return true when the batch was queued
+	 */
+	private static boolean queue(BlockingQueue<List<Command>> batches, List<Command> batch, List<Thread> workers,
+			AtomicReference<Throwable> died) throws InterruptedException {
+		while (!batches.offer(batch, 1, TimeUnit.SECONDS)){
+			if (died != null && died.get() != null) return false;
+			boolean alive = false;
+			for (Thread worker : workers) alive |= worker.isAlive();
+			if (!alive) return false;
+		}
+		return died == null || died.get() == null;
+	}
+
+	/**
+	 * Reads the commands of an input one at a time, JSON lines or CSV as
+	 * told by the first line; blank lines and # comments are skipped.
+	 */
+	static class Commands{
+		private final BufferedReader _in;
+		private List<String> _header = null;
+		private boolean _json = false;
+		private boolean _first = true;
+		private long _number = 0;
+
+		Commands(BufferedReader in){
+			this._in = in;
+		}
+
+		/**
+		 * @return the next command, or null at the end of the input
+		 * @throws java.io.IOException when failed to read the input, or its
+		 *         CSV header has no op column
+		 */
+		Command next() throws IOException {
+			for (String line; (line = this._in.readLine()) != null; ){
+				++this._number;
+				if (line.trim().isEmpty() || line.trim().startsWith("#")) continue;
+				if (this._first){
+					this._first = false;
+					this._json = line.trim().startsWith("{");
+					if (!this._json){
+						this._header = csv(line);
+						if (!this._header.contains("op")) throw new IOException("The CSV header has no op column");
+						continue;
+					}
+				}
+				return this._json ? fromJson(this._number, line) : fromCsv(this._number, this._header, line);
+			}
+			return null;
+		}
+	}
+
+	static Command fromJson(long number, String line){
+		Map<String, Object> args;
+		try{
+			args = Json.parseObject(line);
+		}catch (IllegalArgumentException e){
+			return new Command(number, null, null, e.getMessage());
+		}
+		Object op = args.remove("op");
+		if (op == null) return new Command(number, null, null, "The command has no op");
+		return new Command(number, op.toString(), args, null);
+	}
+
+	static Command fromCsv(long number, List<String> header, String line){
+		List<String> cells = csv(line);
+		if (cells.size() > header.size()) return new Command(number, null, null, "The row has more cells than the header");
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < cells.size(); ++i){
+			if (!cells.get(i).isEmpty()) args.put(header.get(i), cells.get(i));
+		}
+		Object op = args.remove("op");
+		if (op == null) return new Command(number, null, null, "The row has no op");
+		return new Command(number, op.toString(), args, null);
+	}
+
+	/**
+	 * Method to split a CSV line; a quoted cell may hold commas and "" for
+	 * a quote.
+	 */
+	static List<String> csv(String line){
+		List<String> cells = new ArrayList<String>();
+		StringBuilder cell = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); ++i){
+			char c = line.charAt(i);
+			if (quoted){
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"'){
+					cell.append('"');
+					++i;
+				}else if (c == '"'){
+					quoted = false;
+				}else{
+					cell.append(c);
+				}
+			}else if (c == '"'){
+				quoted = true;
+			}else if (c == ','){
+				cells.add(cell.toString().trim());
+				cell.setLength(0);
+			}else{
+				cell.append(c);
+			}
+		}
+		cells.add(cell.toString().trim());
+		return cells;
+	}
+
+	/**
+	 * Method to run batches until an empty one comes, on a connection that
+	 * is replaced when it breaks.
+	 */
+	private void work(ConnectionPool pool, BlockingQueue<List<Command>> batches) throws IOException, InterruptedException {
+		Ticketmaster db = null;
+		try{
+			for (List<Command> batch; !(batch = batches.take()).isEmpty(); ){
+				if (db == null){
+					try{
+						db = pool.take();
+					}catch (SQLException e){
+						write(failed(batch, e));
+						continue;
+					}
+				}
+				try{
+					write(runBatch(db, batch));
+				}catch (SQLException e){
+					write(failed(batch, e));
+					pool.give(db, e);
+					db = null;
+				}
+			}
+		}finally{
+			if (db != null) pool.give(db, null);
+		}
+	}
+
+	/**
+	 * Method to run a batch in one transaction.
+	 *
+	 * @return the output lines
+	 * @throws java.sql.SQLException when the batch could not be committed
+	 */
+	private List<String> runBatch(Ticketmaster db, List<Command> batch) throws SQLException {
+		List<String> lines = new ArrayList<String>();
+		int succeeded = 0;
+		boolean transaction = batch.size() > 1;
+		if (transaction) db.beginTransaction();
+		try{
+			for (Command command : batch){
+				if (runCommand(db, command, transaction, lines)) ++succeeded;
+			}
+			if (transaction) db.commit();
+		}catch (SQLException | RuntimeException e){
+			if (transaction) db.rollback();
+			throw e;
+		}
+		this._succeeded.addAndGet(succeeded);
+		this._failed.addAndGet(batch.size() - succeeded);
+		return lines;
+	}
+
+	/**
+	 * Method to run one command, in a savepoint when in a batch.
+	 *
+	 * @param lines where its output line goes
+	 * @return true when it succeeded
+	 * @throws java.sql.SQLException when the connection broke
+	 */
+	private boolean runCommand(Ticketmaster db, Command command, boolean savepoint, List<String> lines) throws SQLException {
+		if (command.error != null){
+			lines.add(line(command, Operations.INVALID, command.error));
+			return false;
+		}
+		if (savepoint) db.beginTransaction();
+		try{
+			Operations.Result result = Operations.run(this._esql, db, command.op, new Operations.Arguments(command.args));
+			if (result.error != null){
+				if (savepoint) db.rollback();
+				lines.add(line(command, result.error, String.valueOf(result.fields.get("message"))));
+				return false;
+			}
+			final StringBuilder line = new StringBuilder(head(command, true));
+			for (Map.Entry<String, Object> field : result.fields.entrySet()){
+				line.append(',');
+				Json.string(line, field.getKey());
+				line.append(':');
+				Json.write(line, field.getValue());
+			}
+			if (result.isListing()){
+				line.append(",\"columns\":");
+				Json.write(line, result.columns());
+				line.append(",\"rows\":[");
+				final int length = line.length();
+				String next = result.rows(db, row -> {
+					if (line.length() > length) line.append(',');
+					Json.write(line, row);
+				});
+				line.append(']');
+				if (next != null){
+					line.append(",\"next\":");
+					Json.string(line, next);
+				}
+			}
+			if (savepoint) db.commit();
+			lines.add(line.append('}').toString());
+			return true;
+		}catch (SQLException | IOException | RuntimeException e){
+			if (savepoint) db.rollback();
+			if (e instanceof SQLException && String.valueOf(((SQLException) e).getSQLState()).startsWith("08")) throw (SQLException) e;
+			lines.add(line(command, "failed", e.getMessage()));
+			return false;
+		}
+	}
+
+	private static String head(Command command, boolean ok){
+		return "{\"line\":" + command.line + ",\"op\":" + Json.toJson(command.op) + ",\"ok\":" + ok;
+	}
+
+	private static String line(Command command, String error, String message){
+		return head(command, false) + ",\"error\":" + Json.toJson(error) + ",\"message\":" + Json.toJson(message) + "}";
+	}
+
+	private List<String> failed(List<Command> batch, SQLException e){
+		List<String> lines = new ArrayList<String>();
+		for (Command command : batch){
+			lines.add(line(command, "failed", "The batch was rolled back: " + e.getMessage()));
+			this._failed.incrementAndGet();
+		}
+		return lines;
+	}
+
+	private void write(List<String> lines) throws IOException {
+		synchronized (this._out){
+			for (String line : lines){
+				this._out.write(line);
+				this._out.write('\n');
+			}
+			this._out.flush();
+		}
+	}
+}//end BatchRunner
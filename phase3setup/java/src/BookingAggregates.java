@@ -0,0 +1,301 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class keeps live occupancy per show and revenue per cinema and per
+ * city.  A full load computes the rollups once; after that they follow the
+ * booking events, and a background reconcile reloads them periodically to
+ * correct any drift (e.g. writes by another process).  Reads are single
+ * hash lookups.
+ *
+ * A reconcile reads on a connection of its own, never the one of the
+ * operations.  The events that arrive while it reads are recorded and
+ * replayed onto the new state before it replaces the old one.  The state
+ * keeps who holds each seat and which payments it counted, so an event
+ * the read already saw changes nothing when replayed, and the rollups
+ * are computed from those facts once the replay is done.
+ *
+ * Occupancy counts the show seats held by bookings that are not cancelled.
+ * Revenue is the sum of Payments.amount; a show played in theaters of more
+ * than one cinema is credited to the cinema of its lowest theater id.
+ *
+ */
+
+public class BookingAggregates implements BookingEventListener{
+	//per booking state needed to apply events
+	private static class Booking{
+		long sid;
+		int seats;
+		boolean canceled;
+	}
+
+	//everything the rollups are computed from, swapped as a whole on reconcile
+	private static class State implements BookingEventListener{
+		final LongMap<Booking> bookings = new LongMap<Booking>();
+		//ssid -> bid of every held seat, pid -> booking and amount of every counted payment
+		final LongMap<Long> holders = new LongMap<Long>();
+		final LongMap<BookingStore.Payment> payments = new LongMap<BookingStore.Payment>();
+		//sid -> {total seats, occupied seats}
+		final LongMap<int[]> shows = new LongMap<int[]>();
+		//cid -> revenue, city_id -> revenue
+		final LongMap<double[]> cinemas = new LongMap<double[]>();
+		final LongMap<double[]> cities = new LongMap<double[]>();
+		//sid -> cid it is credited to, cid -> city_id
+		final LongMap<Long> showCinema = new LongMap<Long>();
+		final LongMap<Long> cinemaCity = new LongMap<Long>();
+
+		public void bookingAdded(long bid, long sid, String status){
+			if (this.bookings.containsKey(bid)) return;
+			Booking booking = new Booking();
+			booking.sid = sid;
+			booking.canceled = isCanceled(status);
+			this.bookings.put(bid, booking);
+		}
+
+		public void seatClaimed(long bid, long ssid, long sid){
+			Long before = this.holders.put(ssid, bid);
+			if (before != null && before == bid) return;
+			if (before != null) seats(before, -1);
+			seats(bid, 1);
+		}
+
+		public void seatReleased(long bid, long ssid, long sid){
+			Long holder = this.holders.get(ssid);
+			if (holder == null || holder != bid) return;
+			this.holders.remove(ssid);
+			seats(bid, -1);
+		}
+
+		public void paymentRemoved(long pid, long bid, double amount){
+			// a payment made since the last reconcile was never counted
+			BookingStore.Payment payment = this.payments.remove(pid);
+			if (payment == null) return;
+			Booking booking = this.bookings.get(payment.bid);
+			if (booking != null) addRevenue(booking.sid, -payment.amount);
+		}
+
+		public void bookingCanceled(long bid){
+			Booking booking = this.bookings.get(bid);
+			if (booking == null || booking.canceled) return;
+			booking.canceled = true;
+			show(booking.sid)[1] -= booking.seats;
+		}
+
+		public void bookingDeleted(long bid){
+			Booking booking = this.bookings.remove(bid);
+			if (booking != null && !booking.canceled) show(booking.sid)[1] -= booking.seats;
+		}
+
+		/**
+		 * Method to compute the rollups from the held seats and payments.
+		 */
+		void compute(){
+			for (long sid : this.shows.keys()) this.shows.get(sid)[1] = 0;
+			for (long bid : this.bookings.keys()) this.bookings.get(bid).seats = 0;
+			this.cinemas.clear();
+			this.cities.clear();
+			for (long ssid : this.holders.keys()) seats(this.holders.get(ssid), 1);
+			for (long pid : this.payments.keys()){
+				BookingStore.Payment payment = this.payments.get(pid);
+				Booking booking = this.bookings.get(payment.bid);
+				if (booking != null) addRevenue(booking.sid, payment.amount);
+			}
+		}
+
+		private void seats(long bid, int change){
+			Booking booking = this.bookings.get(bid);
+			if (booking == null) return;
+			booking.seats += change;
+			if (!booking.canceled) show(booking.sid)[1] += change;
+		}
+
+		private void addRevenue(long sid, double amount){
+			if (amount == 0) return;
+			Long cid = this.showCinema.get(sid);
+			if (cid == null) return;
+			total(this.cinemas, cid)[0] += amount;
+			Long city = this.cinemaCity.get(cid);
+			if (city != null) total(this.cities, city)[0] += amount;
+		}
+
+		private int[] show(long sid){
+			int[] seats = this.shows.get(sid);
+			if (seats == null){
+				seats = new int[2];
+				this.shows.put(sid, seats);
+			}
+			return seats;
+		}
+	}
+
+	private final Ticketmaster _esql;
+	private State _state = new State();
+	//the events that arrive while reconciling, or null
+	private BookingEventRecorder _recording = null;
+	//held while reconciling, one reconcile at a time
+	private final Object _reconciling = new Object();
+	private ScheduledExecutorService _reconciler = null;
+	//the connection of the background reconciles, opened on first use
+	private Ticketmaster _db = null;
+
+	public BookingAggregates(Ticketmaster esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Method to recompute every rollup from the database.  The events that
+	 * arrive meanwhile are replayed onto the new state, which then replaces
+	 * the old one in one step.
+	 *
+	 * @param db the connection to read on, not in use by another thread
+	 * @throws java.sql.SQLException when failed to execute the queries
+	 */
+	public void reconcile(Ticketmaster db) throws SQLException {
+		synchronized (this._reconciling){
+			BookingEventRecorder recording = new BookingEventRecorder();
+			synchronized (this){
+				this._recording = recording;
+			}
+			State state;
+			try{
+				state = load(db);
+			}catch (SQLException | RuntimeException e){
+				synchronized (this){
+					this._recording = null;
+				}
+				throw e;
+			}
+			synchronized (this){
+				recording.replay(state);
+				state.compute();
+				this._state = state;
+				this._recording = null;
+			}
+		}
+	}
+
+	private static State load(Ticketmaster db) throws SQLException {
+		State state = new State();
+		for (List<String> row : db.executeQueryAndReturnResult("SELECT cid, city_id FROM Cinemas")){
+			state.cinemaCity.put(Long.parseLong(row.get(0)), Long.parseLong(row.get(1)));
+		}
+		for (List<String> row : db.executeQueryAndReturnResult(
+				"SELECT p.sid, t.cid FROM (SELECT sid, min(tid) AS tid FROM Plays GROUP BY sid) p, Theaters t WHERE t.tid = p.tid")){
+			state.showCinema.put(Long.parseLong(row.get(0)), Long.parseLong(row.get(1)));
+		}
+		for (List<String> row : db.executeQueryAndReturnResult("SELECT sid, count(*) FROM ShowSeats GROUP BY sid")){
+			state.shows.put(Long.parseLong(row.get(0)), new int[]{ Integer.parseInt(row.get(1)), 0 });
+		}
+		for (List<String> row : db.executeQueryAndReturnResult("SELECT bid, sid, status FROM Bookings")){
+			state.bookingAdded(Long.parseLong(row.get(0)), Long.parseLong(row.get(1)), row.get(2));
+		}
+		for (List<String> row : db.executeQueryAndReturnResult("SELECT ssid, bid FROM ShowSeats WHERE bid IS NOT NULL")){
+			state.holders.put(Long.parseLong(row.get(0)), Long.parseLong(row.get(1)));
+		}
+		for (List<String> row : db.executeQueryAndReturnResult("SELECT pid, bid, amount FROM Payments")){
+			state.payments.put(Long.parseLong(row.get(0)), new BookingStore.Payment(Long.parseLong(row.get(1)), Double.parseDouble(row.get(2))));
+		}
+		return state;
+	}
+
+	/**
+	 * Method to reconcile in the background at a fixed rate, on a
+	 * connection of its own that is opened again when it breaks.
+	 *
+	 * @param minutes the time between two reconciles
+	 */
+	public synchronized void startReconciling(long minutes){
+		if (this._reconciler != null) return;
+		this._reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "aggregate-reconcile");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this._reconciler.scheduleAtFixedRate(() -> {
+			try{
+				if (this._db == null) this._db = this._esql.newConnection();
+				reconcile(this._db);
+			}catch (Exception e){
+				System.err.println("Aggregate reconcile failed: " + e.getMessage());
+				if (this._db != null) this._db.cleanup();
+				this._db = null;
+			}
+		}, minutes, minutes, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @return {total seats, occupied seats} of a show, or null when it has no seats
+	 */
+	public synchronized int[] occupancy(long sid){
+		int[] seats = this._state.shows.get(sid);
+		return seats == null ? null : seats.clone();
+	}
+
+	public synchronized double cinemaRevenue(long cid){
+		double[] revenue = this._state.cinemas.get(cid);
+		return revenue == null ? 0 : revenue[0];
+	}
+
+	public synchronized double cityRevenue(long cityId){
+		double[] revenue = this._state.cities.get(cityId);
+		return revenue == null ? 0 : revenue[0];
+	}
+
+	public synchronized void bookingAdded(long bid, long sid, String status){
+		if (this._recording != null) this._recording.bookingAdded(bid, sid, status);
+		this._state.bookingAdded(bid, sid, status);
+	}
+
+	public synchronized void seatClaimed(long bid, long ssid, long sid){
+		if (this._recording != null) this._recording.seatClaimed(bid, ssid, sid);
+		this._state.seatClaimed(bid, ssid, sid);
+	}
+
+	public synchronized void seatReleased(long bid, long ssid, long sid){
+		if (this._recording != null) this._recording.seatReleased(bid, ssid, sid);
+		this._state.seatReleased(bid, ssid, sid);
+	}
+
+	public synchronized void paymentRemoved(long pid, long bid, double amount){
+		if (this._recording != null) this._recording.paymentRemoved(pid, bid, amount);
+		this._state.paymentRemoved(pid, bid, amount);
+	}
+
+	public synchronized void bookingCanceled(long bid){
+		if (this._recording != null) this._recording.bookingCanceled(bid);
+		this._state.bookingCanceled(bid);
+	}
+
+	public synchronized void bookingDeleted(long bid){
+		if (this._recording != null) this._recording.bookingDeleted(bid);
+		this._state.bookingDeleted(bid);
+	}
+
+	private static double[] total(LongMap<double[]> totals, long key){
+		double[] total = totals.get(key);
+		if (total == null){
+			total = new double[1];
+			totals.put(key, total);
+		}
+		return total;
+	}
+
+	private static boolean isCanceled(String status){
+		// RemovePayment writes 'Cancelled', CancelPendingBookings writes 'Canceled'
+		return status.equalsIgnoreCase("Canceled") || status.equalsIgnoreCase("Cancelled");
+	}
+}//end BookingAggregates
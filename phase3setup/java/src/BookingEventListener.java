@@ -0,0 +1,50 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This interface is implemented by anything that follows the booking
+ * domain as it changes: in-memory rollups, journals, live seat maps.  The
+ * menu operations report each change after it was written to the
+ * database.
+ *
+ */
+
+public interface BookingEventListener{
+
+	/**
+	 * A booking was created.
+	 */
+	void bookingAdded(long bid, long sid, String status);
+
+	/**
+	 * A booking took a show seat.
+	 */
+	void seatClaimed(long bid, long ssid, long sid);
+
+	/**
+	 * A booking gave a show seat back.
+	 */
+	void seatReleased(long bid, long ssid, long sid);
+
+	/**
+	 * The payment of a booking was removed.
+	 */
+	void paymentRemoved(long pid, long bid, double amount);
+
+	/**
+	 * A booking was cancelled.
+	 */
+	void bookingCanceled(long bid);
+
+	/**
+	 * A booking was deleted.
+	 */
+	void bookingDeleted(long bid);
+}//end BookingEventListener
@@ -0,0 +1,60 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+
+/**
+ * This class keeps the booking events it receives, in order, to replay
+ * them later.  A state being reloaded from the database records the
+ * events that arrive meanwhile, and replays them onto the new state
+ * before putting it in place, so none of them is lost.  Replaying an
+ * event the database read already saw must leave the state as it is.
+ *
+ */
+
+public class BookingEventRecorder implements BookingEventListener{
+	private final List<Consumer<BookingEventListener>> _events = new ArrayList<Consumer<BookingEventListener>>();
+
+	public synchronized void bookingAdded(long bid, long sid, String status){
+		this._events.add(listener -> listener.bookingAdded(bid, sid, status));
+	}
+
+	public synchronized void seatClaimed(long bid, long ssid, long sid){
+		this._events.add(listener -> listener.seatClaimed(bid, ssid, sid));
+	}
+
+	public synchronized void seatReleased(long bid, long ssid, long sid){
+		this._events.add(listener -> listener.seatReleased(bid, ssid, sid));
+	}
+
+	public synchronized void paymentRemoved(long pid, long bid, double amount){
+		this._events.add(listener -> listener.paymentRemoved(pid, bid, amount));
+	}
+
+	public synchronized void bookingCanceled(long bid){
+		this._events.add(listener -> listener.bookingCanceled(bid));
+	}
+
+	public synchronized void bookingDeleted(long bid){
+		this._events.add(listener -> listener.bookingDeleted(bid));
+	}
+
+	/**
+	 * Method to hand every recorded event to a listener, oldest first.
+	 *
+	 * @param listener receives the events
+	 */
+	public synchronized void replay(BookingEventListener listener){
+		for (Consumer<BookingEventListener> event : this._events) event.accept(listener);
+	}
+}//end BookingEventRecorder
@@ -0,0 +1,96 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * This class fans booking events out to every registered listener.  A
+ * listener that throws does not stop the others; the database write the
+ * event describes has already happened.
+ *
+ */
+
+public class BookingEvents implements BookingEventListener{
+	private final List<BookingEventListener> _listeners = new CopyOnWriteArrayList<BookingEventListener>();
+
+	public void add(BookingEventListener listener){
+		this._listeners.add(listener);
+	}
+
+	public void remove(BookingEventListener listener){
+		this._listeners.remove(listener);
+	}
+
+	public void bookingAdded(long bid, long sid, String status){
+		for (BookingEventListener listener : this._listeners){
+			try{
+				listener.bookingAdded(bid, sid, status);
+			}catch (RuntimeException e){
+				failed(listener, e);
+			}
+		}
+	}
+
+	public void seatClaimed(long bid, long ssid, long sid){
+		for (BookingEventListener listener : this._listeners){
+			try{
+				listener.seatClaimed(bid, ssid, sid);
+			}catch (RuntimeException e){
+				failed(listener, e);
+			}
+		}
+	}
+
+	public void seatReleased(long bid, long ssid, long sid){
+		for (BookingEventListener listener : this._listeners){
+			try{
+				listener.seatReleased(bid, ssid, sid);
+			}catch (RuntimeException e){
+				failed(listener, e);
+			}
+		}
+	}
+
+	public void paymentRemoved(long pid, long bid, double amount){
+		for (BookingEventListener listener : this._listeners){
+			try{
+				listener.paymentRemoved(pid, bid, amount);
+			}catch (RuntimeException e){
+				failed(listener, e);
+			}
+		}
+	}
+
+	public void bookingCanceled(long bid){
+		for (BookingEventListener listener : this._listeners){
+			try{
+				listener.bookingCanceled(bid);
+			}catch (RuntimeException e){
+				failed(listener, e);
+			}
+		}
+	}
+
+	public void bookingDeleted(long bid){
+		for (BookingEventListener listener : this._listeners){
+			try{
+				listener.bookingDeleted(bid);
+			}catch (RuntimeException e){
+				failed(listener, e);
+			}
+		}
+	}
+
+	private static void failed(BookingEventListener listener, RuntimeException e){
+		System.err.println("Booking listener " + listener.getClass().getName() + " failed: " + e.getMessage());
+	}
+}//end BookingEvents
@@ -0,0 +1,80 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+
+
+/**
+ * This class maintains the UserBookingHistory table, a per user copy of the
+ * Movies/Shows/Bookings/ShowSeats/Theaters/CinemaSeats join behind the
+ * "My tickets" listing.  Every operation that changes a booking, its seats
+ * or its status calls in here so the listing is a single read on the
+ * (email, bid, ssid) primary key.
+ *
+ */
+
+public class BookingHistory{
+	private static final String SELECT_ROWS =
+		"SELECT b.email, b.bid, ss.ssid, b.status, m.title, s.sdate, s.sttime, t.tname, cs.sno " +
+		"FROM Movies m, Shows s, Bookings b, ShowSeats ss, Theaters t, CinemaSeats cs " +
+		"WHERE s.sid = b.sid AND m.mvid = s.mvid AND b.bid = ss.bid AND cs.csid = ss.csid AND cs.tid = t.tid";
+
+	/**
+	 * Method to recompute the history rows of one booking after it was
+	 * created or its seats changed.
+	 *
+	 * @param esql the database to update
+	 * @param bid the booking id
+	 * @throws java.sql.SQLException when the update failed
+	 */
+	public static void refreshBooking(Ticketmaster esql, String bid) throws SQLException {
+		esql.executeUpdate("DELETE FROM UserBookingHistory WHERE bid = " + bid);
+		esql.executeUpdate("INSERT INTO UserBookingHistory " + SELECT_ROWS + " AND b.bid = " + bid);
+	}
+
+	/**
+	 * Method to copy a status change of one booking into the history.
+	 *
+	 * @param esql the database to update
+	 * @param bid the booking id
+	 * @param status the new status
+	 * @throws java.sql.SQLException when the update failed
+	 */
+	public static void setStatus(Ticketmaster esql, String bid, String status) throws SQLException {
+		esql.executeUpdate("UPDATE UserBookingHistory SET status = \'" + status + "\' WHERE bid = " + bid);
+	}
+
+	/**
+	 * Method to copy a bulk status change, such as cancelling every pending
+	 * booking, into the history.  Only the given bookings are changed, so
+	 * rows of bookings that took the old status meanwhile are left alone.
+	 *
+	 * @param esql the database to update
+	 * @param bids the changed bookings
+	 * @param status the new status
+	 * @throws java.sql.SQLException when the update failed
+	 */
+	public static void setStatus(Ticketmaster esql, long[] bids, String status) throws SQLException {
+		if (bids.length == 0) return;
+		esql.executeUpdate("UPDATE UserBookingHistory SET status = \'" + status + "\' WHERE bid IN (" + ShowGraph.toSqlList(bids) + ")");
+	}
+
+	/**
+	 * Method to drop the history of every booking with a given status, used
+	 * when those bookings are deleted.
+	 *
+	 * @param esql the database to update
+	 * @param status the status of the deleted bookings
+	 * @throws java.sql.SQLException when the update failed
+	 */
+	public static void removeWithStatus(Ticketmaster esql, String status) throws SQLException {
+		esql.executeUpdate("DELETE FROM UserBookingHistory WHERE status = \'" + status + "\'");
+	}
+}//end BookingHistory
@@ -0,0 +1,633 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+
+/**
+ * This class appends every booking event to a journal of memory-mapped
+ * segment files, so what happened can be replayed or audited later.
+ *
+ * Each record is [int length][int crc32 of body][body], the body being
+ * the event type, its sequence number, its time and its fields, numbers
+ * as unsigned varints.  A segment ends at a zero length or at the first
+ * record whose checksum fails (a write torn by a crash); a record that
+ * does not fit starts the next segment, named after its sequence number.
+ * Appends only copy into the mapped segment; a background task forces
+ * the dirty segments to disk every -Dticketmaster.journalsyncms (default
+ * 50), so one fsync covers every event of the interval.
+ *
+ * A new journal starts with the bookings and claimed seats found in the
+ * database, so replaying it from the start rebuilds the seat state
+ * (SeatState) without reading ShowSeats again.  Only one process may
+ * write a journal: open takes an exclusive lock on a file of the folder.
+ *
+ * Usage: java BookingJournal <journal folder> [--print]
+ *
+ */
+
+public class BookingJournal implements BookingEventListener{
+	public static final int SEGMENT_BYTES = Integer.getInteger("ticketmaster.journalsegmentmb", 64) << 20;
+	private static final long SYNC_MILLIS = Long.getLong("ticketmaster.journalsyncms", 50L);
+	private static final String SUFFIX = ".journal";
+
+	//event types
+	static final byte ADDED = 1, CLAIMED = 2, RELEASED = 3, PAYMENT_REMOVED = 4, CANCELED = 5, DELETED = 6;
+
+	private final File _dir;
+	//held while the journal is open, so no other process appends to it
+	private final FileLock _folderLock;
+	private MappedByteBuffer _segment = null;
+	//segments written to since the last sync, at most the current and the one before
+	private MappedByteBuffer _dirty = null, _dirtyPrevious = null;
+	private long _seq = 0;
+	private final ByteBuffer _body = ByteBuffer.allocate(1024);
+	private final CRC32 _crc = new CRC32();
+	private final ScheduledExecutorService _syncer;
+	//held from begin to append, events are written one at a time
+	private final ReentrantLock _lock = new ReentrantLock();
+
+	/**
+	 * Method to open the journal in a folder, continuing after its last
+	 * complete record.  An empty journal is started with the bookings and
+	 * claimed seats of the database.
+	 *
+	 * @param dir the journal folder, created when missing
+	 * @param esql the database, read only when the journal is new
+	 * @return the open journal
+	 * @throws java.io.IOException when failed to open a segment, or the
+	 *         journal is open in another process
+	 * @throws java.sql.SQLException when failed to read the initial state
+	 */
+	public static BookingJournal open(File dir, Ticketmaster esql) throws IOException, SQLException {
+		if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Unable to create " + dir);
+		BookingJournal journal = new BookingJournal(dir, lockFolder(dir));
+		try{
+			File[] segments = segments(dir);
+			if (segments.length == 0){
+				journal.roll(1);
+				load(esql, journal);
+				journal.sync();
+			}else{
+				File last = segments[segments.length - 1];
+				journal._segment = map(last, FileChannel.MapMode.READ_WRITE);
+				journal._seq = firstSeq(last) - 1;
+				Reader reader = new Reader(journal._segment);
+				while (reader.next()) journal._seq = reader.seq;
+				journal._segment.position(reader.end);
+			}
+		}catch (IOException | SQLException | RuntimeException e){
+			journal.close();
+			throw e;
+		}
+		return journal;
+	}
+
+	/**
+	 * Method to send a listener the bookings and claimed seats of the
+	 * database, as events.
+	 *
+	 * @param esql the database to read
+	 * @param listener receives the events
+	 * @throws java.sql.SQLException when failed to execute the queries
+	 */
+	public static void load(Ticketmaster esql, BookingEventListener listener) throws SQLException {
+		for (List<String> row : esql.executeQueryAndReturnResult("SELECT bid, sid, status FROM Bookings ORDER BY bid")){
+			listener.bookingAdded(Long.parseLong(row.get(0)), Long.parseLong(row.get(1)), row.get(2));
+		}
+		for (List<String> row : esql.executeQueryAndReturnResult("SELECT bid, ssid, sid FROM ShowSeats WHERE bid IS NOT NULL")){
+			listener.seatClaimed(Long.parseLong(row.get(0)), Long.parseLong(row.get(1)), Long.parseLong(row.get(2)));
+		}
+	}
+
+	/**
+	 * Method to take the lock file of a journal folder.
+	 */
+	private static FileLock lockFolder(File dir) throws IOException {
+		FileChannel channel = new RandomAccessFile(new File(dir, "journal.lock"), "rw").getChannel();
+		FileLock lock;
+		try{
+			lock = channel.tryLock();
+		}catch (OverlappingFileLockException e){
+			lock = null;
+		}
+		if (lock == null){
+			channel.close();
+			throw new IOException("The booking journal in " + dir + " is open in another process");
+		}
+		return lock;
+	}
+
+	private BookingJournal(File dir, FileLock folderLock){
+		this._dir = dir;
+		this._folderLock = folderLock;
+		this._syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "journal-sync");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this._syncer.scheduleWithFixedDelay(this::sync, SYNC_MILLIS, SYNC_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	public void bookingAdded(long bid, long sid, String status){
+		byte[] text = status == null ? new byte[0] : status.getBytes(StandardCharsets.UTF_8);
+		if (text.length > 255) text = Arrays.copyOf(text, 255);
+		ByteBuffer body = begin(ADDED);
+		putVarLong(body, bid);
+		putVarLong(body, sid);
+		putVarLong(body, text.length);
+		body.put(text);
+		append();
+	}
+
+	public void seatClaimed(long bid, long ssid, long sid){
+		seat(CLAIMED, bid, ssid, sid);
+	}
+
+	public void seatReleased(long bid, long ssid, long sid){
+		seat(RELEASED, bid, ssid, sid);
+	}
+
+	public void paymentRemoved(long pid, long bid, double amount){
+		ByteBuffer body = begin(PAYMENT_REMOVED);
+		putVarLong(body, pid);
+		putVarLong(body, bid);
+		body.putDouble(amount);
+		append();
+	}
+
+	public void bookingCanceled(long bid){
+		putVarLong(begin(CANCELED), bid);
+		append();
+	}
+
+	public void bookingDeleted(long bid){
+		putVarLong(begin(DELETED), bid);
+		append();
+	}
+
+	private void seat(byte type, long bid, long ssid, long sid){
+		ByteBuffer body = begin(type);
+		putVarLong(body, bid);
+		putVarLong(body, ssid);
+		putVarLong(body, sid);
+		append();
+	}
+
+	/**
+	 * Method to start the body of the next record; the lock is held until
+	 * append.
+	 */
+	private ByteBuffer begin(byte type){
+		this._lock.lock();
+		this._body.clear();
+		this._body.put(type);
+		putVarLong(this._body, this._seq + 1);
+		putVarLong(this._body, System.currentTimeMillis());
+		return this._body;
+	}
+
+	/**
+	 * Method to copy the body started by begin into the segment, rolling to
+	 * a new segment when it does not fit.
+	 */
+	private void append(){
+		try{
+			this._body.flip();
+			int length = this._body.remaining();
+			if (this._segment.remaining() < length + 8) roll(this._seq + 1);
+			this._crc.reset();
+			this._crc.update(this._body.array(), 0, length);
+			this._segment.putInt(length);
+			this._segment.putInt((int) this._crc.getValue());
+			this._segment.put(this._body);
+			++this._seq;
+			this._dirty = this._segment;
+		}catch (IOException e){
+			throw new RuntimeException("Unable to extend the booking journal: " + e.getMessage(), e);
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * Method to start a new segment whose first record has the given
+	 * sequence number.
+	 */
+	private void roll(long firstSeq) throws IOException {
+		File file = new File(this._dir, String.format("%020d%s", firstSeq, SUFFIX));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			raf.setLength(SEGMENT_BYTES);
+			MappedByteBuffer segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES);
+			// more than one roll between syncs only happens with tiny segments
+			if (this._dirtyPrevious != null) this._dirtyPrevious.force();
+			if (this._segment != null) this._dirtyPrevious = this._segment;
+			this._segment = segment;
+		}finally{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Method to force what was appended so far to disk.
+	 */
+	public void sync(){
+		MappedByteBuffer dirty, previous;
+		this._lock.lock();
+		try{
+			dirty = this._dirty;
+			previous = this._dirtyPrevious;
+			this._dirty = null;
+			this._dirtyPrevious = null;
+		}finally{
+			this._lock.unlock();
+		}
+		// outside the lock, appends go on while the pages are written
+		if (previous != null) previous.force();
+		if (dirty != null) dirty.force();
+	}
+
+	/**
+	 * Method to stop the background sync, force the last appends and let
+	 * other processes open the journal.
+	 */
+	public void close(){
+		this._syncer.shutdown();
+		sync();
+		try{
+			this._folderLock.channel().close();
+		}catch (IOException e){
+			// ignored, the lock goes with the process
+		}
+	}
+
+	/**
+	 * @return the sequence number of the last appended event
+	 */
+	public long lastSeq(){
+		this._lock.lock();
+		try{
+			return this._seq;
+		}finally{
+			this._lock.unlock();
+		}
+	}
+
+	/**
+	 * Method to replay every complete event of a journal, oldest first.
+	 *
+	 * @param dir the journal folder
+	 * @param listener receives the events
+	 * @return the number of events replayed
+	 * @throws java.io.IOException when failed to read a segment
+	 */
+	public static long replay(File dir, BookingEventListener listener) throws IOException {
+		long events = 0;
+		long expected = -1;
+		for (File file : segments(dir)){
+			Reader reader = new Reader(map(file, FileChannel.MapMode.READ_ONLY));
+			while (reader.next()){
+				if (expected >= 0 && reader.seq != expected){
+					System.err.println("Booking journal: events " + expected + " to " + (reader.seq - 1) + " are missing");
+				}
+				expected = reader.seq + 1;
+				reader.dispatch(listener);
+				++events;
+			}
+		}
+		return events;
+	}
+
+	/**
+	 * This class walks the records of one segment.
+	 */
+	static class Reader{
+		private final ByteBuffer _segment;
+		private final CRC32 _crc = new CRC32();
+		private ByteBuffer _body;
+		//position after the last complete record
+		int end = 0;
+		byte type;
+		long seq;
+		long time;
+
+		Reader(ByteBuffer segment){
+			this._segment = segment;
+		}
+
+		/**
+		 * Method to move to the next complete record.
+		 *
+		 * @return false at the end of the segment
+		 */
+		boolean next(){
+			if (this._segment.limit() - this.end < 8) return false;
+			int length = this._segment.getInt(this.end);
+			if (length <= 0 || length > this._segment.limit() - this.end - 8) return false;
+			ByteBuffer body = this._segment.duplicate();
+			body.position(this.end + 8);
+			body.limit(this.end + 8 + length);
+			body = body.slice();
+			this._crc.reset();
+			this._crc.update(body.duplicate());
+			if ((int) this._crc.getValue() != this._segment.getInt(this.end + 4)) return false;
+			this.end += 8 + length;
+			this._body = body;
+			this.type = body.get();
+			this.seq = getVarLong(body);
+			this.time = getVarLong(body);
+			return true;
+		}
+
+		/**
+		 * Method to hand the current record to a listener.
+		 */
+		void dispatch(BookingEventListener listener){
+			ByteBuffer body = this._body;
+			switch (this.type){
+				case ADDED:
+					long bid = getVarLong(body);
+					long sid = getVarLong(body);
+					byte[] text = new byte[(int) getVarLong(body)];
+					body.get(text);
+					listener.bookingAdded(bid, sid, new String(text, StandardCharsets.UTF_8));
+					break;
+				case CLAIMED:
+					listener.seatClaimed(getVarLong(body), getVarLong(body), getVarLong(body));
+					break;
+				case RELEASED:
+					listener.seatReleased(getVarLong(body), getVarLong(body), getVarLong(body));
+					break;
+				case PAYMENT_REMOVED:
+					listener.paymentRemoved(getVarLong(body), getVarLong(body), body.getDouble());
+					break;
+				case CANCELED:
+					listener.bookingCanceled(getVarLong(body));
+					break;
+				case DELETED:
+					listener.bookingDeleted(getVarLong(body));
+					break;
+			}
+		}
+	}
+
+	/**
+	 * This class is the seat state a journal replays into: who holds each
+	 * show seat, and the show and status of each booking.
+	 */
+	public static class SeatState implements BookingEventListener{
+		private static class Booking{
+			long sid;
+			String status;
+			int seats;
+		}
+		//ssid -> bid
+		private LongMap<Long> _holders = new LongMap<Long>();
+		private LongMap<Booking> _bookings = new LongMap<Booking>();
+		//the events that arrive while reloading, or null
+		private BookingEventRecorder _recording = null;
+
+		/**
+		 * Method to read the state from the database again, e.g. after
+		 * changes may have been missed.  Events arriving meanwhile are
+		 * replayed onto the new state before it replaces this one.
+		 *
+		 * @param esql the database to read
+		 * @throws java.sql.SQLException when failed to execute the queries
+		 */
+		public void reload(Ticketmaster esql) throws SQLException {
+			BookingEventRecorder recording = new BookingEventRecorder();
+			synchronized (this){
+				this._recording = recording;
+			}
+			SeatState fresh = new SeatState();
+			try{
+				load(esql, fresh);
+			}catch (SQLException | RuntimeException e){
+				synchronized (this){
+					this._recording = null;
+				}
+				throw e;
+			}
+			synchronized (this){
+				recording.replay(fresh);
+				this._holders = fresh._holders;
+				this._bookings = fresh._bookings;
+				this._recording = null;
+			}
+		}
+
+		public synchronized void bookingAdded(long bid, long sid, String status){
+			if (this._recording != null) this._recording.bookingAdded(bid, sid, status);
+			// kept when known, so replaying onto a reload keeps its seats
+			Booking booking = this._bookings.get(bid);
+			if (booking == null){
+				booking = new Booking();
+				this._bookings.put(bid, booking);
+			}
+			booking.sid = sid;
+			booking.status = status;
+		}
+
+		public synchronized void seatClaimed(long bid, long ssid, long sid){
+			if (this._recording != null) this._recording.seatClaimed(bid, ssid, sid);
+			Long before = this._holders.put(ssid, bid);
+			if (before != null) seats(before, -1);
+			seats(bid, 1);
+		}
+
+		public synchronized void seatReleased(long bid, long ssid, long sid){
+			if (this._recording != null) this._recording.seatReleased(bid, ssid, sid);
+			Long holder = this._holders.get(ssid);
+			if (holder == null || holder != bid) return;
+			this._holders.remove(ssid);
+			seats(bid, -1);
+		}
+
+		public synchronized void paymentRemoved(long pid, long bid, double amount){
+		}
+
+		public synchronized void bookingCanceled(long bid){
+			if (this._recording != null) this._recording.bookingCanceled(bid);
+			Booking booking = this._bookings.get(bid);
+			if (booking != null) booking.status = "Canceled";
+		}
+
+		public synchronized void bookingDeleted(long bid){
+			if (this._recording != null) this._recording.bookingDeleted(bid);
+			this._bookings.remove(bid);
+		}
+
+		private void seats(long bid, int change){
+			Booking booking = this._bookings.get(bid);
+			if (booking != null) booking.seats += change;
+		}
+
+		/**
+		 * @return the booking holding a show seat, or -1 when it is free
+		 */
+		public synchronized long holderOf(long ssid){
+			Long holder = this._holders.get(ssid);
+			return holder == null || !this._bookings.containsKey(holder) ? -1 : holder;
+		}
+
+		/**
+		 * @return the status of a booking, or null when it is unknown
+		 */
+		public synchronized String statusOf(long bid){
+			Booking booking = this._bookings.get(bid);
+			return booking == null ? null : booking.status;
+		}
+
+		/**
+		 * @return the number of show seats held by a booking
+		 */
+		public synchronized int seatsOf(long bid){
+			Booking booking = this._bookings.get(bid);
+			return booking == null ? 0 : booking.seats;
+		}
+
+		public synchronized int bookings(){
+			return this._bookings.size();
+		}
+
+		/**
+		 * @return the highest known booking id, or 0 without bookings
+		 */
+		public synchronized long maxBid(){
+			long max = 0;
+			for (long bid : this._bookings.keys()) max = Math.max(max, bid);
+			return max;
+		}
+
+		/**
+		 * Method to tell whether the state agrees with the database on the
+		 * number of bookings, the highest booking id and the number of held
+		 * seats; a journal missing events, e.g. of writes made while the
+		 * program was down, does not.
+		 *
+		 * @param esql the database to compare with
+		 * @return true when they agree
+		 * @throws java.sql.SQLException when failed to execute the query
+		 */
+		public boolean matches(Ticketmaster esql) throws SQLException {
+			List<String> row = esql.executeQueryAndReturnResult(
+				"SELECT (SELECT count(*) FROM Bookings), (SELECT coalesce(max(bid), 0) FROM Bookings), " +
+				"(SELECT count(*) FROM ShowSeats WHERE bid IS NOT NULL)").get(0);
+			return Long.parseLong(row.get(0)) == bookings() && Long.parseLong(row.get(1)) == maxBid()
+				&& Long.parseLong(row.get(2)) == heldSeats();
+		}
+
+		/**
+		 * @return the number of show seats held by known bookings; seats of a
+		 *         deleted booking were released with it
+		 */
+		public synchronized int heldSeats(){
+			int held = 0;
+			for (long ssid : this._holders.keys()) if (holderOf(ssid) >= 0) ++held;
+			return held;
+		}
+	}
+
+	private static File[] segments(File dir){
+		File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+		if (files == null) return new File[0];
+		// the names are zero padded, so they sort by sequence number
+		Arrays.sort(files);
+		return files;
+	}
+
+	private static long firstSeq(File segment){
+		String name = segment.getName();
+		return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+	}
+
+	private static MappedByteBuffer map(File file, FileChannel.MapMode mode) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+		try{
+			return raf.getChannel().map(mode, 0, raf.length());
+		}finally{
+			raf.close();
+		}
+	}
+
+	static void putVarLong(ByteBuffer buffer, long value){
+		while ((value & ~0x7FL) != 0){
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static long getVarLong(ByteBuffer buffer){
+		long value = 0;
+		for (int shift = 0; ; shift += 7){
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) return value;
+		}
+	}
+
+	/**
+	 * The main execution method: replays a journal into a seat state and
+	 * reports how long it took, or prints every event with --print.
+	 *
+	 * @param args the command line arguments: <journal folder> [--print]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2 || (args.length == 2 && !args[1].equals("--print"))){
+			System.err.println("Usage: java BookingJournal <journal folder> [--print]");
+			return;
+		}
+		File dir = new File(args[0]);
+		if (args.length == 2){
+			for (File file : segments(dir)){
+				Reader reader = new Reader(map(file, FileChannel.MapMode.READ_ONLY));
+				while (reader.next()){
+					final Reader record = reader;
+					reader.dispatch(new BookingEventListener(){
+						private void print(String event){
+							System.out.printf("%d %tF %<tT.%<tL %s%n", record.seq, record.time, event);
+						}
+						public void bookingAdded(long bid, long sid, String status){ print("added bid=" + bid + " sid=" + sid + " status=" + status); }
+						public void seatClaimed(long bid, long ssid, long sid){ print("claimed bid=" + bid + " ssid=" + ssid + " sid=" + sid); }
+						public void seatReleased(long bid, long ssid, long sid){ print("released bid=" + bid + " ssid=" + ssid + " sid=" + sid); }
+						public void paymentRemoved(long pid, long bid, double amount){ print("payment removed pid=" + pid + " bid=" + bid + " amount=" + amount); }
+						public void bookingCanceled(long bid){ print("canceled bid=" + bid); }
+						public void bookingDeleted(long bid){ print("deleted bid=" + bid); }
+					});
+				}
+			}
+			return;
+		}
+		SeatState state = new SeatState();
+		long start = System.nanoTime();
+		long events = replay(dir, state);
+		System.out.printf("Replayed %d events in %.1f ms: %d bookings, %d held seats%n",
+			events, (System.nanoTime() - start) / 1e6, state.bookings(), state.heldSeats());
+	}
+}//end BookingJournal
@@ -0,0 +1,128 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+
+/**
+ * This interface is the booking domain as the menu operations write it:
+ * users, shows, show seats, bookings and payments.  JdbcBookingStore keeps
+ * them in Postgres, MemoryBookingStore in hash maps, so the operations and
+ * StoreBenchmark can run on either.
+ *
+ * Both engines enforce the constraints of sql/create.sql and report a
+ * violation as an SQLException with the Postgres SQLState: UNIQUE_VIOLATION
+ * for a duplicate key, a second payment of a booking or a second booking
+ * of the same (sid, csid) seat, FOREIGN_KEY_VIOLATION for a missing user,
+ * show or booking.
+ *
+ */
+
+public interface BookingStore{
+	String UNIQUE_VIOLATION = "23505";
+	String FOREIGN_KEY_VIOLATION = "23503";
+
+	/**
+	 * What became of a booking to create.
+	 */
+	enum BookingOutcome{ CREATED, DUPLICATE, UNKNOWN_SHOW, UNKNOWN_USER }
+
+	/**
+	 * What a removed payment was for.
+	 */
+	class Payment{
+		public final long bid;
+		public final double amount;
+
+		public Payment(long bid, double amount){
+			this.bid = bid;
+			this.amount = amount;
+		}
+	}
+
+	void addUser(String email, String lname, String fname, String phone, String pwd) throws SQLException;
+
+	boolean userExists(String email) throws SQLException;
+
+	void addShow(long sid, long mvid, LocalDate sdate, LocalTime sttime, LocalTime edtime) throws SQLException;
+
+	boolean showExists(long sid) throws SQLException;
+
+	void addShowSeat(long ssid, long sid, long csid, double price) throws SQLException;
+
+	/**
+	 * Method to create a booking unless its id is taken or its show or user
+	 * is missing, checked and inserted atomically.
+	 *
+	 * @param bdatetime the booking time, as Postgres reads a TIMESTAMPTZ
+	 * @return what happened
+	 */
+	BookingOutcome createBooking(long bid, String status, String bdatetime, int seats, long sid, String email) throws SQLException;
+
+	/**
+	 * Method to create a booking, as createBooking, reporting anything but
+	 * CREATED as a constraint violation.
+	 */
+	default void addBooking(long bid, String status, String bdatetime, int seats, long sid, String email) throws SQLException {
+		BookingOutcome outcome = createBooking(bid, status, bdatetime, seats, sid, email);
+		switch (outcome){
+			case CREATED: return;
+			case DUPLICATE: throw new SQLException("Booking " + bid + " already exists", UNIQUE_VIOLATION);
+			default: throw new SQLException("Booking " + bid + ": " + outcome, FOREIGN_KEY_VIOLATION);
+		}
+	}
+
+	boolean bookingExists(long bid) throws SQLException;
+
+	void setStatus(long bid, String status) throws SQLException;
+
+	/**
+	 * Method to give a show seat to a booking.
+	 *
+	 * @return the show of the seat, or -1 when there is no such seat
+	 */
+	long claimSeat(long ssid, long bid) throws SQLException;
+
+	/**
+	 * Method to free a show seat.
+	 *
+	 * @return the show of the seat, or -1 when there is no such seat
+	 */
+	long releaseSeat(long ssid) throws SQLException;
+
+	/**
+	 * @return the show seats held by a booking, in ssid order
+	 */
+	long[] seatsOf(long bid) throws SQLException;
+
+	/**
+	 * Method to cancel every pending booking, releasing their seat counts.
+	 *
+	 * @return the cancelled bookings
+	 */
+	long[] cancelPending() throws SQLException;
+
+	void addPayment(long pid, long bid, String pmethod, double amount) throws SQLException;
+
+	/**
+	 * @return what the payment was for, or null when there is no such payment
+	 */
+	Payment removePayment(long pid) throws SQLException;
+
+	/**
+	 * Method to delete every cancelled booking with its payment; its seats
+	 * are freed.
+	 *
+	 * @return the deleted bookings
+	 */
+	long[] deleteCanceled() throws SQLException;
+}//end BookingStore
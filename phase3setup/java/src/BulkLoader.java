@@ -0,0 +1,396 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * This class rebuilds the database from sql/create.sql and the CSV files
+ * without server side file access.  The script is split into statements
+ * and run in phases:
+ *
+ *   1. DROP / CREATE TABLE statements, as written
+ *   2. primary key, unique and foreign key constraints are dropped
+ *   3. every COPY ... FROM 'file' is streamed from the client with
+ *      COPY ... FROM STDIN; tables of the same foreign key level load in
+ *      parallel, one connection each, parents before children
+ *   4. the constraints are added back: keys in parallel, one table per
+ *      connection, then foreign keys, then the CREATE INDEX statements of
+ *      the script in parallel
+ *   5. the remaining statements (e.g. filling materialized views)
+ *
+ * so the load writes heap pages only and each index is built once, sorted,
+ * instead of row by row.
+ *
+ */
+
+public class BulkLoader{
+	private static final Pattern COPY = Pattern.compile(
+		"(?is)COPY\\s+(\\w+)\\s*(\\([^)]*\\))?\\s*FROM\\s+'([^']*)'(.*)");
+	private static final Pattern CREATE_TABLE = Pattern.compile("(?is)CREATE\\s+TABLE\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\w+).*");
+
+	private final String _dbname;
+	private final String _dbport;
+	private final String _user;
+	private final int _threads;
+
+	/**
+	 * One COPY of the script.
+	 */
+	private static class Load{
+		final String table;
+		final String sql;
+		final File file;
+		long rows;
+		long nanos;
+
+		Load(String table, String sql, File file){
+			this.table = table;
+			this.sql = sql;
+			this.file = file;
+		}
+	}
+
+	/**
+	 * One constraint removed for the load, restored afterwards.
+	 */
+	private static class Constraint{
+		final String table;
+		final String name;
+		final String definition;
+		final boolean foreign;
+
+		Constraint(String table, String name, String definition, boolean foreign){
+			this.table = table;
+			this.name = name;
+			this.definition = definition;
+			this.foreign = foreign;
+		}
+	}
+
+	public BulkLoader(String dbname, String dbport, String user, int threads){
+		this._dbname = dbname;
+		this._dbport = dbport;
+		this._user = user;
+		this._threads = Math.max(1, threads);
+	}
+
+	public static void main(String[] args){
+		if (args.length < 3 || args.length > 5){
+			System.err.println(
+				"Usage: " + "java [-classpath <classpath>] " + BulkLoader.class.getName() +
+					" <dbname> <port> <user> [<create script>] [<data folder>]");
+			return;
+		}
+		String script = args.length > 3 ? args[3] : "../sql/create.sql";
+		String data = args.length > 4 ? args[4] : "../data";
+		try{
+			Class.forName("org.postgresql.Driver");
+			BulkLoader loader = new BulkLoader(args[0], args[1], args[2],
+				Integer.getInteger("ticketmaster.loadthreads", Runtime.getRuntime().availableProcessors()));
+			loader.load(readScript(script), new File(data));
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Method to run a create script, loading its COPY statements from the
+	 * data folder.
+	 *
+	 * @param statements the statements of the script, from splitStatements
+	 * @param data the folder holding the files named by the COPY statements
+	 * @throws Exception when a statement or a load fails
+	 */
+	public void load(List<String> statements, File data) throws Exception {
+		List<String> schema = new ArrayList<String>();
+		List<String> tables = new ArrayList<String>();
+		Map<String, Load> loads = new LinkedHashMap<String, Load>();
+		List<String> indexes = new ArrayList<String>();
+		List<String> after = new ArrayList<String>();
+		for (String sql : statements){
+			Matcher copy = COPY.matcher(sql);
+			Matcher create = CREATE_TABLE.matcher(sql);
+			String head = sql.trim().toUpperCase();
+			if (copy.matches()){
+				String table = copy.group(1).toLowerCase();
+				String columns = copy.group(2) == null ? "" : " " + copy.group(2);
+				loads.put(table, new Load(table,
+					"COPY " + copy.group(1) + columns + " FROM STDIN" + copy.group(4),
+					new File(data, copy.group(3))));
+			}else if (create.matches()){
+				tables.add(create.group(1).toLowerCase());
+				schema.add(sql);
+			}else if (head.startsWith("DROP") || head.startsWith("CREATE TYPE") || head.startsWith("CREATE EXTENSION")){
+				schema.add(sql);
+			}else if (head.startsWith("CREATE INDEX") || head.startsWith("CREATE UNIQUE INDEX")){
+				indexes.add(sql);
+			}else{
+				after.add(sql);
+			}
+		}
+
+		long started = System.nanoTime();
+		Ticketmaster esql = new Ticketmaster(this._dbname, this._dbport, this._user, "");
+		try{
+			System.out.println("Creating " + tables.size() + " tables");
+			for (String sql : schema) esql.executeUpdate(sql);
+
+			List<List<String>> levels = levels(esql, tables);
+			List<Constraint> constraints = dropConstraints(esql, tables);
+
+			for (List<String> level : levels){
+				List<Load> batch = new ArrayList<Load>();
+				for (String table : level){
+					if (loads.containsKey(table)) batch.add(loads.get(table));
+				}
+				parallel(batch.size(), i -> copy(batch.get(i)));
+			}
+
+			System.out.println("Building keys and indexes");
+			List<String> keys = new ArrayList<String>();
+			List<String> foreign = new ArrayList<String>();
+			for (String table : tables){
+				StringBuilder primary = new StringBuilder();
+				StringBuilder references = new StringBuilder();
+				for (Constraint c : constraints){
+					if (!c.table.equals(table)) continue;
+					StringBuilder into = c.foreign ? references : primary;
+					into.append(into.length() == 0 ? "ALTER TABLE " + table + " " : ", ");
+					into.append("ADD CONSTRAINT " + c.name + " " + c.definition);
+				}
+				if (primary.length() > 0) keys.add(primary.toString());
+				if (references.length() > 0) foreign.add(references.toString());
+			}
+			parallel(keys.size(), i -> run(keys.get(i)));
+			// adding a foreign key locks the referenced table too, so in
+			// parallel they would wait on (or deadlock with) each other
+			for (String sql : foreign) esql.executeUpdate(sql);
+			parallel(indexes.size(), i -> run(indexes.get(i)));
+
+			for (String sql : after) esql.executeUpdate(sql);
+			esql.executeUpdate("ANALYZE");
+		}finally{
+			esql.cleanup();
+		}
+		report(loads.values(), System.nanoTime() - started);
+	}
+
+	/**
+	 * Method to group tables by foreign key depth: level 0 references no
+	 * other table, level n only tables of lower levels.
+	 */
+	private static List<List<String>> levels(Ticketmaster esql, List<String> tables) throws Exception {
+		Map<String, List<String>> parents = new HashMap<String, List<String>>();
+		for (String table : tables) parents.put(table, new ArrayList<String>());
+		for (List<String> row : esql.executeQueryAndReturnResult(
+				"SELECT c.conrelid::regclass::text, c.confrelid::regclass::text FROM pg_constraint c " +
+				"WHERE c.contype = 'f' AND c.connamespace = 'public'::regnamespace")){
+			List<String> of = parents.get(row.get(0).toLowerCase());
+			String parent = row.get(1).toLowerCase();
+			if (of != null && !parent.equals(row.get(0).toLowerCase())) of.add(parent);
+		}
+		Map<String, Integer> depth = new HashMap<String, Integer>();
+		List<List<String>> levels = new ArrayList<List<String>>();
+		for (String table : tables){
+			int level = depth(table, parents, depth, 0);
+			while (levels.size() <= level) levels.add(new ArrayList<String>());
+			levels.get(level).add(table);
+		}
+		return levels;
+	}
+
+	private static int depth(String table, Map<String, List<String>> parents, Map<String, Integer> depth, int guard){
+		Integer known = depth.get(table);
+		if (known != null) return known;
+		if (guard > parents.size()) throw new IllegalStateException("Foreign key cycle through " + table);
+		int level = 0;
+		List<String> of = parents.get(table);
+		if (of != null){
+			for (String parent : of) level = Math.max(level, depth(parent, parents, depth, guard + 1) + 1);
+		}
+		depth.put(table, level);
+		return level;
+	}
+
+	/**
+	 * Method to drop the key and foreign key constraints of the tables,
+	 * foreign keys first.
+	 *
+	 * @return the dropped constraints
+	 */
+	private static List<Constraint> dropConstraints(Ticketmaster esql, List<String> tables) throws Exception {
+		List<Constraint> constraints = new ArrayList<Constraint>();
+		for (List<String> row : esql.executeQueryAndReturnResult(
+				"SELECT c.conrelid::regclass::text, c.conname, pg_get_constraintdef(c.oid), c.contype FROM pg_constraint c " +
+				"WHERE c.contype IN ('p', 'u', 'f') AND c.connamespace = 'public'::regnamespace " +
+				"ORDER BY c.contype = 'f' DESC")){
+			String table = row.get(0).toLowerCase();
+			if (!tables.contains(table)) continue;
+			constraints.add(new Constraint(table, row.get(1), row.get(2), row.get(3).equals("f")));
+			esql.executeUpdate("ALTER TABLE " + table + " DROP CONSTRAINT " + row.get(1));
+		}
+		return constraints;
+	}
+
+	private void copy(Load load) throws Exception {
+		Ticketmaster esql = new Ticketmaster(this._dbname, this._dbport, this._user, "");
+		Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(load.file), StandardCharsets.UTF_8), 1 << 16);
+		try{
+			long start = System.nanoTime();
+			load.rows = esql.copyIn(load.sql, reader);
+			load.nanos = System.nanoTime() - start;
+			System.out.printf("  %-12s %10d rows %8.2f s %12.0f rows/s%n",
+				load.table, load.rows, load.nanos / 1e9, load.rows / Math.max(load.nanos / 1e9, 1e-9));
+		}finally{
+			reader.close();
+			esql.cleanup();
+		}
+	}
+
+	private void run(String sql) throws Exception {
+		Ticketmaster esql = new Ticketmaster(this._dbname, this._dbport, this._user, "");
+		try{
+			esql.executeUpdate(sql);
+		}finally{
+			esql.cleanup();
+		}
+	}
+
+	private interface Task{
+		void run(int i) throws Exception;
+	}
+
+	/**
+	 * Method to run n tasks on at most _threads threads and wait for all of
+	 * them, rethrowing the first failure.
+	 */
+	private void parallel(int n, Task task) throws Exception {
+		if (n == 0) return;
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(n, this._threads));
+		try{
+			List<Future<Object>> done = new ArrayList<Future<Object>>();
+			for (int i = 0; i < n; ++i){
+				final int index = i;
+				done.add(pool.submit(() -> { task.run(index); return null; }));
+			}
+			for (Future<Object> future : done){
+				try{
+					future.get();
+				}catch (ExecutionException e){
+					throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				}
+			}
+		}finally{
+			pool.shutdownNow();
+		}
+	}
+
+	private static void report(Iterable<Load> loads, long nanos){
+		long rows = 0;
+		for (Load load : loads) rows += load.rows;
+		System.out.printf("Loaded %d rows in %.2f s (%.0f rows/s including keys and indexes)%n",
+			rows, nanos / 1e9, rows / Math.max(nanos / 1e9, 1e-9));
+	}
+
+	/**
+	 * Method to read a SQL script and split it into statements.
+	 */
+	public static List<String> readScript(String file) throws IOException {
+		StringBuilder text = new StringBuilder();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try{
+			char[] buffer = new char[8192];
+			int n;
+			while ((n = reader.read(buffer)) > 0) text.append(buffer, 0, n);
+		}finally{
+			reader.close();
+		}
+		return splitStatements(text.toString());
+	}
+
+	/**
+	 * Method to split a SQL script on the semicolons that end statements,
+	 * skipping those inside quotes, dollar quoted bodies and comments.
+	 * Comments are dropped.
+	 *
+	 * @return the statements without their semicolons
+	 */
+	public static List<String> splitStatements(String script){
+		List<String> statements = new ArrayList<String>();
+		StringBuilder current = new StringBuilder();
+		int i = 0;
+		int n = script.length();
+		while (i < n){
+			char c = script.charAt(i);
+			if (c == '-' && i + 1 < n && script.charAt(i + 1) == '-'){
+				while (i < n && script.charAt(i) != '\n') ++i;
+			}else if (c == '/' && i + 1 < n && script.charAt(i + 1) == '*'){
+				int end = script.indexOf("*/", i + 2);
+				i = end < 0 ? n : end + 2;
+			}else if (c == '\'' || c == '"'){
+				// a doubled quote is an escaped quote
+				int end = i + 1;
+				while (end < n){
+					if (script.charAt(end) == c && end + 1 < n && script.charAt(end + 1) == c) end += 2;
+					else if (script.charAt(end) == c) break;
+					else ++end;
+				}
+				current.append(script, i, Math.min(end + 1, n));
+				i = end + 1;
+			}else if (c == '$' && dollarTag(script, i) != null){
+				String tag = dollarTag(script, i);
+				int end = script.indexOf(tag, i + tag.length());
+				end = end < 0 ? n : end + tag.length();
+				current.append(script, i, end);
+				i = end;
+			}else if (c == ';'){
+				if (current.toString().trim().length() > 0) statements.add(current.toString().trim());
+				current.setLength(0);
+				++i;
+			}else{
+				current.append(c);
+				++i;
+			}
+		}
+		if (current.toString().trim().length() > 0) statements.add(current.toString().trim());
+		return statements;
+	}
+
+	/**
+	 * @return the dollar quote tag ($$ or $name$) starting at i, or null
+	 */
+	private static String dollarTag(String script, int i){
+		int end = i + 1;
+		while (end < script.length() && (Character.isLetterOrDigit(script.charAt(end)) || script.charAt(end) == '_')) ++end;
+		if (end >= script.length() || script.charAt(end) != '$') return null;
+		if (end > i + 1 && Character.isDigit(script.charAt(i + 1))) return null;
+		return script.substring(i, end + 1);
+	}
+}//end BulkLoader
@@ -0,0 +1,488 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class holds a read-only copy of the catalog (Movies, Shows, Plays,
+ * Theaters, Cinemas and CinemaSeats) in one binary, column oriented file,
+ * so kiosks can keep listing movies, shows and seat maps without the
+ * database.  The file is memory mapped: opening it only reads the table
+ * directory, and every lookup reads the mapped pages directly.
+ *
+ * Layout (big endian):
+ *   int magic 'TMCS', int version, long export time, int table count
+ *   per table: name, int rows, int columns,
+ *              per column: name, byte type, long offset of its data
+ *   column data, each starting on an 8 byte boundary:
+ *     LONG    rows x 8 bytes
+ *     INT     rows x 4 bytes (dates as epoch days, times as seconds of
+ *             the day, NULL as Integer.MIN_VALUE)
+ *     STRING  (rows + 1) x 4 byte offsets, then the UTF-8 bytes
+ * Names are a 2 byte length followed by UTF-8 bytes.  Rows are ordered by
+ * the key the lookups search on, see TABLES.
+ *
+ * Export: java CatalogSnapshot <dbname> <port> <user> <snapshot file>
+ *
+ */
+
+public class CatalogSnapshot{
+	private static final int MAGIC = 0x544D4353;
+	private static final int VERSION = 1;
+	private static final byte LONG = 0, INT = 1, STRING = 2, DATE = 3, TIME = 4;
+	public static final int NULL = Integer.MIN_VALUE;
+
+	//table, ORDER BY, then column name and type pairs
+	private static final Object[][] TABLES = {
+		{"Movies", "mvid", "mvid", LONG, "title", STRING, "rdate", DATE, "country", STRING,
+			"description", STRING, "duration", INT, "lang", STRING, "genre", STRING},
+		{"Shows", "sid", "sid", LONG, "mvid", LONG, "sdate", DATE, "sttime", TIME, "edtime", TIME},
+		{"Plays", "sid, tid", "sid", LONG, "tid", LONG},
+		{"Theaters", "tid", "tid", LONG, "cid", LONG, "tname", STRING, "tseats", LONG},
+		{"Cinemas", "cid", "cid", LONG, "city_id", LONG, "cname", STRING, "tnum", INT},
+		{"CinemaSeats", "tid, sno", "csid", LONG, "tid", LONG, "sno", INT, "stype", STRING}
+	};
+
+	private final MappedByteBuffer _buffer;
+	private final long _exportedAt;
+	private final Map<String, Table> _tables = new HashMap<String, Table>();
+
+	/**
+	 * One table of the snapshot: its row count and where each column is.
+	 */
+	public class Table{
+		private final int _rows;
+		private final Map<String, Integer> _index = new HashMap<String, Integer>();
+		private final byte[] _types;
+		private final int[] _offsets;
+
+		Table(int rows, String[] names, byte[] types, int[] offsets){
+			this._rows = rows;
+			this._types = types;
+			this._offsets = offsets;
+			for (int i = 0; i < names.length; ++i) this._index.put(names[i], i);
+		}
+
+		public int rows(){
+			return this._rows;
+		}
+
+		/**
+		 * @return the position of a column, for the get methods
+		 */
+		public int column(String name){
+			Integer column = this._index.get(name);
+			if (column == null) throw new IllegalArgumentException("No column " + name);
+			return column;
+		}
+
+		public long getLong(int column, int row){
+			return _buffer.getLong(this._offsets[column] + 8 * row);
+		}
+
+		public int getInt(int column, int row){
+			return _buffer.getInt(this._offsets[column] + 4 * row);
+		}
+
+		public String getString(int column, int row){
+			int base = this._offsets[column];
+			int from = _buffer.getInt(base + 4 * row);
+			int to = _buffer.getInt(base + 4 * (row + 1));
+			if (to - from == 0) return "";
+			byte[] bytes = new byte[to - from];
+			ByteBuffer view = _buffer.duplicate();
+			view.position(base + 4 * (this._rows + 1) + from);
+			view.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Method to render any column as the text the database would print.
+		 */
+		public String getText(int column, int row){
+			switch (this._types[column]){
+				case LONG: return Long.toString(getLong(column, row));
+				case STRING: return getString(column, row);
+				default:
+					int value = getInt(column, row);
+					if (value == NULL) return "";
+					if (this._types[column] == DATE) return LocalDate.ofEpochDay(value).toString();
+					if (this._types[column] == TIME) return String.format("%tT", LocalTime.ofSecondOfDay(value));
+					return Integer.toString(value);
+			}
+		}
+
+		/**
+		 * Method to find the first row whose LONG column is at least key.
+		 * The table must be ordered by that column.
+		 */
+		public int lowerBound(int column, long key){
+			int lo = 0;
+			int hi = this._rows;
+			while (lo < hi){
+				int mid = (lo + hi) >>> 1;
+				if (getLong(column, mid) < key) lo = mid + 1;
+				else hi = mid;
+			}
+			return lo;
+		}
+
+		/**
+		 * @return the row holding key in a unique ordered LONG column, or -1
+		 */
+		public int find(int column, long key){
+			int row = lowerBound(column, key);
+			return row < this._rows && getLong(column, row) == key ? row : -1;
+		}
+	}
+
+	private CatalogSnapshot(MappedByteBuffer buffer){
+		this._buffer = buffer;
+		if (buffer.getInt(0) != MAGIC) throw new IllegalArgumentException("Not a catalog snapshot");
+		if (buffer.getInt(4) != VERSION) throw new IllegalArgumentException("Unsupported snapshot version " + buffer.getInt(4));
+		this._exportedAt = buffer.getLong(8);
+		ByteBuffer directory = buffer.duplicate();
+		directory.position(16);
+		int tables = directory.getInt();
+		for (int t = 0; t < tables; ++t){
+			String name = readName(directory);
+			int rows = directory.getInt();
+			int columns = directory.getInt();
+			String[] names = new String[columns];
+			byte[] types = new byte[columns];
+			int[] offsets = new int[columns];
+			for (int c = 0; c < columns; ++c){
+				names[c] = readName(directory);
+				types[c] = directory.get();
+				offsets[c] = (int) directory.getLong();
+			}
+			this._tables.put(name.toLowerCase(), new Table(rows, names, types, offsets));
+		}
+	}
+
+	/**
+	 * Method to map a snapshot file.  Nothing but the directory is read.
+	 *
+	 * @param file the snapshot
+	 * @return the snapshot
+	 * @throws java.io.IOException when the file can not be mapped
+	 */
+	public static CatalogSnapshot open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try{
+			// the mapping stays valid after the channel is closed
+			return new CatalogSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}finally{
+			channel.close();
+		}
+	}
+
+	public Table table(String name){
+		Table table = this._tables.get(name.toLowerCase());
+		if (table == null) throw new IllegalArgumentException("No table " + name + " in snapshot");
+		return table;
+	}
+
+	public long exportedAt(){
+		return this._exportedAt;
+	}
+
+	public static void main(String[] args){
+		if (args.length != 4){
+			System.err.println(
+				"Usage: " + "java [-classpath <classpath>] " + CatalogSnapshot.class.getName() +
+					" <dbname> <port> <user> <snapshot file>");
+			return;
+		}
+		Ticketmaster esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new Ticketmaster(args[0], args[1], args[2], "");
+			export(esql, new File(args[3]));
+			System.out.println("Snapshot written to " + args[3]);
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+	}
+
+	/**
+	 * Method to write a snapshot of the catalog.  It is written next to the
+	 * target and renamed over it, so kiosks that still map the old file
+	 * keep reading a complete snapshot.  The tables are read in one
+	 * repeatable read transaction, so they agree with each other.
+	 *
+	 * @param esql the database to read from, not in a transaction
+	 * @param file the snapshot to write
+	 * @throws java.sql.SQLException when failed to read a table
+	 * @throws java.io.IOException when failed to write the file
+	 */
+	public static void export(Ticketmaster esql, File file) throws SQLException, IOException {
+		List<byte[]> columns = new ArrayList<byte[]>();
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream directory = new DataOutputStream(header);
+		directory.writeInt(MAGIC);
+		directory.writeInt(VERSION);
+		directory.writeLong(System.currentTimeMillis());
+		directory.writeInt(TABLES.length);
+		// offsets are only known once the directory size is, so write
+		// placeholders and patch them below
+		List<Integer> patches = new ArrayList<Integer>();
+		esql.beginTransaction();
+		try{
+			esql.executeUpdate("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+			for (Object[] table : TABLES){
+				StringBuilder select = new StringBuilder();
+				for (int c = 2; c < table.length; c += 2) select.append(c == 2 ? "" : ", ").append(table[c]);
+				List<List<String>> rows = esql.executeQueryAndReturnResult(
+					"SELECT " + select + " FROM " + table[0] + " ORDER BY " + table[1]);
+				writeName(directory, (String) table[0]);
+				directory.writeInt(rows.size());
+				directory.writeInt((table.length - 2) / 2);
+				for (int c = 2; c < table.length; c += 2){
+					writeName(directory, (String) table[c]);
+					directory.writeByte((Byte) table[c + 1]);
+					patches.add(directory.size());
+					directory.writeLong(0);
+					columns.add(encode((Byte) table[c + 1], rows, c / 2 - 1));
+				}
+			}
+			esql.commit();
+		}catch (SQLException | IOException | RuntimeException e){
+			esql.rollback();
+			throw e;
+		}
+		directory.flush();
+		byte[] head = header.toByteArray();
+		ByteBuffer patched = ByteBuffer.wrap(head);
+		long offset = align(head.length);
+		for (int i = 0; i < columns.size(); ++i){
+			patched.putLong(patches.get(i), offset);
+			offset = align(offset + columns.get(i).length);
+		}
+		if (offset > Integer.MAX_VALUE) throw new IOException("Catalog snapshot larger than 2GB");
+
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temporary);
+		try{
+			long written = head.length;
+			out.write(head);
+			for (byte[] column : columns){
+				out.write(new byte[(int) (align(written) - written)]);
+				written = align(written);
+				out.write(column);
+				written += column.length;
+			}
+			out.getFD().sync();
+		}finally{
+			out.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static byte[] encode(byte type, List<List<String>> rows, int column) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		if (type == STRING){
+			ByteArrayOutputStream text = new ByteArrayOutputStream();
+			out.writeInt(0);
+			for (List<String> row : rows){
+				String value = row.get(column);
+				if (value != null) text.write(value.getBytes(StandardCharsets.UTF_8));
+				out.writeInt(text.size());
+			}
+			text.writeTo(out);
+		}else{
+			for (List<String> row : rows){
+				String value = row.get(column);
+				if (type == LONG) out.writeLong(Long.parseLong(value));
+				else if (value == null) out.writeInt(NULL);
+				else if (type == DATE) out.writeInt((int) LocalDate.parse(value).toEpochDay());
+				else if (type == TIME) out.writeInt(LocalTime.parse(value).toSecondOfDay());
+				else out.writeInt(Integer.parseInt(value));
+			}
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Method to list the theaters of a cinema playing a show, like
+	 * ListTheatersPlayingShow.
+	 *
+	 * @return tid, cid, tname, tseats rows
+	 */
+	public List<List<String>> theatersPlaying(long cid, long sid){
+		Table plays = table("Plays");
+		Table theaters = table("Theaters");
+		int playSid = plays.column("sid");
+		int playTid = plays.column("tid");
+		int tid = theaters.column("tid");
+		int theaterCid = theaters.column("cid");
+		List<List<String>> result = new ArrayList<List<String>>();
+		for (int row = plays.lowerBound(playSid, sid); row < plays.rows() && plays.getLong(playSid, row) == sid; ++row){
+			int theater = theaters.find(tid, plays.getLong(playTid, row));
+			if (theater >= 0 && theaters.getLong(theaterCid, theater) == cid) result.add(row(theaters, theater));
+		}
+		return result;
+	}
+
+	/**
+	 * Method to list the shows starting at a date and time, like
+	 * ListShowsStartingOnTimeAndDate.  Only the date and time columns are
+	 * scanned.
+	 *
+	 * @return sid, mvid, sdate, sttime, edtime rows
+	 */
+	public List<List<String>> showsStartingAt(LocalDate date, LocalTime time){
+		Table shows = table("Shows");
+		int sdate = shows.column("sdate");
+		int sttime = shows.column("sttime");
+		int day = (int) date.toEpochDay();
+		int second = time.toSecondOfDay();
+		List<List<String>> result = new ArrayList<List<String>>();
+		for (int row = 0; row < shows.rows(); ++row){
+			if (shows.getInt(sdate, row) == day && shows.getInt(sttime, row) == second) result.add(row(shows, row));
+		}
+		return result;
+	}
+
+	/**
+	 * Method to list the titles containing a word released on or after a
+	 * date, like ListMovieTitlesContainingLoveReleasedAfter2010.  The rule
+	 * is that of love-titles (Operations): the word as given or with a
+	 * capital first letter, with a space before or after it, so a title
+	 * that is only the word does not count.
+	 *
+	 * @return the titles in order
+	 */
+	public List<String> titlesWithWord(String word, LocalDate from){
+		Table movies = table("Movies");
+		int rdate = movies.column("rdate");
+		int title = movies.column("title");
+		int day = (int) from.toEpochDay();
+		String capital = word.isEmpty() ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1);
+		List<String> result = new ArrayList<String>();
+		for (int row = 0; row < movies.rows(); ++row){
+			if (movies.getInt(rdate, row) < day) continue;
+			String text = movies.getString(title, row);
+			if (text.equals(word) || text.equals(capital)) continue;
+			String spaced = " " + text + " ";
+			if (spaced.contains(" " + word + " ") || spaced.contains(" " + capital + " ")) result.add(text);
+		}
+		result.sort(null);
+		return result;
+	}
+
+	/**
+	 * Method to list the shows of a movie at a cinema strictly between two
+	 * dates, like ListMovieAndShowInfoAtCinemaInDateRange.
+	 *
+	 * @return title, duration, sdate, sttime rows ordered by date and time
+	 */
+	public List<List<String>> showsOfMovieAtCinema(long cid, long mvid, LocalDate after, LocalDate before){
+		Table movies = table("Movies");
+		Table shows = table("Shows");
+		Table plays = table("Plays");
+		Table theaters = table("Theaters");
+		int movie = movies.find(movies.column("mvid"), mvid);
+		if (movie < 0) return new ArrayList<List<String>>();
+		int showSid = shows.column("sid");
+		int showMvid = shows.column("mvid");
+		int sdate = shows.column("sdate");
+		int sttime = shows.column("sttime");
+		int playSid = plays.column("sid");
+		int playTid = plays.column("tid");
+		int tid = theaters.column("tid");
+		int theaterCid = theaters.column("cid");
+		List<long[]> found = new ArrayList<long[]>();
+		for (int row = 0; row < shows.rows(); ++row){
+			if (shows.getLong(showMvid, row) != mvid) continue;
+			int day = shows.getInt(sdate, row);
+			if (day <= after.toEpochDay() || day >= before.toEpochDay()) continue;
+			long sid = shows.getLong(showSid, row);
+			for (int play = plays.lowerBound(playSid, sid); play < plays.rows() && plays.getLong(playSid, play) == sid; ++play){
+				int theater = theaters.find(tid, plays.getLong(playTid, play));
+				if (theater >= 0 && theaters.getLong(theaterCid, theater) == cid){
+					found.add(new long[]{ day, shows.getInt(sttime, row) });
+					break;
+				}
+			}
+		}
+		found.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+		List<List<String>> result = new ArrayList<List<String>>();
+		for (long[] show : found){
+			result.add(Arrays.asList(
+				movies.getString(movies.column("title"), movie),
+				movies.getText(movies.column("duration"), movie),
+				LocalDate.ofEpochDay(show[0]).toString(),
+				String.format("%tT", LocalTime.ofSecondOfDay(show[1]))));
+		}
+		return result;
+	}
+
+	/**
+	 * Method to list the seats of a theater.
+	 *
+	 * @return csid, tid, sno, stype rows ordered by seat number
+	 */
+	public List<List<String>> seatMap(long tid){
+		Table seats = table("CinemaSeats");
+		int seatTid = seats.column("tid");
+		List<List<String>> result = new ArrayList<List<String>>();
+		for (int row = seats.lowerBound(seatTid, tid); row < seats.rows() && seats.getLong(seatTid, row) == tid; ++row){
+			result.add(row(seats, row));
+		}
+		return result;
+	}
+
+	private static List<String> row(Table table, int row){
+		List<String> values = new ArrayList<String>();
+		for (int c = 0; c < table._types.length; ++c) values.add(table.getText(c, row));
+		return values;
+	}
+
+	private static long align(long offset){
+		return (offset + 7) & ~7L;
+	}
+
+	private static void writeName(DataOutputStream out, String name) throws IOException {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readName(ByteBuffer in){
+		byte[] bytes = new byte[in.getShort()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}//end CatalogSnapshot
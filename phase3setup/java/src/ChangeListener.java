@@ -0,0 +1,286 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.postgresql.PGNotification;
+
+
+/**
+ * This class keeps the in-process caches of a Ticketmaster coherent with
+ * the writes of other processes.  It listens on its own connection to
+ * the notifications sent by the triggers of sql/notify.sql, and patches
+ * the show graph, the show index, the existence filters and the booking
+ * rollups (through the booking events) as rows change.  Notifications from the connections of
+ * this process are skipped, the operations patch the caches themselves.
+ *
+ * Each backend numbers its notifications without holes.  When a number
+ * is missing, or the connection had to be opened again, the caches are
+ * reloaded.  Every -Dticketmaster.notifycheckms (default 60000) the
+ * listener also checks the notification queue of the server: once it is
+ * half full, listeners are falling behind and writers are about to fail,
+ * so the caches are reloaded too.
+ * The existence filters are only trusted to tell a key is absent while
+ * notifications arrive with no gap (see FilteredBookingStore.setFollowing).
+ *
+ * The driver only reads notifications while running a statement, so the
+ * listener polls every -Dticketmaster.notifypollms (default 200).
+ *
+ */
+
+public class ChangeListener{
+	public static final String CHANNEL = "ticketmaster_changes";
+	private static final long POLL_MILLIS = Long.getLong("ticketmaster.notifypollms", 200L);
+	private static final long CHECK_MILLIS = Long.getLong("ticketmaster.notifycheckms", 60000L);
+
+	private final Ticketmaster _owner;
+	//backend process ids of this process' connections
+	private final Set<Integer> _ownPids = ConcurrentHashMap.newKeySet();
+	private Ticketmaster _db = null;
+	//backend process id -> the number of its last notification
+	private final Map<Integer, Long> _last = new HashMap<Integer, Long>();
+	private long _checked = System.nanoTime();
+	private volatile long _applied = 0;
+	private volatile long _resyncs = 0;
+
+	private ChangeListener(Ticketmaster owner){
+		this._owner = owner;
+	}
+
+	/**
+	 * Method to tell whether sql/notify.sql has been applied.
+	 *
+	 * @param esql the database to check
+	 * @return true when the tables announce their changes
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static boolean isInstalled(Ticketmaster esql) throws SQLException {
+		return esql.executeQueryAndReturnResult("SELECT to_regproc('notify_change') IS NOT NULL").get(0).get(0).equals("t");
+	}
+
+	/**
+	 * Method to start listening for the changes of other processes.
+	 *
+	 * @param owner the connection whose caches are kept coherent
+	 * @return the listener
+	 * @throws java.sql.SQLException when failed to connect or listen
+	 */
+	public static ChangeListener start(Ticketmaster owner) throws SQLException {
+		ChangeListener listener = new ChangeListener(owner);
+		listener.ignore(owner.backendPid());
+		listener.connect(false);
+		Thread thread = new Thread(listener::run, "change-listener");
+		thread.setDaemon(true);
+		thread.start();
+		return listener;
+	}
+
+	/**
+	 * Method to skip the notifications of a connection of this process.
+	 *
+	 * @param pid its backend process id
+	 */
+	public void ignore(int pid){
+		this._ownPids.add(pid);
+	}
+
+	/**
+	 * @return the number of notifications applied, and of reloads
+	 */
+	public String status(){
+		return this._applied + " changes applied, " + this._resyncs + " reloads";
+	}
+
+	/**
+	 * Method to open the listening connection.  Changes made while no
+	 * connection was listening are unknown, so the caches are reloaded.
+	 *
+	 * @param again true when a listening connection was lost
+	 */
+	private void connect(boolean again) throws SQLException {
+		Ticketmaster db = this._owner.newConnection();
+		try{
+			db.executeUpdate("LISTEN " + CHANNEL);
+		}catch (SQLException e){
+			db.cleanup();
+			throw e;
+		}
+		this._db = db;
+		this._last.clear();
+		resync(again);
+		follow(true);
+	}
+
+	private void run(){
+		while (true){
+			try{
+				if (this._db == null) connect(true);
+				for (PGNotification notification : this._db.pollNotifications()){
+					if (notification.getName().equals(CHANNEL)) handle(notification.getParameter());
+				}
+				if (System.nanoTime() - this._checked > CHECK_MILLIS * 1000000L) check();
+				Thread.sleep(POLL_MILLIS);
+			}catch (InterruptedException e){
+				break;
+			}catch (Exception e){
+				System.err.println("Change listener: " + e.getMessage());
+				follow(false);
+				if (this._db != null) this._db.cleanup();
+				this._db = null;
+				try{
+					Thread.sleep(5000);
+				}catch (InterruptedException stop){
+					break;
+				}
+			}
+		}
+		if (this._db != null) this._db.cleanup();
+	}
+
+	/**
+	 * Method to apply one notification, or reload when one was missed.
+	 */
+	private void handle(String payload) throws SQLException {
+		String[] f = payload.split(",", -1);
+		long seq = Long.parseLong(f[1]);
+		int pid = Integer.parseInt(f[2]);
+		Long last = this._last.put(pid, seq);
+		// the first number seen of a backend is taken as it is, and a new
+		// backend reusing a pid starts again at 1
+		if (last != null && seq != last + 1 && seq != 1){
+			reload();
+			return;
+		}
+		if (this._ownPids.contains(pid)) return;
+		apply(f[3], f[4], f);
+		++this._applied;
+	}
+
+	/**
+	 * Method to check the notification queue, and forget the numbers of
+	 * backends that are gone.
+	 */
+	private void check() throws SQLException {
+		this._checked = System.nanoTime();
+		double usage = Double.parseDouble(this._db.executeQueryAndReturnResult("SELECT pg_notification_queue_usage()").get(0).get(0));
+		Set<Integer> live = new HashSet<Integer>();
+		for (List<String> row : this._db.executeQueryAndReturnResult("SELECT pid FROM pg_stat_activity")) live.add(Integer.parseInt(row.get(0)));
+		this._last.keySet().retainAll(live);
+		if (usage >= 0.5){
+			System.err.printf("Change listener: the notification queue is %.0f%% full, reloading%n", usage * 100);
+			reload();
+		}
+	}
+
+	/**
+	 * Method to reload the caches after changes were missed; the existence
+	 * filters are not trusted meanwhile.
+	 */
+	private void reload() throws SQLException {
+		follow(false);
+		resync(true);
+		follow(true);
+	}
+
+	private void apply(String table, String op, String[] f) throws SQLException {
+		BookingEvents events = this._owner.getBookingEvents();
+		switch (table){
+			case "Users":
+				// emails may hold commas, the rest of the payload is the email
+				String email = String.join(",", Arrays.copyOfRange(f, 5, f.length));
+				if (this._owner.getStore() instanceof FilteredBookingStore){
+					FilteredBookingStore filtered = (FilteredBookingStore) this._owner.getStore();
+					if (op.equals("DELETE")) filtered.userDeleted(email);
+					else filtered.userAdded(email);
+				}
+				break;
+			case "Shows":
+				long sid = Long.parseLong(f[5]);
+				if (op.equals("DELETE")) this._owner.showRemoved(sid);
+				else if (op.equals("UPDATE")) {
+					List<String> row = Arrays.asList(f[5], f[6], f[7], f[8], f[9]);
+					this._owner.changeShowCaches((graph, index) -> {
+						if (graph != null && index != null) index.addShow(graph, row);
+					});
+				}
+				break;
+			case "Plays":
+				if (op.equals("INSERT")){
+					long playSid = Long.parseLong(f[5]);
+					long tid = Long.parseLong(f[6]);
+					// read outside the cache lock; a cache loading meanwhile gets the change again
+					List<List<String>> show = this._db.executeQueryAndReturnResult("SELECT sid, mvid, sdate, sttime, edtime FROM Shows WHERE sid = " + playSid);
+					this._owner.changeShowCaches((graph, index) -> {
+						if (graph == null) return;
+						graph.addPlay(playSid, tid);
+						if (index != null && !show.isEmpty()) index.addShow(graph, show.get(0));
+					});
+				}else{
+					// the graph can not drop a single play, rare enough to reload
+					this._owner.invalidateShowCaches();
+				}
+				break;
+			case "ShowSeats":
+				long ssid = Long.parseLong(f[5]);
+				long seatShow = Long.parseLong(f[6]);
+				if (!f[7].isEmpty()) events.seatReleased(Long.parseLong(f[7]), ssid, seatShow);
+				if (!f[8].isEmpty()) events.seatClaimed(Long.parseLong(f[8]), ssid, seatShow);
+				break;
+			case "Bookings":
+				long bid = Long.parseLong(f[5]);
+				if (op.equals("INSERT")) events.bookingAdded(bid, Long.parseLong(f[6]), f[7]);
+				else if (op.equals("DELETE")) events.bookingDeleted(bid);
+				else if (f[7].startsWith("Cancel")) events.bookingCanceled(bid);
+				break;
+			case "Payments":
+				if (op.equals("DELETE") && !f[7].isEmpty()) events.paymentRemoved(Long.parseLong(f[5]), Long.parseLong(f[6]), Double.parseDouble(f[7]));
+				break;
+			default:
+				// Movies: no cache holds movie rows
+		}
+	}
+
+	/**
+	 * Method to tell the existence filters whether they hold every key.
+	 */
+	private void follow(boolean following){
+		if (this._owner.getStore() instanceof FilteredBookingStore){
+			((FilteredBookingStore) this._owner.getStore()).setFollowing(following);
+		}
+	}
+
+	/**
+	 * Method to reload what may have missed changes: the show caches are
+	 * dropped, to be loaded again on use, and the rollups and existence
+	 * filters are reloaded.  The seat state of the journal is read again
+	 * after a missed notification, else only when it does not match the
+	 * database, so a start still spares reading ShowSeats.
+	 *
+	 * @param missed true when notifications were missed
+	 */
+	private void resync(boolean missed) throws SQLException {
+		++this._resyncs;
+		this._owner.invalidateShowCaches();
+		if (this._owner.getStore() instanceof FilteredBookingStore){
+			((FilteredBookingStore) this._owner.getStore()).warm(this._db);
+		}
+		BookingAggregates aggregates = this._owner.loadedAggregates();
+		if (aggregates != null) aggregates.reconcile(this._db);
+		BookingJournal.SeatState seats = this._owner.getSeatState();
+		if (seats != null && (missed || !seats.matches(this._db))) seats.reload(this._db);
+	}
+}//end ChangeListener
@@ -0,0 +1,239 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+
+/**
+ * This class answers "which cinemas are near me".  Cinemas are placed at
+ * the centroid of their city's zip code, read from the bundled
+ * data/ZipCentroids.csv (zip_code,city_state,lat,lon), and kept in a k-d
+ * tree over points on the unit sphere, where straight line distance grows
+ * with great circle distance.  Lookups never touch the database.
+ *
+ */
+
+public class CinemaLocator{
+	public static final double EARTH_RADIUS_KM = 6371.0;
+
+	//cinema attributes, indexed by cinema number
+	private final long[] _cid;
+	private final String[] _cname;
+	private final int[] _tnum;
+	private final String[] _city;
+	//the k-d tree: node i holds cinema _node[i] split on axis depth % 3,
+	//children of the range [lo, hi) sit at the middles of the two halves
+	private final int[] _node;
+	private final double[][] _point;
+	//"zip_code,state" -> {x, y, z}
+	private final Map<String, double[]> _centroids;
+
+	/**
+	 * One cinema found by a lookup.
+	 */
+	public static class Match{
+		public final long cid;
+		public final String cname;
+		public final int tnum;
+		public final String city;
+		public final double km;
+
+		Match(long cid, String cname, int tnum, String city, double km){
+			this.cid = cid;
+			this.cname = cname;
+			this.tnum = tnum;
+			this.city = city;
+			this.km = km;
+		}
+	}
+
+	private CinemaLocator(List<List<String>> cinemas, Map<String, double[]> centroids){
+		this._centroids = centroids;
+		List<Integer> placed = new ArrayList<Integer>();
+		for (int i = 0; i < cinemas.size(); ++i){
+			if (centroids.containsKey(key(cinemas.get(i).get(5), cinemas.get(i).get(4)))) placed.add(i);
+		}
+		int n = placed.size();
+		this._cid = new long[n];
+		this._cname = new String[n];
+		this._tnum = new int[n];
+		this._city = new String[n];
+		this._point = new double[n][];
+		this._node = new int[n];
+		for (int i = 0; i < n; ++i){
+			List<String> row = cinemas.get(placed.get(i));
+			this._cid[i] = Long.parseLong(row.get(0));
+			this._cname[i] = row.get(1);
+			this._tnum[i] = Integer.parseInt(row.get(2));
+			this._city[i] = row.get(3) + ", " + row.get(4);
+			this._point[i] = centroids.get(key(row.get(5), row.get(4)));
+			this._node[i] = i;
+		}
+		build(0, n, 0);
+	}
+
+	/**
+	 * Method to load every cinema with its city and place it on the map.
+	 * Cinemas whose zip code is missing from the centroid table are left
+	 * out.
+	 *
+	 * @param esql the database to read from
+	 * @param centroidsFile the zip code centroid table
+	 * @return the locator
+	 * @throws java.sql.SQLException when failed to execute the query
+	 * @throws java.io.IOException when the centroid table can not be read
+	 */
+	public static CinemaLocator load(Ticketmaster esql, String centroidsFile) throws SQLException, IOException {
+		Map<String, double[]> centroids = new HashMap<String, double[]>();
+		BufferedReader reader = new BufferedReader(new FileReader(centroidsFile));
+		try{
+			String line;
+			while ((line = reader.readLine()) != null){
+				String[] fields = line.split(",");
+				if (fields.length != 4) continue;
+				centroids.put(key(fields[0], fields[1]), toPoint(Double.parseDouble(fields[2]), Double.parseDouble(fields[3])));
+			}
+		}finally{
+			reader.close();
+		}
+		List<List<String>> cinemas = esql.executeQueryAndReturnResult(
+			"SELECT c.cid, c.cname, c.tnum, ci.city_name, ci.city_state, ci.zip_code FROM Cinemas c, Cities ci WHERE c.city_id = ci.city_id");
+		return new CinemaLocator(cinemas, centroids);
+	}
+
+	public int size(){
+		return this._cid.length;
+	}
+
+	/**
+	 * Method to find the point of a zip code.
+	 *
+	 * @return {x, y, z} on the unit sphere or null when the zip code is unknown
+	 */
+	public double[] pointOf(String zipCode, String state){
+		return this._centroids.get(key(zipCode, state));
+	}
+
+	/**
+	 * Method to convert a latitude and longitude to a point on the unit sphere.
+	 */
+	public static double[] toPoint(double lat, double lon){
+		double phi = Math.toRadians(lat);
+		double lambda = Math.toRadians(lon);
+		return new double[]{ Math.cos(phi) * Math.cos(lambda), Math.cos(phi) * Math.sin(lambda), Math.sin(phi) };
+	}
+
+	/**
+	 * Method to find the k cinemas closest to a point.
+	 *
+	 * @param origin the point, from pointOf or toPoint
+	 * @param k the number of cinemas to return
+	 * @return the cinemas, closest first
+	 */
+	public List<Match> nearest(double[] origin, int k){
+		// max heap on chord distance so the farthest of the best k is on top
+		PriorityQueue<double[]> best = new PriorityQueue<double[]>((a, b) -> Double.compare(b[0], a[0]));
+		nearest(origin, k, 0, size(), 0, best);
+		List<double[]> found = new ArrayList<double[]>(best);
+		found.sort((a, b) -> Double.compare(a[0], b[0]));
+		List<Match> result = new ArrayList<Match>();
+		for (double[] hit : found) result.add(match((int) hit[1], hit[0]));
+		return result;
+	}
+
+	/**
+	 * Method to find every cinema within a radius of a point.
+	 *
+	 * @param origin the point, from pointOf or toPoint
+	 * @param km the radius in kilometers
+	 * @return the cinemas, closest first
+	 */
+	public List<Match> within(double[] origin, double km){
+		double chord = 2 * Math.sin(Math.min(km / EARTH_RADIUS_KM, Math.PI) / 2);
+		List<double[]> found = new ArrayList<double[]>();
+		within(origin, chord * chord, 0, size(), 0, found);
+		found.sort((a, b) -> Double.compare(a[0], b[0]));
+		List<Match> result = new ArrayList<Match>();
+		for (double[] hit : found) result.add(match((int) hit[1], hit[0]));
+		return result;
+	}
+
+	private void build(int lo, int hi, int depth){
+		if (hi - lo <= 1) return;
+		final int axis = depth % 3;
+		Integer[] order = new Integer[hi - lo];
+		for (int i = lo; i < hi; ++i) order[i - lo] = this._node[i];
+		Arrays.sort(order, (a, b) -> Double.compare(this._point[a][axis], this._point[b][axis]));
+		for (int i = lo; i < hi; ++i) this._node[i] = order[i - lo];
+		int mid = (lo + hi) >>> 1;
+		build(lo, mid, depth + 1);
+		build(mid + 1, hi, depth + 1);
+	}
+
+	private void nearest(double[] origin, int k, int lo, int hi, int depth, PriorityQueue<double[]> best){
+		if (lo >= hi) return;
+		int mid = (lo + hi) >>> 1;
+		int cinema = this._node[mid];
+		double d = squared(origin, this._point[cinema]);
+		if (best.size() < k){
+			best.add(new double[]{ d, cinema });
+		}else if (d < best.peek()[0]){
+			best.poll();
+			best.add(new double[]{ d, cinema });
+		}
+		int axis = depth % 3;
+		double delta = origin[axis] - this._point[cinema][axis];
+		int nearLo = delta < 0 ? lo : mid + 1;
+		int nearHi = delta < 0 ? mid : hi;
+		int farLo = delta < 0 ? mid + 1 : lo;
+		int farHi = delta < 0 ? hi : mid;
+		nearest(origin, k, nearLo, nearHi, depth + 1, best);
+		if (best.size() < k || delta * delta < best.peek()[0]){
+			nearest(origin, k, farLo, farHi, depth + 1, best);
+		}
+	}
+
+	private void within(double[] origin, double limit, int lo, int hi, int depth, List<double[]> found){
+		if (lo >= hi) return;
+		int mid = (lo + hi) >>> 1;
+		int cinema = this._node[mid];
+		double d = squared(origin, this._point[cinema]);
+		if (d <= limit) found.add(new double[]{ d, cinema });
+		int axis = depth % 3;
+		double delta = origin[axis] - this._point[cinema][axis];
+		if (delta < 0 || delta * delta <= limit) within(origin, limit, lo, mid, depth + 1, found);
+		if (delta >= 0 || delta * delta <= limit) within(origin, limit, mid + 1, hi, depth + 1, found);
+	}
+
+	private Match match(int cinema, double squaredChord){
+		double km = 2 * Math.asin(Math.min(1.0, Math.sqrt(squaredChord) / 2)) * EARTH_RADIUS_KM;
+		return new Match(this._cid[cinema], this._cname[cinema], this._tnum[cinema], this._city[cinema], km);
+	}
+
+	private static double squared(double[] a, double[] b){
+		double dx = a[0] - b[0];
+		double dy = a[1] - b[1];
+		double dz = a[2] - b[2];
+		return dx * dx + dy * dy + dz * dz;
+	}
+
+	private static String key(String zipCode, String state){
+		return Integer.parseInt(zipCode.trim()) + "," + state.trim().toUpperCase();
+	}
+}//end CinemaLocator
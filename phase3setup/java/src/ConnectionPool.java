@@ -0,0 +1,146 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class hands out connections opened with newConnection from a main
+ * connection, at most a fixed number at a time, for threads that each run
+ * one operation and give the connection back.  The connections are opened
+ * when first needed and write through the store of the main connection
+ * (sharing its existence filters), while the caches and booking events
+ * stay with the main connection.
+ *
+ * Settings: -Dticketmaster.poolsize (default 8) connections, waited for at
+ * most -Dticketmaster.poolwaitms (default 5000).
+ *
+ */
+
+public class ConnectionPool{
+	private static final Metrics.Counter.Series IDLE_TAKES = Metrics.CONNECTIONS.labels("idle");
+	private static final Metrics.Counter.Series OPENED = Metrics.CONNECTIONS.labels("opened");
+	private static final Metrics.Counter.Series TIMEOUTS = Metrics.CONNECTIONS.labels("timeout");
+	private static final Metrics.Counter.Series FAILURES = Metrics.CONNECTIONS.labels("failed");
+
+	private final Ticketmaster _primary;
+	private final Semaphore _permits;
+	private final Queue<Ticketmaster> _idle = new ConcurrentLinkedQueue<Ticketmaster>();
+	private final long _waitMillis;
+	private volatile boolean _closed = false;
+
+	/**
+	 * @param primary the main connection
+	 * @param size the most connections open at a time
+	 */
+	public ConnectionPool(Ticketmaster primary, int size){
+		this._primary = primary;
+		this._permits = new Semaphore(Math.max(1, size), true);
+		this._waitMillis = Long.getLong("ticketmaster.poolwaitms", 5000L);
+		final int permits = Math.max(1, size);
+		// the gauges follow the newest pool
+		Metrics.POOL_CONNECTIONS.labels("idle").supply(() -> this._idle.size());
+		Metrics.POOL_CONNECTIONS.labels("busy").supply(() -> permits - this._permits.availablePermits());
+	}
+
+	public static ConnectionPool fromSystemProperties(Ticketmaster primary){
+		return new ConnectionPool(primary, Integer.getInteger("ticketmaster.poolsize", 8));
+	}
+
+	/**
+	 * Method to take a connection, waiting for one to be given back when
+	 * they are all in use.
+	 *
+	 * @return the connection, to be given back with give
+	 * @throws java.sql.SQLException when none came free in time or failed to connect
+	 * @throws InterruptedException when interrupted while waiting
+	 */
+	public Ticketmaster take() throws SQLException, InterruptedException {
+		if (this._closed) throw new SQLException("The connection pool is closed", "08003");
+		FlightEvents.ConnectionTake event = FlightEvents.ConnectionTake.start();
+		long start = System.nanoTime();
+		if (!this._permits.tryAcquire(this._waitMillis, TimeUnit.MILLISECONDS)){
+			Metrics.CONNECTION_WAIT_SECONDS.since(start);
+			TIMEOUTS.inc();
+			event.finish(false, false);
+			throw new SQLException("No connection came free in " + this._waitMillis + " ms", "08004");
+		}
+		Ticketmaster connection = this._idle.poll();
+		if (connection != null){
+			Metrics.CONNECTION_WAIT_SECONDS.since(start);
+			IDLE_TAKES.inc();
+			event.finish(true, false);
+			return connection;
+		}
+		try{
+			connection = open();
+		}catch (SQLException | RuntimeException e){
+			this._permits.release();
+			Metrics.CONNECTION_WAIT_SECONDS.since(start);
+			FAILURES.inc();
+			event.finish(false, true);
+			throw e;
+		}
+		Metrics.CONNECTION_WAIT_SECONDS.since(start);
+		OPENED.inc();
+		event.finish(true, true);
+		return connection;
+	}
+
+	/**
+	 * Method to give a connection back.  A connection that failed is
+	 * closed, and a new one is opened in its place when next needed.
+	 *
+	 * @param connection the connection taken
+	 * @param failure what went wrong with it, or null
+	 */
+	public void give(Ticketmaster connection, Exception failure){
+		if (this._closed || broken(failure)){
+			connection.cleanup();
+		}else{
+			this._idle.offer(connection);
+		}
+		this._permits.release();
+	}
+
+	/**
+	 * Method to close the idle connections; connections in use are closed
+	 * when given back.
+	 */
+	public void close(){
+		this._closed = true;
+		for (Ticketmaster connection; (connection = this._idle.poll()) != null; ) connection.cleanup();
+	}
+
+	private Ticketmaster open() throws SQLException {
+		Ticketmaster connection = this._primary.newConnection();
+		BookingStore store = this._primary.getStore();
+		if (store instanceof FilteredBookingStore){
+			connection.setStore(((FilteredBookingStore) store).over(new JdbcBookingStore(connection), connection));
+		}else if (!(store instanceof JdbcBookingStore)){
+			// a store of its own (e.g. in memory) is shared as it is
+			connection.setStore(store);
+		}
+		return connection;
+	}
+
+	/**
+	 * @return true when the failure was the connection's (SQLState class 08)
+	 */
+	private static boolean broken(Exception failure){
+		if (!(failure instanceof SQLException)) return false;
+		String state = ((SQLException) failure).getSQLState();
+		return state == null || state.startsWith("08");
+	}
+}//end ConnectionPool
@@ -0,0 +1,557 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * This class writes a synthetic dataset in the formats of the data folder,
+ * loadable with create.sql or BulkLoader, plus a ZipCentroids.csv for the
+ * generated cities.  Every value is a function of the seed and the id of
+ * the row it belongs to, so output does not depend on the number of
+ * threads, and each file is written by its own thread in one streaming
+ * pass.  Only per-theater arrays are kept in memory.
+ *
+ * Shape of the data:
+ *   - movie popularity is Zipf distributed (mvid 1 is the hottest), both
+ *     in the number of shows and in how full they get
+ *   - Fridays to Sundays get twice the shows of other days and fuller
+ *     houses
+ *   - bookings per user are Zipf distributed
+ *   - every show plays in one theater and has one ShowSeats row per seat
+ *     of it; Paid and Pending bookings hold consecutive seats, Canceled
+ *     ones hold none, and only Paid bookings have a payment
+ *
+ * Usage: DataGenerator <output folder> [--shows=N] [--seed=N] [--cinemas=N]
+ *        [--movies=N] [--users=N] [--days=N] [--threads=N]
+ * Unset sizes are scaled from --shows.
+ *
+ */
+
+public class DataGenerator{
+	//independent random streams, one per kind of row
+	private static final long CITY = 1, CINEMA = 2, THEATER = 3, MOVIE = 4, USER = 5, SHOW = 6, BOOKING = 7;
+	private static final LocalDate FIRST_DAY = LocalDate.of(2019, 1, 1);
+
+	private static final String[][] CITIES = {
+		{"New York", "NY"}, {"Los Angeles", "CA"}, {"Chicago", "IL"}, {"Houston", "TX"}, {"Phoenix", "AZ"},
+		{"Philadelphia", "PA"}, {"San Antonio", "TX"}, {"San Diego", "CA"}, {"Dallas", "TX"}, {"San Jose", "CA"},
+		{"Austin", "TX"}, {"Jacksonville", "FL"}, {"Columbus", "OH"}, {"Charlotte", "NC"}, {"San Francisco", "CA"},
+		{"Indianapolis", "IN"}, {"Seattle", "WA"}, {"Denver", "CO"}, {"Washington", "DC"}, {"Boston", "MA"},
+		{"Nashville", "TN"}, {"Detroit", "MI"}, {"Portland", "OR"}, {"Las Vegas", "NV"}, {"Memphis", "TN"},
+		{"Louisville", "KY"}, {"Baltimore", "MD"}, {"Milwaukee", "WI"}, {"Albuquerque", "NM"}, {"Riverside", "CA"}
+	};
+	private static final String[] CHAINS = {"AMC", "General Cinemas", "Harkins", "IMAX Corporation", "Regal Cinemas", "Studio Movie Grill"};
+	private static final String[] TITLE_WORDS = {
+		"Love", "Night", "Star", "River", "Dark", "Last", "Summer", "City", "Dream", "Fire", "Ghost", "Heart",
+		"Iron", "Lost", "Moon", "Ocean", "Road", "Secret", "Shadow", "Storm", "Time", "War", "Winter", "World"
+	};
+	private static final String[] GENRES = {"Action", "Drama", "Comedy", "Horror", "Romance", "Animation", "Documentary"};
+	private static final String[] FIRST_NAMES = {
+		"Armand", "Alberto", "Wyatt", "Peg", "Davina", "Maria", "James", "Aiko", "Omar", "Lena", "Ravi", "Sofia",
+		"Chen", "Noah", "Fatima", "Diego", "Grace", "Ivan", "Nia", "Luca"
+	};
+	private static final String[] LAST_NAMES = {
+		"Enderle", "Scarlett", "Ruoff", "Brenes", "Trevathan", "Garcia", "Smith", "Tanaka", "Haddad", "Novak",
+		"Patel", "Rossi", "Wang", "Miller", "Khan", "Lopez", "Kim", "Petrov", "Okafor", "Bianchi"
+	};
+
+	private final long _seed;
+	private final int _shows;
+	private final int _cinemas;
+	private final int _cities;
+	private final int _movies;
+	private final int _users;
+	private final int _days;
+	private final int _threads;
+
+	//per theater, tid - 1 -> cinema, seats and first csid
+	private final int[] _theaterCinema;
+	private final int[] _theaterSeats;
+	private final long[] _firstCsid;
+	//running share of shows per day, weekends weighted double
+	private final double[] _dayWeights;
+	private final Zipf _moviePopularity;
+	private final Zipf _userActivity;
+
+	/**
+	 * What one show looks like, rebuilt from the seed by every writer that
+	 * needs it.
+	 */
+	private static class Show{
+		long sid;
+		int mvid;
+		int day;
+		int start;
+		int end;
+		int tid;
+		int price;
+		//per booking: seats, status (0 Paid, 1 Pending, 2 Canceled),
+		//user and minutes between booking and show start
+		int bookings;
+		int[] seats;
+		int[] status;
+		int[] user;
+		int[] lead;
+	}
+
+	public DataGenerator(long seed, int shows, int cinemas, int movies, int users, int days, int threads){
+		this._seed = seed;
+		this._shows = shows;
+		this._cinemas = cinemas;
+		this._cities = Math.max(10, cinemas / 3);
+		this._movies = movies;
+		this._users = users;
+		this._days = days;
+		this._threads = Math.max(1, threads);
+
+		int theaters = 0;
+		for (int cid = 1; cid <= cinemas; ++cid) theaters += theatersOf(cid);
+		this._theaterCinema = new int[theaters];
+		this._theaterSeats = new int[theaters];
+		this._firstCsid = new long[theaters + 1];
+		int tid = 0;
+		for (int cid = 1; cid <= cinemas; ++cid){
+			for (int t = theatersOf(cid); t > 0; --t){
+				this._theaterCinema[tid] = cid;
+				this._theaterSeats[tid] = 40 + random(THEATER, tid + 1).nextInt(211);
+				this._firstCsid[tid + 1] = this._firstCsid[tid] + this._theaterSeats[tid];
+				++tid;
+			}
+		}
+
+		this._dayWeights = new double[days];
+		double total = 0;
+		for (int d = 0; d < days; ++d){
+			total += weekend(d) ? 2.0 : 1.0;
+			this._dayWeights[d] = total;
+		}
+		for (int d = 0; d < days; ++d) this._dayWeights[d] /= total;
+		this._moviePopularity = new Zipf(movies, 1.1);
+		this._userActivity = new Zipf(users, 1.0);
+	}
+
+	public static void main(String[] args){
+		if (args.length < 1){
+			System.err.println(
+				"Usage: " + "java [-classpath <classpath>] " + DataGenerator.class.getName() +
+					" <output folder> [--shows=N] [--seed=N] [--cinemas=N] [--movies=N] [--users=N] [--days=N] [--threads=N]");
+			return;
+		}
+		try{
+			int shows = option(args, "shows", 200);
+			DataGenerator generator = new DataGenerator(
+				option(args, "seed", 42),
+				shows,
+				option(args, "cinemas", Math.max(10, shows / 1000)),
+				option(args, "movies", Math.max(50, shows / 200)),
+				option(args, "users", Math.max(500, shows * 2)),
+				option(args, "days", 365),
+				option(args, "threads", Runtime.getRuntime().availableProcessors()));
+			long start = System.nanoTime();
+			generator.generate(new File(args[0]));
+			System.out.printf("Generated %s in %.2f s%n", args[0], (System.nanoTime() - start) / 1e9);
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private static int option(String[] args, String name, int otherwise){
+		for (int i = 1; i < args.length; ++i){
+			if (args[i].startsWith("--" + name + "=")) return Integer.parseInt(args[i].substring(name.length() + 3));
+		}
+		return otherwise;
+	}
+
+	private interface Table{
+		void write(Writer out) throws IOException;
+	}
+
+	/**
+	 * Method to write every file into a folder, in parallel.
+	 *
+	 * @param folder the output folder, created when missing
+	 * @throws Exception when a file can not be written
+	 */
+	public void generate(final File folder) throws Exception {
+		folder.mkdirs();
+		String[] names = {
+			"ShowSeats", "Bookings", "Payments", "Shows", "Plays", "CinemaSeats",
+			"Users", "Theaters", "Cinemas", "Cities", "ZipCentroids", "Movies"
+		};
+		Table[] tables = {
+			this::writeShowSeats, this::writeBookings, this::writePayments, this::writeShows, this::writePlays, this::writeCinemaSeats,
+			this::writeUsers, this::writeTheaters, this::writeCinemas, this::writeCities, this::writeZipCentroids, this::writeMovies
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(this._threads, tables.length));
+		try{
+			List<Future<Object>> done = new ArrayList<Future<Object>>();
+			for (int i = 0; i < tables.length; ++i){
+				final String name = names[i];
+				final Table table = tables[i];
+				done.add(pool.submit(() -> {
+					long start = System.nanoTime();
+					Writer out = new BufferedWriter(new OutputStreamWriter(
+						new FileOutputStream(new File(folder, name + ".csv")), StandardCharsets.UTF_8), 1 << 20);
+					try{
+						table.write(out);
+					}finally{
+						out.close();
+					}
+					System.out.printf("  %-12s %8.2f s%n", name, (System.nanoTime() - start) / 1e9);
+					return null;
+				}));
+			}
+			for (Future<Object> future : done){
+				try{
+					future.get();
+				}catch (ExecutionException e){
+					throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				}
+			}
+		}finally{
+			pool.shutdownNow();
+		}
+	}
+
+	private void writeCities(Writer out) throws IOException {
+		for (int id = 1; id <= this._cities; ++id){
+			String[] city = CITIES[(id - 1) % CITIES.length];
+			int round = (id - 1) / CITIES.length;
+			out.write(id + "," + city[0] + (round == 0 ? "" : " " + (round + 1)) + "," + city[1] + "," + zipOf(id) + "\n");
+		}
+	}
+
+	private void writeZipCentroids(Writer out) throws IOException {
+		for (int id = 1; id <= this._cities; ++id){
+			SplittableRandom random = random(CITY, id);
+			double lat = 26 + random.nextDouble() * 22;
+			double lon = -123 + random.nextDouble() * 53;
+			out.write(String.format(Locale.ROOT, "%d,%s,%.2f,%.2f\n", zipOf(id), CITIES[(id - 1) % CITIES.length][1], lat, lon));
+		}
+	}
+
+	private void writeCinemas(Writer out) throws IOException {
+		for (int cid = 1; cid <= this._cinemas; ++cid){
+			SplittableRandom random = random(CINEMA, cid);
+			int city = 1 + random.nextInt(this._cities);
+			out.write(cid + "," + city + "," + CHAINS[random.nextInt(CHAINS.length)] + "," + theatersOf(cid) + "\n");
+		}
+	}
+
+	private void writeTheaters(Writer out) throws IOException {
+		int number = 0;
+		for (int t = 0; t < this._theaterCinema.length; ++t){
+			int cid = this._theaterCinema[t];
+			number = t > 0 && this._theaterCinema[t - 1] == cid ? number + 1 : 1;
+			out.write((t + 1) + "," + cid + "," + chainOf(cid) + " Theaters " + number + "," + this._theaterSeats[t] + "\n");
+		}
+	}
+
+	private void writeCinemaSeats(Writer out) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for (int t = 0; t < this._theaterCinema.length; ++t){
+			int seats = this._theaterSeats[t];
+			for (int sno = 1; sno <= seats; ++sno){
+				line.setLength(0);
+				line.append(this._firstCsid[t] + sno).append(',').append(t + 1).append(',').append(sno)
+					.append(sno > seats - Math.max(1, seats / 25) ? ",Handicap\n" : ",Regular\n");
+				out.append(line);
+			}
+		}
+	}
+
+	private void writeMovies(Writer out) throws IOException {
+		for (int mvid = 1; mvid <= this._movies; ++mvid){
+			SplittableRandom random = random(MOVIE, mvid);
+			String title = TITLE_WORDS[random.nextInt(TITLE_WORDS.length)] + " " + TITLE_WORDS[random.nextInt(TITLE_WORDS.length)];
+			if (mvid > TITLE_WORDS.length) title += " " + mvid;
+			LocalDate released = LocalDate.of(1990 + random.nextInt(31), 1 + random.nextInt(12), 1 + random.nextInt(28));
+			out.write(mvid + "," + title + "," + date(released) + ",United States,Good movie," +
+				durationOf(mvid) * 60 + ",en," + GENRES[random.nextInt(GENRES.length)] + "\n");
+		}
+	}
+
+	private void writeUsers(Writer out) throws IOException {
+		StringBuilder hash = new StringBuilder();
+		MessageDigest sha256;
+		try{
+			sha256 = MessageDigest.getInstance("SHA-256");
+		}catch (Exception e){
+			throw new IOException(e);
+		}
+		for (int user = 1; user <= this._users; ++user){
+			SplittableRandom random = random(USER, user);
+			String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+			String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+			long phone = 2000000000L + random.nextLong(8000000000L);
+			hash.setLength(0);
+			for (byte b : sha256.digest(("password" + user).getBytes(StandardCharsets.UTF_8))) hash.append(String.format(Locale.ROOT, "%02x", b));
+			out.write(emailOf(user) + "," + first + "," + last + "," + phone + "," + hash + "\n");
+		}
+	}
+
+	private void writeShows(Writer out) throws IOException {
+		for (long sid = 1; sid <= this._shows; ++sid){
+			Show show = show(sid, false);
+			out.write(sid + "," + show.mvid + "," + date(FIRST_DAY.plusDays(show.day)) + "," + time(show.start) + "," + time(show.end) + "\n");
+		}
+	}
+
+	private void writePlays(Writer out) throws IOException {
+		for (long sid = 1; sid <= this._shows; ++sid){
+			out.write(sid + "," + show(sid, false).tid + "\n");
+		}
+	}
+
+	private void writeBookings(Writer out) throws IOException {
+		StringBuilder line = new StringBuilder();
+		long bid = 0;
+		for (long sid = 1; sid <= this._shows; ++sid){
+			Show show = show(sid, true);
+			for (int b = 0; b < show.bookings; ++b){
+				line.setLength(0);
+				line.append(++bid).append(',').append(statusOf(show.status[b])).append(',')
+					.append(bookedAt(show, b)).append(',').append(show.seats[b]).append(',')
+					.append(sid).append(',').append(emailOf(show.user[b])).append('\n');
+				out.append(line);
+			}
+		}
+	}
+
+	private void writePayments(Writer out) throws IOException {
+		StringBuilder line = new StringBuilder();
+		long bid = 0;
+		long pid = 0;
+		for (long sid = 1; sid <= this._shows; ++sid){
+			Show show = show(sid, true);
+			for (int b = 0; b < show.bookings; ++b){
+				++bid;
+				if (show.status[b] != 0) continue;
+				++pid;
+				line.setLength(0);
+				line.append(pid).append(',').append(bid).append(',').append(bid % 4 == 0 ? "Cash" : "Credit Card").append(',')
+					.append(bookedAt(show, b)).append(',').append(show.seats[b] * show.price).append(',')
+					.append(10000000 + random(BOOKING, bid).nextInt(90000000)).append('\n');
+				out.append(line);
+			}
+		}
+	}
+
+	private void writeShowSeats(Writer out) throws IOException {
+		StringBuilder line = new StringBuilder();
+		long ssid = 0;
+		long bid = 0;
+		for (long sid = 1; sid <= this._shows; ++sid){
+			Show show = show(sid, true);
+			int t = show.tid - 1;
+			int seats = this._theaterSeats[t];
+			int booking = 0;
+			int taken = 0;
+			for (int sno = 1; sno <= seats; ++sno){
+				// advance to the next booking that holds seats
+				while (booking < show.bookings && (show.status[booking] == 2 || taken == show.seats[booking])){
+					++booking;
+					taken = 0;
+				}
+				line.setLength(0);
+				line.append(++ssid).append(',').append(sid).append(',').append(this._firstCsid[t] + sno).append(',');
+				if (booking < show.bookings){
+					line.append(bid + booking + 1);
+					++taken;
+				}
+				line.append(',').append(show.price).append('\n');
+				out.append(line);
+			}
+			bid += show.bookings;
+		}
+	}
+
+	/**
+	 * Method to rebuild a show from the seed.
+	 *
+	 * @param bookings whether to also rebuild its bookings
+	 */
+	private Show show(long sid, boolean bookings){
+		SplittableRandom random = random(SHOW, sid);
+		Show show = new Show();
+		show.sid = sid;
+		show.mvid = this._moviePopularity.sample(random);
+		int day = Arrays.binarySearch(this._dayWeights, random.nextDouble());
+		show.day = Math.min(this._days - 1, day < 0 ? -day - 1 : day);
+		// most shows start in the evening, in 15 minute steps
+		int slot = random.nextInt(10) < 6 ? 17 * 4 + random.nextInt(5 * 4) : 10 * 4 + random.nextInt(7 * 4);
+		show.start = slot * 15;
+		// the movie plus 15 minutes of trailers, rounded up to 5 minutes
+		int duration = durationOf(show.mvid) + 15;
+		show.end = (show.start + (duration + 4) / 5 * 5) % (24 * 60);
+		show.tid = 1 + random.nextInt(this._theaterCinema.length);
+		show.price = 6 + random.nextInt(10);
+		if (!bookings) return show;
+
+		// hot movies and weekends fill up
+		int seats = this._theaterSeats[show.tid - 1];
+		double fill = 0.9 / Math.pow(show.mvid, 0.3) * (weekend(show.day) ? 1.2 : 0.8) * (0.5 + 0.5 * random.nextDouble());
+		int target = (int) (Math.min(0.98, fill) * seats);
+		SplittableRandom people = random(BOOKING, -sid);
+		int max = target + 1;
+		show.seats = new int[max];
+		show.status = new int[max];
+		show.user = new int[max];
+		show.lead = new int[max];
+		int held = 0;
+		while (held < target && show.bookings < max){
+			int b = show.bookings++;
+			show.seats[b] = Math.min(1 + people.nextInt(4), target - held);
+			int roll = people.nextInt(20);
+			show.status[b] = roll < 15 ? 0 : roll < 18 ? 1 : 2;
+			show.user[b] = this._userActivity.sample(people);
+			show.lead[b] = 30 + people.nextInt(30 * 24 * 60);
+			if (show.status[b] != 2) held += show.seats[b];
+		}
+		return show;
+	}
+
+	/**
+	 * @return the booking time of a booking, M/d/yyyy H:mm
+	 */
+	private static String bookedAt(Show show, int b){
+		long minutes = show.day * 24L * 60 + show.start - show.lead[b];
+		LocalDate day = FIRST_DAY.plusDays(Math.floorDiv(minutes, 24 * 60));
+		return date(day) + " " + time(Math.floorMod(minutes, 24 * 60));
+	}
+
+	private int theatersOf(int cid){
+		return 4 + random(CINEMA, cid).split().split().nextInt(13);
+	}
+
+	/**
+	 * @return the running time of a movie in minutes
+	 */
+	private int durationOf(int mvid){
+		return 80 + random(MOVIE, -mvid).nextInt(101);
+	}
+
+	private String chainOf(int cid){
+		SplittableRandom random = random(CINEMA, cid);
+		random.nextInt(this._cities);
+		return CHAINS[random.nextInt(CHAINS.length)];
+	}
+
+	private static int zipOf(int city){
+		return 10000 + city % 90000;
+	}
+
+	private static String emailOf(int user){
+		return LAST_NAMES[user % LAST_NAMES.length].toLowerCase(Locale.ROOT) + user + "@gmail.com";
+	}
+
+	private static String statusOf(int status){
+		return status == 0 ? "Paid" : status == 1 ? "Pending" : "Canceled";
+	}
+
+	private static boolean weekend(int day){
+		DayOfWeek weekday = FIRST_DAY.plusDays(day).getDayOfWeek();
+		return weekday == DayOfWeek.FRIDAY || weekday == DayOfWeek.SATURDAY || weekday == DayOfWeek.SUNDAY;
+	}
+
+	private static String date(LocalDate date){
+		return date.getMonthValue() + "/" + date.getDayOfMonth() + "/" + date.getYear();
+	}
+
+	private static String time(int minutes){
+		return minutes / 60 + ":" + (minutes % 60 < 10 ? "0" : "") + minutes % 60;
+	}
+
+	/**
+	 * Method to seed a random stream for one row from the global seed, the
+	 * kind of row and its id, with the splitmix64 finalizer.
+	 */
+	private SplittableRandom random(long stream, long id){
+		long z = this._seed * 0x9E3779B97F4A7C15L + stream * 0xBF58476D1CE4E5B9L + id * 0x94D049BB133111EBL;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return new SplittableRandom(z ^ (z >>> 31));
+	}
+
+	/**
+	 * Zipf distribution over 1..n, sampled in constant time and memory with
+	 * Hormann and Derflinger's rejection-inversion method.
+	 */
+	static class Zipf{
+		private final int _n;
+		private final double _exponent;
+		private final double _hIntegralX1;
+		private final double _hIntegralN;
+		private final double _s;
+
+		Zipf(int n, double exponent){
+			this._n = n;
+			this._exponent = exponent;
+			this._hIntegralX1 = hIntegral(1.5) - 1.0;
+			this._hIntegralN = hIntegral(n + 0.5);
+			this._s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+		}
+
+		int sample(SplittableRandom random){
+			while (true){
+				double u = this._hIntegralN + random.nextDouble() * (this._hIntegralX1 - this._hIntegralN);
+				double x = hIntegralInverse(u);
+				int k = (int) (x + 0.5);
+				if (k < 1) k = 1;
+				else if (k > this._n) k = this._n;
+				if (k - x <= this._s || u >= hIntegral(k + 0.5) - h(k)) return k;
+			}
+		}
+
+		private double hIntegral(double x){
+			double logX = Math.log(x);
+			return helper2((1.0 - this._exponent) * logX) * logX;
+		}
+
+		private double h(double x){
+			return Math.exp(-this._exponent * Math.log(x));
+		}
+
+		private double hIntegralInverse(double x){
+			double t = Math.max(-1.0, x * (1.0 - this._exponent));
+			return Math.exp(helper1(t) * x);
+		}
+
+		// log(1 + x) / x, accurate near 0
+		private static double helper1(double x){
+			return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+		}
+
+		// (exp(x) - 1) / x, accurate near 0
+		private static double helper2(double x){
+			return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1.0 + x * 0.5 * (1.0 + x / 3.0 * (1.0 + 0.25 * x));
+		}
+	}
+}//end DataGenerator
@@ -0,0 +1,108 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * This class answers "is this key in the table?" from memory when it can.
+ * A Bloom filter over every key of the table gives definite negatives; a
+ * set of keys known to be present (inserted by this process, or confirmed
+ * by the database) gives definite positives.  Only keys in neither need a
+ * round trip.
+ *
+ * The Bloom filter can not forget, so a deleted key stays a possible
+ * positive and is asked about; forget drops it from the exact set.  The
+ * filter is sized for a 1% false positive rate at twice the warmed size.
+ *
+ */
+
+public class ExistenceFilter<K>{
+	public enum Answer{ ABSENT, PRESENT, MAYBE }
+
+	private static final double FALSE_POSITIVES = 0.01;
+
+	private final AtomicLongArray _bits;
+	private final long _size;
+	private final int _hashes;
+	private final Set<K> _present = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param expected the number of keys the filter should hold
+	 */
+	public ExistenceFilter(long expected){
+		long n = Math.max(1024, 2 * expected);
+		long bits = (long) Math.ceil(-n * Math.log(FALSE_POSITIVES) / (Math.log(2) * Math.log(2)));
+		this._bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) / 64));
+		this._size = 64L * this._bits.length();
+		this._hashes = Math.max(1, (int) Math.round((double) this._size / n * Math.log(2)));
+	}
+
+	/**
+	 * Method to record a key that exists, e.g. while warming or after an
+	 * insert.
+	 *
+	 * @param key the key
+	 * @param known true to answer PRESENT for it from now on
+	 */
+	public void add(K key, boolean known){
+		long hash = hash(key);
+		int h1 = (int) hash, h2 = (int) (hash >>> 32);
+		for (int i = 0; i < this._hashes; ++i){
+			long bit = Integer.toUnsignedLong(h1 + i * h2) % this._size;
+			long word, mask = 1L << (bit & 63);
+			do{
+				word = this._bits.get((int) (bit >>> 6));
+			}while ((word & mask) == 0 && !this._bits.compareAndSet((int) (bit >>> 6), word, word | mask));
+		}
+		if (known) this._present.add(key);
+	}
+
+	/**
+	 * Method to drop a deleted key from the known keys.
+	 */
+	public void forget(K key){
+		this._present.remove(key);
+	}
+
+	/**
+	 * @return ABSENT when the key is surely not in the table, PRESENT when it
+	 *         surely is, MAYBE when the database has to be asked
+	 */
+	public Answer check(K key){
+		if (this._present.contains(key)) return Answer.PRESENT;
+		long hash = hash(key);
+		int h1 = (int) hash, h2 = (int) (hash >>> 32);
+		for (int i = 0; i < this._hashes; ++i){
+			long bit = Integer.toUnsignedLong(h1 + i * h2) % this._size;
+			if ((this._bits.get((int) (bit >>> 6)) & (1L << (bit & 63))) == 0) return Answer.ABSENT;
+		}
+		return Answer.MAYBE;
+	}
+
+	/**
+	 * Method to hash a key to 64 well mixed bits (splitmix64 finalizer).
+	 */
+	private static long hash(Object key){
+		long h;
+		if (key instanceof Long){
+			h = (Long) key;
+		}else{
+			String text = key.toString();
+			h = 1125899906842597L;
+			for (int i = 0; i < text.length(); ++i) h = 31 * h + text.charAt(i);
+		}
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return h ^ (h >>> 31);
+	}
+}//end ExistenceFilter
@@ -0,0 +1,251 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+
+
+/**
+ * This class puts ExistenceFilters over Users.email and Bookings.bid in
+ * front of another booking store, so userExists and bookingExists only
+ * reach the database for keys the filters can not decide.  The filters
+ * are warmed from the tables and then follow the inserts made through
+ * the store and the booking events (which, with sql/notify.sql, include
+ * those of other processes; new users of other processes arrive through
+ * ChangeListener too).  The database still enforces the keys, the filters
+ * only spare the checks that come before.  A key the filters do not hold
+ * is only taken as absent while a ChangeListener follows the tables with
+ * no gap; otherwise keys inserted by other processes may be missing, and
+ * the store is asked.  Keys inserted through the store
+ * are only taken as present once the transaction of its connection
+ * commits.  Stores made with over share the filters, for connections of
+ * their own.
+ *
+ */
+
+public class FilteredBookingStore implements BookingStore, BookingEventListener{
+	//a MAYBE answer is a miss, costing a round trip
+	private static final Metrics.CacheStats USERS_CACHE = Metrics.cache("Users.email");
+	private static final Metrics.CacheStats BOOKINGS_CACHE = Metrics.cache("Bookings.bid");
+
+	/**
+	 * The filters, shared by the stores made with over.
+	 */
+	private static class Filters{
+		volatile ExistenceFilter<String> users = new ExistenceFilter<String>(0);
+		volatile ExistenceFilter<Long> bookings = new ExistenceFilter<Long>(0);
+		//whether every insert since the warm up has been added
+		volatile boolean following = false;
+	}
+
+	private final BookingStore _store;
+	//the connection the store writes through, whose commits make inserted keys present
+	private final Ticketmaster _db;
+	private final Filters _filters;
+
+	public FilteredBookingStore(BookingStore store, Ticketmaster db){
+		this(store, db, new Filters());
+	}
+
+	private FilteredBookingStore(BookingStore store, Ticketmaster db, Filters filters){
+		this._store = store;
+		this._db = db;
+		this._filters = filters;
+	}
+
+	/**
+	 * Method to put the same filters in front of another store, e.g. one on
+	 * another connection to the same database.
+	 *
+	 * @param store the store to filter
+	 * @param db the connection the store writes through
+	 * @return a store sharing the filters of this one
+	 */
+	public FilteredBookingStore over(BookingStore store, Ticketmaster db){
+		return new FilteredBookingStore(store, db, this._filters);
+	}
+
+	/**
+	 * Method to fill the filters with every email and booking id.
+	 *
+	 * @param esql the database to read
+	 * @return this store
+	 * @throws java.sql.SQLException when failed to read the keys
+	 */
+	public FilteredBookingStore warm(Ticketmaster esql) throws SQLException {
+		FlightEvents.CacheLoad event = FlightEvents.CacheLoad.start();
+		long start = System.nanoTime();
+		List<List<String>> emails = esql.executeQueryAndReturnResult("SELECT email FROM Users");
+		ExistenceFilter<String> users = new ExistenceFilter<String>(emails.size());
+		for (List<String> row : emails) users.add(row.get(0), false);
+		List<List<String>> bids = esql.executeQueryAndReturnResult("SELECT bid FROM Bookings");
+		ExistenceFilter<Long> bookings = new ExistenceFilter<Long>(bids.size());
+		for (List<String> row : bids) bookings.add(Long.parseLong(row.get(0)), false);
+		this._filters.users = users;
+		this._filters.bookings = bookings;
+		Metrics.CACHE_LOAD_SECONDS.labels("ExistenceFilters").since(start);
+		event.finish("ExistenceFilters");
+		return this;
+	}
+
+	/**
+	 * Method to tell whether the filters hold every key, i.e. whether a
+	 * ChangeListener has followed the tables since they were warmed and no
+	 * change was missed.  Until then keys not in the filters are looked up.
+	 *
+	 * @param following true once they are followed, false when changes may be missed
+	 */
+	public void setFollowing(boolean following){
+		this._filters.following = following;
+	}
+
+	/**
+	 * Method to learn of a user inserted by another process.
+	 */
+	public void userAdded(String email){
+		this._filters.users.add(email, true);
+	}
+
+	/**
+	 * Method to learn of a user deleted by another process.
+	 */
+	public void userDeleted(String email){
+		this._filters.users.forget(email);
+	}
+
+	public void addUser(String email, String lname, String fname, String phone, String pwd) throws SQLException {
+		this._store.addUser(email, lname, fname, phone, pwd);
+		this._db.afterCommit(() -> this._filters.users.add(email, true));
+	}
+
+	public boolean userExists(String email) throws SQLException {
+		ExistenceFilter<String> users = this._filters.users;
+		ExistenceFilter.Answer answer = trusted(users.check(email));
+		FlightEvents.CacheLookup.record("Users.email", answer);
+		if (answer == ExistenceFilter.Answer.MAYBE) USERS_CACHE.miss();
+		else USERS_CACHE.hit();
+		switch (answer){
+			case ABSENT: return false;
+			case PRESENT: return true;
+			default:
+				boolean exists = this._store.userExists(email);
+				if (exists) this._db.afterCommit(() -> users.add(email, true));
+				return exists;
+		}
+	}
+
+	public void addShow(long sid, long mvid, LocalDate sdate, LocalTime sttime, LocalTime edtime) throws SQLException {
+		this._store.addShow(sid, mvid, sdate, sttime, edtime);
+	}
+
+	public boolean showExists(long sid) throws SQLException {
+		return this._store.showExists(sid);
+	}
+
+	public void addShowSeat(long ssid, long sid, long csid, double price) throws SQLException {
+		this._store.addShowSeat(ssid, sid, csid, price);
+	}
+
+	/**
+	 * Taken ids, and unknown users while the filters are followed, are
+	 * answered without a round trip.
+	 */
+	public BookingOutcome createBooking(long bid, String status, String bdatetime, int seats, long sid, String email) throws SQLException {
+		if (this._filters.bookings.check(bid) == ExistenceFilter.Answer.PRESENT) return BookingOutcome.DUPLICATE;
+		if (trusted(this._filters.users.check(email)) == ExistenceFilter.Answer.ABSENT) return BookingOutcome.UNKNOWN_USER;
+		BookingOutcome outcome = this._store.createBooking(bid, status, bdatetime, seats, sid, email);
+		this._db.afterCommit(() -> {
+			if (outcome == BookingOutcome.CREATED || outcome == BookingOutcome.DUPLICATE) this._filters.bookings.add(bid, true);
+			if (outcome != BookingOutcome.UNKNOWN_USER) this._filters.users.add(email, outcome == BookingOutcome.CREATED);
+		});
+		return outcome;
+	}
+
+	public boolean bookingExists(long bid) throws SQLException {
+		ExistenceFilter<Long> bookings = this._filters.bookings;
+		ExistenceFilter.Answer answer = trusted(bookings.check(bid));
+		FlightEvents.CacheLookup.record("Bookings.bid", answer);
+		if (answer == ExistenceFilter.Answer.MAYBE) BOOKINGS_CACHE.miss();
+		else BOOKINGS_CACHE.hit();
+		switch (answer){
+			case ABSENT: return false;
+			case PRESENT: return true;
+			default:
+				boolean exists = this._store.bookingExists(bid);
+				if (exists) this._db.afterCommit(() -> bookings.add(bid, true));
+				return exists;
+		}
+	}
+
+	public void setStatus(long bid, String status) throws SQLException {
+		this._store.setStatus(bid, status);
+	}
+
+	public long claimSeat(long ssid, long bid) throws SQLException {
+		return this._store.claimSeat(ssid, bid);
+	}
+
+	public long releaseSeat(long ssid) throws SQLException {
+		return this._store.releaseSeat(ssid);
+	}
+
+	public long[] seatsOf(long bid) throws SQLException {
+		return this._store.seatsOf(bid);
+	}
+
+	public long[] cancelPending() throws SQLException {
+		return this._store.cancelPending();
+	}
+
+	public void addPayment(long pid, long bid, String pmethod, double amount) throws SQLException {
+		this._store.addPayment(pid, bid, pmethod, amount);
+	}
+
+	public Payment removePayment(long pid) throws SQLException {
+		return this._store.removePayment(pid);
+	}
+
+	public long[] deleteCanceled() throws SQLException {
+		long[] deleted = this._store.deleteCanceled();
+		for (long bid : deleted) this._filters.bookings.forget(bid);
+		return deleted;
+	}
+
+	/**
+	 * @return the answer of a filter, with ABSENT taken as MAYBE while the
+	 *         filters are not followed
+	 */
+	private ExistenceFilter.Answer trusted(ExistenceFilter.Answer answer){
+		if (answer == ExistenceFilter.Answer.ABSENT && !this._filters.following) return ExistenceFilter.Answer.MAYBE;
+		return answer;
+	}
+
+	public void bookingAdded(long bid, long sid, String status){
+		this._filters.bookings.add(bid, true);
+	}
+
+	public void seatClaimed(long bid, long ssid, long sid){
+	}
+
+	public void seatReleased(long bid, long ssid, long sid){
+	}
+
+	public void paymentRemoved(long pid, long bid, double amount){
+	}
+
+	public void bookingCanceled(long bid){
+	}
+
+	public void bookingDeleted(long bid){
+		this._filters.bookings.forget(bid);
+	}
+}//end FilteredBookingStore
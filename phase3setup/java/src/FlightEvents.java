@@ -0,0 +1,220 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.List;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * This class holds the Java Flight Recorder events of the application:
+ * operations, statements, connection takes and cache activity.  They are
+ * off unless a recording enables them, e.g. with the ticketmaster.jfc
+ * profile next to the default one (profile.sh):
+ *
+ *   java -XX:StartFlightRecording=settings=default,settings=ticketmaster.jfc,filename=tm.jfr ...
+ *
+ * While off, an event is a begin/end pair the JIT removes; the statement
+ * fingerprint and the byte counts are only worked out for events that are
+ * recorded.
+ *
+ */
+
+public class FlightEvents{
+	private FlightEvents(){
+	}
+
+	@Name("ticketmaster.Operation")
+	@Label("Operation")
+	@Category("Ticketmaster")
+	@Description("A menu, API or batch operation")
+	@Enabled(false)
+	public static class Operation extends Event{
+		@Label("Name")
+		String name;
+
+		@Label("Outcome")
+		@Description("ok, the error of the result, or the exception thrown")
+		String outcome;
+
+		@Label("Interactive")
+		@Description("A menu operation, whose duration includes the prompts")
+		boolean interactive;
+
+		public static Operation start(){
+			Operation event = new Operation();
+			event.begin();
+			return event;
+		}
+
+		public void finish(String name, String outcome, boolean interactive){
+			end();
+			if (!shouldCommit()) return;
+			this.name = name;
+			this.outcome = outcome;
+			this.interactive = interactive;
+			commit();
+		}
+	}
+
+	@Name("ticketmaster.Sql")
+	@Label("SQL Statement")
+	@Category("Ticketmaster")
+	@Description("A statement issued through one of the JDBC helpers of Ticketmaster")
+	@Enabled(false)
+	public static class Sql extends Event{
+		@Label("Helper")
+		String helper;
+
+		@Label("Fingerprint")
+		@Description("The statement with its literals replaced, see SqlFingerprint")
+		String fingerprint;
+
+		@Label("Rows")
+		@Description("Rows returned, or changed by an update")
+		long rows;
+
+		@Label("Bytes")
+		@Description("Characters of the returned values")
+		@DataAmount
+		long bytes;
+
+		public static Sql start(){
+			Sql event = new Sql();
+			event.begin();
+			return event;
+		}
+
+		public void finish(String helper, String sql, long rows, long bytes){
+			end();
+			if (!shouldCommit()) return;
+			this.helper = helper;
+			this.fingerprint = SqlFingerprint.fingerprint(sql);
+			this.rows = rows;
+			this.bytes = bytes;
+			commit();
+		}
+
+		/**
+		 * Method to finish the event of a statement returning rows, counting
+		 * their characters only when the event is recorded.
+		 */
+		public void finish(String helper, String sql, List<List<String>> rows){
+			end();
+			if (!shouldCommit()) return;
+			long bytes = 0;
+			for (List<String> row : rows){
+				for (String value : row) bytes += value == null ? 0 : value.length();
+			}
+			this.helper = helper;
+			this.fingerprint = SqlFingerprint.fingerprint(sql);
+			this.rows = rows.size();
+			this.bytes = bytes;
+			commit();
+		}
+	}
+
+	@Name("ticketmaster.ConnectionTake")
+	@Label("Connection Take")
+	@Category("Ticketmaster")
+	@Description("A thread taking a connection from a ConnectionPool, including the wait for one")
+	@Enabled(false)
+	@StackTrace(false)
+	public static class ConnectionTake extends Event{
+		@Label("Opened")
+		@Description("No idle connection was left, a new one was opened")
+		boolean opened;
+
+		@Label("Obtained")
+		boolean obtained;
+
+		public static ConnectionTake start(){
+			ConnectionTake event = new ConnectionTake();
+			event.begin();
+			return event;
+		}
+
+		public void finish(boolean obtained, boolean opened){
+			end();
+			if (!shouldCommit()) return;
+			this.obtained = obtained;
+			this.opened = opened;
+			commit();
+		}
+	}
+
+	@Name("ticketmaster.CacheLoad")
+	@Label("Cache Load")
+	@Category("Ticketmaster")
+	@Description("An in-memory structure read from the database")
+	@Enabled(false)
+	public static class CacheLoad extends Event{
+		@Label("Cache")
+		String cache;
+
+		public static CacheLoad start(){
+			CacheLoad event = new CacheLoad();
+			event.begin();
+			return event;
+		}
+
+		public void finish(String cache){
+			end();
+			if (!shouldCommit()) return;
+			this.cache = cache;
+			commit();
+		}
+	}
+
+	@Name("ticketmaster.CacheLookup")
+	@Label("Cache Lookup")
+	@Category("Ticketmaster")
+	@Description("A key looked up in an existence filter; MAYBE costs a round trip")
+	@Enabled(false)
+	@StackTrace(false)
+	public static class CacheLookup extends Event{
+		@Label("Cache")
+		String cache;
+
+		@Label("Answer")
+		String answer;
+
+		public static void record(String cache, ExistenceFilter.Answer answer){
+			CacheLookup event = new CacheLookup();
+			if (!event.shouldCommit()) return;
+			event.cache = cache;
+			event.answer = answer.name();
+			event.commit();
+		}
+	}
+
+	@Name("ticketmaster.CacheInvalidate")
+	@Label("Cache Invalidate")
+	@Category("Ticketmaster")
+	@Description("Cached structures dropped because they may have missed changes")
+	@Enabled(false)
+	public static class CacheInvalidate extends Event{
+		@Label("Cache")
+		String cache;
+
+		public static void record(String cache){
+			CacheInvalidate event = new CacheInvalidate();
+			if (!event.shouldCommit()) return;
+			event.cache = cache;
+			event.commit();
+		}
+	}
+}//end FlightEvents
@@ -0,0 +1,484 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/**
+ * This class proposes indexes for the workload the application actually
+ * issues.  Run Ticketmaster with -Dticketmaster.capture=<file> to record
+ * the statements, then point the advisor at the file.  Each distinct
+ * fingerprint is explained once, candidate indexes are derived from the
+ * WHERE clauses, and the planner prices the workload with and without
+ * each candidate.
+ *
+ * The candidates are hypothetical indexes of the hypopg extension when it
+ * is installed (CREATE EXTENSION hypopg), which cost nothing to make and
+ * lock nothing.  Without it a candidate has to be built for real inside a
+ * rolled back transaction: a full index build per candidate, holding a
+ * SHARE lock that blocks every writer of the table meanwhile.  That is
+ * only done when --offline is given, for a copy of the database or a
+ * maintenance window.
+ *
+ */
+
+public class IndexAdvisor{
+	private static final Pattern COST = Pattern.compile("cost=[0-9.]+\\.\\.([0-9.]+)");
+	private static final Pattern FROM = Pattern.compile("\\bfrom\\s+(.+?)(?=\\bwhere\\b|\\border\\s+by\\b|\\bgroup\\s+by\\b|\\blimit\\b|\\breturning\\b|\\bintersect\\b|\\bunion\\b|\\)|$)");
+	private static final Pattern UPDATE = Pattern.compile("^update\\s+(\\w+)");
+	private static final Pattern PREDICATE = Pattern.compile("(?:(\\w+)\\.)?(\\w+)\\s*(=|<>|<=|>=|<|>|\\bin\\b|\\blike\\b)\\s*(?:(\\w+)\\.(\\w+)|('(?:[^']|'')*'|[0-9.]+|\\())", Pattern.CASE_INSENSITIVE);
+	private static final Pattern SELECT_LIST = Pattern.compile("^select\\s+(.+?)\\s+from\\s+(\\w+)(?:\\s+(\\w+))?\\s+where\\b");
+	private static final int LOW_CARDINALITY = 16;
+
+	private static final String USAGE = "Usage: java [-classpath <classpath>] " + IndexAdvisor.class.getName() +
+		" [--offline] <dbname> <port> <user> <capture file> [<migration file>]\n" +
+		"  Without the hypopg extension the candidate indexes are built for real, which blocks\n" +
+		"  writes to their tables while each one builds; --offline allows that.";
+
+	private final Ticketmaster _esql;
+	//price candidates as hypopg hypothetical indexes, else build them in a rolled back transaction
+	private boolean _hypothetical = false;
+	//fingerprint -> workload entry, in first seen order
+	private final Map<String, Workload> _workload = new LinkedHashMap<String, Workload>();
+	//table -> columns, both lower case
+	private final Map<String, Set<String>> _columns = new HashMap<String, Set<String>>();
+	//"table.column" for the leading column of every existing index
+	private final Set<String> _indexed = new HashSet<String>();
+
+	/**
+	 * One distinct statement of the workload.
+	 */
+	static class Workload{
+		String sample;
+		int count;
+		double cost;
+		Set<String> tables = new HashSet<String>();
+	}
+
+	/**
+	 * One proposed index with its estimated effect on the workload.
+	 */
+	static class Candidate{
+		String table;
+		List<String> columns = new ArrayList<String>();
+		List<String> include = new ArrayList<String>();
+		String predicate;
+		double before;
+		double after;
+
+		String name(){
+			StringBuilder name = new StringBuilder(this.table);
+			for (String column : this.columns) name.append('_').append(column);
+			if (this.predicate != null) name.append("_partial");
+			if (!this.include.isEmpty()) name.append("_covering");
+			name.append("_idx");
+			String result = name.toString().replaceAll("[^a-z0-9_]", "_");
+			return result.length() > 63 ? result.substring(0, 63) : result;
+		}
+
+		String ddl(){
+			return ddl(true);
+		}
+
+		/**
+		 * @param migration true for the migration, which may run again
+		 *        (IF NOT EXISTS), false for hypopg
+		 */
+		String ddl(boolean migration){
+			StringBuilder ddl = new StringBuilder("CREATE INDEX " + (migration ? "IF NOT EXISTS " + name() + " " : "") +
+				"ON " + this.table + "(" + String.join(", ", this.columns) + ")");
+			if (!this.include.isEmpty()) ddl.append(" INCLUDE (").append(String.join(", ", this.include)).append(")");
+			if (this.predicate != null) ddl.append(" WHERE ").append(this.predicate);
+			return ddl.toString();
+		}
+	}
+
+	public IndexAdvisor(Ticketmaster esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args [--offline] <dbname> <port> <user> <capture file> [<migration file>]
+	 */
+	public static void main(String[] args){
+		boolean offline = false;
+		List<String> rest = new ArrayList<String>();
+		for (String arg : args){
+			if (arg.equals("--offline")) offline = true;
+			else rest.add(arg);
+		}
+		if (rest.size() != 4 && rest.size() != 5){
+			System.err.println(USAGE);
+			return;
+		}
+		Ticketmaster esql = null;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new Ticketmaster(rest.get(0), rest.get(1), rest.get(2), "");
+			IndexAdvisor advisor = new IndexAdvisor(esql);
+			if (!advisor.useHypotheticalIndexes() && !offline){
+				System.err.println("The hypopg extension is not installed, so the candidate indexes would be built for real,");
+				System.err.println("blocking writes to their tables.  Install hypopg, or rerun with --offline on a copy of");
+				System.err.println("the database or in a maintenance window.");
+				System.err.println(USAGE);
+				return;
+			}
+			advisor.loadWorkload(rest.get(3));
+			advisor.loadSchema();
+			List<Candidate> accepted = advisor.advise();
+			advisor.report(accepted);
+			if (rest.size() == 5){
+				writeMigration(rest.get(4), accepted);
+				System.out.println("Migration written to " + rest.get(4));
+			}
+		}catch (Exception e){
+			System.err.println(e.getMessage());
+		}finally{
+			if (esql != null) esql.cleanup();
+		}
+	}
+
+	/**
+	 * Method to price the candidates as hypothetical indexes when the
+	 * hypopg extension is installed in the database.
+	 *
+	 * @return true when it is
+	 * @throws java.sql.SQLException when failed to read the catalog
+	 */
+	public boolean useHypotheticalIndexes() throws SQLException {
+		this._hypothetical = this._esql.executeQuery("SELECT 1 FROM pg_extension WHERE extname = 'hypopg'") > 0;
+		return this._hypothetical;
+	}
+
+	/**
+	 * Method to read a capture file and group its statements by fingerprint.
+	 * Only statements the planner can explain are kept.
+	 *
+	 * @param path the capture file
+	 * @throws java.io.IOException when the file can not be read
+	 */
+	public void loadWorkload(String path) throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try{
+			String line;
+			while ((line = reader.readLine()) != null){
+				String sql = line.trim();
+				if (sql.endsWith(";")) sql = sql.substring(0, sql.length() - 1);
+				String fingerprint = SqlFingerprint.fingerprint(sql);
+				if (!(fingerprint.startsWith("select") || fingerprint.startsWith("update") || fingerprint.startsWith("delete"))){
+					continue;
+				}
+				Workload entry = this._workload.get(fingerprint);
+				if (entry == null){
+					entry = new Workload();
+					entry.sample = sql;
+					entry.tables.addAll(tablesOf(fingerprint).values());
+					this._workload.put(fingerprint, entry);
+				}
+				++entry.count;
+			}
+		}finally{
+			reader.close();
+		}
+		System.out.println("Workload: " + this._workload.size() + " distinct statements");
+	}
+
+	/**
+	 * Method to read the columns and existing indexes of the public schema.
+	 *
+	 * @throws java.sql.SQLException when failed to read the catalog
+	 */
+	public void loadSchema() throws SQLException {
+		for (List<String> row : this._esql.executeQueryAndReturnResult(
+				"SELECT lower(table_name), lower(column_name) FROM information_schema.columns WHERE table_schema = 'public'")){
+			Set<String> columns = this._columns.get(row.get(0));
+			if (columns == null){
+				columns = new HashSet<String>();
+				this._columns.put(row.get(0), columns);
+			}
+			columns.add(row.get(1));
+		}
+		Pattern leading = Pattern.compile("\\(\\s*\"?(\\w+)");
+		for (List<String> row : this._esql.executeQueryAndReturnResult(
+				"SELECT lower(tablename), lower(indexdef) FROM pg_indexes WHERE schemaname = 'public' AND indexdef NOT LIKE '% WHERE %'")){
+			Matcher m = leading.matcher(row.get(1));
+			if (m.find()) this._indexed.add(row.get(0) + "." + m.group(1));
+		}
+	}
+
+	/**
+	 * Method to price the workload, derive candidate indexes and keep the
+	 * ones that lower its estimated cost.
+	 *
+	 * @return the accepted candidates, best saving first
+	 * @throws java.sql.SQLException when failed to explain the workload
+	 */
+	public List<Candidate> advise() throws SQLException {
+		Map<String, Candidate> candidates = new LinkedHashMap<String, Candidate>();
+		for (Map.Entry<String, Workload> entry : this._workload.entrySet()){
+			Workload statement = entry.getValue();
+			try{
+				statement.cost = explainCost(statement.sample);
+			}catch (SQLException e){
+				// statements that no longer plan, e.g. against dropped rows, are skipped
+				statement.cost = -1;
+				continue;
+			}
+			for (Candidate candidate : candidatesFor(entry.getKey(), statement.sample)){
+				if (!candidates.containsKey(candidate.ddl())) candidates.put(candidate.ddl(), candidate);
+			}
+		}
+
+		List<Candidate> accepted = new ArrayList<Candidate>();
+		for (Candidate candidate : candidates.values()){
+			candidate.before = workloadCost(candidate.table);
+			if (this._hypothetical){
+				String oid;
+				try{
+					oid = this._esql.executeQueryAndReturnResult(
+						"SELECT indexrelid FROM hypopg_create_index(" + JdbcBookingStore.quote(candidate.ddl(false)) + ")").get(0).get(0);
+				}catch (SQLException e){
+					// a kind of index hypopg can not simulate
+					continue;
+				}
+				try{
+					candidate.after = workloadCost(candidate.table);
+				}finally{
+					this._esql.executeQuery("SELECT hypopg_drop_index(" + oid + ")");
+				}
+			}else{
+				this._esql.executeUpdate("BEGIN");
+				try{
+					this._esql.executeUpdate(candidate.ddl());
+					candidate.after = workloadCost(candidate.table);
+				}finally{
+					this._esql.executeUpdate("ROLLBACK");
+				}
+			}
+			if (candidate.after < candidate.before) accepted.add(candidate);
+		}
+		Collections.sort(accepted, (a, b) -> Double.compare(b.before - b.after, a.before - a.after));
+		return accepted;
+	}
+
+	/**
+	 * Method to print the accepted candidates with their cost estimates.
+	 *
+	 * @param accepted the candidates returned by advise
+	 */
+	public void report(List<Candidate> accepted){
+		if (accepted.isEmpty()){
+			System.out.println("No index lowers the estimated cost of this workload.");
+			return;
+		}
+		System.out.printf("%-12s %12s %12s %8s  %s%n", "table", "before", "after", "saving", "index");
+		for (Candidate candidate : accepted){
+			System.out.printf("%-12s %12.2f %12.2f %7.1f%%  %s%n", candidate.table, candidate.before, candidate.after,
+				100.0 * (candidate.before - candidate.after) / candidate.before, candidate.ddl());
+		}
+	}
+
+	/**
+	 * Method to write the accepted candidates as a DDL migration.
+	 *
+	 * @param path the migration file
+	 * @param accepted the candidates returned by advise
+	 * @throws java.io.IOException when the file can not be written
+	 */
+	public static void writeMigration(String path, List<Candidate> accepted) throws IOException {
+		PrintWriter out = new PrintWriter(new FileWriter(path));
+		try{
+			out.println("-- Generated by IndexAdvisor");
+			for (Candidate candidate : accepted){
+				out.println();
+				out.printf("-- workload cost on %s: %.2f -> %.2f%n", candidate.table, candidate.before, candidate.after);
+				out.println(candidate.ddl() + ";");
+			}
+		}finally{
+			out.close();
+		}
+	}
+
+	private double explainCost(String sql) throws SQLException {
+		List<List<String>> plan = this._esql.executeQueryAndReturnResult("EXPLAIN " + sql);
+		Matcher m = COST.matcher(plan.get(0).get(0));
+		if (!m.find()) throw new SQLException("Unexpected plan: " + plan.get(0).get(0));
+		return Double.parseDouble(m.group(1));
+	}
+
+	/**
+	 * Method to sum count * cost over every statement that reads the table.
+	 */
+	private double workloadCost(String table) throws SQLException {
+		double total = 0;
+		for (Workload statement : this._workload.values()){
+			if (statement.cost < 0 || !statement.tables.contains(table)) continue;
+			total += statement.count * explainCost(statement.sample);
+		}
+		return total;
+	}
+
+	/**
+	 * Method to derive candidate indexes from the predicates of one statement:
+	 * one per filtered or joined column, one composite per table with several
+	 * equality columns, a partial index per equality on a low cardinality
+	 * column, and a covering index for single table lookups.
+	 */
+	private List<Candidate> candidatesFor(String fingerprint, String sample) throws SQLException {
+		List<Candidate> result = new ArrayList<Candidate>();
+		Map<String, String> tables = tablesOf(fingerprint);
+		int where = sample.toLowerCase().indexOf(" where ");
+		if (where < 0) return result;
+
+		//table -> filtered columns, table -> equality columns, table -> column = 'literal'
+		Map<String, Set<String>> filtered = new LinkedHashMap<String, Set<String>>();
+		Map<String, Set<String>> equalities = new LinkedHashMap<String, Set<String>>();
+		Map<String, Map<String, String>> literals = new LinkedHashMap<String, Map<String, String>>();
+		Matcher m = PREDICATE.matcher(sample.substring(where));
+		while (m.find()){
+			String table = resolve(tables, m.group(1), m.group(2).toLowerCase());
+			if (table == null) continue;
+			String column = m.group(2).toLowerCase();
+			String op = m.group(3).toLowerCase();
+			add(filtered, table, column);
+			if (op.equals("=") || op.equals("in")) add(equalities, table, column);
+			if (m.group(5) != null){
+				String other = resolve(tables, m.group(4), m.group(5).toLowerCase());
+				if (other != null) add(filtered, other, m.group(5).toLowerCase());
+			}else if (op.equals("=") && m.group(6) != null && m.group(6).startsWith("'")){
+				if (!literals.containsKey(table)) literals.put(table, new LinkedHashMap<String, String>());
+				literals.get(table).put(column, m.group(6));
+			}
+		}
+
+		for (Map.Entry<String, Set<String>> entry : filtered.entrySet()){
+			String table = entry.getKey();
+			for (String column : entry.getValue()){
+				if (this._indexed.contains(table + "." + column)) continue;
+				result.add(candidate(table, Collections.singletonList(column), null));
+			}
+			Set<String> equal = equalities.get(table);
+			if (equal != null && equal.size() > 1){
+				result.add(candidate(table, new ArrayList<String>(equal), null));
+			}
+			Map<String, String> constants = literals.get(table);
+			if (constants == null) continue;
+			for (Map.Entry<String, String> constant : constants.entrySet()){
+				if (!lowCardinality(table, constant.getKey())) continue;
+				List<String> key = new ArrayList<String>(entry.getValue());
+				key.remove(constant.getKey());
+				if (key.isEmpty()) key.add(constant.getKey());
+				result.add(candidate(table, key, constant.getKey() + " = " + constant.getValue()));
+			}
+		}
+
+		Matcher select = SELECT_LIST.matcher(fingerprint);
+		if (select.find() && !select.group(1).contains("*") && !select.group(1).contains("(") && filtered.size() == 1){
+			String table = filtered.keySet().iterator().next();
+			List<String> key = new ArrayList<String>(filtered.get(table));
+			Candidate covering = candidate(table, key, null);
+			for (String column : select.group(1).split(",")){
+				column = column.trim().replaceAll("^\\w+\\.", "");
+				if (!key.contains(column) && this._columns.containsKey(table) && this._columns.get(table).contains(column)){
+					covering.include.add(column);
+				}
+			}
+			if (!covering.include.isEmpty() && covering.include.size() <= 4) result.add(covering);
+		}
+		return result;
+	}
+
+	private static Candidate candidate(String table, List<String> columns, String predicate){
+		Candidate candidate = new Candidate();
+		candidate.table = table;
+		candidate.columns.addAll(columns);
+		candidate.predicate = predicate;
+		return candidate;
+	}
+
+	private static void add(Map<String, Set<String>> map, String key, String value){
+		Set<String> values = map.get(key);
+		if (values == null){
+			values = new LinkedHashSet<String>();
+			map.put(key, values);
+		}
+		values.add(value);
+	}
+
+	private boolean lowCardinality(String table, String column) throws SQLException {
+		List<List<String>> distinct = this._esql.executeQueryAndReturnResult(
+			"SELECT count(*) FROM (SELECT DISTINCT " + column + " FROM " + table + " LIMIT " + (LOW_CARDINALITY + 1) + ") d");
+		return Integer.parseInt(distinct.get(0).get(0)) <= LOW_CARDINALITY;
+	}
+
+	/**
+	 * Method to find the table a column reference belongs to, using the
+	 * alias when there is one and the catalog otherwise.
+	 *
+	 * @return the table or null when the reference is not a known column
+	 */
+	private String resolve(Map<String, String> tables, String qualifier, String column){
+		if (qualifier != null){
+			String table = tables.get(qualifier.toLowerCase());
+			return table != null && hasColumn(table, column) ? table : null;
+		}
+		for (String table : tables.values()){
+			if (hasColumn(table, column)) return table;
+		}
+		return null;
+	}
+
+	private boolean hasColumn(String table, String column){
+		Set<String> columns = this._columns.get(table);
+		return columns != null && columns.contains(column);
+	}
+
+	/**
+	 * Method to map the aliases of a fingerprint to their tables.  The menu
+	 * queries use comma joins, so the FROM lists are "table alias, ...".
+	 *
+	 * @return alias -> table, tables also map to themselves
+	 */
+	private static Map<String, String> tablesOf(String fingerprint){
+		Map<String, String> tables = new LinkedHashMap<String, String>();
+		Matcher update = UPDATE.matcher(fingerprint);
+		if (update.find()) tables.put(update.group(1), update.group(1));
+		Matcher from = FROM.matcher(fingerprint);
+		while (from.find()){
+			for (String item : from.group(1).split(",")){
+				String[] words = item.trim().split("\\s+");
+				if (words.length == 0 || !words[0].matches("\\w+") || words[0].equals("select")) continue;
+				tables.put(words[0], words[0]);
+				if (words.length > 1 && words[words.length - 1].matches("\\w+")){
+					tables.put(words[words.length - 1], words[0]);
+				}
+			}
+		}
+		return tables;
+	}
+}//end IndexAdvisor
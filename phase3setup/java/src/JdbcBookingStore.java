@@ -0,0 +1,150 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+
+
+/**
+ * This class is the booking store kept in Postgres through a Ticketmaster
+ * connection, with the statements the menu operations used to issue
+ * themselves.  UserBookingHistory is maintained along (BookingHistory).
+ *
+ */
+
+public class JdbcBookingStore implements BookingStore{
+	private final Ticketmaster _esql;
+
+	public JdbcBookingStore(Ticketmaster esql){
+		this._esql = esql;
+	}
+
+	public void addUser(String email, String lname, String fname, String phone, String pwd) throws SQLException {
+		this._esql.executeUpdate("INSERT INTO Users VALUES (" + quote(email) + ", " + quote(lname) + ", " + quote(fname) + ", " +
+			(phone == null || phone.isEmpty() ? "NULL" : phone) + ", " + quote(pwd) + ")");
+	}
+
+	public boolean userExists(String email) throws SQLException {
+		return this._esql.executeQuery("SELECT 1 FROM Users WHERE email = " + quote(email)) > 0;
+	}
+
+	public void addShow(long sid, long mvid, LocalDate sdate, LocalTime sttime, LocalTime edtime) throws SQLException {
+		this._esql.executeUpdate("INSERT INTO Shows (sid, mvid, sdate, sttime, edtime) VALUES (" + sid + ", " + mvid + ", '" +
+			sdate + "', '" + sttime + "', '" + edtime + "')");
+	}
+
+	public boolean showExists(long sid) throws SQLException {
+		return this._esql.executeQuery("SELECT 1 FROM Shows WHERE sid = " + sid) > 0;
+	}
+
+	public void addShowSeat(long ssid, long sid, long csid, double price) throws SQLException {
+		if (this._esql.isPartitioned()){
+			// the date comes from the show, so a missing show inserts nothing rather than failing its key
+			if (this._esql.executeUpdate("INSERT INTO ShowSeats (ssid, sid, csid, price, sdate) SELECT " + ssid + ", sid, " + csid + ", " +
+					price + ", sdate FROM Shows WHERE sid = " + sid) == 0){
+				throw new SQLException("Show " + sid + " is not present in Shows", FOREIGN_KEY_VIOLATION);
+			}
+		}else{
+			this._esql.executeUpdate("INSERT INTO ShowSeats (ssid, sid, csid, price) VALUES (" + ssid + ", " + sid + ", " + csid + ", " + price + ")");
+		}
+	}
+
+	/**
+	 * One round trip: the insert only happens when the show and the user
+	 * exist, a taken id is left alone, and the outcome is worked out in the
+	 * same statement.  A booking has no seats yet, so it has no history rows.
+	 */
+	public BookingOutcome createBooking(long bid, String status, String bdatetime, int seats, long sid, String email) throws SQLException {
+		String show = "EXISTS (SELECT 1 FROM Shows WHERE sid = " + sid + ")";
+		String user = "EXISTS (SELECT 1 FROM Users WHERE email = " + quote(email) + ")";
+		String outcome = this._esql.executeQueryAndReturnResult(
+			"WITH ins AS (INSERT INTO Bookings (bid, status, bdatetime, seats, sid, email) " +
+			"SELECT " + bid + ", " + quote(status) + ", " + quote(bdatetime) + ", " + seats + ", " + sid + ", " + quote(email) +
+			" WHERE " + show + " AND " + user + " ON CONFLICT (bid) DO NOTHING RETURNING bid) " +
+			"SELECT CASE WHEN EXISTS (SELECT 1 FROM ins) THEN 'CREATED' " +
+			"WHEN EXISTS (SELECT 1 FROM Bookings WHERE bid = " + bid + ") THEN 'DUPLICATE' " +
+			"WHEN NOT " + show + " THEN 'UNKNOWN_SHOW' " +
+			"WHEN NOT " + user + " THEN 'UNKNOWN_USER' " +
+			// taken by a booking committed after this statement's snapshot
+			"ELSE 'DUPLICATE' END").get(0).get(0);
+		return BookingOutcome.valueOf(outcome);
+	}
+
+	public boolean bookingExists(long bid) throws SQLException {
+		return this._esql.executeQuery("SELECT 1 FROM Bookings WHERE bid = " + bid) > 0;
+	}
+
+	public void setStatus(long bid, String status) throws SQLException {
+		this._esql.executeUpdate("UPDATE Bookings SET status = " + quote(status) + " WHERE bid = " + bid);
+		BookingHistory.setStatus(this._esql, Long.toString(bid), status);
+	}
+
+	public long claimSeat(long ssid, long bid) throws SQLException {
+		long sid = update("UPDATE ShowSeats SET bid = " + bid + " WHERE ssid = " + ssid + " RETURNING sid");
+		if (sid >= 0) BookingHistory.refreshBooking(this._esql, Long.toString(bid));
+		return sid;
+	}
+
+	public long releaseSeat(long ssid) throws SQLException {
+		List<List<String>> released = this._esql.executeQueryAndReturnResult(
+			"UPDATE ShowSeats s SET bid = NULL FROM ShowSeats old WHERE s.ssid = old.ssid AND s.ssid = " + ssid + " RETURNING s.sid, old.bid");
+		if (released.isEmpty()) return -1;
+		if (released.get(0).get(1) != null) BookingHistory.refreshBooking(this._esql, released.get(0).get(1));
+		return Long.parseLong(released.get(0).get(0));
+	}
+
+	public long[] seatsOf(long bid) throws SQLException {
+		return ids(this._esql.executeQueryAndReturnResult("SELECT ssid FROM ShowSeats WHERE bid = " + bid + " ORDER BY ssid"));
+	}
+
+	public long[] cancelPending() throws SQLException {
+		long[] canceled = ids(this._esql.executeQueryAndReturnResult(
+			"UPDATE Bookings SET seats = 0, status = 'Canceled' WHERE status = 'Pending' RETURNING bid"));
+		BookingHistory.setStatus(this._esql, canceled, "Canceled");
+		return canceled;
+	}
+
+	public void addPayment(long pid, long bid, String pmethod, double amount) throws SQLException {
+		this._esql.executeUpdate("INSERT INTO Payments (pid, bid, pmethod, pdatetime, amount) VALUES (" + pid + ", " + bid + ", " +
+			quote(pmethod) + ", now(), " + amount + ")");
+	}
+
+	public Payment removePayment(long pid) throws SQLException {
+		List<List<String>> removed = this._esql.executeQueryAndReturnResult("DELETE FROM Payments WHERE pid = " + pid + " RETURNING bid, amount");
+		if (removed.isEmpty()) return null;
+		return new Payment(Long.parseLong(removed.get(0).get(0)), Double.parseDouble(removed.get(0).get(1)));
+	}
+
+	public long[] deleteCanceled() throws SQLException {
+		return ids(this._esql.executeQueryAndReturnResult(
+			"WITH doomed AS (SELECT bid FROM Bookings WHERE status = 'Canceled'), " +
+			"h AS (DELETE FROM UserBookingHistory WHERE bid IN (SELECT bid FROM doomed)), " +
+			"p AS (DELETE FROM Payments WHERE bid IN (SELECT bid FROM doomed)), " +
+			"s AS (UPDATE ShowSeats SET bid = NULL WHERE bid IN (SELECT bid FROM doomed)) " +
+			"DELETE FROM Bookings WHERE bid IN (SELECT bid FROM doomed) RETURNING bid"));
+	}
+
+	private long update(String sql) throws SQLException {
+		List<List<String>> rows = this._esql.executeQueryAndReturnResult(sql);
+		return rows.isEmpty() ? -1 : Long.parseLong(rows.get(0).get(0));
+	}
+
+	private static long[] ids(List<List<String>> rows){
+		long[] ids = new long[rows.size()];
+		for (int i = 0; i < ids.length; ++i) ids[i] = Long.parseLong(rows.get(i).get(0));
+		return ids;
+	}
+
+	static String quote(String text){
+		return text == null ? "NULL" : "'" + text.replace("'", "''") + "'";
+	}
+}//end JdbcBookingStore
@@ -0,0 +1,287 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class writes and reads the JSON the API server and the batch mode
+ * exchange: objects, arrays, strings, numbers, booleans and null.  Writing
+ * goes straight to an Appendable, so a listing is written row by row.
+ * Numbers are read back as Long when integral, Double otherwise.
+ *
+ */
+
+public class Json{
+	private final String _text;
+	private int _at = 0;
+
+	private Json(String text){
+		this._text = text;
+	}
+
+	/**
+	 * Method to write a value: a Map (keys written as strings), an
+	 * Iterable, a long[], a Number, a Boolean, null or anything else as a
+	 * string.
+	 *
+	 * @param out where to write
+	 * @param value the value
+	 * @throws java.io.IOException when failed to write
+	 */
+	public static void write(Appendable out, Object value) throws IOException {
+		if (value == null){
+			out.append("null");
+		}else if (value instanceof Map){
+			out.append('{');
+			boolean first = true;
+			for (Map.Entry<?, ?> field : ((Map<?, ?>) value).entrySet()){
+				if (!first) out.append(',');
+				string(out, String.valueOf(field.getKey()));
+				out.append(':');
+				write(out, field.getValue());
+				first = false;
+			}
+			out.append('}');
+		}else if (value instanceof Iterable){
+			out.append('[');
+			boolean first = true;
+			for (Object element : (Iterable<?>) value){
+				if (!first) out.append(',');
+				write(out, element);
+				first = false;
+			}
+			out.append(']');
+		}else if (value instanceof long[]){
+			out.append('[');
+			long[] values = (long[]) value;
+			for (int i = 0; i < values.length; ++i){
+				if (i > 0) out.append(',');
+				out.append(Long.toString(values[i]));
+			}
+			out.append(']');
+		}else if (value instanceof Double || value instanceof Float){
+			double number = ((Number) value).doubleValue();
+			out.append(Double.isFinite(number) ? value.toString() : "null");
+		}else if (value instanceof Number || value instanceof Boolean){
+			out.append(value.toString());
+		}else{
+			string(out, value.toString());
+		}
+	}
+
+	/**
+	 * @return the value written as JSON
+	 */
+	public static String toJson(Object value){
+		StringBuilder out = new StringBuilder();
+		try{
+			write(out, value);
+		}catch (IOException e){
+			throw new IllegalStateException(e);
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Method to write a string literal.
+	 */
+	public static void string(Appendable out, String text) throws IOException {
+		out.append('"');
+		for (int i = 0; i < text.length(); ++i){
+			char c = text.charAt(i);
+			switch (c){
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if (c < 0x20){
+						out.append(String.format("\\u%04x", (int) c));
+					}else{
+						out.append(c);
+					}
+			}
+		}
+		out.append('"');
+	}
+
+	/**
+	 * Method to read one JSON value.
+	 *
+	 * @param text the JSON text
+	 * @return a Map, List, String, Long, Double, Boolean or null
+	 * @throws IllegalArgumentException when the text is not JSON
+	 */
+	public static Object parse(String text){
+		Json json = new Json(text);
+		Object value = json.value();
+		json.space();
+		if (json._at < text.length()) throw json.error("Unexpected text after the value");
+		return value;
+	}
+
+	/**
+	 * Method to read a JSON object.
+	 *
+	 * @throws IllegalArgumentException when the text is not a JSON object
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> parseObject(String text){
+		Object value = parse(text);
+		if (!(value instanceof Map)) throw new IllegalArgumentException("Expected a JSON object");
+		return (Map<String, Object>) value;
+	}
+
+	private Object value(){
+		space();
+		if (this._at >= this._text.length()) throw error("Unexpected end of text");
+		char c = this._text.charAt(this._at);
+		switch (c){
+			case '{': return object();
+			case '[': return array();
+			case '"': return string();
+			case 't': return literal("true", Boolean.TRUE);
+			case 'f': return literal("false", Boolean.FALSE);
+			case 'n': return literal("null", null);
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) return number();
+				throw error("Unexpected character '" + c + "'");
+		}
+	}
+
+	private Map<String, Object> object(){
+		Map<String, Object> object = new LinkedHashMap<String, Object>();
+		++this._at;
+		space();
+		if (peek() == '}'){
+			++this._at;
+			return object;
+		}
+		while (true){
+			space();
+			if (peek() != '"') throw error("Expected a field name");
+			String name = string();
+			space();
+			expect(':');
+			object.put(name, value());
+			space();
+			if (peek() == ','){
+				++this._at;
+			}else{
+				expect('}');
+				return object;
+			}
+		}
+	}
+
+	private List<Object> array(){
+		List<Object> array = new ArrayList<Object>();
+		++this._at;
+		space();
+		if (peek() == ']'){
+			++this._at;
+			return array;
+		}
+		while (true){
+			array.add(value());
+			space();
+			if (peek() == ','){
+				++this._at;
+			}else{
+				expect(']');
+				return array;
+			}
+		}
+	}
+
+	private String string(){
+		StringBuilder s = new StringBuilder();
+		++this._at;
+		while (true){
+			if (this._at >= this._text.length()) throw error("Unterminated string");
+			char c = this._text.charAt(this._at++);
+			if (c == '"') return s.toString();
+			if (c != '\\'){
+				s.append(c);
+				continue;
+			}
+			if (this._at >= this._text.length()) throw error("Unterminated string");
+			char escaped = this._text.charAt(this._at++);
+			switch (escaped){
+				case 'b': s.append('\b'); break;
+				case 'f': s.append('\f'); break;
+				case 'n': s.append('\n'); break;
+				case 'r': s.append('\r'); break;
+				case 't': s.append('\t'); break;
+				case 'u':
+					if (this._at + 4 > this._text.length()) throw error("Bad unicode escape");
+					try{
+						s.append((char) Integer.parseInt(this._text.substring(this._at, this._at + 4), 16));
+					}catch (NumberFormatException e){
+						throw error("Bad unicode escape");
+					}
+					this._at += 4;
+					break;
+				default: s.append(escaped);
+			}
+		}
+	}
+
+	private Object number(){
+		int start = this._at;
+		if (peek() == '-') ++this._at;
+		boolean integral = true;
+		while (this._at < this._text.length()){
+			char c = this._text.charAt(this._at);
+			if (c == '.' || c == 'e' || c == 'E' || c == '+' || (c == '-' && this._at > start)){
+				integral = false;
+			}else if (c < '0' || c > '9'){
+				break;
+			}
+			++this._at;
+		}
+		String number = this._text.substring(start, this._at);
+		try{
+			if (integral) return Long.parseLong(number);
+			return Double.parseDouble(number);
+		}catch (NumberFormatException e){
+			throw error("Bad number " + number);
+		}
+	}
+
+	private Object literal(String word, Object value){
+		if (!this._text.startsWith(word, this._at)) throw error("Unexpected word");
+		this._at += word.length();
+		return value;
+	}
+
+	private void space(){
+		while (this._at < this._text.length() && Character.isWhitespace(this._text.charAt(this._at))) ++this._at;
+	}
+
+	private char peek(){
+		return this._at < this._text.length() ? this._text.charAt(this._at) : '\0';
+	}
+
+	private void expect(char c){
+		if (peek() != c) throw error("Expected '" + c + "'");
+		++this._at;
+	}
+
+	private IllegalArgumentException error(String message){
+		return new IllegalArgumentException(message + " at offset " + this._at);
+	}
+}//end Json
@@ -0,0 +1,146 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+
+/**
+ * This class pages through a listing with keyset (seek) pagination.  The
+ * listing is ordered by a stable key, and each page starts right after
+ * the key of the last row of the previous page, so every page costs the
+ * same index range scan no matter how deep it is.  The position is handed
+ * to callers as an opaque continuation token.
+ *
+ */
+
+public class KeysetQuery{
+	public static final int DEFAULT_PAGE_SIZE = Integer.getInteger("ticketmaster.pagesize", 50);
+	public static final int MAX_PAGE_SIZE = 1000;
+	private static final String SEPARATOR = "\u001f";
+
+	private final String _select;
+	private final String _from;
+	private final String _where;
+	private final String[] _keys;
+
+	/**
+	 * One page of a listing.
+	 */
+	public static class Page{
+		public final List<List<String>> rows;
+		//token of the next page or null when this is the last page
+		public final String next;
+
+		Page(List<List<String>> rows, String next){
+			this.rows = rows;
+			this.next = next;
+		}
+	}
+
+	/**
+	 * @param select the columns to return, e.g. "u.fname, u.email"
+	 * @param from the FROM list
+	 * @param where the filter, or null
+	 * @param keys the columns of a unique key the listing is ordered by
+	 */
+	public KeysetQuery(String select, String from, String where, String... keys){
+		this._select = select;
+		this._from = from;
+		this._where = where;
+		this._keys = keys;
+	}
+
+	/**
+	 * Method to list the names of the returned columns, for headers.
+	 *
+	 * @return the column names without table aliases
+	 */
+	public List<String> columnNames(){
+		List<String> names = new ArrayList<String>();
+		for (String column : this._select.split(",")){
+			String[] words = column.trim().split("\\s+");
+			names.add(words[words.length - 1].replaceAll("^\\w+\\.", ""));
+		}
+		return names;
+	}
+
+	/**
+	 * Method to fetch one page.
+	 *
+	 * @param esql the database to read from
+	 * @param token the token of the page, or null for the first page
+	 * @param pageSize the number of rows per page, clamped to 1..MAX_PAGE_SIZE
+	 * @return the page
+	 * @throws java.sql.SQLException when failed to execute the query
+	 * @throws IllegalArgumentException when the token is not valid for this listing
+	 */
+	public Page fetch(Ticketmaster esql, String token, int pageSize) throws SQLException {
+		pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+		List<List<String>> rows = esql.executeQueryAndReturnResult(sql(token, pageSize + 1));
+		String next = null;
+		if (rows.size() > pageSize){
+			rows = rows.subList(0, pageSize);
+			next = encode(rows.get(pageSize - 1));
+		}
+		// the key columns were only needed for the token
+		int visible = columnNames().size();
+		List<List<String>> result = new ArrayList<List<String>>(rows.size());
+		for (List<String> row : rows){
+			result.add(new ArrayList<String>(row.subList(0, visible)));
+		}
+		return new Page(result, next);
+	}
+
+	/**
+	 * Method to build the query for one page.
+	 *
+	 * @param token the token of the page, or null for the first page
+	 * @param limit the number of rows to fetch
+	 * @return the query string
+	 */
+	public String sql(String token, int limit){
+		String keys = String.join(", ", this._keys);
+		StringBuilder sql = new StringBuilder("SELECT " + this._select + ", " + keys + " FROM " + this._from);
+		String seek = token == null ? null : "(" + keys + ") > (" + decode(token) + ")";
+		if (this._where != null && seek != null) sql.append(" WHERE " + this._where + " AND " + seek);
+		else if (this._where != null) sql.append(" WHERE " + this._where);
+		else if (seek != null) sql.append(" WHERE " + seek);
+		sql.append(" ORDER BY " + keys + " LIMIT " + limit);
+		return sql.toString();
+	}
+
+	private String encode(List<String> row){
+		List<String> values = row.subList(row.size() - this._keys.length, row.size());
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(String.join(SEPARATOR, values).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Method to turn a token back into a list of quoted SQL literals.
+	 */
+	private String decode(String token){
+		String[] values;
+		try{
+			values = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(SEPARATOR, -1);
+		}catch (IllegalArgumentException e){
+			throw new IllegalArgumentException("Invalid continuation token");
+		}
+		if (values.length != this._keys.length) throw new IllegalArgumentException("Invalid continuation token");
+		StringBuilder literals = new StringBuilder();
+		for (int i = 0; i < values.length; ++i){
+			if (i > 0) literals.append(", ");
+			literals.append('\'').append(values[i].replace("'", "''")).append('\'');
+		}
+		return literals.toString();
+	}
+}//end KeysetQuery
@@ -0,0 +1,160 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Arrays;
+
+
+/**
+ * This class defines a small open addressing hash map keyed by primitive
+ * longs.  It is used by the in-memory caches so that the ids we read from
+ * the database never have to be boxed.
+ *
+ */
+
+public class LongMap<V>{
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] _keys;
+	private Object[] _values;
+	private int _size = 0;
+
+	public LongMap(){
+		this(16);
+	}
+
+	public LongMap(int expected){
+		int capacity = 16;
+		while (capacity < expected * 2) capacity <<= 1;
+		this._keys = new long[capacity];
+		this._values = new Object[capacity];
+		Arrays.fill(this._keys, EMPTY);
+	}
+
+	/**
+	 * Method to look up the value stored for a key.
+	 *
+	 * @param key the key, any value except Long.MIN_VALUE
+	 * @return the value or null when the key is not present
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(long key){
+		int i = slot(key, this._keys);
+		return this._keys[i] == key ? (V) this._values[i] : null;
+	}
+
+	public boolean containsKey(long key){
+		return this._keys[slot(key, this._keys)] == key;
+	}
+
+	/**
+	 * Method to store a value, replacing any previous value for the key.
+	 *
+	 * @param key the key, any value except Long.MIN_VALUE
+	 * @param value the value to store
+	 * @return the previous value or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value){
+		if (key == EMPTY) throw new IllegalArgumentException("Key " + key + " is reserved");
+		if ((this._size + 1) * 2 > this._keys.length) grow();
+		int i = slot(key, this._keys);
+		V old = (V) this._values[i];
+		if (this._keys[i] != key){
+			this._keys[i] = key;
+			++this._size;
+		}
+		this._values[i] = value;
+		return old;
+	}
+
+	/**
+	 * Method to remove a key.  Uses backward shift deletion so lookups
+	 * never need tombstones.
+	 *
+	 * @param key the key to remove
+	 * @return the removed value or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key){
+		int i = slot(key, this._keys);
+		if (this._keys[i] != key) return null;
+		V old = (V) this._values[i];
+		int mask = this._keys.length - 1;
+		int hole = i;
+		int j = i;
+		while (true){
+			j = (j + 1) & mask;
+			if (this._keys[j] == EMPTY) break;
+			int home = hash(this._keys[j]) & mask;
+			// move the entry back only if its home slot is not between the hole and j
+			if (((j - home) & mask) >= ((j - hole) & mask)){
+				this._keys[hole] = this._keys[j];
+				this._values[hole] = this._values[j];
+				hole = j;
+			}
+		}
+		this._keys[hole] = EMPTY;
+		this._values[hole] = null;
+		--this._size;
+		return old;
+	}
+
+	public int size(){
+		return this._size;
+	}
+
+	public void clear(){
+		Arrays.fill(this._keys, EMPTY);
+		Arrays.fill(this._values, null);
+		this._size = 0;
+	}
+
+	/**
+	 * Method to list the keys currently stored, in no particular order.
+	 *
+	 * @return a new array with every key
+	 */
+	public long[] keys(){
+		long[] result = new long[this._size];
+		int n = 0;
+		for (long key : this._keys){
+			if (key != EMPTY) result[n++] = key;
+		}
+		return result;
+	}
+
+	private void grow(){
+		long[] oldKeys = this._keys;
+		Object[] oldValues = this._values;
+		this._keys = new long[oldKeys.length * 2];
+		this._values = new Object[oldKeys.length * 2];
+		Arrays.fill(this._keys, EMPTY);
+		for (int i = 0; i < oldKeys.length; ++i){
+			if (oldKeys[i] == EMPTY) continue;
+			int j = slot(oldKeys[i], this._keys);
+			this._keys[j] = oldKeys[i];
+			this._values[j] = oldValues[i];
+		}
+	}
+
+	private static int slot(long key, long[] keys){
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != EMPTY && keys[i] != key){
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private static int hash(long key){
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}//end LongMap
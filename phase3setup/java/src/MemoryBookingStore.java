@@ -0,0 +1,249 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+
+/**
+ * This class is a booking store held in memory, for tests and benchmarks
+ * that should not need Postgres.  Rows are kept in LongMaps by their keys;
+ * the unique (sid, csid) seats, the seats of a booking and the bookings of
+ * a status are sorted indexes next to them.  Every method holds the store
+ * lock, so each call is atomic like a single statement.
+ *
+ */
+
+public class MemoryBookingStore implements BookingStore{
+	private static class User{
+		String lname, fname, phone, pwd;
+	}
+
+	private static class Show{
+		long mvid;
+		LocalDate sdate;
+		LocalTime sttime, edtime;
+	}
+
+	private static class Seat{
+		long sid, csid, bid = -1;
+		double price;
+	}
+
+	private static class Booking{
+		String status, bdatetime, email;
+		int seats;
+		long sid;
+		long pid = -1;
+	}
+
+	private static class Paid{
+		long bid;
+		String pmethod;
+		double amount;
+	}
+
+	private final Map<String, User> _users = new HashMap<String, User>();
+	private final LongMap<Show> _shows = new LongMap<Show>();
+	private final LongMap<Seat> _seats = new LongMap<Seat>();
+	private final LongMap<Booking> _bookings = new LongMap<Booking>();
+	private final LongMap<Paid> _payments = new LongMap<Paid>();
+	//UNIQUE(sid, csid): sid -> csid -> ssid
+	private final LongMap<LongMap<Long>> _seatOfShow = new LongMap<LongMap<Long>>();
+	//bid -> ssids held
+	private final LongMap<NavigableSet<Long>> _seatsOfBooking = new LongMap<NavigableSet<Long>>();
+	//status -> bids
+	private final TreeMap<String, NavigableSet<Long>> _byStatus = new TreeMap<String, NavigableSet<Long>>();
+
+	public synchronized void addUser(String email, String lname, String fname, String phone, String pwd) throws SQLException {
+		if (this._users.containsKey(email)) throw unique("Users", email);
+		User user = new User();
+		user.lname = lname;
+		user.fname = fname;
+		user.phone = phone;
+		user.pwd = pwd;
+		this._users.put(email, user);
+	}
+
+	public synchronized boolean userExists(String email){
+		return this._users.containsKey(email);
+	}
+
+	public synchronized void addShow(long sid, long mvid, LocalDate sdate, LocalTime sttime, LocalTime edtime) throws SQLException {
+		if (this._shows.containsKey(sid)) throw unique("Shows", sid);
+		Show show = new Show();
+		show.mvid = mvid;
+		show.sdate = sdate;
+		show.sttime = sttime;
+		show.edtime = edtime;
+		this._shows.put(sid, show);
+	}
+
+	public synchronized boolean showExists(long sid){
+		return this._shows.containsKey(sid);
+	}
+
+	public synchronized void addShowSeat(long ssid, long sid, long csid, double price) throws SQLException {
+		if (this._seats.containsKey(ssid)) throw unique("ShowSeats", ssid);
+		if (!this._shows.containsKey(sid)) throw missing("Shows", sid);
+		LongMap<Long> seats = this._seatOfShow.get(sid);
+		if (seats == null){
+			seats = new LongMap<Long>();
+			this._seatOfShow.put(sid, seats);
+		}
+		if (seats.containsKey(csid)) throw unique("ShowSeats (sid, csid)", sid + ", " + csid);
+		Seat seat = new Seat();
+		seat.sid = sid;
+		seat.csid = csid;
+		seat.price = price;
+		this._seats.put(ssid, seat);
+		seats.put(csid, ssid);
+	}
+
+	public synchronized BookingOutcome createBooking(long bid, String status, String bdatetime, int seats, long sid, String email){
+		if (this._bookings.containsKey(bid)) return BookingOutcome.DUPLICATE;
+		if (!this._shows.containsKey(sid)) return BookingOutcome.UNKNOWN_SHOW;
+		if (!this._users.containsKey(email)) return BookingOutcome.UNKNOWN_USER;
+		Booking booking = new Booking();
+		booking.status = status;
+		booking.bdatetime = bdatetime;
+		booking.seats = seats;
+		booking.sid = sid;
+		booking.email = email;
+		this._bookings.put(bid, booking);
+		index(this._byStatus, status).add(bid);
+		return BookingOutcome.CREATED;
+	}
+
+	public synchronized boolean bookingExists(long bid){
+		return this._bookings.containsKey(bid);
+	}
+
+	public synchronized void setStatus(long bid, String status){
+		Booking booking = this._bookings.get(bid);
+		if (booking == null) return;
+		this._byStatus.get(booking.status).remove(bid);
+		booking.status = status;
+		index(this._byStatus, status).add(bid);
+	}
+
+	public synchronized long claimSeat(long ssid, long bid) throws SQLException {
+		Seat seat = this._seats.get(ssid);
+		if (seat == null) return -1;
+		if (!this._bookings.containsKey(bid)) throw missing("Bookings", bid);
+		free(ssid, seat);
+		seat.bid = bid;
+		NavigableSet<Long> held = this._seatsOfBooking.get(bid);
+		if (held == null){
+			held = new TreeSet<Long>();
+			this._seatsOfBooking.put(bid, held);
+		}
+		held.add(ssid);
+		return seat.sid;
+	}
+
+	public synchronized long releaseSeat(long ssid){
+		Seat seat = this._seats.get(ssid);
+		if (seat == null) return -1;
+		free(ssid, seat);
+		return seat.sid;
+	}
+
+	public synchronized long[] seatsOf(long bid){
+		NavigableSet<Long> held = this._seatsOfBooking.get(bid);
+		return held == null ? new long[0] : toArray(held);
+	}
+
+	public synchronized long[] cancelPending(){
+		NavigableSet<Long> pending = this._byStatus.remove("Pending");
+		if (pending == null) return new long[0];
+		for (long bid : pending){
+			Booking booking = this._bookings.get(bid);
+			booking.status = "Canceled";
+			booking.seats = 0;
+		}
+		index(this._byStatus, "Canceled").addAll(pending);
+		return toArray(pending);
+	}
+
+	public synchronized void addPayment(long pid, long bid, String pmethod, double amount) throws SQLException {
+		if (this._payments.containsKey(pid)) throw unique("Payments", pid);
+		Booking booking = this._bookings.get(bid);
+		if (booking == null) throw missing("Bookings", bid);
+		if (booking.pid >= 0) throw unique("Payments (bid)", bid);
+		Paid payment = new Paid();
+		payment.bid = bid;
+		payment.pmethod = pmethod;
+		payment.amount = amount;
+		this._payments.put(pid, payment);
+		booking.pid = pid;
+	}
+
+	public synchronized Payment removePayment(long pid){
+		Paid payment = this._payments.remove(pid);
+		if (payment == null) return null;
+		Booking booking = this._bookings.get(payment.bid);
+		if (booking != null) booking.pid = -1;
+		return new Payment(payment.bid, payment.amount);
+	}
+
+	public synchronized long[] deleteCanceled(){
+		NavigableSet<Long> canceled = this._byStatus.remove("Canceled");
+		if (canceled == null) return new long[0];
+		for (long bid : canceled){
+			Booking booking = this._bookings.remove(bid);
+			if (booking.pid >= 0) this._payments.remove(booking.pid);
+			NavigableSet<Long> held = this._seatsOfBooking.remove(bid);
+			if (held == null) continue;
+			for (long ssid : held) this._seats.get(ssid).bid = -1;
+		}
+		return toArray(canceled);
+	}
+
+	/**
+	 * Method to take a seat away from the booking holding it, if any.
+	 */
+	private void free(long ssid, Seat seat){
+		if (seat.bid < 0) return;
+		NavigableSet<Long> held = this._seatsOfBooking.get(seat.bid);
+		if (held != null) held.remove(ssid);
+		seat.bid = -1;
+	}
+
+	private static NavigableSet<Long> index(TreeMap<String, NavigableSet<Long>> index, String key){
+		NavigableSet<Long> ids = index.get(key);
+		if (ids == null){
+			ids = new TreeSet<Long>();
+			index.put(key, ids);
+		}
+		return ids;
+	}
+
+	private static long[] toArray(NavigableSet<Long> ids){
+		long[] array = new long[ids.size()];
+		int i = 0;
+		for (long id : ids) array[i++] = id;
+		return array;
+	}
+
+	private static SQLException unique(String table, Object key){
+		return new SQLException("duplicate key value violates unique constraint on " + table + ": " + key, UNIQUE_VIOLATION);
+	}
+
+	private static SQLException missing(String table, Object key){
+		return new SQLException("foreign key violation: " + key + " is not present in " + table, FOREIGN_KEY_VIOLATION);
+	}
+}//end MemoryBookingStore
@@ -0,0 +1,460 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+
+/**
+ * This class is a registry of counters, gauges and histograms, written out
+ * in the Prometheus text format.  Recording is lock free: a counter or a
+ * histogram bucket is a LongAdder, and the series of a labelled metric are
+ * found in a ConcurrentHashMap, or held by the caller when the labels are
+ * known up front.  Gauges are read only when the metrics are written.
+ *
+ * The metrics of the application are the static fields below.  They are
+ * always recorded; exportFromSystemProperties makes them readable:
+ *
+ *   ticketmaster.metricsport     serve them on http://127.0.0.1:<port>/metrics
+ *   ticketmaster.metricsfile     write them to this file every so often (a
+ *                                new file moved over the old one, so a
+ *                                reader never sees half of it)
+ *   ticketmaster.metricsseconds  how often, default 15
+ *
+ */
+
+public class Metrics{
+	public static final Metrics REGISTRY = new Metrics();
+
+	//upper bounds in seconds, for statements, operations and waits
+	private static final double[] LATENCY_BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+	public static final Counter OPERATIONS = REGISTRY.counter("ticketmaster_operations_total",
+		"Operations run, by operation and outcome (ok, the error of the result, or exception)", "operation", "outcome");
+	public static final Histogram OPERATION_SECONDS = REGISTRY.histogram("ticketmaster_operation_duration_seconds",
+		"Time taken by operations; for the menu this includes the prompts", LATENCY_BUCKETS, "operation");
+	public static final Histogram SQL_SECONDS = REGISTRY.histogram("ticketmaster_sql_duration_seconds",
+		"Round trips to the database by JDBC helper, and their time", LATENCY_BUCKETS, "helper");
+	public static final Counter SQL_ROWS = REGISTRY.counter("ticketmaster_sql_rows_total",
+		"Rows returned (and materialized) or changed, by JDBC helper", "helper");
+	public static final Histogram CONNECTION_WAIT_SECONDS = REGISTRY.histogram("ticketmaster_connection_wait_seconds",
+		"Time taken to take a pooled connection, including opening one", LATENCY_BUCKETS);
+	public static final Counter CONNECTIONS = REGISTRY.counter("ticketmaster_connection_takes_total",
+		"Pooled connection takes, by result (idle, opened, timeout, failed)", "result");
+	public static final Gauge POOL_CONNECTIONS = REGISTRY.gauge("ticketmaster_pool_connections",
+		"Connections of the current pool, by state (idle, busy)", "state");
+	public static final Gauge BATCH_QUEUE = REGISTRY.gauge("ticketmaster_batch_queue_batches",
+		"Batches of commands read and waiting for a worker");
+	public static final Counter CACHE_LOOKUPS = REGISTRY.counter("ticketmaster_cache_lookups_total",
+		"Cache lookups, by cache and result (hit, or miss costing a round trip or a load)", "cache", "result");
+	public static final Gauge CACHE_HIT_RATIO = REGISTRY.gauge("ticketmaster_cache_hit_ratio",
+		"Hits over lookups since start, by cache", "cache");
+	public static final Histogram CACHE_LOAD_SECONDS = REGISTRY.histogram("ticketmaster_cache_load_duration_seconds",
+		"Caches read from the database, and the time taken", LATENCY_BUCKETS, "cache");
+	public static final Counter CACHE_INVALIDATIONS = REGISTRY.counter("ticketmaster_cache_invalidations_total",
+		"Caches dropped because they may have missed changes", "cache");
+
+	private final List<Family<?>> _families = new CopyOnWriteArrayList<Family<?>>();
+
+	/**
+	 * A metric and its series, one per set of label values.
+	 */
+	public abstract static class Family<T>{
+		final String name;
+		final String help;
+		final String[] labelNames;
+		//label values joined with \0 -> series
+		private final Map<String, T> _series = new ConcurrentHashMap<String, T>();
+
+		Family(String name, String help, String[] labelNames){
+			this.name = name;
+			this.help = help;
+			this.labelNames = labelNames;
+		}
+
+		abstract String type();
+
+		abstract T newSeries();
+
+		abstract void write(Writer out, String labels, T series) throws IOException;
+
+		/**
+		 * @return the series of a metric with one label
+		 */
+		public T labels(String value){
+			T series = this._series.get(value);
+			if (series != null) return series;
+			if (this.labelNames.length != 1) throw new IllegalArgumentException(this.name + " has " + this.labelNames.length + " labels");
+			return this._series.computeIfAbsent(value, key -> newSeries());
+		}
+
+		/**
+		 * @return the series of a metric with two labels
+		 */
+		public T labels(String first, String second){
+			String key = first + '\0' + second;
+			T series = this._series.get(key);
+			if (series != null) return series;
+			if (this.labelNames.length != 2) throw new IllegalArgumentException(this.name + " has " + this.labelNames.length + " labels");
+			return this._series.computeIfAbsent(key, k -> newSeries());
+		}
+
+		/**
+		 * @return the series of a metric without labels
+		 */
+		T unlabelled(){
+			return this._series.computeIfAbsent("", key -> newSeries());
+		}
+
+		void write(Writer out) throws IOException {
+			out.write("# HELP " + this.name + " " + this.help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+			out.write("# TYPE " + this.name + " " + type() + "\n");
+			List<String> keys = new ArrayList<String>(this._series.keySet());
+			keys.sort(null);
+			for (String key : keys){
+				StringBuilder labels = new StringBuilder();
+				String[] values = this.labelNames.length == 0 ? new String[0] : key.split("\0", -1);
+				for (int i = 0; i < this.labelNames.length; ++i){
+					if (i > 0) labels.append(',');
+					labels.append(this.labelNames[i]).append("=\"")
+						.append(values[i].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+				}
+				write(out, labels.toString(), this._series.get(key));
+			}
+		}
+	}
+
+	/**
+	 * A count that only goes up.
+	 */
+	public static class Counter extends Family<Counter.Series>{
+		public static class Series{
+			private final LongAdder _count = new LongAdder();
+
+			public void inc(){
+				this._count.increment();
+			}
+
+			public void inc(long n){
+				this._count.add(n);
+			}
+
+			public long get(){
+				return this._count.sum();
+			}
+		}
+
+		Counter(String name, String help, String[] labelNames){
+			super(name, help, labelNames);
+		}
+
+		String type(){
+			return "counter";
+		}
+
+		Series newSeries(){
+			return new Series();
+		}
+
+		void write(Writer out, String labels, Series series) throws IOException {
+			out.write(this.name + braces(labels) + " " + series.get() + "\n");
+		}
+
+		public void inc(){
+			unlabelled().inc();
+		}
+	}
+
+	/**
+	 * A value read when the metrics are written.
+	 */
+	public static class Gauge extends Family<Gauge.Series>{
+		public static class Series{
+			private volatile DoubleSupplier _value;
+
+			/**
+			 * Method to set what the gauge reads, replacing what it read
+			 * before.
+			 */
+			public void supply(DoubleSupplier value){
+				this._value = value;
+			}
+		}
+
+		Gauge(String name, String help, String[] labelNames){
+			super(name, help, labelNames);
+		}
+
+		String type(){
+			return "gauge";
+		}
+
+		Series newSeries(){
+			return new Series();
+		}
+
+		void write(Writer out, String labels, Series series) throws IOException {
+			DoubleSupplier value = series._value;
+			if (value == null) return;
+			out.write(this.name + braces(labels) + " " + number(value.getAsDouble()) + "\n");
+		}
+
+		public void supply(DoubleSupplier value){
+			unlabelled().supply(value);
+		}
+	}
+
+	/**
+	 * Durations counted in buckets; observed in nanoseconds and written in
+	 * seconds.
+	 */
+	public static class Histogram extends Family<Histogram.Series>{
+		private final double[] _bounds;
+		private final long[] _boundNanos;
+
+		public class Series{
+			//not cumulative: a duration counts in the first bucket it fits, the last one being +Inf
+			private final LongAdder[] _buckets = new LongAdder[Histogram.this._boundNanos.length + 1];
+			private final LongAdder _sumNanos = new LongAdder();
+
+			Series(){
+				for (int i = 0; i < this._buckets.length; ++i) this._buckets[i] = new LongAdder();
+			}
+
+			public void observe(long nanos){
+				long[] bounds = Histogram.this._boundNanos;
+				int i = 0;
+				while (i < bounds.length && nanos > bounds[i]) ++i;
+				this._buckets[i].increment();
+				this._sumNanos.add(nanos);
+			}
+
+			/**
+			 * Method to observe the time since start, a System.nanoTime().
+			 */
+			public void since(long start){
+				observe(System.nanoTime() - start);
+			}
+
+			public long count(){
+				long count = 0;
+				for (LongAdder bucket : this._buckets) count += bucket.sum();
+				return count;
+			}
+		}
+
+		Histogram(String name, String help, double[] bounds, String[] labelNames){
+			super(name, help, labelNames);
+			this._bounds = bounds.clone();
+			this._boundNanos = new long[bounds.length];
+			for (int i = 0; i < bounds.length; ++i) this._boundNanos[i] = (long) (bounds[i] * 1e9);
+		}
+
+		String type(){
+			return "histogram";
+		}
+
+		Series newSeries(){
+			return new Series();
+		}
+
+		void write(Writer out, String labels, Series series) throws IOException {
+			String prefix = labels.isEmpty() ? "" : labels + ",";
+			long cumulative = 0;
+			for (int i = 0; i <= this._bounds.length; ++i){
+				cumulative += series._buckets[i].sum();
+				String le = i < this._bounds.length ? number(this._bounds[i]) : "+Inf";
+				out.write(this.name + "_bucket{" + prefix + "le=\"" + le + "\"} " + cumulative + "\n");
+			}
+			out.write(this.name + "_sum" + braces(labels) + " " + number(series._sumNanos.sum() / 1e9) + "\n");
+			out.write(this.name + "_count" + braces(labels) + " " + cumulative + "\n");
+		}
+
+		public void observe(long nanos){
+			unlabelled().observe(nanos);
+		}
+
+		public void since(long start){
+			unlabelled().since(start);
+		}
+	}
+
+	/**
+	 * The lookups of one cache, with its hit ratio gauge.  Held by the
+	 * cache, so a lookup costs one LongAdder increment.
+	 */
+	public static class CacheStats{
+		private final Counter.Series _hits;
+		private final Counter.Series _misses;
+
+		CacheStats(String cache){
+			this._hits = CACHE_LOOKUPS.labels(cache, "hit");
+			this._misses = CACHE_LOOKUPS.labels(cache, "miss");
+			CACHE_HIT_RATIO.labels(cache).supply(() -> {
+				double hits = this._hits.get();
+				double lookups = hits + this._misses.get();
+				return lookups == 0 ? Double.NaN : hits / lookups;
+			});
+		}
+
+		public void hit(){
+			this._hits.inc();
+		}
+
+		public void miss(){
+			this._misses.inc();
+		}
+	}
+
+	public Counter counter(String name, String help, String... labelNames){
+		return register(new Counter(name, help, labelNames));
+	}
+
+	public Gauge gauge(String name, String help, String... labelNames){
+		return register(new Gauge(name, help, labelNames));
+	}
+
+	public Histogram histogram(String name, String help, double[] bounds, String... labelNames){
+		return register(new Histogram(name, help, bounds, labelNames));
+	}
+
+	private <F extends Family<?>> F register(F family){
+		for (Family<?> registered : this._families){
+			if (registered.name.equals(family.name)) throw new IllegalArgumentException("Metric " + family.name + " is registered already");
+		}
+		this._families.add(family);
+		return family;
+	}
+
+	public static CacheStats cache(String cache){
+		return new CacheStats(cache);
+	}
+
+	/**
+	 * Method to write every metric in the Prometheus text format (0.0.4).
+	 */
+	public void write(Writer out) throws IOException {
+		for (Family<?> family : this._families) family.write(out);
+		out.flush();
+	}
+
+	private static String braces(String labels){
+		return labels.isEmpty() ? "" : "{" + labels + "}";
+	}
+
+	private static String number(double value){
+		if (Double.isNaN(value)) return "NaN";
+		if (Double.isInfinite(value)) return value > 0 ? "+Inf" : "-Inf";
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+		return Double.toString(value);
+	}
+
+	private static HttpServer _server = null;
+	private static ScheduledExecutorService _snapshots = null;
+
+	/**
+	 * Method to start serving and writing the metrics as the system
+	 * properties ask; does nothing when they ask for neither.
+	 *
+	 * @throws java.io.IOException when failed to bind the port
+	 */
+	public static synchronized void exportFromSystemProperties() throws IOException {
+		Integer port = Integer.getInteger("ticketmaster.metricsport");
+		if (port != null && _server == null){
+			// local only: the metrics name operations and caches
+			_server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 16);
+			_server.setExecutor(Executors.newSingleThreadExecutor(Metrics::daemon));
+			_server.createContext("/metrics", Metrics::serve);
+			_server.start();
+			System.err.println("Serving metrics on http://127.0.0.1:" + _server.getAddress().getPort() + "/metrics");
+		}
+		String path = System.getProperty("ticketmaster.metricsfile");
+		if (path != null && _snapshots == null){
+			final File file = new File(path);
+			long seconds = Math.max(1L, Long.getLong("ticketmaster.metricsseconds", 15L));
+			_snapshots = Executors.newSingleThreadScheduledExecutor(Metrics::daemon);
+			_snapshots.scheduleWithFixedDelay(() -> snapshot(file), 0, seconds, TimeUnit.SECONDS);
+			// and once more on the way out, so the last counts are kept
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> snapshot(file), "metrics-snapshot"));
+		}
+	}
+
+	/**
+	 * Method to stop serving the metrics.
+	 */
+	public static synchronized void stopExporting(){
+		if (_server != null) _server.stop(0);
+		if (_snapshots != null) _snapshots.shutdown();
+		_server = null;
+		_snapshots = null;
+	}
+
+	private static Thread daemon(Runnable task){
+		Thread thread = new Thread(task, "metrics");
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	private static void serve(HttpExchange exchange) throws IOException {
+		try{
+			if (!Arrays.asList("GET", "HEAD").contains(exchange.getRequestMethod())){
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, 0);
+			OutputStream body = exchange.getResponseBody();
+			REGISTRY.write(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+			body.close();
+		}finally{
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Method to write the metrics to a file beside the target, then move it
+	 * over the target.
+	 */
+	private static synchronized void snapshot(File file){
+		File next = new File(file.getPath() + ".tmp");
+		try{
+			Writer out = new OutputStreamWriter(Files.newOutputStream(next.toPath()), StandardCharsets.UTF_8);
+			try{
+				REGISTRY.write(out);
+			}finally{
+				out.close();
+			}
+			Files.move(next.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}catch (IOException e){
+			System.err.println("Unable to write metrics to " + file + ": " + e.getMessage());
+		}
+	}
+}//end Metrics
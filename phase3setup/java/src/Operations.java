@@ -0,0 +1,630 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * This class is the menu operations without the menu: each one takes its
+ * input as named arguments and returns a Result instead of printing, for
+ * ApiServer and the other non-interactive front ends.  An operation runs
+ * its statements on a connection of its own (db), and keeps the caches and
+ * booking events of the main connection (esql) up to date, like the menu
+ * does on its single connection.
+ *
+ * Listings are paged with KeysetQuery: the first page is read by the
+ * operation, the rest while the rows are written out, so no listing is
+ * ever held in full.  A "pagesize" argument (with the "token" of a
+ * previous result) asks for one page only.
+ *
+ */
+
+public class Operations{
+	//why an operation failed, in Result.error
+	public static final String INVALID = "invalid";
+	public static final String NOT_FOUND = "not_found";
+	public static final String CONFLICT = "conflict";
+
+	private static final String LOVE_TITLES = "(title LIKE 'Love %' OR title LIKE 'love %' OR title LIKE '% Love' OR title LIKE '% love' " +
+		"OR title LIKE '% Love %' OR title LIKE '% love %') AND rdate >= '2011-01-01'";
+
+	private interface Operation{
+		Result run(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException, IOException;
+	}
+
+	/**
+	 * Receives the rows of a listing one at a time.
+	 */
+	public interface RowSink{
+		void row(List<String> row) throws IOException;
+	}
+
+	/**
+	 * What an operation did: named fields, and for a listing its columns
+	 * and rows.
+	 */
+	public static class Result{
+		//null when the operation succeeded, else INVALID, NOT_FOUND or CONFLICT
+		public final String error;
+		public final Map<String, Object> fields = new LinkedHashMap<String, Object>();
+		private List<String> _columns = null;
+		private List<List<String>> _rows = null;
+		private KeysetQuery _query = null;
+		private String _next = null;
+		private boolean _onePage = false;
+
+		private Result(String error){
+			this.error = error;
+		}
+
+		static Result done(){
+			return new Result(null);
+		}
+
+		static Result failed(String error, String message){
+			Result result = new Result(error);
+			result.fields.put("message", message);
+			return result;
+		}
+
+		/**
+		 * A listing held in memory.
+		 */
+		static Result listing(List<String> columns, List<List<String>> rows){
+			Result result = done();
+			result._columns = columns;
+			result._rows = rows;
+			return result;
+		}
+
+		/**
+		 * A listing read page by page; the first page is read here so a bad
+		 * token or query fails before anything is written.
+		 */
+		static Result listing(Ticketmaster db, KeysetQuery query, Arguments args) throws SQLException {
+			String size = args.optional("pagesize");
+			int pageSize = size == null ? KeysetQuery.MAX_PAGE_SIZE : Integer.parseInt(size);
+			KeysetQuery.Page page = query.fetch(db, args.optional("token"), pageSize);
+			Result result = listing(query.columnNames(), page.rows);
+			result._query = query;
+			result._next = page.next;
+			result._onePage = size != null;
+			return result;
+		}
+
+		public boolean isListing(){
+			return this._columns != null;
+		}
+
+		public List<String> columns(){
+			return this._columns;
+		}
+
+		/**
+		 * Method to pass every row of the listing to a sink, reading the
+		 * further pages on the connection the operation ran on.
+		 *
+		 * @return the token of the next page when one page was asked for and
+		 *         there are more, else null
+		 */
+		public String rows(Ticketmaster db, RowSink sink) throws SQLException, IOException {
+			for (List<String> row : this._rows) sink.row(row);
+			String token = this._next;
+			while (token != null && !this._onePage){
+				KeysetQuery.Page page = this._query.fetch(db, token, KeysetQuery.MAX_PAGE_SIZE);
+				for (List<String> row : page.rows) sink.row(row);
+				token = page.next;
+			}
+			return token;
+		}
+	}
+
+	/**
+	 * The named arguments of an operation, as text.
+	 */
+	public static class Arguments{
+		private final Map<String, String> _values = new LinkedHashMap<String, String>();
+
+		/**
+		 * @param values the arguments; null values are left out, the others
+		 *        are taken as text (e.g. numbers parsed from JSON)
+		 */
+		public Arguments(Map<String, ?> values){
+			for (Map.Entry<String, ?> value : values.entrySet()){
+				if (value.getValue() != null) this._values.put(value.getKey(), String.valueOf(value.getValue()));
+			}
+		}
+
+		/**
+		 * @return the argument, or null when it is missing or empty
+		 */
+		public String optional(String name){
+			String value = this._values.get(name);
+			return value == null || value.trim().isEmpty() ? null : value;
+		}
+
+		/**
+		 * @return the argument, checked to be 1 to max characters long
+		 */
+		public String text(String name, int max){
+			String value = optional(name);
+			if (value == null) throw new IllegalArgumentException("Missing argument " + name);
+			if (value.length() > max) throw new IllegalArgumentException(name + " can not be longer than " + max);
+			return value;
+		}
+
+		public long id(String name){
+			return Long.parseLong(text(name, 20).trim());
+		}
+
+		public int integer(String name){
+			return Integer.parseInt(text(name, 11).trim());
+		}
+
+		public LocalDate date(String name){
+			return ShowIntervalIndex.parseDate(text(name, 32));
+		}
+
+		public LocalTime time(String name){
+			return ShowIntervalIndex.parseTime(text(name, 32));
+		}
+
+		/**
+		 * @return true for true, y, yes or 1
+		 */
+		public boolean flag(String name){
+			String value = optional(name);
+			return value != null && Arrays.asList("true", "y", "yes", "1").contains(value.trim().toLowerCase());
+		}
+	}
+
+	private static final Map<String, Operation> OPERATIONS = new LinkedHashMap<String, Operation>();
+	private static final Map<String, String> USAGE = new LinkedHashMap<String, String>();
+	//name -> the most round trips one run may take, with the caches loaded
+	private static final Map<String, Integer> BUDGETS = new LinkedHashMap<String, Integer>();
+
+	// the budgets are counted from the statements each operation issues (a
+	// listing reads one page), with every existence check going to the
+	// database; raise one only with the change that needs it
+	static{
+		define("add-user", "fname lname email phone [pwd]", 2, Operations::addUser);
+		define("add-booking", "bid status bdatetime seats sid email", 1, Operations::addBooking);
+		define("add-movie-showing", "tid mvid title rdate country description duration lang genre sid sdate sttime edtime", 5, Operations::addMovieShowing);
+		define("cancel-pending-bookings", "", 3, Operations::cancelPendingBookings);
+		define("change-seat", "bid from to", 9, Operations::changeSeat);
+		define("remove-payment", "pid", 4, Operations::removePayment);
+		define("clear-cancelled-bookings", "", 2, Operations::clearCancelledBookings);
+		define("remove-shows-on-date", "date cid", 2, Operations::removeShowsOnDate);
+		define("theaters-playing-show", "cid sid", 1, Operations::theatersPlayingShow);
+		define("shows-starting-at", "date time", 1, Operations::showsStartingAt);
+		define("love-titles", "", 1, Operations::loveTitles);
+		define("users-with-pending-booking", "", 1, Operations::usersWithPendingBooking);
+		define("shows-at-cinema-between", "cid mvid from to", 1, Operations::showsAtCinemaBetween);
+		define("bookings-of-user", "email", 1, Operations::bookingsOfUser);
+		define("cinemas-near", "zip state [radius]", 0, Operations::cinemasNear);
+		define("shows-playing-during", "date from to", 0, Operations::showsPlayingDuring);
+		define("occupancy-and-revenue", "kind(show|cinema|city) id", 0, Operations::occupancyAndRevenue);
+		define("remove-show-day", "date [archive]", 1, Operations::removeShowDay);
+		define("purge-jobs", "", 0, Operations::purgeJobs);
+	}
+
+	private static void define(String name, String usage, int budget, Operation operation){
+		OPERATIONS.put(name, operation);
+		USAGE.put(name, usage);
+		BUDGETS.put(name, budget);
+	}
+
+	/**
+	 * @return the operation names, in menu order
+	 */
+	public static Set<String> names(){
+		return Collections.unmodifiableSet(OPERATIONS.keySet());
+	}
+
+	/**
+	 * @return the arguments of an operation, [optional] ones in brackets
+	 */
+	public static String usage(String name){
+		return USAGE.get(name);
+	}
+
+	/**
+	 * @return the most round trips a run of the operation may take, see
+	 *         RoundTrips, or -1 for an unknown operation
+	 */
+	public static int budget(String name){
+		Integer budget = BUDGETS.get(name);
+		return budget == null ? -1 : budget;
+	}
+
+	/**
+	 * Method to run an operation.  Bad arguments and violated keys are
+	 * reported in the result; other failures are thrown.
+	 *
+	 * @param esql the main connection, whose caches and events are updated
+	 * @param db the connection to run the statements on, not used by anyone
+	 *        else until the listing rows are read
+	 * @param name the operation name
+	 * @param args its arguments
+	 * @return what the operation did
+	 * @throws java.sql.SQLException when a statement failed
+	 * @throws java.io.IOException when failed to read a file the operation needs
+	 */
+	public static Result run(Ticketmaster esql, Ticketmaster db, String name, Arguments args) throws SQLException, IOException {
+		FlightEvents.Operation event = FlightEvents.Operation.start();
+		long started = System.nanoTime();
+		RoundTrips.Tally tally = RoundTrips.begin();
+		Result result = null;
+		try{
+			result = runOperation(esql, db, name, args);
+			return result;
+		}finally{
+			RoundTrips.end(tally);
+			if (tally != null && tally.isOutermost() && tally.roundTrips() > budget(name) && budget(name) >= 0){
+				System.err.println("Operation " + name + " took " + tally + ", over its budget of " + budget(name) + " round trips");
+			}
+			String outcome = result == null ? "exception" : result.error == null ? "ok" : result.error;
+			// unknown names are counted together, so clients can not add series
+			String operation = OPERATIONS.containsKey(name) ? name : "unknown";
+			Metrics.OPERATIONS.labels(operation, outcome).inc();
+			Metrics.OPERATION_SECONDS.labels(operation).since(started);
+			event.finish(name, outcome, false);
+		}
+	}
+
+	private static Result runOperation(Ticketmaster esql, Ticketmaster db, String name, Arguments args) throws SQLException, IOException {
+		Operation operation = OPERATIONS.get(name);
+		if (operation == null) return Result.failed(NOT_FOUND, "Unknown operation " + name);
+		try{
+			return operation.run(esql, db, args);
+		}catch (IllegalArgumentException | DateTimeException e){
+			return Result.failed(INVALID, e.getMessage());
+		}catch (SQLException e){
+			if (BookingStore.UNIQUE_VIOLATION.equals(e.getSQLState())) return Result.failed(CONFLICT, e.getMessage());
+			if (BookingStore.FOREIGN_KEY_VIOLATION.equals(e.getSQLState())) return Result.failed(NOT_FOUND, e.getMessage());
+			throw e;
+		}
+	}
+
+	private static Result addUser(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		String fname = args.text("fname", 64);
+		String lname = args.text("lname", 64);
+		String email = args.text("email", 64);
+		String phone = args.text("phone", 10);
+		if (!phone.matches("[0-9]+")) throw new IllegalArgumentException("phone must be digits only");
+		String pwd = args.optional("pwd");
+		if (pwd == null) pwd = Ticketmaster.getSaltString();
+		if (db.getStore().userExists(email)) return Result.failed(CONFLICT, "A user with email " + email + " already exists");
+		db.getStore().addUser(email, lname, fname, phone, pwd);
+		Result result = Result.done();
+		result.fields.put("email", email);
+		return result;
+	}
+
+	private static Result addBooking(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		long bid = args.id("bid");
+		String status = args.text("status", 64);
+		String bdatetime = args.text("bdatetime", 64);
+		int seats = args.integer("seats");
+		long sid = args.id("sid");
+		String email = args.text("email", 64);
+		switch (db.getStore().createBooking(bid, status, bdatetime, seats, sid, email)){
+			case CREATED:
+				db.afterCommit(() -> esql.getBookingEvents().bookingAdded(bid, sid, status));
+				Result result = Result.done();
+				result.fields.put("bid", bid);
+				return result;
+			case DUPLICATE: return Result.failed(CONFLICT, "Booking id " + bid + " already exists");
+			case UNKNOWN_SHOW: return Result.failed(NOT_FOUND, "Show with sid " + sid + " does not exist");
+			default: return Result.failed(NOT_FOUND, "User with email " + email + " does not exist");
+		}
+	}
+
+	/**
+	 * The movie is added unless it exists already; the show and its play
+	 * are added together or not at all.
+	 */
+	private static Result addMovieShowing(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		long tid = args.id("tid");
+		long mvid = args.id("mvid");
+		String title = args.text("title", 128);
+		LocalDate rdate = args.date("rdate");
+		String country = args.text("country", 64);
+		String description = args.text("description", 1024);
+		int duration = args.integer("duration");
+		String lang = args.text("lang", 2);
+		String genre = args.text("genre", 16);
+		long sid = args.id("sid");
+		LocalDate sdate = args.date("sdate");
+		LocalTime sttime = args.time("sttime");
+		LocalTime edtime = args.time("edtime");
+		int movies;
+		db.beginTransaction();
+		try{
+			if (db.executeQuery("SELECT 1 FROM Theaters WHERE tid = " + tid) == 0){
+				db.rollback();
+				return Result.failed(NOT_FOUND, "Theater " + tid + " does not exist");
+			}
+			movies = db.executeUpdate("INSERT INTO Movies (mvid, title, rdate, country, description, duration, lang, genre) VALUES (" +
+				mvid + ", " + JdbcBookingStore.quote(title) + ", '" + rdate + "', " + JdbcBookingStore.quote(country) + ", " +
+				JdbcBookingStore.quote(description) + ", " + duration + ", " + JdbcBookingStore.quote(lang) + ", " +
+				JdbcBookingStore.quote(genre) + ") ON CONFLICT (mvid) DO NOTHING");
+			db.getStore().addShow(sid, mvid, sdate, sttime, edtime);
+			if (db.isPartitioned()){
+				// Plays rows are routed to the partition of their show date
+				db.executeUpdate("INSERT INTO Plays (sid, tid, sdate) VALUES (" + sid + ", " + tid + ", '" + sdate + "')");
+			}else{
+				db.executeUpdate("INSERT INTO Plays (sid, tid) VALUES (" + sid + ", " + tid + ")");
+			}
+			db.commit();
+		}catch (SQLException | RuntimeException e){
+			db.rollback();
+			throw e;
+		}
+		List<String> show = Arrays.asList(Long.toString(sid), Long.toString(mvid), sdate.toString(), sttime.toString(), edtime.toString());
+		db.afterCommit(() -> esql.changeShowCaches((graph, index) -> {
+			if (graph == null) return;
+			graph.addPlay(sid, tid);
+			if (index != null) index.addShow(graph, show);
+		}));
+		Result result = Result.done();
+		result.fields.put("sid", sid);
+		result.fields.put("movieAdded", movies > 0);
+		return result;
+	}
+
+	private static Result cancelPendingBookings(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		long[] canceled;
+		// the bookings and their history change together
+		db.beginTransaction();
+		try{
+			canceled = db.getStore().cancelPending();
+			db.commit();
+		}catch (SQLException | RuntimeException e){
+			db.rollback();
+			throw e;
+		}
+		db.afterCommit(() -> {
+			for (long bid : canceled) esql.getBookingEvents().bookingCanceled(bid);
+		});
+		Result result = Result.done();
+		result.fields.put("canceled", canceled.length);
+		return result;
+	}
+
+	/**
+	 * Moves a booking from one seat to a free seat of the same price in the
+	 * same theater, as the menu offers them.
+	 */
+	private static Result changeSeat(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		long bid = args.id("bid");
+		long from = args.id("from");
+		long to = args.id("to");
+		// the seat state, checked against the database when opened and after
+		// missed changes, turns away taken seats; the locked checks below decide
+		BookingJournal.SeatState seats = esql.getSeatState();
+		if (seats != null && seats.holderOf(to) >= 0) return Result.failed(CONFLICT, "Seat " + to + " is taken");
+		long released, claimed;
+		db.beginTransaction();
+		try{
+			if (db.executeQuery("SELECT 1 FROM ShowSeats WHERE ssid = " + from + " AND bid = " + bid + " FOR UPDATE") == 0){
+				db.rollback();
+				return Result.failed(NOT_FOUND, "Booking " + bid + " does not hold seat " + from);
+			}
+			if (db.executeQuery("SELECT 1 FROM ShowSeats s WHERE s.ssid = " + to + " AND s.bid IS NULL" +
+				" AND s.price = (SELECT price FROM ShowSeats WHERE ssid = " + from + ")" +
+				" AND s.sid IN (SELECT p.sid FROM Plays p WHERE p.tid IN (SELECT p2.tid FROM ShowSeats s2, Plays p2 WHERE s2.sid = p2.sid AND s2.ssid = " + from + "))" +
+				" FOR UPDATE OF s") == 0){
+				db.rollback();
+				return Result.failed(CONFLICT, "Seat " + to + " is not free at the same price in the same theater");
+			}
+			released = db.getStore().releaseSeat(from);
+			claimed = db.getStore().claimSeat(to, bid);
+			db.commit();
+		}catch (SQLException | RuntimeException e){
+			db.rollback();
+			throw e;
+		}
+		db.afterCommit(() -> {
+			esql.getBookingEvents().seatReleased(bid, from, released);
+			esql.getBookingEvents().seatClaimed(bid, to, claimed);
+		});
+		Result result = Result.done();
+		result.fields.put("bid", bid);
+		result.fields.put("seat", to);
+		return result;
+	}
+
+	private static Result removePayment(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		long pid = args.id("pid");
+		BookingStore.Payment removed;
+		db.beginTransaction();
+		try{
+			removed = db.getStore().removePayment(pid);
+			if (removed == null){
+				db.rollback();
+				return Result.failed(NOT_FOUND, "No payment " + pid);
+			}
+			db.getStore().setStatus(removed.bid, "Cancelled");
+			db.commit();
+		}catch (SQLException | RuntimeException e){
+			db.rollback();
+			throw e;
+		}
+		db.afterCommit(() -> {
+			esql.getBookingEvents().paymentRemoved(pid, removed.bid, removed.amount);
+			esql.getBookingEvents().bookingCanceled(removed.bid);
+		});
+		Result result = Result.done();
+		result.fields.put("pid", pid);
+		result.fields.put("bid", removed.bid);
+		return result;
+	}
+
+	private static Result clearCancelledBookings(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException, IOException {
+		String count = db.executeQueryAndReturnResult("SELECT count(*) FROM Bookings WHERE status = 'Canceled'").get(0).get(0);
+		return startPurge(esql, PurgeJob.cancelledBookings(esql), "bookings", Long.parseLong(count));
+	}
+
+	private static Result removeShowsOnDate(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException, IOException {
+		LocalDate date = args.date("date");
+		long cid = args.id("cid");
+		long[] shows = esql.getShowGraph().showsInCinema(cid);
+		if (shows.length == 0) return Result.failed(NOT_FOUND, "Cinema " + cid + " has no shows");
+		String count = db.executeQueryAndReturnResult("SELECT count(*) FROM Shows WHERE sdate = '" + date + "' AND sid IN (" +
+			ShowGraph.toSqlList(shows) + ")").get(0).get(0);
+		return startPurge(esql, PurgeJob.showsOnDate(esql, date.toString(), cid), "shows", Long.parseLong(count));
+	}
+
+	private static Result startPurge(Ticketmaster esql, PurgeJob job, String counted, long count) throws SQLException, IOException {
+		try{
+			job.start(esql.newConnection());
+		}catch (IllegalStateException e){
+			return Result.failed(CONFLICT, e.getMessage());
+		}
+		Result result = Result.done();
+		result.fields.put(counted, count);
+		result.fields.put("job", job.status());
+		return result;
+	}
+
+	private static Result theatersPlayingShow(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		long[] theaters = esql.getShowGraph().theatersInCinemaPlayingShow(args.id("cid"), args.id("sid"));
+		KeysetQuery query = new KeysetQuery("tid, cid, tname, tseats", "Theaters",
+			theaters.length == 0 ? "false" : "tid IN (" + ShowGraph.toSqlList(theaters) + ")", "tid");
+		return Result.listing(db, query, args);
+	}
+
+	private static Result showsStartingAt(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		LocalDate date = args.date("date");
+		LocalTime time = args.time("time");
+		return Result.listing(db, new KeysetQuery("sid, mvid, sdate, sttime, edtime", "Shows", "sdate = '" + date + "' AND sttime = '" + time + "'", "sid"), args);
+	}
+
+	private static Result loveTitles(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		return Result.listing(db, new KeysetQuery("title", "Movies", LOVE_TITLES, "title", "mvid"), args);
+	}
+
+	private static Result usersWithPendingBooking(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		return Result.listing(db, new KeysetQuery("u.fname, u.lname, u.email", "Users u, Bookings b", "b.status = 'Pending' AND b.email = u.email", "b.bid"), args);
+	}
+
+	private static Result showsAtCinemaBetween(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		long cid = args.id("cid");
+		long mvid = args.id("mvid");
+		List<ShowIntervalIndex.Show> found = esql.getShowIndex().showsBetween(cid, mvid, args.date("from"), args.date("to"));
+		List<List<String>> rows = new ArrayList<List<String>>();
+		if (!found.isEmpty()){
+			List<String> movie = db.executeQueryAndReturnResult("SELECT title, duration FROM Movies WHERE mvid = " + mvid).get(0);
+			for (ShowIntervalIndex.Show show : found){
+				rows.add(Arrays.asList(movie.get(0), movie.get(1), show.date().toString(), String.format("%tT", show.startTime())));
+			}
+		}
+		return Result.listing(Arrays.asList("title", "duration", "sdate", "sttime"), rows);
+	}
+
+	private static Result bookingsOfUser(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		String email = args.text("email", 64);
+		return Result.listing(db, new KeysetQuery("title, sdate, sttime, tname, sno", "UserBookingHistory",
+			"email = " + JdbcBookingStore.quote(email), "bid", "ssid"), args);
+	}
+
+	private static Result cinemasNear(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException, IOException {
+		String zip = args.text("zip", 10).trim();
+		Integer.parseInt(zip);
+		String state = args.text("state", 2);
+		String radius = args.optional("radius");
+		double km = radius == null ? -1 : Double.parseDouble(radius.trim());
+		if (radius != null && !(Double.isFinite(km) && km >= 0)) throw new IllegalArgumentException("radius must be a finite number of km, 0 or more");
+		CinemaLocator locator = esql.getCinemaLocator();
+		double[] origin = locator.pointOf(zip, state);
+		if (origin == null) return Result.failed(NOT_FOUND, "Zip code " + zip + " in " + state + " is not in the centroid table");
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for (CinemaLocator.Match match : radius == null ? locator.nearest(origin, 5) : locator.within(origin, km)){
+			rows.add(Arrays.asList(Long.toString(match.cid), match.cname, Integer.toString(match.tnum), match.city, String.format("%.1f", match.km)));
+		}
+		return Result.listing(Arrays.asList("cid", "cname", "tnum", "city", "km"), rows);
+	}
+
+	private static Result showsPlayingDuring(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for (ShowIntervalIndex.Show show : esql.getShowIndex().playingDuring(args.date("date"), args.time("from"), args.time("to"))){
+			rows.add(Arrays.asList(Long.toString(show.sid), Long.toString(show.mvid), Long.toString(show.cid), show.date().toString(),
+				String.format("%tT", show.startTime()), String.format("%tT", show.endTime())));
+		}
+		return Result.listing(Arrays.asList("sid", "mvid", "cid", "sdate", "sttime", "edtime"), rows);
+	}
+
+	private static Result occupancyAndRevenue(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		String kind = args.text("kind", 6);
+		long id = args.id("id");
+		BookingAggregates aggregates = esql.getAggregates();
+		Result result = Result.done();
+		switch (kind){
+			case "show":
+				int[] seats = aggregates.occupancy(id);
+				if (seats == null || seats[0] == 0) return Result.failed(NOT_FOUND, "Show " + id + " has no seats");
+				result.fields.put("sid", id);
+				result.fields.put("seats", seats[0]);
+				result.fields.put("taken", seats[1]);
+				return result;
+			case "cinema":
+				result.fields.put("cid", id);
+				result.fields.put("revenue", aggregates.cinemaRevenue(id));
+				return result;
+			case "city":
+				result.fields.put("cityId", id);
+				result.fields.put("revenue", aggregates.cityRevenue(id));
+				return result;
+			default:
+				throw new IllegalArgumentException("kind must be show, cinema or city");
+		}
+	}
+
+	private static Result removeShowDay(Ticketmaster esql, Ticketmaster db, Arguments args) throws SQLException {
+		LocalDate date = args.date("date");
+		Result result = Result.done();
+		result.fields.put("date", date.toString());
+		// without partitions the day is deleted row by row, in one statement
+		if (!db.isPartitioned()){
+			ShowRemoval.Result removed = ShowRemoval.remove(db, "SELECT sid FROM Shows WHERE sdate = '" + date + "'");
+			db.afterCommit(() -> removed.apply(esql));
+			result.fields.put("removed", removed.counts);
+			return result;
+		}
+		boolean archive = args.flag("archive");
+		ShowPartitions.Removed removed = ShowPartitions.removeDay(db, date, archive);
+		db.afterCommit(() -> {
+			for (long sid : removed.shows) esql.showRemoved(sid);
+			for (long bid : removed.bookings) esql.getBookingEvents().bookingDeleted(bid);
+		});
+		result.fields.put("archived", archive);
+		result.fields.put("shows", removed.shows.size());
+		result.fields.put("bookings", removed.bookings.size());
+		return result;
+	}
+
+	private static Result purgeJobs(Ticketmaster esql, Ticketmaster db, Arguments args){
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for (PurgeJob job : PurgeJob.jobs()) rows.add(Arrays.asList(job.status()));
+		return Result.listing(Arrays.asList("status"), rows);
+	}
+}//end Operations
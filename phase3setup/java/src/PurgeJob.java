@@ -0,0 +1,468 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+
+
+/**
+ * This class deletes a large set of rows in the background without
+ * holding long locks.  The rows of the root table matching a filter are
+ * taken in key order, a chunk at a time; each chunk locks the root rows
+ * still matching the filter, then deletes or detaches their dependent
+ * rows and the root rows in one short transaction with a lock timeout,
+ * so live bookings wait at most one chunk and a row changed since it was
+ * selected keeps its dependents.  Chunks are
+ * paced to a rows per second limit.  The job writes a checkpoint file
+ * before it starts and after every chunk, so a job cut short (crash,
+ * EXIT, a failed chunk) resumes where it stopped the next time the
+ * application starts, with the total it started with.
+ *
+ * Settings (system properties):
+ *   ticketmaster.purgechunk  root rows per chunk, default 1000
+ *   ticketmaster.purgerate   root rows per second, default 5000
+ *   ticketmaster.purgedir    folder of the checkpoint files, default .
+ *
+ */
+
+public class PurgeJob{
+	public static final int DEFAULT_CHUNK = Integer.getInteger("ticketmaster.purgechunk", 1000);
+	public static final int DEFAULT_RATE = Integer.getInteger("ticketmaster.purgerate", 5000);
+	public static final File CHECKPOINTS = new File(System.getProperty("ticketmaster.purgedir", "."));
+	private static final String SUFFIX = ".purge";
+	private static final int LOCK_TIMEOUT_MILLIS = 2000;
+	private static final int RETRIES = 5;
+	//every job started by this process, for the progress report
+	private static final List<PurgeJob> _jobs = new CopyOnWriteArrayList<PurgeJob>();
+
+	private final String _name;
+	private final Properties _definition;
+	private final String _table;
+	private final String _key;
+	private final String _filter;
+	private final List<String> _dependents = new ArrayList<String>();
+	private final List<Function<String, String>> _dependentSql = new ArrayList<Function<String, String>>();
+	private final List<LongConsumer> _dependentDeleted = new ArrayList<LongConsumer>();
+	private LongConsumer _onDeleted = null;
+	//set when each chunk of shows goes through ShowRemoval instead
+	private Ticketmaster _cascadeTo = null;
+	private int _chunk = DEFAULT_CHUNK;
+	private int _rate = DEFAULT_RATE;
+
+	//progress, read by other threads
+	private volatile Long _lastKey = null;
+	private final Map<String, Long> _counts = new LinkedHashMap<String, Long>();
+	private volatile long _total = -1;
+	private volatile long _startedAt = 0;
+	private volatile String _state = "queued";
+
+	/**
+	 * @param name the job name, also the name of its checkpoint file
+	 * @param definition what resume needs to rebuild the job (see fromCheckpoint)
+	 * @param table the root table
+	 * @param key the unique numeric key the root rows are taken in order of
+	 * @param filter the condition of the root rows to delete
+	 */
+	public PurgeJob(String name, Properties definition, String table, String key, String filter){
+		this._name = name;
+		this._definition = definition;
+		this._table = table;
+		this._key = key;
+		this._filter = filter;
+		this._counts.put(table, 0L);
+	}
+
+	/**
+	 * Method to add a statement run before the root rows of each chunk are
+	 * deleted, e.g. deleting or detaching the rows that reference them.
+	 * Statements run in the order they were added.
+	 *
+	 * @param table the table it changes, for the progress report
+	 * @param sql builds the statement from the comma separated keys of the chunk
+	 * @return this job
+	 */
+	public PurgeJob dependent(String table, Function<String, String> sql){
+		return dependent(table, sql, null);
+	}
+
+	/**
+	 * Method to add a dependent statement whose removed rows matter, e.g.
+	 * bookings the rollups have to forget.
+	 *
+	 * @param table the table it changes, for the progress report
+	 * @param sql builds the statement, which returns one id per row
+	 * @param deleted called with each returned id after the chunk commits
+	 * @return this job
+	 */
+	public PurgeJob dependent(String table, Function<String, String> sql, LongConsumer deleted){
+		this._dependents.add(table);
+		this._dependentSql.add(sql);
+		this._dependentDeleted.add(deleted);
+		if (!this._counts.containsKey(table)) this._counts.put(table, 0L);
+		return this;
+	}
+
+	/**
+	 * Method to set what to do with each deleted root key, e.g. patching
+	 * caches.  It is called from the job's thread after the chunk commits.
+	 */
+	public PurgeJob onDeleted(LongConsumer onDeleted){
+		this._onDeleted = onDeleted;
+		return this;
+	}
+
+	/**
+	 * Method to remove each chunk of root rows, which must be shows, with
+	 * ShowRemoval: one statement per chunk takes the shows and all their
+	 * dependents.  Dependent statements are not used then.
+	 *
+	 * @param esql the connection whose caches and listeners learn of the removed rows
+	 * @return this job
+	 */
+	public PurgeJob cascadeShows(Ticketmaster esql){
+		this._cascadeTo = esql;
+		for (String table : ShowRemoval.TABLES) this._counts.put(table, 0L);
+		return this;
+	}
+
+	public PurgeJob chunk(int rows){
+		this._chunk = Math.max(1, rows);
+		return this;
+	}
+
+	public PurgeJob rate(int rowsPerSecond){
+		this._rate = Math.max(1, rowsPerSecond);
+		return this;
+	}
+
+	/**
+	 * Job removing the bookings canceled by CancelPendingBookings, with their
+	 * history rows and payments; their show seats are released.
+	 */
+	public static PurgeJob cancelledBookings(Ticketmaster esql){
+		Properties definition = new Properties();
+		definition.setProperty("kind", "cancelled-bookings");
+		final BookingEvents events = esql.getBookingEvents();
+		return new PurgeJob("cancelled-bookings", definition, "Bookings", "bid", "status = 'Canceled'")
+			.dependent("UserBookingHistory", keys -> "DELETE FROM UserBookingHistory WHERE bid IN (" + keys + ")")
+			.dependent("Payments", keys -> "DELETE FROM Payments WHERE bid IN (" + keys + ")")
+			.dependent("ShowSeats", keys -> "UPDATE ShowSeats SET bid = NULL WHERE bid IN (" + keys + ")")
+			.onDeleted(events::bookingDeleted);
+	}
+
+	/**
+	 * Job removing the shows of a cinema on a date, with their plays, seats,
+	 * bookings and the bookings' payments and history rows.
+	 */
+	public static PurgeJob showsOnDate(final Ticketmaster esql, String date, long cid) throws SQLException {
+		Properties definition = new Properties();
+		definition.setProperty("kind", "shows-on-date");
+		definition.setProperty("date", date);
+		definition.setProperty("cid", Long.toString(cid));
+		long[] shows = esql.getShowGraph().showsInCinema(cid);
+		String filter = shows.length == 0 ? "false" : "sdate = '" + date + "' AND sid IN (" + ShowGraph.toSqlList(shows) + ")";
+		return new PurgeJob("shows-" + cid + "-" + date.replaceAll("[^0-9]", "-"), definition, "Shows", "sid", filter)
+			.cascadeShows(esql);
+	}
+
+	/**
+	 * Method to rebuild a job from its checkpoint, with its progress.
+	 */
+	public static PurgeJob fromCheckpoint(Ticketmaster esql, File file) throws IOException, SQLException {
+		Properties saved = new Properties();
+		InputStream in = new FileInputStream(file);
+		try{
+			saved.load(in);
+		}finally{
+			in.close();
+		}
+		PurgeJob job;
+		String kind = saved.getProperty("kind");
+		if ("cancelled-bookings".equals(kind)) job = cancelledBookings(esql);
+		else if ("shows-on-date".equals(kind)) job = showsOnDate(esql, saved.getProperty("date"), Long.parseLong(saved.getProperty("cid")));
+		else throw new IOException("Unknown purge job in " + file);
+		if (saved.getProperty("lastKey") != null) job._lastKey = Long.parseLong(saved.getProperty("lastKey"));
+		if (saved.getProperty("total") != null) job._total = Long.parseLong(saved.getProperty("total"));
+		for (String name : saved.stringPropertyNames()){
+			if (name.startsWith("count.")) job._counts.put(name.substring(6), Long.parseLong(saved.getProperty(name)));
+		}
+		return job;
+	}
+
+	/**
+	 * Method to restart every job that left a checkpoint behind.
+	 *
+	 * @param esql the application's connection, whose caches the jobs patch
+	 * @return the number of resumed jobs
+	 */
+	public static int resumeAll(Ticketmaster esql){
+		File[] files = CHECKPOINTS.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		int resumed = 0;
+		for (File file : files == null ? new File[0] : files){
+			try{
+				PurgeJob job = fromCheckpoint(esql, file);
+				job.start(esql.newConnection());
+				System.out.println("Resuming purge " + job._name);
+				++resumed;
+			}catch (Exception e){
+				System.err.println("Unable to resume purge from " + file + ": " + e.getMessage());
+			}
+		}
+		return resumed;
+	}
+
+	/**
+	 * Method to run the job on a background thread.  Its checkpoint is
+	 * written first, so the job resumes on the next start even when it
+	 * ends before its first chunk.
+	 *
+	 * @param connection a connection of its own, closed when the job ends
+	 * @return the thread
+	 * @throws java.io.IOException when failed to write the checkpoint
+	 */
+	public Thread start(Ticketmaster connection) throws IOException {
+		for (PurgeJob other : _jobs){
+			if (other._name.equals(this._name) && other.isRunning()){
+				connection.cleanup();
+				throw new IllegalStateException("Purge " + this._name + " is already running");
+			}
+		}
+		try{
+			checkpoint();
+		}catch (IOException e){
+			connection.cleanup();
+			throw e;
+		}
+		_jobs.add(this);
+		Thread thread = new Thread(() -> {
+			try{
+				run(connection);
+			}finally{
+				connection.cleanup();
+			}
+		}, "purge-" + this._name);
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Method to run the job on the calling thread until every matching row
+	 * is gone.
+	 *
+	 * @param db the connection to delete through
+	 */
+	public void run(Ticketmaster db){
+		this._startedAt = System.currentTimeMillis();
+		this._state = "running";
+		try{
+			long remaining = Long.parseLong(db.executeQueryAndReturnResult(
+				"SELECT count(*) FROM " + this._table + " WHERE " + seek()).get(0).get(0));
+			long done;
+			synchronized (this._counts){
+				done = this._counts.get(this._table);
+			}
+			// a resumed job keeps the total it started with, unless more rows matched since
+			this._total = Math.max(this._total, done + remaining);
+			checkpoint();
+			while (true){
+				List<List<String>> rows = db.executeQueryAndReturnResult(
+					"SELECT " + this._key + " FROM " + this._table + " WHERE " + seek() +
+					" ORDER BY " + this._key + " LIMIT " + this._chunk);
+				if (rows.isEmpty()) break;
+				long chunkStart = System.nanoTime();
+				StringBuilder keys = new StringBuilder();
+				for (List<String> row : rows){
+					if (keys.length() > 0) keys.append(", ");
+					keys.append(row.get(0));
+				}
+				deleteChunk(db, keys.toString());
+				this._lastKey = Long.parseLong(rows.get(rows.size() - 1).get(0));
+				checkpoint();
+				long pace = rows.size() * 1000000000L / this._rate - (System.nanoTime() - chunkStart);
+				if (pace > 0) Thread.sleep(pace / 1000000L);
+			}
+			this._state = "done";
+			checkpointFile().delete();
+		}catch (InterruptedException e){
+			this._state = "interrupted, will resume on next start";
+			Thread.currentThread().interrupt();
+		}catch (Exception e){
+			this._state = "failed, will resume on next start: " + e.getMessage();
+		}
+	}
+
+	/**
+	 * Method to delete one chunk in one transaction, retrying when a lock
+	 * could not be taken in time.  The keys were selected before it, so
+	 * only those still matching the filter once locked are deleted.
+	 */
+	private void deleteChunk(Ticketmaster db, String keys) throws SQLException, InterruptedException {
+		if (this._cascadeTo != null){
+			cascadeChunk(db, keys);
+			return;
+		}
+		for (int attempt = 1; ; ++attempt){
+			long[] counts = new long[this._dependents.size()];
+			List<List<List<String>>> returned = new ArrayList<List<List<String>>>();
+			List<List<String>> deleted;
+			db.beginTransaction();
+			try{
+				db.executeUpdate("SET LOCAL lock_timeout = " + LOCK_TIMEOUT_MILLIS);
+				StringBuilder locked = new StringBuilder();
+				for (List<String> row : db.executeQueryAndReturnResult("SELECT " + this._key + " FROM " + this._table + " WHERE " + this._key +
+						" IN (" + keys + ") AND (" + this._filter + ") FOR UPDATE")){
+					if (locked.length() > 0) locked.append(", ");
+					locked.append(row.get(0));
+				}
+				if (locked.length() == 0){
+					// every row of the chunk changed or went meanwhile
+					db.commit();
+					return;
+				}
+				for (int i = 0; i < counts.length; ++i){
+					String sql = this._dependentSql.get(i).apply(locked.toString());
+					if (this._dependentDeleted.get(i) == null){
+						counts[i] = db.executeUpdate(sql);
+						returned.add(null);
+					}else{
+						returned.add(db.executeQueryAndReturnResult(sql));
+						counts[i] = returned.get(i).size();
+					}
+				}
+				deleted = db.executeQueryAndReturnResult("DELETE FROM " + this._table + " WHERE " + this._key +
+					" IN (" + locked + ") RETURNING " + this._key);
+				db.commit();
+			}catch (SQLException e){
+				db.rollback();
+				// 55P03: lock_not_available, a live transaction holds the rows
+				if (!"55P03".equals(e.getSQLState()) || attempt == RETRIES) throw e;
+				Thread.sleep(100L << attempt);
+				continue;
+			}
+			synchronized (this._counts){
+				for (int i = 0; i < counts.length; ++i){
+					this._counts.put(this._dependents.get(i), this._counts.get(this._dependents.get(i)) + counts[i]);
+				}
+				this._counts.put(this._table, this._counts.get(this._table) + deleted.size());
+			}
+			for (int i = 0; i < counts.length; ++i){
+				if (returned.get(i) == null) continue;
+				for (List<String> row : returned.get(i)) this._dependentDeleted.get(i).accept(Long.parseLong(row.get(0)));
+			}
+			if (this._onDeleted != null){
+				for (List<String> row : deleted) this._onDeleted.accept(Long.parseLong(row.get(0)));
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Method to remove one chunk of shows with ShowRemoval, retrying like
+	 * deleteChunk.
+	 */
+	private void cascadeChunk(Ticketmaster db, String keys) throws SQLException, InterruptedException {
+		for (int attempt = 1; ; ++attempt){
+			ShowRemoval.Result removed;
+			db.beginTransaction();
+			try{
+				db.executeUpdate("SET LOCAL lock_timeout = " + LOCK_TIMEOUT_MILLIS);
+				// locked as it is resolved, so a show changed meanwhile is checked again
+				removed = ShowRemoval.remove(db, "SELECT sid FROM Shows WHERE sid IN (" + keys + ") AND (" + this._filter + ") FOR UPDATE");
+				db.commit();
+			}catch (SQLException e){
+				db.rollback();
+				if (!"55P03".equals(e.getSQLState()) || attempt == RETRIES) throw e;
+				Thread.sleep(100L << attempt);
+				continue;
+			}
+			synchronized (this._counts){
+				for (Map.Entry<String, Long> count : removed.counts.entrySet()){
+					this._counts.merge(count.getKey(), count.getValue(), Long::sum);
+				}
+			}
+			removed.apply(this._cascadeTo);
+			return;
+		}
+	}
+
+	private String seek(){
+		return "(" + this._filter + ")" + (this._lastKey == null ? "" : " AND " + this._key + " > " + this._lastKey);
+	}
+
+	private File checkpointFile(){
+		return new File(CHECKPOINTS, this._name + SUFFIX);
+	}
+
+	/**
+	 * Method to save the definition and progress, written next to the
+	 * checkpoint and renamed over it.
+	 */
+	private void checkpoint() throws IOException {
+		Properties saved = new Properties();
+		saved.putAll(this._definition);
+		if (this._lastKey != null) saved.setProperty("lastKey", this._lastKey.toString());
+		if (this._total >= 0) saved.setProperty("total", Long.toString(this._total));
+		synchronized (this._counts){
+			for (Map.Entry<String, Long> count : this._counts.entrySet()){
+				saved.setProperty("count." + count.getKey(), count.getValue().toString());
+			}
+		}
+		File temporary = new File(CHECKPOINTS, this._name + SUFFIX + ".tmp");
+		OutputStream out = new FileOutputStream(temporary);
+		try{
+			saved.store(out, "purge " + this._name);
+		}finally{
+			out.close();
+		}
+		if (!temporary.renameTo(checkpointFile())) throw new IOException("Unable to write checkpoint " + checkpointFile());
+	}
+
+	public boolean isRunning(){
+		return this._state.equals("queued") || this._state.equals("running");
+	}
+
+	/**
+	 * Method to describe the progress of the job in one line.
+	 */
+	public String status(){
+		StringBuilder status = new StringBuilder(this._name + ": " + this._state);
+		long seconds = this._startedAt == 0 ? 0 : (System.currentTimeMillis() - this._startedAt) / 1000;
+		synchronized (this._counts){
+			long root = this._counts.get(this._table);
+			status.append(", " + this._table + " " + root + (this._total >= 0 ? " of " + this._total : ""));
+			for (Map.Entry<String, Long> count : this._counts.entrySet()){
+				if (!count.getKey().equals(this._table)) status.append(", " + count.getKey() + " " + count.getValue());
+			}
+			if (seconds > 0) status.append(String.format(", %d s, %.0f rows/s", seconds, (double) root / seconds));
+		}
+		return status.toString();
+	}
+
+	/**
+	 * @return the jobs started by this process, oldest first
+	 */
+	public static List<PurgeJob> jobs(){
+		return new ArrayList<PurgeJob>(_jobs);
+	}
+}//end PurgeJob
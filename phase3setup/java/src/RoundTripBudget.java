@@ -0,0 +1,207 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class checks that operations stay within the round trips declared
+ * for them in Operations.  It runs a file of commands, in the format of
+ * BatchRunner, one at a time on a single connection, counting each with
+ * RoundTrips, and prints what every command cost.  It exits with status 1
+ * when a command goes over its operation's budget or fails to run, so a
+ * change that adds queries to an operation fails the check.
+ *
+ * The caches are loaded first, so each command is measured as it runs on
+ * a warm server, and no existence filter is used, so every existence
+ * check goes to the database.  Everything runs in one transaction that is
+ * rolled back at the end, so the file measures the same paths every time;
+ * each command runs in a savepoint of its own so a failed one does not
+ * abort the rest.  Before the commands a show, a booking holding one of
+ * its two seats, and a payment for it are added with keys 10^12 (see
+ * FIXTURE), so the commands can change a seat and remove a payment.
+ *
+ * An operation's own transaction becomes a savepoint inside the check's,
+ * a savepoint and a release where it would commit once on its own, so
+ * one round trip is taken off an operation that set one.
+ *
+ * Usage: java RoundTripBudget <dbname> <port> <user> <commands file>
+ *
+ */
+
+public class RoundTripBudget{
+	//the key of every fixture row: the show, its first seat, the booking and its payment
+	public static final long FIXTURE = 1000000000000L;
+	//the user of the fixture booking
+	public static final String FIXTURE_EMAIL = "budget.fixture@example.com";
+
+	//the most round trips seen per operation, and its runs
+	private final Map<String, long[]> _seen = new LinkedHashMap<String, long[]>();
+	private int _over = 0;
+	private int _failed = 0;
+
+	/**
+	 * Method to run and measure one command.
+	 */
+	private void check(Ticketmaster esql, BatchRunner.Command command){
+		if (command.error != null){
+			System.out.printf("%5d  %-28s  unreadable: %s%n", command.line, "", command.error);
+			++this._failed;
+			return;
+		}
+		int budget = Operations.budget(command.op);
+		if (budget < 0){
+			System.out.printf("%5d  %-28s  unknown operation%n", command.line, command.op);
+			++this._failed;
+			return;
+		}
+		try{
+			esql.beginTransaction();
+		}catch (SQLException e){
+			System.out.printf("%5d  %-28s  savepoint failed: %s%n", command.line, command.op, e.getMessage());
+			++this._failed;
+			return;
+		}
+		RoundTrips.Tally tally = RoundTrips.begin();
+		String outcome;
+		boolean done = false;
+		try{
+			Operations.Result result = Operations.run(esql, esql, command.op, new Operations.Arguments(command.args));
+			outcome = result.error == null ? "ok" : result.error;
+			done = result.error == null;
+		}catch (Exception e){
+			outcome = "failed: " + e.getMessage();
+			++this._failed;
+		}finally{
+			RoundTrips.end(tally);
+		}
+		if (done){
+			try{
+				esql.commit();
+			}catch (SQLException e){
+				esql.rollback();
+				outcome = "failed to release its savepoint: " + e.getMessage();
+				++this._failed;
+			}
+		}else{
+			// a refused command may have aborted its savepoint
+			esql.rollback();
+		}
+		// the operations begin at most one transaction of their own
+		long roundTrips = tally.roundTrips() - Math.min(tally.savepoints(), 1);
+		boolean over = roundTrips > budget;
+		if (over) ++this._over;
+		long[] seen = this._seen.computeIfAbsent(command.op, op -> new long[2]);
+		seen[0] = Math.max(seen[0], roundTrips);
+		++seen[1];
+		System.out.printf("%5d  %-28s  %3d statements  %3d round trips  %6d rows  budget %2d  %s  %s%n", command.line, command.op,
+			tally.statements(), roundTrips, tally.rows(), budget, over ? "OVER" : "ok  ", outcome);
+	}
+
+	/**
+	 * Method to load the caches the operations read, so their loads are
+	 * not counted against the first command that needs them.
+	 */
+	private static void warm(Ticketmaster esql) throws Exception {
+		esql.isPartitioned();
+		esql.getShowGraph();
+		esql.getShowIndex();
+		esql.getAggregates();
+		try{
+			esql.getCinemaLocator();
+		}catch (Exception e){
+			// cinemas-near then fails, and is reported as such
+			System.err.println("Unable to load the cinema locator: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to add the fixture rows in the open transaction: a show of
+	 * movie 1 in theater 1 with two seats of the same price, a user, a
+	 * pending booking holding the first seat and a payment for it.
+	 */
+	private static void seed(Ticketmaster esql) throws Exception {
+		List<List<String>> seats = esql.executeQueryAndReturnResult("SELECT csid FROM CinemaSeats ORDER BY csid LIMIT 2");
+		if (seats.size() < 2) throw new SQLException("The database needs two cinema seats");
+		Map<String, Object> show = new LinkedHashMap<String, Object>();
+		show.put("tid", 1L);
+		show.put("mvid", 1L);
+		show.put("title", "Avengers: Endgame");
+		show.put("rdate", "1/1/2019");
+		show.put("country", "United States");
+		show.put("description", "Good movie");
+		show.put("duration", 3987L);
+		show.put("lang", "en");
+		show.put("genre", "Action");
+		show.put("sid", FIXTURE);
+		show.put("sdate", "3/5/2019");
+		show.put("sttime", "20:00");
+		show.put("edtime", "21:10");
+		Operations.Result added = Operations.run(esql, esql, "add-movie-showing", new Operations.Arguments(show));
+		if (added.error != null) throw new SQLException("Unable to add the fixture show: " + added.error);
+		BookingStore store = esql.getStore();
+		store.addUser(FIXTURE_EMAIL, "Fixture", "Budget", "5550101", "x");
+		store.addShowSeat(FIXTURE, FIXTURE, Long.parseLong(seats.get(0).get(0)), 10);
+		store.addShowSeat(FIXTURE + 1, FIXTURE, Long.parseLong(seats.get(1).get(0)), 10);
+		if (store.createBooking(FIXTURE, "Pending", "3/1/2019 4:05", 1, FIXTURE, FIXTURE_EMAIL) != BookingStore.BookingOutcome.CREATED){
+			throw new SQLException("Unable to add the fixture booking");
+		}
+		store.claimSeat(FIXTURE, FIXTURE);
+		store.addPayment(FIXTURE, FIXTURE, "Credit Card", 10);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 4){
+			System.err.println("Usage: java RoundTripBudget <dbname> <port> <user> <commands file>");
+			System.exit(2);
+		}
+		Class.forName("org.postgresql.Driver");
+		Ticketmaster esql = new Ticketmaster(args[0], args[1], args[2], "");
+		RoundTripBudget check = new RoundTripBudget();
+		try{
+			warm(esql);
+			esql.beginTransaction();
+			try{
+				seed(esql);
+				RoundTrips.enable();
+				BufferedReader in = new BufferedReader(new FileReader(args[3]));
+				try{
+					BatchRunner.Commands commands = new BatchRunner.Commands(in);
+					for (BatchRunner.Command command; (command = commands.next()) != null; ){
+						check.check(esql, command);
+					}
+				}finally{
+					in.close();
+				}
+			}finally{
+				// nothing the check did is kept, so it can run again
+				esql.rollback();
+			}
+		}finally{
+			esql.cleanup();
+		}
+
+		System.out.println();
+		for (Map.Entry<String, long[]> seen : check._seen.entrySet()){
+			System.out.printf("%-28s  %3d runs  at most %3d round trips  budget %2d%n", seen.getKey(), seen.getValue()[1],
+				seen.getValue()[0], Operations.budget(seen.getKey()));
+		}
+		if (check._over > 0 || check._failed > 0){
+			System.out.println(check._over + " commands over budget, " + check._failed + " failed to run");
+			System.exit(1);
+		}
+		System.out.println("All commands within budget");
+	}
+}//end RoundTripBudget
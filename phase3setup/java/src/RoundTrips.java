@@ -0,0 +1,158 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class counts, per thread, what an operation costs the database:
+ * statements issued through the JDBC helpers of Ticketmaster, round trips
+ * (the statements, plus savepoints, commits and rollbacks) and rows
+ * fetched or changed.  It is off unless -Dticketmaster.roundtrips=true is
+ * given or enable is called; then every operation is tallied, and one
+ * going over the budget declared in Operations is reported on stderr.
+ * RoundTripBudget runs commands through it and fails on any overrun.
+ *
+ * Statements issued on other threads (purge jobs, reconciling, listeners)
+ * are not counted against the operation that started them.  The budgets
+ * are for an operation run on its own, as the API runs them; inside a
+ * batch transaction its own transaction becomes a savepoint, one more
+ * round trip.
+ *
+ */
+
+public class RoundTrips{
+	private static volatile boolean _counting = Boolean.getBoolean("ticketmaster.roundtrips");
+	private static final ThreadLocal<Tally> CURRENT = new ThreadLocal<Tally>();
+
+	/**
+	 * The counts of one piece of work.  A tally begun inside another adds
+	 * its counts to the outer one when it ends.
+	 */
+	public static class Tally{
+		private final Tally _outer;
+		private long _statements = 0;
+		private long _roundTrips = 0;
+		private long _rows = 0;
+		private long _savepoints = 0;
+
+		private Tally(Tally outer){
+			this._outer = outer;
+		}
+
+		public long statements(){
+			return this._statements;
+		}
+
+		public long roundTrips(){
+			return this._roundTrips;
+		}
+
+		public long rows(){
+			return this._rows;
+		}
+
+		/**
+		 * @return the savepoints set, which are also counted as round trips
+		 */
+		public long savepoints(){
+			return this._savepoints;
+		}
+
+		/**
+		 * @return true when no other tally was open when this one began
+		 */
+		public boolean isOutermost(){
+			return this._outer == null;
+		}
+
+		public String toString(){
+			return this._statements + " statements, " + this._roundTrips + " round trips, " + this._rows + " rows";
+		}
+	}
+
+	private RoundTrips(){
+	}
+
+	/**
+	 * Method to start counting, for the harness.
+	 */
+	public static void enable(){
+		_counting = true;
+	}
+
+	public static boolean isCounting(){
+		return _counting;
+	}
+
+	/**
+	 * Method to start tallying the work of the calling thread.
+	 *
+	 * @return the tally, to be passed to end, or null when not counting
+	 */
+	public static Tally begin(){
+		if (!_counting) return null;
+		Tally tally = new Tally(CURRENT.get());
+		CURRENT.set(tally);
+		return tally;
+	}
+
+	/**
+	 * Method to stop a tally, adding its counts to the one it was begun in.
+	 *
+	 * @param tally what begin returned, null is ignored
+	 */
+	public static void end(Tally tally){
+		if (tally == null) return;
+		Tally outer = tally._outer;
+		if (outer == null){
+			CURRENT.remove();
+			return;
+		}
+		outer._statements += tally._statements;
+		outer._roundTrips += tally._roundTrips;
+		outer._rows += tally._rows;
+		outer._savepoints += tally._savepoints;
+		CURRENT.set(outer);
+	}
+
+	/**
+	 * Method to count a statement, one round trip.
+	 *
+	 * @param rows the rows it returned or changed
+	 */
+	static void statement(long rows){
+		if (!_counting) return;
+		Tally tally = CURRENT.get();
+		if (tally == null) return;
+		++tally._statements;
+		++tally._roundTrips;
+		tally._rows += rows;
+	}
+
+	/**
+	 * Method to count a round trip that is not a statement of the
+	 * operation: a savepoint, commit or rollback.
+	 */
+	static void control(){
+		if (!_counting) return;
+		Tally tally = CURRENT.get();
+		if (tally != null) ++tally._roundTrips;
+	}
+
+	/**
+	 * Method to count a savepoint set by a transaction begun inside
+	 * another, one round trip.
+	 */
+	static void savepoint(){
+		if (!_counting) return;
+		Tally tally = CURRENT.get();
+		if (tally == null) return;
+		++tally._roundTrips;
+		++tally._savepoints;
+	}
+}//end RoundTrips
@@ -0,0 +1,304 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+
+/**
+ * This class keeps live seat maps of the shows somebody is watching.  The
+ * first subscriber of a show reads its seats once; from then on the show's
+ * map follows the booking events (which, with sql/notify.sql, include the
+ * changes of other processes) and every subscriber gets the changed seats.
+ *
+ * Publishing never waits for a subscriber: a change is only recorded in
+ * each subscriber's pending set, keyed by seat, and the subscriber's own
+ * thread sends what is pending when it is ready.  A slow subscriber thus
+ * gets fewer, larger deltas with only the latest state of each seat, and
+ * holds at most one entry per seat of the show.
+ *
+ */
+
+public class SeatFeed implements BookingEventListener{
+	//sid -> the map of a watched show
+	private final LongMap<ShowMap> _shows = new LongMap<ShowMap>();
+
+	/**
+	 * The seats of one show: ssid -> holding booking, or -1 when free.
+	 */
+	private static class ShowMap{
+		final long sid;
+		final LongMap<Long> holders = new LongMap<Long>();
+		final List<Subscription> subscribers = new CopyOnWriteArrayList<Subscription>();
+		//changes seen while the seats were being read, as {ssid, bid}; null once read
+		List<long[]> early = new ArrayList<long[]>();
+		boolean failed = false;
+		//the number of changes applied
+		long version = 0;
+		//subscribers and those still joining, counted under the feed's lock
+		int users = 0;
+
+		ShowMap(long sid){
+			this.sid = sid;
+		}
+
+		synchronized void set(long ssid, long bid){
+			if (this.early != null){
+				this.early.add(new long[]{ssid, bid});
+				return;
+			}
+			Long holder = this.holders.get(ssid);
+			if (holder != null && holder == bid) return;
+			this.holders.put(ssid, bid);
+			++this.version;
+			for (Subscription subscription : this.subscribers) subscription.changed(ssid, bid >= 0, this.version);
+		}
+
+		synchronized void release(long bid){
+			for (long ssid : this.holders.keys()){
+				if (this.holders.get(ssid) == bid) set(ssid, -1);
+			}
+		}
+
+		/**
+		 * Method to read the seats, then apply what changed meanwhile.  The
+		 * map is not locked during the read, so publishing goes on.
+		 */
+		void load(Ticketmaster db) throws SQLException {
+			List<List<String>> seats;
+			try{
+				seats = db.executeQueryAndReturnResult("SELECT ssid, bid FROM ShowSeats WHERE sid = " + this.sid);
+			}catch (SQLException | RuntimeException e){
+				synchronized (this){
+					this.failed = true;
+					notifyAll();
+				}
+				throw e;
+			}
+			synchronized (this){
+				for (List<String> seat : seats){
+					this.holders.put(Long.parseLong(seat.get(0)), seat.get(1) == null ? -1L : Long.parseLong(seat.get(1)));
+				}
+				List<long[]> early = this.early;
+				this.early = null;
+				for (long[] change : early) set(change[0], change[1]);
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Method to wait for the first subscriber to read the seats.
+		 */
+		synchronized void awaitLoaded() throws SQLException {
+			try{
+				while (this.early != null && !this.failed) wait();
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while reading the seats of show " + this.sid);
+			}
+			if (this.failed) throw new SQLException("The seats of show " + this.sid + " could not be read");
+		}
+
+		/**
+		 * @return {"sid", "version", "ssids": the seats in ssid order,
+		 *         "taken": bit i set when ssids[i] is taken, as the base64 of
+		 *         little-endian bytes}
+		 */
+		synchronized Map<String, Object> snapshot(){
+			long[] ssids = this.holders.keys();
+			Arrays.sort(ssids);
+			BitSet taken = new BitSet(ssids.length);
+			for (int i = 0; i < ssids.length; ++i){
+				if (this.holders.get(ssids[i]) >= 0) taken.set(i);
+			}
+			Map<String, Object> snapshot = new LinkedHashMap<String, Object>();
+			snapshot.put("sid", this.sid);
+			snapshot.put("version", this.version);
+			snapshot.put("ssids", ssids);
+			snapshot.put("taken", Base64.getEncoder().encodeToString(taken.toByteArray()));
+			return snapshot;
+		}
+	}
+
+	/**
+	 * One subscriber of a show.
+	 */
+	public class Subscription{
+		private final ShowMap _show;
+		//ssid -> taken, the changes not sent yet
+		private final Map<Long, Boolean> _pending = new LinkedHashMap<Long, Boolean>();
+		private final Map<String, Object> _snapshot;
+		//the show's version after the last pending change
+		private long _version;
+		private boolean _closed = false;
+
+		private Subscription(ShowMap show){
+			this._show = show;
+			synchronized (show){
+				this._snapshot = show.snapshot();
+				this._version = show.version;
+				show.subscribers.add(this);
+			}
+		}
+
+		/**
+		 * @return the seat map when the subscription began
+		 */
+		public Map<String, Object> snapshot(){
+			return this._snapshot;
+		}
+
+		private synchronized void changed(long ssid, boolean taken, long version){
+			this._pending.put(ssid, taken);
+			this._version = version;
+			notifyAll();
+		}
+
+		/**
+		 * Method to wait for changes.  Once one arrives, changes are gathered
+		 * for up to linger milliseconds more.
+		 *
+		 * @param timeout how long to wait for a change, in milliseconds
+		 * @param linger how long to gather further changes, in milliseconds
+		 * @return {"version", "claimed": ssids, "released": ssids}, or null
+		 *         when nothing changed in time or the subscription is closed
+		 * @throws InterruptedException when interrupted while waiting
+		 */
+		public synchronized Map<String, Object> next(long timeout, long linger) throws InterruptedException {
+			long deadline = System.currentTimeMillis() + timeout;
+			while (this._pending.isEmpty() && !this._closed){
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0) return null;
+				wait(left);
+			}
+			long gathered = System.currentTimeMillis() + linger;
+			for (long left = linger; left > 0 && !this._closed; left = gathered - System.currentTimeMillis()) wait(left);
+			if (this._closed) return null;
+			List<Long> claimed = new ArrayList<Long>();
+			List<Long> released = new ArrayList<Long>();
+			for (Map.Entry<Long, Boolean> change : this._pending.entrySet()){
+				(change.getValue() ? claimed : released).add(change.getKey());
+			}
+			this._pending.clear();
+			Map<String, Object> delta = new LinkedHashMap<String, Object>();
+			delta.put("version", this._version);
+			delta.put("claimed", claimed);
+			delta.put("released", released);
+			return delta;
+		}
+
+		/**
+		 * Method to stop the subscription; the show's map is dropped with its
+		 * last subscriber.
+		 */
+		public void close(){
+			synchronized (this){
+				this._closed = true;
+				notifyAll();
+			}
+			unsubscribe(this);
+		}
+	}
+
+	/**
+	 * @param esql the main connection, whose booking events the maps follow
+	 */
+	public SeatFeed(Ticketmaster esql){
+		esql.getBookingEvents().add(this);
+	}
+
+	/**
+	 * Method to start following a show.  The first subscriber of a show
+	 * reads its seats.
+	 *
+	 * @param db a connection to read the seats with
+	 * @param sid the show
+	 * @return the subscription, to be closed when done
+	 * @throws java.sql.SQLException when failed to read the seats
+	 */
+	public Subscription subscribe(Ticketmaster db, long sid) throws SQLException {
+		ShowMap show;
+		boolean load = false;
+		synchronized (this._shows){
+			show = this._shows.get(sid);
+			if (show == null){
+				show = new ShowMap(sid);
+				this._shows.put(sid, show);
+				load = true;
+			}
+			++show.users;
+		}
+		try{
+			if (load) show.load(db);
+			else show.awaitLoaded();
+			return new Subscription(show);
+		}catch (SQLException | RuntimeException e){
+			leave(show);
+			throw e;
+		}
+	}
+
+	private void unsubscribe(Subscription subscription){
+		subscription._show.subscribers.remove(subscription);
+		leave(subscription._show);
+	}
+
+	/**
+	 * Method to drop the map of a show nobody follows any more.
+	 */
+	private void leave(ShowMap show){
+		synchronized (this._shows){
+			if (--show.users == 0 && this._shows.get(show.sid) == show) this._shows.remove(show.sid);
+		}
+	}
+
+	private ShowMap watched(long sid){
+		synchronized (this._shows){
+			return this._shows.get(sid);
+		}
+	}
+
+	public void bookingAdded(long bid, long sid, String status){
+	}
+
+	public void seatClaimed(long bid, long ssid, long sid){
+		ShowMap show = watched(sid);
+		if (show != null) show.set(ssid, bid);
+	}
+
+	public void seatReleased(long bid, long ssid, long sid){
+		ShowMap show = watched(sid);
+		if (show != null) show.set(ssid, -1);
+	}
+
+	public void paymentRemoved(long pid, long bid, double amount){
+	}
+
+	public void bookingCanceled(long bid){
+	}
+
+	/**
+	 * The seats of a deleted booking are freed.
+	 */
+	public void bookingDeleted(long bid){
+		List<ShowMap> shows = new ArrayList<ShowMap>();
+		synchronized (this._shows){
+			for (long sid : this._shows.keys()) shows.add(this._shows.get(sid));
+		}
+		for (ShowMap show : shows) show.release(bid);
+	}
+}//end SeatFeed
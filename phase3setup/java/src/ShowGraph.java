@@ -0,0 +1,192 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * This class keeps the Cinemas -> Theaters -> Plays -> Shows graph in memory
+ * so the cinema scoped menu operations can find their theaters and shows
+ * without joining those tables on every call.  Adjacency lists are sorted
+ * primitive long arrays.  The graph is loaded once and then patched by the
+ * operations that write to Plays and Shows.
+ *
+ */
+
+public class ShowGraph{
+	private static final long[] NONE = new long[0];
+
+	private final LongMap<long[]> _cinemaTheaters = new LongMap<long[]>();
+	private final LongMap<long[]> _theaterShows = new LongMap<long[]>();
+	private final LongMap<long[]> _showTheaters = new LongMap<long[]>();
+	private final LongMap<Long> _theaterCinema = new LongMap<Long>();
+
+	/**
+	 * Method to build the graph from the Theaters and Plays tables.  This
+	 * issues two queries, one per table.
+	 *
+	 * @param esql the database to read from
+	 * @return the loaded graph
+	 * @throws java.sql.SQLException when failed to execute the queries
+	 */
+	public static ShowGraph load(Ticketmaster esql) throws SQLException {
+		ShowGraph graph = new ShowGraph();
+		List<List<String>> theaters = esql.executeQueryAndReturnResult("SELECT tid, cid FROM Theaters");
+		for (List<String> row : theaters){
+			graph.addTheater(Long.parseLong(row.get(0)), Long.parseLong(row.get(1)));
+		}
+		List<List<String>> plays = esql.executeQueryAndReturnResult("SELECT sid, tid FROM Plays");
+		for (List<String> row : plays){
+			graph.addPlay(Long.parseLong(row.get(0)), Long.parseLong(row.get(1)));
+		}
+		return graph;
+	}
+
+	public synchronized long[] theatersInCinema(long cid){
+		return copyOf(this._cinemaTheaters.get(cid));
+	}
+
+	public synchronized long[] showsInTheater(long tid){
+		return copyOf(this._theaterShows.get(tid));
+	}
+
+	public synchronized long[] theatersPlayingShow(long sid){
+		return copyOf(this._showTheaters.get(sid));
+	}
+
+	/**
+	 * @return the cinema of a theater or -1 when the theater is unknown
+	 */
+	public synchronized long cinemaOfTheater(long tid){
+		Long cid = this._theaterCinema.get(tid);
+		return cid == null ? -1 : cid;
+	}
+
+	/**
+	 * Method to list the theaters of one cinema that play a given show.
+	 *
+	 * @param cid the cinema id
+	 * @param sid the show id
+	 * @return the sorted theater ids, possibly empty
+	 */
+	public synchronized long[] theatersInCinemaPlayingShow(long cid, long sid){
+		long[] playing = this._showTheaters.get(sid);
+		if (playing == null) return NONE;
+		long[] result = new long[playing.length];
+		int n = 0;
+		for (long tid : playing){
+			if (cinemaOfTheater(tid) == cid) result[n++] = tid;
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * Method to list every show played in any theater of a cinema.
+	 *
+	 * @param cid the cinema id
+	 * @return the sorted, distinct show ids, possibly empty
+	 */
+	public synchronized long[] showsInCinema(long cid){
+		long[] theaters = this._cinemaTheaters.get(cid);
+		if (theaters == null) return NONE;
+		int total = 0;
+		for (long tid : theaters){
+			long[] shows = this._theaterShows.get(tid);
+			if (shows != null) total += shows.length;
+		}
+		long[] result = new long[total];
+		int n = 0;
+		for (long tid : theaters){
+			long[] shows = this._theaterShows.get(tid);
+			if (shows == null) continue;
+			System.arraycopy(shows, 0, result, n, shows.length);
+			n += shows.length;
+		}
+		Arrays.sort(result);
+		return distinct(result);
+	}
+
+	public synchronized void addTheater(long tid, long cid){
+		this._theaterCinema.put(tid, cid);
+		this._cinemaTheaters.put(cid, insert(this._cinemaTheaters.get(cid), tid));
+	}
+
+	public synchronized void addPlay(long sid, long tid){
+		this._theaterShows.put(tid, insert(this._theaterShows.get(tid), sid));
+		this._showTheaters.put(sid, insert(this._showTheaters.get(sid), tid));
+	}
+
+	/**
+	 * Method to drop a show and all of its Plays edges from the graph.
+	 *
+	 * @param sid the removed show id
+	 */
+	public synchronized void removeShow(long sid){
+		long[] theaters = this._showTheaters.remove(sid);
+		if (theaters == null) return;
+		for (long tid : theaters){
+			long[] shows = delete(this._theaterShows.get(tid), sid);
+			if (shows.length == 0) this._theaterShows.remove(tid);
+			else this._theaterShows.put(tid, shows);
+		}
+	}
+
+	/**
+	 * Method to format ids for an SQL IN list.
+	 *
+	 * @param ids the ids, must not be empty
+	 * @return the ids separated by commas
+	 */
+	public static String toSqlList(long[] ids){
+		StringBuilder list = new StringBuilder();
+		for (int i = 0; i < ids.length; ++i){
+			if (i > 0) list.append(", ");
+			list.append(ids[i]);
+		}
+		return list.toString();
+	}
+
+	private static long[] copyOf(long[] ids){
+		return ids == null ? NONE : ids.clone();
+	}
+
+	private static long[] insert(long[] ids, long id){
+		if (ids == null) return new long[]{ id };
+		int at = Arrays.binarySearch(ids, id);
+		if (at >= 0) return ids;
+		at = -at - 1;
+		long[] result = new long[ids.length + 1];
+		System.arraycopy(ids, 0, result, 0, at);
+		result[at] = id;
+		System.arraycopy(ids, at, result, at + 1, ids.length - at);
+		return result;
+	}
+
+	private static long[] delete(long[] ids, long id){
+		if (ids == null) return NONE;
+		int at = Arrays.binarySearch(ids, id);
+		if (at < 0) return ids;
+		long[] result = new long[ids.length - 1];
+		System.arraycopy(ids, 0, result, 0, at);
+		System.arraycopy(ids, at + 1, result, at, ids.length - at - 1);
+		return result;
+	}
+
+	private static long[] distinct(long[] sorted){
+		if (sorted.length == 0) return sorted;
+		int n = 1;
+		for (int i = 1; i < sorted.length; ++i){
+			if (sorted[i] != sorted[n - 1]) sorted[n++] = sorted[i];
+		}
+		return Arrays.copyOf(sorted, n);
+	}
+}//end ShowGraph
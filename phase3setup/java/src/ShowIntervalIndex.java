@@ -0,0 +1,290 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+
+/**
+ * This class indexes shows by time so date range and time window listings
+ * do not have to join Shows, Plays, Theaters and Cinemas.  Shows are kept
+ * in two structures:
+ *
+ *   (cid, mvid) -> shows ordered by (sdate, sttime, sid), for "shows of
+ *   movie X at cinema Y between dates A and B"
+ *
+ *   sdate -> an interval tree over [sttime, edtime), for "what is on
+ *   between 7 and 9pm tonight"
+ *
+ * The cinema of a show comes from the show graph, so a show played in
+ * theaters of two cinemas is indexed under both.
+ *
+ */
+
+public class ShowIntervalIndex{
+	private static final int DAY = 24 * 60 * 60;
+	private static final Comparator<Show> BY_TIME = Comparator
+		.comparingLong((Show s) -> s.day).thenComparingInt(s -> s.start).thenComparingLong(s -> s.sid);
+	private static final DateTimeFormatter[] DATE_FORMATS = {
+		DateTimeFormatter.ofPattern("M/d/yyyy"),
+		DateTimeFormatter.ofPattern("M/d/yy"),
+		DateTimeFormatter.ISO_LOCAL_DATE
+	};
+	private static final DateTimeFormatter[] TIME_FORMATS = {
+		DateTimeFormatter.ofPattern("H:mm[:ss]"),
+		DateTimeFormatter.ofPattern("h:mm[:ss] a", Locale.US),
+		DateTimeFormatter.ofPattern("h[:mm]a", Locale.US)
+	};
+
+	/**
+	 * One show at one cinema.  Times are seconds since midnight; a show
+	 * that ends after midnight has end > 24h.
+	 */
+	public static class Show{
+		public final long sid;
+		public final long mvid;
+		public final long cid;
+		public final long day;
+		public final int start;
+		public final int end;
+
+		Show(long sid, long mvid, long cid, long day, int start, int end){
+			this.sid = sid;
+			this.mvid = mvid;
+			this.cid = cid;
+			this.day = day;
+			this.start = start;
+			this.end = end <= start ? end + DAY : end;
+		}
+
+		public LocalDate date(){
+			return LocalDate.ofEpochDay(this.day);
+		}
+
+		public LocalTime startTime(){
+			return LocalTime.ofSecondOfDay(this.start);
+		}
+
+		public LocalTime endTime(){
+			return LocalTime.ofSecondOfDay(this.end % DAY);
+		}
+	}
+
+	/**
+	 * The shows of one day, sorted by start time, with the largest end time
+	 * of each implicit subtree so overlap queries can skip whole subtrees.
+	 */
+	private static class Day{
+		final List<Show> shows = new ArrayList<Show>();
+		Show[] sorted = null;
+		int[] maxEnd = null;
+
+		void build(){
+			this.sorted = this.shows.toArray(new Show[0]);
+			Arrays.sort(this.sorted, BY_TIME);
+			this.maxEnd = new int[this.sorted.length];
+			build(0, this.sorted.length);
+		}
+
+		private int build(int lo, int hi){
+			if (lo >= hi) return Integer.MIN_VALUE;
+			int mid = (lo + hi) >>> 1;
+			int max = Math.max(this.sorted[mid].end, Math.max(build(lo, mid), build(mid + 1, hi)));
+			this.maxEnd[mid] = max;
+			return max;
+		}
+
+		void overlapping(int from, int to, int lo, int hi, List<Show> result){
+			if (lo >= hi) return;
+			int mid = (lo + hi) >>> 1;
+			if (this.maxEnd[mid] <= from) return;
+			overlapping(from, to, lo, mid, result);
+			Show show = this.sorted[mid];
+			if (show.start < to){
+				if (show.end > from) result.add(show);
+				overlapping(from, to, mid + 1, hi, result);
+			}
+		}
+	}
+
+	//(cid, mvid) -> shows
+	private final Map<String, NavigableSet<Show>> _byCinemaMovie = new HashMap<String, NavigableSet<Show>>();
+	//epoch day -> shows of that day
+	private final LongMap<Day> _byDay = new LongMap<Day>();
+	//sid -> its entries, one per cinema
+	private final LongMap<List<Show>> _bySid = new LongMap<List<Show>>();
+
+	/**
+	 * Method to build the index from Shows and the show graph.
+	 *
+	 * @param esql the database to read from
+	 * @param graph the show graph, to find the cinemas of the shows
+	 * @return the loaded index
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static ShowIntervalIndex load(Ticketmaster esql, ShowGraph graph) throws SQLException {
+		ShowIntervalIndex index = new ShowIntervalIndex();
+		for (List<String> row : esql.executeQueryAndReturnResult("SELECT sid, mvid, sdate, sttime, edtime FROM Shows")){
+			index.addShow(graph, row);
+		}
+		return index;
+	}
+
+	/**
+	 * Method to index a show given as a (sid, mvid, sdate, sttime, edtime)
+	 * row under every cinema the graph says it plays in.  Adding a show
+	 * again replaces its previous entries.
+	 *
+	 * @param graph the show graph, used to find the cinemas of the show
+	 * @param row the Shows row
+	 */
+	public synchronized void addShow(ShowGraph graph, List<String> row){
+		long sid = Long.parseLong(row.get(0));
+		removeShow(sid);
+		long day = LocalDate.parse(row.get(2)).toEpochDay();
+		int start = LocalTime.parse(row.get(3)).toSecondOfDay();
+		int end = LocalTime.parse(row.get(4)).toSecondOfDay();
+		List<Show> entries = new ArrayList<Show>();
+		for (long tid : graph.theatersPlayingShow(sid)){
+			long cid = graph.cinemaOfTheater(tid);
+			boolean seen = false;
+			for (Show other : entries) seen |= other.cid == cid;
+			if (cid < 0 || seen) continue;
+			Show show = new Show(sid, Long.parseLong(row.get(1)), cid, day, start, end);
+			entries.add(show);
+			cinemaMovie(show.cid, show.mvid, true).add(show);
+			Day shows = this._byDay.get(day);
+			if (shows == null){
+				shows = new Day();
+				this._byDay.put(day, shows);
+			}
+			shows.shows.add(show);
+			shows.sorted = null;
+		}
+		if (!entries.isEmpty()) this._bySid.put(sid, entries);
+	}
+
+	/**
+	 * Method to drop a show from the index.
+	 *
+	 * @param sid the removed show id
+	 */
+	public synchronized void removeShow(long sid){
+		List<Show> entries = this._bySid.remove(sid);
+		if (entries == null) return;
+		for (Show show : entries){
+			NavigableSet<Show> shows = cinemaMovie(show.cid, show.mvid, false);
+			if (shows != null) shows.remove(show);
+			Day day = this._byDay.get(show.day);
+			if (day != null){
+				day.shows.remove(show);
+				day.sorted = null;
+				if (day.shows.isEmpty()) this._byDay.remove(show.day);
+			}
+		}
+	}
+
+	/**
+	 * Method to list the shows of a movie at a cinema strictly between two
+	 * dates.
+	 *
+	 * @return the shows ordered by date and start time
+	 */
+	public synchronized List<Show> showsBetween(long cid, long mvid, LocalDate after, LocalDate before){
+		NavigableSet<Show> shows = cinemaMovie(cid, mvid, false);
+		if (shows == null || !after.isBefore(before)) return new ArrayList<Show>();
+		Show from = new Show(Long.MAX_VALUE, mvid, cid, after.toEpochDay(), DAY - 1, DAY - 1);
+		Show to = new Show(Long.MIN_VALUE, mvid, cid, before.toEpochDay(), 0, 0);
+		return new ArrayList<Show>(shows.subSet(from, false, to, false));
+	}
+
+	/**
+	 * Method to list every show running at some point between two times
+	 * of a day.
+	 *
+	 * @param date the day
+	 * @param from the start of the window
+	 * @param to the end of the window
+	 * @return the shows ordered by start time
+	 */
+	public synchronized List<Show> playingDuring(LocalDate date, LocalTime from, LocalTime to){
+		List<Show> result = new ArrayList<Show>();
+		int windowStart = from.toSecondOfDay();
+		int windowEnd = to.toSecondOfDay() <= windowStart ? to.toSecondOfDay() + DAY : to.toSecondOfDay();
+		Day day = this._byDay.get(date.toEpochDay());
+		if (day != null){
+			if (day.sorted == null) day.build();
+			day.overlapping(windowStart, windowEnd, 0, day.sorted.length, result);
+		}
+		// shows of the previous day that run past midnight
+		Day before = this._byDay.get(date.toEpochDay() - 1);
+		if (before != null){
+			if (before.sorted == null) before.build();
+			before.overlapping(windowStart + DAY, windowEnd + DAY, 0, before.sorted.length, result);
+		}
+		result.sort(BY_TIME);
+		return result;
+	}
+
+	/**
+	 * Method to parse the dates the menu accepts: MM/DD/YYYY, MM/DD/YY or
+	 * YYYY-MM-DD.
+	 *
+	 * @throws java.time.format.DateTimeParseException when no format matches
+	 */
+	public static LocalDate parseDate(String text){
+		for (DateTimeFormatter format : DATE_FORMATS){
+			try{
+				return LocalDate.parse(text.trim(), format);
+			}catch (DateTimeParseException e){
+				// try the next format
+			}
+		}
+		throw new DateTimeParseException("Unknown date format", text, 0);
+	}
+
+	/**
+	 * Method to parse the times the menu accepts: HH:MM, HH:MM AM/PM or 7pm.
+	 *
+	 * @throws java.time.format.DateTimeParseException when no format matches
+	 */
+	public static LocalTime parseTime(String text){
+		for (DateTimeFormatter format : TIME_FORMATS){
+			try{
+				return LocalTime.parse(text.trim().toUpperCase(), format);
+			}catch (DateTimeParseException e){
+				// try the next format
+			}
+		}
+		throw new DateTimeParseException("Unknown time format", text, 0);
+	}
+
+	private NavigableSet<Show> cinemaMovie(long cid, long mvid, boolean create){
+		String key = cid + "/" + mvid;
+		NavigableSet<Show> shows = this._byCinemaMovie.get(key);
+		if (shows == null && create){
+			shows = new TreeSet<Show>(BY_TIME);
+			this._byCinemaMovie.put(key, shows);
+		}
+		return shows;
+	}
+}//end ShowIntervalIndex
@@ -0,0 +1,79 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class drives the daily partitions of Shows, ShowSeats and Plays
+ * set up by sql/partition.sql.  Both operations are single calls to the
+ * functions defined there, so a day is created or removed atomically.
+ *
+ */
+
+public class ShowPartitions{
+
+	/**
+	 * What remove_show_day took away.
+	 */
+	public static class Removed{
+		public final List<Long> shows = new ArrayList<Long>();
+		public final List<Long> bookings = new ArrayList<Long>();
+	}
+
+	/**
+	 * Method to tell whether sql/partition.sql has been applied.
+	 *
+	 * @param esql the database to check
+	 * @return true when Shows is a partitioned table
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public static boolean isPartitioned(Ticketmaster esql) throws SQLException {
+		return !esql.executeQueryAndReturnResult(
+			"SELECT 1 FROM pg_partitioned_table WHERE partrelid = to_regclass('shows')").isEmpty();
+	}
+
+	/**
+	 * Method to make sure the partitions of today and the following days
+	 * exist.  Shows of later days land in the default partition.
+	 *
+	 * @param esql the database to update
+	 * @param days the number of days, from today, to cover
+	 * @return the number of days whose partitions were created
+	 * @throws java.sql.SQLException when failed to create a partition
+	 */
+	public static int createAhead(Ticketmaster esql, int days) throws SQLException {
+		return Integer.parseInt(esql.executeQueryAndReturnResult(
+			"SELECT create_show_partitions(current_date, " + days + ")").get(0).get(0));
+	}
+
+	/**
+	 * Method to remove every show of a day, with its seats, plays,
+	 * bookings and payments, by detaching or dropping the day's partitions.
+	 *
+	 * @param esql the database to update
+	 * @param day the day to remove
+	 * @param archive true to move the day into the archive schema instead
+	 *                of dropping it
+	 * @return the removed show and booking ids
+	 * @throws java.sql.SQLException when failed to remove the day
+	 */
+	public static Removed removeDay(Ticketmaster esql, LocalDate day, boolean archive) throws SQLException {
+		Removed removed = new Removed();
+		for (List<String> row : esql.executeQueryAndReturnResult(
+				"SELECT kind, id FROM remove_show_day('" + day + "', " + archive + ")")){
+			(row.get(0).equals("show") ? removed.shows : removed.bookings).add(Long.parseLong(row.get(1)));
+		}
+		return removed;
+	}
+}//end ShowPartitions
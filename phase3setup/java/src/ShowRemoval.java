@@ -0,0 +1,118 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class removes shows together with everything that references
+ * them, in one statement.  The target shows are resolved once, then a
+ * data-modifying CTE deletes their history rows, payments, seats, plays,
+ * bookings and the shows themselves.  The foreign keys are checked at the
+ * end of the statement, when all of it is gone, so no ON DELETE rules are
+ * needed and nothing is left behind.  Every removed payment is reported
+ * with its booking and amount, so the revenue it counted for is taken back.
+ *
+ */
+
+public class ShowRemoval{
+	//the tables in the order the statement reports them
+	public static final String[] TABLES = {"Shows", "Plays", "ShowSeats", "Bookings", "Payments", "UserBookingHistory"};
+
+	/**
+	 * What a removal took away.
+	 */
+	public static class Result{
+		public final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+		public final List<Long> shows = new ArrayList<Long>();
+		public final List<Long> bookings = new ArrayList<Long>();
+		//pid -> booking and amount of every removed payment
+		public final Map<Long, BookingStore.Payment> payments = new LinkedHashMap<Long, BookingStore.Payment>();
+
+		/**
+		 * Method to make the caches and listeners of a connection forget the
+		 * removed shows and bookings.
+		 */
+		public void apply(Ticketmaster esql){
+			for (long sid : this.shows) esql.showRemoved(sid);
+			// before the bookings go, while listeners still know their shows
+			for (Map.Entry<Long, BookingStore.Payment> payment : this.payments.entrySet()){
+				esql.getBookingEvents().paymentRemoved(payment.getKey(), payment.getValue().bid, payment.getValue().amount);
+			}
+			for (long bid : this.bookings) esql.getBookingEvents().bookingDeleted(bid);
+		}
+
+		public String toString(){
+			StringBuilder s = new StringBuilder();
+			for (Map.Entry<String, Long> count : this.counts.entrySet()){
+				if (s.length() > 0) s.append(", ");
+				s.append(count.getKey() + " " + count.getValue());
+			}
+			return s.toString();
+		}
+	}
+
+	/**
+	 * Method to build the removal statement.
+	 *
+	 * @param target a query returning the sid of every show to remove
+	 * @return a statement returning (table, rows removed, ids) per table;
+	 *         the ids are given for Shows and Bookings, and pid:bid:amount
+	 *         for Payments
+	 */
+	public static String statement(String target){
+		return
+			"WITH target AS (" + target + "), " +
+			"doomed AS (SELECT bid FROM Bookings WHERE sid IN (SELECT sid FROM target)), " +
+			"h AS (DELETE FROM UserBookingHistory WHERE bid IN (SELECT bid FROM doomed) RETURNING bid), " +
+			"p AS (DELETE FROM Payments WHERE bid IN (SELECT bid FROM doomed) RETURNING pid, bid, amount), " +
+			"ss AS (DELETE FROM ShowSeats WHERE sid IN (SELECT sid FROM target) RETURNING ssid), " +
+			"pl AS (DELETE FROM Plays WHERE sid IN (SELECT sid FROM target) RETURNING sid), " +
+			"b AS (DELETE FROM Bookings WHERE bid IN (SELECT bid FROM doomed) RETURNING bid), " +
+			"s AS (DELETE FROM Shows WHERE sid IN (SELECT sid FROM target) RETURNING sid) " +
+			"SELECT 'Shows', count(*), string_agg(sid::text, ',') FROM s " +
+			"UNION ALL SELECT 'Plays', count(*), NULL FROM pl " +
+			"UNION ALL SELECT 'ShowSeats', count(*), NULL FROM ss " +
+			"UNION ALL SELECT 'Bookings', count(*), string_agg(bid::text, ',') FROM b " +
+			"UNION ALL SELECT 'Payments', count(*), string_agg(pid || ':' || bid || ':' || amount, ',') FROM p " +
+			"UNION ALL SELECT 'UserBookingHistory', count(*), NULL FROM h";
+	}
+
+	/**
+	 * Method to remove shows and their dependents in one round trip.  The
+	 * caller applies the result once the removal is committed.
+	 *
+	 * @param esql the database to update
+	 * @param target a query returning the sid of every show to remove
+	 * @return the removed rows
+	 * @throws java.sql.SQLException when failed to remove them
+	 */
+	public static Result remove(Ticketmaster esql, String target) throws SQLException {
+		Result result = new Result();
+		for (List<String> row : esql.executeQueryAndReturnResult(statement(target))){
+			result.counts.put(row.get(0), Long.parseLong(row.get(1)));
+			if (row.get(2) == null) continue;
+			if (row.get(0).equals("Payments")){
+				for (String payment : row.get(2).split(",")){
+					String[] f = payment.split(":");
+					result.payments.put(Long.parseLong(f[0]), new BookingStore.Payment(Long.parseLong(f[1]), Double.parseDouble(f[2])));
+				}
+				continue;
+			}
+			List<Long> ids = row.get(0).equals("Shows") ? result.shows : result.bookings;
+			for (String id : row.get(2).split(",")) ids.add(Long.parseLong(id));
+		}
+		return result;
+	}
+}//end ShowRemoval
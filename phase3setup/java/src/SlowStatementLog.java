@@ -0,0 +1,137 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class records statements that ran longer than a threshold.  It is
+ * off unless -Dticketmaster.slowms=<milliseconds> is given.  Each slow
+ * statement is logged with its fingerprint, literal values and elapsed
+ * time, and a sample of them is rerun with EXPLAIN (ANALYZE, BUFFERS)
+ * inside a rolled back transaction so the plan is logged too.  The log
+ * rotates once it grows past a size limit.
+ *
+ * Settings (system properties):
+ *   ticketmaster.slowms      threshold in milliseconds, enables the log
+ *   ticketmaster.slowlog     log file, default slow-statements.log
+ *   ticketmaster.slowsample  explain every n-th slow run of a fingerprint, default 10
+ *   ticketmaster.slowkeep    number of rotated files to keep, default 5
+ *   ticketmaster.slowbytes   size at which the log rotates, default 1048576
+ *
+ */
+
+public class SlowStatementLog{
+	private final long _thresholdNanos;
+	private final File _file;
+	private final int _sample;
+	private final int _keep;
+	private final long _maxBytes;
+	//fingerprint -> number of slow runs seen
+	private final Map<String, Integer> _seen = new HashMap<String, Integer>();
+
+	public SlowStatementLog(long thresholdMillis, File file, int sample, int keep, long maxBytes){
+		this._thresholdNanos = thresholdMillis * 1000000L;
+		this._file = file;
+		this._sample = Math.max(1, sample);
+		this._keep = Math.max(1, keep);
+		this._maxBytes = maxBytes;
+	}
+
+	/**
+	 * Method to build the log from the system properties.
+	 *
+	 * @return the log or null when ticketmaster.slowms is not set
+	 */
+	public static SlowStatementLog fromSystemProperties(){
+		String threshold = System.getProperty("ticketmaster.slowms");
+		if (threshold == null) return null;
+		return new SlowStatementLog(
+			Long.parseLong(threshold),
+			new File(System.getProperty("ticketmaster.slowlog", "slow-statements.log")),
+			Integer.getInteger("ticketmaster.slowsample", 10),
+			Integer.getInteger("ticketmaster.slowkeep", 5),
+			Long.getLong("ticketmaster.slowbytes", 1048576L));
+	}
+
+	/**
+	 * Method to report a finished statement.  Fast statements return
+	 * right away.
+	 *
+	 * @param esql the connection the statement ran on, used for the plan
+	 * @param sql the statement
+	 * @param elapsedNanos how long it took
+	 */
+	public void record(Ticketmaster esql, String sql, long elapsedNanos){
+		if (elapsedNanos < this._thresholdNanos) return;
+		String fingerprint = SqlFingerprint.fingerprint(sql);
+		boolean explain;
+		synchronized (this._seen){
+			Integer seen = this._seen.get(fingerprint);
+			seen = seen == null ? 0 : seen;
+			explain = seen % this._sample == 0;
+			this._seen.put(fingerprint, seen + 1);
+		}
+
+		List<String> plan = null;
+		String planError = null;
+		if (explain){
+			try{
+				plan = esql.explainAnalyze(sql);
+			}catch (Exception e){
+				planError = e.getMessage();
+			}
+		}
+		write(fingerprint, SqlFingerprint.literals(sql), elapsedNanos, plan, planError);
+	}
+
+	private synchronized void write(String fingerprint, List<String> binds, long elapsedNanos, List<String> plan, String planError){
+		try{
+			if (this._file.length() > this._maxBytes) rotate();
+			PrintWriter out = new PrintWriter(new FileWriter(this._file, true));
+			try{
+				out.printf("%tFT%<tT.%<tL  %.3f ms%n", System.currentTimeMillis(), elapsedNanos / 1e6);
+				out.println("  fingerprint: " + fingerprint);
+				out.println("  binds: " + binds);
+				if (plan != null){
+					out.println("  plan:");
+					for (String line : plan) out.println("    " + line);
+				}else if (planError != null){
+					out.println("  plan unavailable: " + planError);
+				}
+				out.println();
+			}finally{
+				out.close();
+			}
+		}catch (IOException e){
+			System.err.println("Unable to write slow statement log: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Method to shift log, log.1, ... log.n-1 to log.1, ... log.n, dropping
+	 * the oldest file.
+	 */
+	private void rotate(){
+		File oldest = new File(this._file.getPath() + "." + this._keep);
+		if (oldest.exists()) oldest.delete();
+		for (int i = this._keep - 1; i >= 1; --i){
+			File from = new File(this._file.getPath() + "." + i);
+			if (from.exists()) from.renameTo(new File(this._file.getPath() + "." + (i + 1)));
+		}
+		this._file.renameTo(new File(this._file.getPath() + ".1"));
+	}
+}//end SlowStatementLog
@@ -0,0 +1,119 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class reduces an SQL string to its fingerprint, the statement text
+ * with every literal replaced by '?'.  The menu operations build their SQL
+ * by concatenating user input, so statements that only differ in their
+ * values share one fingerprint.
+ *
+ */
+
+public class SqlFingerprint{
+
+	/**
+	 * Method to compute the fingerprint of a statement.  Literals become
+	 * '?', lists of literals become '(?...)', whitespace is collapsed and
+	 * everything outside of quoted identifiers is lower cased.
+	 *
+	 * @param sql the input SQL string
+	 * @return the fingerprint
+	 */
+	public static String fingerprint(String sql){
+		StringBuilder out = new StringBuilder(sql.length());
+		int n = sql.length();
+		int i = 0;
+		while (i < n){
+			char c = sql.charAt(i);
+			if (c == '\''){
+				i = skipString(sql, i);
+				out.append('?');
+			}else if (c == '"'){
+				int end = sql.indexOf('"', i + 1);
+				if (end < 0) end = n - 1;
+				out.append(sql, i, end + 1);
+				i = end + 1;
+			}else if (Character.isDigit(c) && !partOfWord(out)){
+				while (i < n && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) ++i;
+				out.append('?');
+			}else if (Character.isWhitespace(c)){
+				while (i < n && Character.isWhitespace(sql.charAt(i))) ++i;
+				if (out.length() > 0) out.append(' ');
+			}else{
+				out.append(Character.toLowerCase(c));
+				++i;
+			}
+		}
+		return collapseLists(out.toString().trim());
+	}
+
+	/**
+	 * Method to list the literal values of a statement in the order they
+	 * appear, the values a prepared statement would have bound.
+	 *
+	 * @param sql the input SQL string
+	 * @return the literals, string literals without their quotes
+	 */
+	public static List<String> literals(String sql){
+		List<String> values = new ArrayList<String>();
+		int n = sql.length();
+		int i = 0;
+		while (i < n){
+			char c = sql.charAt(i);
+			if (c == '\''){
+				int end = skipString(sql, i);
+				values.add(sql.substring(i + 1, end - 1).replace("''", "'"));
+				i = end;
+			}else if (c == '"'){
+				int end = sql.indexOf('"', i + 1);
+				i = end < 0 ? n : end + 1;
+			}else if (Character.isDigit(c) && (i == 0 || !isWordChar(sql.charAt(i - 1)))){
+				int start = i;
+				while (i < n && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) ++i;
+				values.add(sql.substring(start, i));
+			}else{
+				++i;
+			}
+		}
+		return values;
+	}
+
+	private static int skipString(String sql, int start){
+		int i = start + 1;
+		while (i < sql.length()){
+			if (sql.charAt(i) == '\''){
+				if (i + 1 < sql.length() && sql.charAt(i + 1) == '\''){
+					i += 2;
+					continue;
+				}
+				return i + 1;
+			}
+			++i;
+		}
+		return sql.length();
+	}
+
+	private static boolean partOfWord(StringBuilder out){
+		return out.length() > 0 && isWordChar(out.charAt(out.length() - 1));
+	}
+
+	private static boolean isWordChar(char c){
+		return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+	}
+
+	private static String collapseLists(String fingerprint){
+		// "(?, ?, ?)" and "(?)" both become "(?...)"
+		return fingerprint.replaceAll("\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)", "(?...)");
+	}
+}//end SqlFingerprint
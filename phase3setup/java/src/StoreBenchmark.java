@@ -0,0 +1,178 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * This class runs the same booking workload against booking stores and
+ * reports their throughput.  Each round books a show for a user, takes
+ * two seats, pays, and then either confirms the booking or removes the
+ * payment and cancels it, giving the seats back, as operations 2, 5 and
+ * 6 do.
+ *
+ * The memory engine is always measured, on synthetic shows and seats.
+ * Given a database, the JDBC engine is measured on the free seats found
+ * there; its users and bookings use keys from 10^12 up and are deleted
+ * afterwards.
+ *
+ * Usage: java StoreBenchmark [--rounds <n>] [--seed <n>] [<dbname> <port> <user>]
+ *
+ */
+
+public class StoreBenchmark{
+	private static final long BASE = 1000000000000L;
+	private static final int USERS = 100;
+
+	private final BookingStore _store;
+	private final ArrayDeque<long[]> _free = new ArrayDeque<long[]>();
+	private final Random _random;
+
+	/**
+	 * @param store the store to drive
+	 * @param seats free (ssid, sid) pairs the workload may book
+	 * @param seed the seed of the random choices
+	 */
+	public StoreBenchmark(BookingStore store, List<long[]> seats, long seed){
+		this._store = store;
+		this._free.addAll(seats);
+		this._random = new Random(seed);
+	}
+
+	/**
+	 * Method to create the workload's users.
+	 */
+	public void addUsers() throws SQLException {
+		for (int u = 0; u < USERS; ++u){
+			this._store.addUser(email(u), "Bench", "User" + u, null, "x");
+		}
+	}
+
+	/**
+	 * Method to run the workload.
+	 *
+	 * @param rounds the number of bookings to make
+	 * @return the number of store calls made
+	 */
+	public long run(int rounds) throws SQLException {
+		long calls = 0;
+		for (int i = 0; i < rounds && this._free.size() >= 2; ++i){
+			long bid = BASE + i;
+			long[] first = this._free.poll();
+			long[] second = this._free.poll();
+			String email = email(this._random.nextInt(USERS));
+			calls += 2;
+			if (!this._store.userExists(email) || this._store.bookingExists(bid)) continue;
+			this._store.addBooking(bid, "Pending", "2020-01-01 12:00:00", 2, first[1], email);
+			this._store.claimSeat(first[0], bid);
+			this._store.claimSeat(second[0], bid);
+			this._store.addPayment(bid, bid, "card", 20);
+			calls += 4;
+			if (this._random.nextInt(4) == 0){
+				this._store.removePayment(bid);
+				this._store.setStatus(bid, "Cancelled");
+				for (long ssid : this._store.seatsOf(bid)) this._store.releaseSeat(ssid);
+				this._free.add(first);
+				this._free.add(second);
+				calls += 5;
+			}else{
+				this._store.setStatus(bid, "Paid");
+				calls += 1;
+			}
+		}
+		return calls;
+	}
+
+	private static String email(int user){
+		return "bench-" + user + "@example.com";
+	}
+
+	/**
+	 * Method to time a workload and print its throughput.
+	 */
+	private static void measure(String engine, StoreBenchmark benchmark, int rounds) throws SQLException {
+		benchmark.addUsers();
+		long start = System.nanoTime();
+		long calls = benchmark.run(rounds);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-8s %10d calls in %8.3f s %12.0f calls/s%n", engine, calls, seconds, calls / seconds);
+	}
+
+	/**
+	 * Method to build shows and seats for the memory engine, shaped like a
+	 * theater: shows of 100 seats.
+	 */
+	private static List<long[]> syntheticSeats(BookingStore store, int seats) throws SQLException {
+		List<long[]> free = new ArrayList<long[]>();
+		for (int i = 0; i < seats; ++i){
+			long sid = i / 100 + 1;
+			if (i % 100 == 0) store.addShow(sid, 1, LocalDate.of(2020, 1, 1), LocalTime.of(20, 0), LocalTime.of(22, 0));
+			store.addShowSeat(i + 1, sid, i % 100 + 1, 10);
+			free.add(new long[]{i + 1, sid});
+		}
+		return free;
+	}
+
+	/**
+	 * Method to delete what the workload wrote to the database.
+	 */
+	private static void cleanup(Ticketmaster esql) throws SQLException {
+		esql.executeUpdate("UPDATE ShowSeats SET bid = NULL WHERE bid >= " + BASE);
+		esql.executeUpdate("DELETE FROM Payments WHERE bid >= " + BASE);
+		esql.executeUpdate("DELETE FROM UserBookingHistory WHERE bid >= " + BASE);
+		esql.executeUpdate("DELETE FROM Bookings WHERE bid >= " + BASE);
+		esql.executeUpdate("DELETE FROM Users WHERE email LIKE 'bench-%@example.com'");
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args the command line arguments: [--rounds <n>] [--seed <n>] [<dbname> <port> <user>]
+	 */
+	public static void main(String[] args) throws Exception {
+		int rounds = 100000;
+		long seed = 42;
+		List<String> database = new ArrayList<String>();
+		for (int i = 0; i < args.length; ++i){
+			if (args[i].equals("--rounds") && i + 1 < args.length) rounds = Integer.parseInt(args[++i]);
+			else if (args[i].equals("--seed") && i + 1 < args.length) seed = Long.parseLong(args[++i]);
+			else database.add(args[i]);
+		}
+		if (database.size() != 0 && database.size() != 3){
+			System.err.println("Usage: java StoreBenchmark [--rounds <n>] [--seed <n>] [<dbname> <port> <user>]");
+			return;
+		}
+
+		MemoryBookingStore memory = new MemoryBookingStore();
+		// two seats per round, so the pool never runs dry
+		measure("memory", new StoreBenchmark(memory, syntheticSeats(memory, 2 * rounds), seed), rounds);
+
+		if (database.isEmpty()) return;
+		Class.forName("org.postgresql.Driver");
+		Ticketmaster esql = new Ticketmaster(database.get(0), database.get(1), database.get(2), "");
+		try{
+			List<long[]> free = new ArrayList<long[]>();
+			for (List<String> row : esql.executeQueryAndReturnResult(
+					"SELECT ssid, sid FROM ShowSeats WHERE bid IS NULL ORDER BY ssid LIMIT " + (2L * rounds))){
+				free.add(new long[]{Long.parseLong(row.get(0)), Long.parseLong(row.get(1))});
+			}
+			measure("jdbc", new StoreBenchmark(new JdbcBookingStore(esql), free, seed), rounds);
+		}finally{
+			cleanup(esql);
+			esql.cleanup();
+		}
+	}
+}//end StoreBenchmark
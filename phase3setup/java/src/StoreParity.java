@@ -0,0 +1,210 @@
+/*
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class checks that MemoryBookingStore answers like JdbcBookingStore,
+ * so what passes on the memory store holds on Postgres.  The same calls
+ * are made on both: a second user with a taken email, a second seat at
+ * the same (sid, csid), a second payment for a booking, seats, bookings
+ * and payments naming rows that do not exist, and booking, paying and
+ * cancelling through Operations on a Ticketmaster around each store.
+ * Every call's return value or SQLState is printed side by side, and the
+ * check exits with status 1 when they differ.
+ *
+ * The database calls run in one transaction that is rolled back at the
+ * end, each in a savepoint of its own so a failed one does not abort the
+ * rest; their keys are from 10^12 up, next to an existing movie and two
+ * existing cinema seats.
+ *
+ * Usage: java StoreParity <dbname> <port> <user>
+ *
+ */
+
+public class StoreParity{
+	private static final long BASE = 1000000000000L;
+
+	/**
+	 * One call, made the same way on either Ticketmaster.
+	 */
+	private interface Call{
+		Object on(Ticketmaster db) throws Exception;
+	}
+
+	private final List<String> _names = new ArrayList<String>();
+	private final List<Call> _calls = new ArrayList<Call>();
+
+	private void call(String name, Call call){
+		this._names.add(name);
+		this._calls.add(call);
+	}
+
+	/**
+	 * Method to build the call sequence.
+	 *
+	 * @param mvid an existing movie, for the show
+	 * @param csid1 an existing cinema seat
+	 * @param csid2 another existing cinema seat
+	 */
+	private StoreParity(long mvid, long csid1, long csid2){
+		long sid = BASE, missingSid = BASE + 1;
+		long ssid1 = BASE, ssid2 = BASE + 1, ssid3 = BASE + 2, missingSsid = BASE + 3;
+		long bid = BASE, bid2 = BASE + 1, missingBid = BASE + 2;
+		long pid = BASE, missingPid = BASE + 3;
+		String email = "parity@example.com", missingEmail = "parity-missing@example.com";
+
+		call("add user", db -> { db.getStore().addUser(email, "Parity", "Check", "5550100", "x"); return null; });
+		call("add user again", db -> { db.getStore().addUser(email, "Parity", "Check", "5550100", "x"); return null; });
+		call("user exists", db -> db.getStore().userExists(email));
+		call("add show", db -> { db.getStore().addShow(sid, mvid, LocalDate.of(2020, 1, 1), LocalTime.of(20, 0), LocalTime.of(22, 0)); return null; });
+		call("show exists", db -> db.getStore().showExists(sid));
+		call("add seat", db -> { db.getStore().addShowSeat(ssid1, sid, csid1, 10); return null; });
+		call("add seat, taken (sid, csid)", db -> { db.getStore().addShowSeat(ssid2, sid, csid1, 10); return null; });
+		call("add seat, taken ssid", db -> { db.getStore().addShowSeat(ssid1, sid, csid2, 10); return null; });
+		call("add seat, missing show", db -> { db.getStore().addShowSeat(ssid3, missingSid, csid2, 10); return null; });
+		call("add other seat", db -> { db.getStore().addShowSeat(ssid2, sid, csid2, 10); return null; });
+		call("book, missing show", db -> db.getStore().createBooking(bid, "Pending", "2020-01-01 12:00:00", 1, missingSid, email));
+		call("book, missing user", db -> db.getStore().createBooking(bid, "Pending", "2020-01-01 12:00:00", 1, sid, missingEmail));
+		call("book", db -> db.getStore().createBooking(bid, "Pending", "2020-01-01 12:00:00", 1, sid, email));
+		call("book again", db -> db.getStore().createBooking(bid, "Pending", "2020-01-01 12:00:00", 1, sid, email));
+		call("booking exists", db -> db.getStore().bookingExists(bid));
+		call("claim seat", db -> db.getStore().claimSeat(ssid1, bid));
+		call("claim seat, missing booking", db -> db.getStore().claimSeat(ssid2, missingBid));
+		call("claim missing seat", db -> db.getStore().claimSeat(missingSsid, bid));
+		call("seats of booking", db -> db.getStore().seatsOf(bid));
+		call("pay", db -> { db.getStore().addPayment(pid, bid, "card", 20); return null; });
+		call("pay again, same pid", db -> { db.getStore().addPayment(pid, bid, "card", 20); return null; });
+		call("second payment", db -> { db.getStore().addPayment(pid + 1, bid, "card", 20); return null; });
+		call("pay, missing booking", db -> { db.getStore().addPayment(pid + 2, missingBid, "card", 20); return null; });
+		call("remove payment", db -> db.getStore().removePayment(pid));
+		call("remove payment again", db -> db.getStore().removePayment(pid));
+		call("set status", db -> { db.getStore().setStatus(bid, "Cancelled"); return null; });
+		call("release seat", db -> db.getStore().releaseSeat(ssid1));
+		call("release free seat", db -> db.getStore().releaseSeat(ssid1));
+		call("release missing seat", db -> db.getStore().releaseSeat(missingSsid));
+		call("seats after release", db -> db.getStore().seatsOf(bid));
+		call("operation add-user, taken", db -> operation(db, "add-user", "fname", "Parity", "lname", "Check", "email", email, "phone", "5550100"));
+		call("operation add-booking", db -> operation(db, "add-booking", "bid", bid2, "status", "Pending", "bdatetime", "2020-01-01 12:00:00",
+			"seats", 1, "sid", sid, "email", email));
+		call("operation add-booking, missing user", db -> operation(db, "add-booking", "bid", bid2 + 1, "status", "Pending",
+			"bdatetime", "2020-01-01 12:00:00", "seats", 1, "sid", sid, "email", missingEmail));
+		call("pay second booking", db -> { db.getStore().addPayment(pid + 3, bid2, "card", 15); return null; });
+		call("operation remove-payment", db -> operation(db, "remove-payment", "pid", pid + 3));
+		call("operation remove-payment, missing", db -> operation(db, "remove-payment", "pid", missingPid));
+	}
+
+	/**
+	 * Method to run an operation and describe its result.
+	 */
+	private static Object operation(Ticketmaster db, String name, Object... args) throws Exception {
+		Map<String, Object> values = new LinkedHashMap<String, Object>();
+		for (int i = 0; i < args.length; i += 2) values.put((String) args[i], args[i + 1]);
+		Operations.Result result = Operations.run(db, db, name, new Operations.Arguments(values));
+		if (result.error != null) return result.error;
+		return "ok " + result.fields;
+	}
+
+	/**
+	 * Method to make every call, each in a savepoint of the open
+	 * transaction, and describe what it returned or threw.
+	 */
+	private List<String> run(Ticketmaster db){
+		List<String> outcomes = new ArrayList<String>();
+		for (Call call : this._calls){
+			try{
+				db.beginTransaction();
+			}catch (SQLException e){
+				outcomes.add("savepoint failed: " + e.getMessage());
+				continue;
+			}
+			try{
+				String outcome = describe(call.on(db));
+				db.commit();
+				outcomes.add(outcome);
+			}catch (SQLException e){
+				db.rollback();
+				outcomes.add("SQLState " + e.getSQLState());
+			}catch (Exception e){
+				db.rollback();
+				outcomes.add(e.getClass().getSimpleName());
+			}
+		}
+		return outcomes;
+	}
+
+	private static String describe(Object value){
+		if (value == null) return "-";
+		if (value instanceof long[]) return Arrays.toString((long[]) value);
+		if (value instanceof BookingStore.Payment){
+			BookingStore.Payment payment = (BookingStore.Payment) value;
+			return "payment of " + payment.bid + ": " + payment.amount;
+		}
+		return value.toString();
+	}
+
+	/**
+	 * The main execution method
+	 *
+	 * @param args the command line arguments: <dbname> <port> <user>
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 3){
+			System.err.println("Usage: java StoreParity <dbname> <port> <user>");
+			System.exit(2);
+		}
+		Class.forName("org.postgresql.Driver");
+		Ticketmaster esql = new Ticketmaster(args[0], args[1], args[2], "");
+		List<String> jdbc;
+		StoreParity parity;
+		try{
+			List<List<String>> seats = esql.executeQueryAndReturnResult("SELECT csid FROM CinemaSeats ORDER BY csid LIMIT 2");
+			List<List<String>> movies = esql.executeQueryAndReturnResult("SELECT min(mvid) FROM Movies");
+			if (seats.size() < 2 || movies.get(0).get(0) == null){
+				System.err.println("The database needs a movie and two cinema seats");
+				System.exit(2);
+			}
+			parity = new StoreParity(Long.parseLong(movies.get(0).get(0)), Long.parseLong(seats.get(0).get(0)), Long.parseLong(seats.get(1).get(0)));
+			esql.beginTransaction();
+			try{
+				jdbc = parity.run(esql);
+			}finally{
+				esql.rollback();
+			}
+		}finally{
+			esql.cleanup();
+		}
+
+		Ticketmaster memory = new Ticketmaster(new MemoryBookingStore());
+		memory.beginTransaction();
+		List<String> held = parity.run(memory);
+		memory.commit();
+
+		int differ = 0;
+		for (int i = 0; i < jdbc.size(); ++i){
+			boolean same = jdbc.get(i).equals(held.get(i));
+			if (!same) ++differ;
+			System.out.printf("%-38s  %-6s  memory %-40s  jdbc %s%n", parity._names.get(i), same ? "same" : "DIFFER", held.get(i), jdbc.get(i));
+		}
+		if (differ > 0){
+			System.out.println(differ + " of " + jdbc.size() + " calls answered differently");
+			System.exit(1);
+		}
+		System.out.println("All " + jdbc.size() + " calls answered alike");
+	}
+}//end StoreParity
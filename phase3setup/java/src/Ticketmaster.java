@@ -13,6 +13,7 @@
 
 import java.sql.DriverManager;
 import java.sql.Connection;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -20,11 +21,28 @@ import java.sql.SQLException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.InputStreamReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Date;
 import java.util.Random;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
 
 
 
@@ -39,9 +57,51 @@ import java.util.Random;
 public class Ticketmaster{
 	//reference to physical database connection
 	private Connection _connection = null;
+	//what the connection was opened with, for newConnection
+	private final String _dbname, _dbport, _user, _passwd;
+	//cinema -> theater -> show adjacency, loaded on first use
+	private volatile ShowGraph _showGraph = null;
+	//cinemas placed on their zip code centroids, loaded on first use
+	private CinemaLocator _cinemaLocator = null;
+	//shows by (cinema, movie, date) and by time of day, loaded on first use
+	private volatile ShowIntervalIndex _showIndex = null;
+	//changes to the show caches made while one of them loads, applied to it again once in place; guarded by itself
+	private final List<Runnable> _showChanges = new ArrayList<Runnable>();
+	//how many show cache loads are running, guarded by _showChanges
+	private int _showLoads = 0;
+	//held while the show graph or the show index loads, so only one load of each runs
+	private final Object _showGraphLoad = new Object();
+	private final Object _showIndexLoad = new Object();
+	//receives every booking change the operations make
+	private final BookingEvents _events = new BookingEvents();
+	//where the operations write users, bookings, seats and payments
+	private BookingStore _store = new JdbcBookingStore(this);
+	//occupancy and revenue rollups, loaded on first use
+	private volatile BookingAggregates _aggregates = null;
+	//applies the changes of other processes to the caches, when sql/notify.sql is installed
+	private ChangeListener _changes = null;
+	//booking events on disk and the seat state replayed from them, with -Dticketmaster.journal=<folder>
+	private BookingJournal _journal = null;
+	private BookingJournal.SeatState _seatState = null;
+	//the transactions begun inside another, innermost first
+	private final Deque<Savepoint> _savepoints = new ArrayDeque<Savepoint>();
+	//what to do once the open transaction commits, one list per transaction and savepoint
+	private final Deque<List<Runnable>> _afterCommit = new ArrayDeque<List<Runnable>>();
+	//whether sql/partition.sql has been applied, checked on first use
+	private Boolean _partitioned = null;
+	//every issued statement is appended here when -Dticketmaster.capture=<file> is set
+	private static PrintWriter _capture = openCapture(System.getProperty("ticketmaster.capture"));
+	//statements slower than -Dticketmaster.slowms are logged with their plan
+	private static SlowStatementLog _slowLog = SlowStatementLog.fromSystemProperties();
+	private static final Metrics.CacheStats SHOW_GRAPH_CACHE = Metrics.cache("ShowGraph");
+	private static final Metrics.CacheStats SHOW_INDEX_CACHE = Metrics.cache("ShowIntervalIndex");
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	
 	public Ticketmaster(String dbname, String dbport, String user, String passwd) throws SQLException {
+		this._dbname = dbname;
+		this._dbport = dbport;
+		this._user = user;
+		this._passwd = passwd;
 		System.out.print("Connecting to database...");
 		try{
 			// constructs the connection URL
@@ -51,11 +111,39 @@ public class Ticketmaster{
 			// obtain a physical connection
 	        this._connection = DriverManager.getConnection(url, user, passwd);
 	        System.out.println("Done");
-		}catch(Exception e){
+		}catch(SQLException e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
 	        System.out.println("Make sure you started postgres on this machine");
-	        System.exit(-1);
+	        throw e;
+		}
+	}
+
+	/**
+	 * Makes a Ticketmaster without a database, whose operations write
+	 * through the given store only, e.g. a MemoryBookingStore in tests.
+	 * Transactions hold back their booking events until the outer commit
+	 * but undo nothing; statements, listings and operations that issue
+	 * their own SQL fail with an SQLException.
+	 *
+	 * @param store the booking store
+	 */
+	public Ticketmaster(BookingStore store) {
+		this._dbname = null;
+		this._dbport = null;
+		this._user = null;
+		this._passwd = null;
+		this._store = store;
+	}
+
+	/**
+	 * @return the physical connection
+	 * @throws java.sql.SQLException when there is no database
+	 */
+	private Connection connection() throws SQLException {
+		if (this._connection == null) {
+			throw new SQLException("No database, the operations only write through " + this._store.getClass().getSimpleName());
 		}
+		return this._connection;
 	}
 	
 	/**
@@ -63,17 +151,25 @@ public class Ticketmaster{
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
 	 * @param sql the input SQL string
+	 * @return the number of rows changed
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
+	public int executeUpdate (String sql) throws SQLException { 
+		capture(sql);
+		FlightEvents.Sql event = FlightEvents.Sql.start();
+		long start = System.nanoTime();
 		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		Statement stmt = connection().createStatement ();
 
 		// issues the update instruction
-		stmt.executeUpdate (sql);
+		int rows = stmt.executeUpdate (sql);
+		slowStatement(sql, start);
+		measured("executeUpdate", start, rows);
+		event.finish("executeUpdate", sql, rows, 0);
 
 		// close the instruction
 	    stmt.close ();
+	    return rows;
 	}//end executeUpdate
 
 	/**
@@ -86,8 +182,13 @@ public class Ticketmaster{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQueryAndPrintResult (String query) throws SQLException {
+		capture(query);
+		FlightEvents.Sql event = FlightEvents.Sql.start();
+		boolean measure = event.isEnabled();
+		long bytes = 0;
+		long start = System.nanoTime();
 		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		Statement stmt = connection().createStatement ();
 
 		//issues the query instruction
 		ResultSet rs = stmt.executeQuery (query);
@@ -110,12 +211,18 @@ public class Ticketmaster{
 			    System.out.println();
 			    outputHeader = false;
 			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
+			for (int i=1; i<=numCol; ++i) {
+				String value = rs.getString (i);
+				if (measure && value != null) bytes += value.length();
+				System.out.print (value + "\t");
+			}
 			System.out.println ();
 			++rowCount;
 		}//end while
 		stmt.close ();
+		slowStatement(query, start);
+		measured("executeQueryAndPrintResult", start, rowCount);
+		event.finish("executeQueryAndPrintResult", query, rowCount, bytes);
 		return rowCount;
 	}
 	
@@ -129,8 +236,11 @@ public class Ticketmaster{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
+		capture(query);
+		FlightEvents.Sql event = FlightEvents.Sql.start();
+		long start = System.nanoTime();
 		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
+		Statement stmt = connection().createStatement (); 
 		
 		//issues the query instruction 
 		ResultSet rs = stmt.executeQuery (query); 
@@ -153,6 +263,9 @@ public class Ticketmaster{
 			result.add(record); 
 		}//end while 
 		stmt.close (); 
+		slowStatement(query, start);
+		measured("executeQueryAndReturnResult", start, result.size());
+		event.finish("executeQueryAndReturnResult", query, result);
 		return result; 
 	}//end executeQueryAndReturnResult
 	
@@ -165,8 +278,11 @@ public class Ticketmaster{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQuery (String query) throws SQLException {
+		capture(query);
+		FlightEvents.Sql event = FlightEvents.Sql.start();
+		long start = System.nanoTime();
 		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		Statement stmt = connection().createStatement ();
 
 		//issues the query instruction
 		ResultSet rs = stmt.executeQuery (query);
@@ -178,6 +294,9 @@ public class Ticketmaster{
 			rowCount++;
 		}//end while
 		stmt.close ();
+		slowStatement(query, start);
+		measured("executeQuery", start, rowCount);
+		event.finish("executeQuery", query, rowCount, 0);
 		return rowCount;
 	}
 	
@@ -192,17 +311,611 @@ public class Ticketmaster{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
+		capture(String.format("Select currval('%s')", sequence));
+		FlightEvents.Sql event = FlightEvents.Sql.start();
+		long start = System.nanoTime();
+		Statement stmt = connection().createStatement ();
 		
 		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
+		boolean found = rs.next();
+		measured("getCurrSeqVal", start, found ? 1 : 0);
+		event.finish("getCurrSeqVal", String.format("Select currval('%s')", sequence), found ? 1 : 0, 0);
+		if (found) return rs.getInt(1);
 		return -1;
 	}
 
+	/**
+	 * Method to get the in-memory cinema/theater/show graph.  The graph is
+	 * loaded from Theaters and Plays the first time it is needed and kept
+	 * up to date by the operations that write to those tables.  One load
+	 * runs at a time, on a connection of its own; callers arriving
+	 * meanwhile wait for it instead of loading again.
+	 *
+	 * @return the show graph
+	 * @throws java.sql.SQLException when failed to load the graph
+	 */
+	public ShowGraph getShowGraph() throws SQLException {
+		ShowGraph graph = this._showGraph;
+		if (graph != null){
+			SHOW_GRAPH_CACHE.hit();
+			return graph;
+		}
+		synchronized (this._showGraphLoad){
+			graph = this._showGraph;
+			if (graph != null){
+				SHOW_GRAPH_CACHE.hit();
+				return graph;
+			}
+			SHOW_GRAPH_CACHE.miss();
+			FlightEvents.CacheLoad event = FlightEvents.CacheLoad.start();
+			long start = System.nanoTime();
+			startShowLoad();
+			try{
+				Ticketmaster loader = newConnection();
+				try{
+					graph = ShowGraph.load(loader);
+				}finally{
+					loader.cleanup();
+				}
+			}finally{
+				ShowGraph loaded = graph;
+				showLoaded(loaded == null ? null : () -> this._showGraph = loaded);
+			}
+			Metrics.CACHE_LOAD_SECONDS.labels("ShowGraph").since(start);
+			event.finish("ShowGraph");
+			return graph;
+		}
+	}
+
+	/**
+	 * Method to get the show interval index.  It is built from Shows and
+	 * the show graph the first time it is needed and kept up to date by
+	 * the operations that add or remove shows.  It is loaded like the
+	 * show graph, one load at a time on a connection of its own.
+	 *
+	 * @return the show interval index
+	 * @throws java.sql.SQLException when failed to load the index
+	 */
+	public ShowIntervalIndex getShowIndex() throws SQLException {
+		ShowIntervalIndex index = this._showIndex;
+		if (index != null){
+			SHOW_INDEX_CACHE.hit();
+			return index;
+		}
+		ShowGraph graph = getShowGraph();
+		synchronized (this._showIndexLoad){
+			index = this._showIndex;
+			if (index != null){
+				SHOW_INDEX_CACHE.hit();
+				return index;
+			}
+			SHOW_INDEX_CACHE.miss();
+			FlightEvents.CacheLoad event = FlightEvents.CacheLoad.start();
+			long start = System.nanoTime();
+			startShowLoad();
+			try{
+				Ticketmaster loader = newConnection();
+				try{
+					index = ShowIntervalIndex.load(loader, graph);
+				}finally{
+					loader.cleanup();
+				}
+			}finally{
+				ShowIntervalIndex loaded = index;
+				showLoaded(loaded == null ? null : () -> this._showIndex = loaded);
+			}
+			Metrics.CACHE_LOAD_SECONDS.labels("ShowIntervalIndex").since(start);
+			event.finish("ShowIntervalIndex");
+			return index;
+		}
+	}
+
+	/**
+	 * Method to drop the show graph and the show index, when they may have
+	 * missed changes.  They are loaded again on their next use.
+	 */
+	public void invalidateShowCaches() {
+		synchronized (this._showChanges) {
+			dropShowCaches();
+			// a load running now may have read the tables before the change
+			if (this._showLoads > 0) {
+				this._showChanges.add(this::dropShowCaches);
+			}
+		}
+		Metrics.CACHE_INVALIDATIONS.labels("ShowGraph").inc();
+		Metrics.CACHE_INVALIDATIONS.labels("ShowIntervalIndex").inc();
+		FlightEvents.CacheInvalidate.record("ShowGraph, ShowIntervalIndex");
+	}
+
+	private void dropShowCaches() {
+		this._showGraph = null;
+		this._showIndex = null;
+	}
+
+	/**
+	 * A change to the show graph and index, given each of them or null
+	 * when it is not loaded.  Applying a change twice must leave them as
+	 * applying it once.
+	 */
+	public interface ShowChange{
+		void apply(ShowGraph graph, ShowIntervalIndex index);
+	}
+
+	/**
+	 * Method to apply a change to the show caches that are loaded.  While
+	 * one of them loads the change is kept and applied to it again once it
+	 * is in place, since the load may have read the tables before the
+	 * change.  Safe to call from any thread.
+	 *
+	 * @param change the change
+	 */
+	public void changeShowCaches(ShowChange change) {
+		Runnable apply = () -> change.apply(this._showGraph, this._showIndex);
+		synchronized (this._showChanges) {
+			apply.run();
+			if (this._showLoads > 0) {
+				this._showChanges.add(apply);
+			}
+		}
+	}
+
+	private void startShowLoad() {
+		synchronized (this._showChanges) {
+			++this._showLoads;
+		}
+	}
+
+	/**
+	 * Method to put a loaded show cache in place and apply the changes
+	 * made since loads began.
+	 *
+	 * @param install puts the cache in place, null when the load failed
+	 */
+	private void showLoaded(Runnable install) {
+		synchronized (this._showChanges) {
+			if (install != null) {
+				install.run();
+				for (Runnable change : this._showChanges) {
+					change.run();
+				}
+			}
+			if (--this._showLoads == 0) {
+				this._showChanges.clear();
+			}
+		}
+	}
+
+	/**
+	 * Method to tell whether Shows, ShowSeats and Plays are partitioned by
+	 * date (sql/partition.sql).
+	 *
+	 * @return true when they are
+	 * @throws java.sql.SQLException when failed to check
+	 */
+	public boolean isPartitioned() throws SQLException {
+		if (this._partitioned == null){
+			this._partitioned = ShowPartitions.isPartitioned(this);
+		}
+		return this._partitioned;
+	}
+
+	/**
+	 * Method to get the booking store the operations write through.
+	 *
+	 * @return the booking store, Postgres unless replaced
+	 */
+	public BookingStore getStore() {
+		return this._store;
+	}
+
+	/**
+	 * Method to make the operations write through another booking store,
+	 * e.g. a MemoryBookingStore in tests.
+	 *
+	 * @param store the booking store
+	 */
+	public void setStore(BookingStore store) {
+		this._store = store;
+	}
+
+	/**
+	 * Method to get the booking event fan-out.  Listeners added here see
+	 * every booking change made through this connection.
+	 *
+	 * @return the booking events
+	 */
+	public BookingEvents getBookingEvents() {
+		return this._events;
+	}
+
+	/**
+	 * Method to get the occupancy and revenue rollups.  They are computed
+	 * the first time they are needed, then follow the booking events and
+	 * are reconciled with the database every
+	 * -Dticketmaster.reconcileminutes (default 10).
+	 *
+	 * @return the booking aggregates
+	 * @throws java.sql.SQLException when failed to load the aggregates
+	 */
+	public synchronized BookingAggregates getAggregates() throws SQLException {
+		if (this._aggregates == null){
+			FlightEvents.CacheLoad event = FlightEvents.CacheLoad.start();
+			long start = System.nanoTime();
+			BookingAggregates aggregates = new BookingAggregates(this);
+			// listening first, the events of the load are replayed onto it
+			this._events.add(aggregates);
+			try {
+				aggregates.reconcile(this);
+			}catch (SQLException | RuntimeException e) {
+				this._events.remove(aggregates);
+				throw e;
+			}
+			Metrics.CACHE_LOAD_SECONDS.labels("BookingAggregates").since(start);
+			event.finish("BookingAggregates");
+			aggregates.startReconciling(Long.getLong("ticketmaster.reconcileminutes", 10L));
+			this._aggregates = aggregates;
+		}
+		return this._aggregates;
+	}
+
+	/**
+	 * Method to start journaling the booking events into a folder.  The
+	 * seat state is rebuilt by replaying what the folder already holds,
+	 * and read from the database instead when it does not match it.
+	 *
+	 * @param dir the journal folder
+	 * @throws java.io.IOException when failed to read or extend the journal
+	 * @throws java.sql.SQLException when failed to read the initial state
+	 */
+	public void openJournal(File dir) throws IOException, SQLException {
+		BookingJournal.SeatState state = new BookingJournal.SeatState();
+		long start = System.nanoTime();
+		long events = BookingJournal.replay(dir, state);
+		this._journal = BookingJournal.open(dir, this);
+		if (events == 0) {
+			// a new journal, replay the initial state it was started with
+			events = BookingJournal.replay(dir, state);
+		}
+		System.out.printf("Replayed %d booking events in %.1f ms%n", events, (System.nanoTime() - start) / 1e6);
+		if (!state.matches(this)) {
+			// the journal missed writes, e.g. made while we were down
+			System.err.println("The booking journal does not match the database, reading the seat state from the database");
+			state = new BookingJournal.SeatState();
+			BookingJournal.load(this, state);
+		}
+		this._events.add(this._journal);
+		this._events.add(state);
+		this._seatState = state;
+	}
+
+	/**
+	 * @return the seat state replayed from the journal, or null without one
+	 */
+	public BookingJournal.SeatState getSeatState() {
+		return this._seatState;
+	}
+
+	/**
+	 * @return the booking aggregates, or null when they are not loaded
+	 */
+	public BookingAggregates loadedAggregates() {
+		return this._aggregates;
+	}
+
+	/**
+	 * Method to get the nearby cinema index.  It is built from Cinemas,
+	 * Cities and the zip code centroid table named by
+	 * -Dticketmaster.centroids the first time it is needed.
+	 *
+	 * @return the cinema locator
+	 * @throws java.sql.SQLException when failed to load the cinemas
+	 * @throws java.io.IOException when failed to read the centroid table
+	 */
+	public synchronized CinemaLocator getCinemaLocator() throws SQLException, IOException {
+		if (this._cinemaLocator == null){
+			FlightEvents.CacheLoad event = FlightEvents.CacheLoad.start();
+			long start = System.nanoTime();
+			this._cinemaLocator = CinemaLocator.load(this, System.getProperty("ticketmaster.centroids", "../data/ZipCentroids.csv"));
+			Metrics.CACHE_LOAD_SECONDS.labels("CinemaLocator").since(start);
+			event.finish("CinemaLocator");
+		}
+		return this._cinemaLocator;
+	}
+
+	/**
+	 * Method to open the statement capture file used to feed IndexAdvisor
+	 * with the SQL this application actually issues.
+	 *
+	 * @param path the file to append to, or null when capturing is off
+	 * @return the capture writer or null
+	 */
+	private static PrintWriter openCapture(String path){
+		if (path == null) return null;
+		try{
+			return new PrintWriter(new FileWriter(path, true));
+		}catch (IOException e){
+			System.err.println("Unable to open capture file " + path + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Method to append one statement to the capture file, one statement
+	 * per line.
+	 *
+	 * @param sql the issued SQL string
+	 */
+	private static void capture(String sql){
+		if (_capture == null) return;
+		synchronized (_capture){
+			_capture.println(sql.replace('\n', ' ').replace('\r', ' '));
+			_capture.flush();
+		}
+	}
+
+	/**
+	 * Method to pass a finished statement to the slow statement log, if
+	 * the log is enabled.
+	 *
+	 * @param sql the issued SQL string
+	 * @param start System.nanoTime() taken before the statement was issued
+	 */
+	private void slowStatement(String sql, long start){
+		if (_slowLog == null) return;
+		_slowLog.record(this, sql, System.nanoTime() - start);
+	}
+
+	/**
+	 * Method to count a round trip and its rows in the metrics, and for
+	 * the operation when RoundTrips is counting.
+	 *
+	 * @param helper the JDBC helper that issued the statement
+	 * @param start System.nanoTime() taken before the statement was issued
+	 * @param rows the rows returned or changed
+	 */
+	private static void measured(String helper, long start, long rows){
+		Metrics.SQL_SECONDS.labels(helper).since(start);
+		Metrics.SQL_ROWS.labels(helper).inc(rows);
+		RoundTrips.statement(rows);
+	}
+
+	/**
+	 * Method to rerun a statement under EXPLAIN (ANALYZE, BUFFERS).  The
+	 * statement really executes, so it runs inside a transaction (or a
+	 * savepoint, when one is already open) that is always rolled back.
+	 * It bypasses the capture and slow statement hooks.
+	 *
+	 * @param sql the statement to explain
+	 * @return the plan, one line per element
+	 * @throws java.sql.SQLException when failed to explain the statement
+	 */
+	public List<String> explainAnalyze(String sql) throws SQLException {
+		boolean autoCommit = connection().getAutoCommit();
+		Savepoint savepoint = null;
+		if (autoCommit){
+			this._connection.setAutoCommit(false);
+		}else{
+			savepoint = this._connection.setSavepoint();
+		}
+		List<String> plan = new ArrayList<String>();
+		Statement stmt = connection().createStatement ();
+		try{
+			ResultSet rs = stmt.executeQuery ("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+			while (rs.next()){
+				plan.add(rs.getString(1));
+			}
+		}finally{
+			stmt.close ();
+			if (autoCommit){
+				this._connection.rollback();
+				this._connection.setAutoCommit(true);
+			}else{
+				this._connection.rollback(savepoint);
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * Method to stream rows into a table with COPY ... FROM STDIN.
+	 *
+	 * @param sql the COPY statement
+	 * @param reader the rows, in the format the statement names
+	 * @return the number of rows copied
+	 * @throws java.sql.SQLException when the copy failed
+	 * @throws java.io.IOException when the rows can not be read
+	 */
+	public long copyIn(String sql, Reader reader) throws SQLException, IOException {
+		capture(sql);
+		FlightEvents.Sql event = FlightEvents.Sql.start();
+		long start = System.nanoTime();
+		long rows = connection().unwrap(PGConnection.class).getCopyAPI().copyIn(sql, reader);
+		slowStatement(sql, start);
+		measured("copyIn", start, rows);
+		event.finish("copyIn", sql, rows, 0);
+		return rows;
+	}
+
+	/**
+	 * Method to start a transaction: the following statements take effect
+	 * together at commit, or not at all at rollback.  A transaction begun
+	 * inside another is a savepoint of it, so it can be rolled back alone
+	 * but only takes effect when the outer one commits.
+	 *
+	 * @throws java.sql.SQLException when failed to start it
+	 */
+	public void beginTransaction() throws SQLException {
+		if (this._connection == null){
+			// without a database only the after-commit actions are held
+		}else if (this._connection.getAutoCommit()){
+			this._connection.setAutoCommit(false);
+		}else{
+			this._savepoints.push(this._connection.setSavepoint());
+			RoundTrips.savepoint();
+		}
+		this._afterCommit.push(new ArrayList<Runnable>());
+	}
+
+	/**
+	 * Method to do something once the writes made so far are committed:
+	 * right away outside a transaction, else when the outer transaction
+	 * commits.  It is dropped when the transaction or savepoint it was
+	 * asked in rolls back.  Booking events and cache updates go through
+	 * here, so listeners never see a write that is undone.
+	 *
+	 * @param action what to do, should not throw
+	 */
+	public void afterCommit(Runnable action) {
+		if (this._afterCommit.isEmpty()) {
+			action.run();
+		}else{
+			this._afterCommit.peek().add(action);
+		}
+	}
+
+	/**
+	 * Method to commit the transaction begun by beginTransaction.
+	 *
+	 * @throws java.sql.SQLException when failed to commit
+	 */
+	public void commit() throws SQLException {
+		if (this._connection == null){
+			List<Runnable> actions = this._afterCommit.pop();
+			if (this._afterCommit.isEmpty()) {
+				runCommitted(actions);
+			}else{
+				this._afterCommit.peek().addAll(actions);
+			}
+			return;
+		}
+		if (!this._savepoints.isEmpty()){
+			// popped with its savepoint, so a failed release leaves both stacks alike
+			List<Runnable> actions = this._afterCommit.pop();
+			this._connection.releaseSavepoint(this._savepoints.pop());
+			RoundTrips.control();
+			this._afterCommit.peek().addAll(actions);
+			return;
+		}
+		RoundTrips.control();
+		this._connection.commit();
+		this._connection.setAutoCommit(true);
+		runCommitted(this._afterCommit.pop());
+	}
+
+	/**
+	 * Method to run the actions of a committed transaction; one failing
+	 * does not keep the others from running.
+	 */
+	private static void runCommitted(List<Runnable> actions) {
+		for (Runnable action : actions) {
+			try{
+				action.run();
+			}catch (RuntimeException e){
+				System.err.println("Unable to apply a committed change: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Method to roll back the transaction begun by beginTransaction.  The
+	 * connection is back in autocommit afterwards even when it fails.
+	 */
+	public void rollback(){
+		this._afterCommit.poll();
+		if (this._connection == null){
+			return;
+		}
+		if (!this._savepoints.isEmpty()){
+			RoundTrips.control();
+			try{
+				this._connection.rollback(this._savepoints.pop());
+			}catch (SQLException e){
+				// ignored, the outer transaction fails at its commit
+			}
+			return;
+		}
+		RoundTrips.control();
+		try{
+			this._connection.rollback();
+		}catch (SQLException e){
+			// ignored, the connection is broken or no transaction was open
+		}finally{
+			try{
+				this._connection.setAutoCommit(true);
+			}catch (SQLException e){
+				// ignored.
+			}
+		}
+	}
+
+	/**
+	 * Method to open another connection to the same database, for work on
+	 * a thread of its own.  It has no caches and no listeners.
+	 *
+	 * @return the new connection
+	 * @throws java.sql.SQLException when failed to connect
+	 */
+	public Ticketmaster newConnection() throws SQLException {
+		connection();
+		Ticketmaster connection = new Ticketmaster(this._dbname, this._dbport, this._user, this._passwd);
+		if (this._changes != null) {
+			this._changes.ignore(connection.backendPid());
+		}
+		return connection;
+	}
+
+	/**
+	 * @return the process id of the server backend of this connection
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int backendPid() throws SQLException {
+		return Integer.parseInt(executeQueryAndReturnResult("SELECT pg_backend_pid()").get(0).get(0));
+	}
+
+	/**
+	 * Method to fetch the notifications received by this connection.  The
+	 * driver only reads them from the server while a statement runs, so a
+	 * trivial query is sent first.  It bypasses the capture and slow
+	 * statement hooks.
+	 *
+	 * @return the notifications, oldest first
+	 * @throws java.sql.SQLException when the connection failed
+	 */
+	public PGNotification[] pollNotifications() throws SQLException {
+		Statement stmt = connection().createStatement ();
+		try{
+			stmt.executeQuery ("SELECT 1");
+		}finally{
+			stmt.close ();
+		}
+		PGNotification[] notifications = this._connection.unwrap(PGConnection.class).getNotifications();
+		return notifications == null ? new PGNotification[0] : notifications;
+	}
+
+	/**
+	 * Method to forget a removed show in the caches that are loaded.  Safe
+	 * to call from any thread.
+	 *
+	 * @param sid the removed show
+	 */
+	public void showRemoved(long sid){
+		changeShowCaches((graph, index) -> {
+			if (graph != null) {
+				graph.removeShow(sid);
+			}
+			if (index != null) {
+				index.removeShow(sid);
+			}
+		});
+	}
+
 	/**
 	 * Method to close the physical connection if it is open.
 	 */
 	public void cleanup(){
+		if (this._journal != null){
+			this._journal.close();
+		}//end if
 		try{
 			if (this._connection != null){
 				this._connection.close ();
@@ -218,14 +931,26 @@ public class Ticketmaster{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length == 2 && args[0].equals("--kiosk")) {
+			kiosk(args[1]);
+			return;
+		}//end if
+		if (args.length != 3 && !(args.length == 5 && (args[3].equals("--serve") || args[3].equals("--batch")))) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + Ticketmaster.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [--serve <http port> | --batch <commands file or ->]\n" +
+		            "   or: " + "java [-classpath <classpath>] " + Ticketmaster.class.getName () +
+		            " --kiosk <snapshot file>");
 			return;
 		}//end if
 		
 		Ticketmaster esql = null;
+		long failed = 0;
+		// in batch mode stdout carries the results, everything else goes to stderr
+		PrintStream results = System.out;
+		if (args.length == 5 && args[3].equals("--batch")) {
+			System.setOut(System.err);
+		}//end if
 		
 		try{
 			System.out.println("(1)");
@@ -245,6 +970,33 @@ public class Ticketmaster{
 			String user = args[2];
 			
 			esql = new Ticketmaster (dbname, dbport, user, "");
+			if (esql.isPartitioned()) {
+				ShowPartitions.createAhead(esql, Integer.getInteger("ticketmaster.partitiondays", 60));
+			}
+			if (System.getProperty("ticketmaster.journal") != null) {
+				esql.openJournal(new File(System.getProperty("ticketmaster.journal")));
+			}
+			if (!"false".equals(System.getProperty("ticketmaster.existencefilter"))) {
+				FilteredBookingStore filtered = new FilteredBookingStore(esql.getStore(), esql).warm(esql);
+				esql.setStore(filtered);
+				esql._events.add(filtered);
+			}
+			if (ChangeListener.isInstalled(esql)) {
+				esql._changes = ChangeListener.start(esql);
+			}
+			PurgeJob.resumeAll(esql);
+			Metrics.exportFromSystemProperties();
+			if (args.length == 5 && args[3].equals("--serve")) {
+				// the operations as a JSON API instead of the menu
+				ApiServer.serve(esql, Integer.parseInt(args[4]));
+				return;
+			}
+			if (args.length == 5) {
+				// the operations from a file of commands instead of the menu
+				BufferedReader commands = args[4].equals("-") ? in : new BufferedReader(new FileReader(args[4]));
+				failed = BatchRunner.fromSystemProperties(esql, new BufferedWriter(new OutputStreamWriter(results, StandardCharsets.UTF_8))).run(commands);
+				return;
+			}
 			
 			boolean keepon = true;
 			while(keepon){
@@ -264,12 +1016,21 @@ public class Ticketmaster{
 				System.out.println("12. List the First Name, Last Name, and Email of Users with a Pending Booking");
 				System.out.println("13. List the Title, Duration, Date, and Time of Shows Playing a Given Movie at a Given Cinema During a Date Range");
 				System.out.println("14. List the Movie Title, Show Date & Start Time, Theater Name, and Cinema Seat Number for all Bookings of a Given User");
-				System.out.println("15. EXIT");
+				System.out.println("15. List Cinemas Near a Zip Code");
+				System.out.println("16. List all Shows Playing Between Two Times on a Given Date");
+				System.out.println("17. Occupancy and Revenue Report");
+				System.out.println("18. Remove or Archive All Shows on a Given Date");
+				System.out.println("19. Purge Job Progress");
+				System.out.println("20. EXIT");
 				
 				/*
 				 * FOLLOW THE SPECIFICATION IN THE PROJECT DESCRIPTION
 				 */
-				switch (readChoice()){
+				int choice = readChoice();
+				// the whole exchange, prompts included; the operation it runs is
+				// counted, timed and held to its round-trip budget by Operations.run
+				FlightEvents.Operation operation = FlightEvents.Operation.start();
+				switch (choice){
 					case 1: AddUser(esql); break;
 					case 2: AddBooking(esql); break;
 					case 3: AddMovieShowingToTheater(esql); break;
@@ -284,12 +1045,21 @@ public class Ticketmaster{
 					case 12: ListUsersWithPendingBooking(esql); break;
 					case 13: ListMovieAndShowInfoAtCinemaInDateRange(esql); break;
 					case 14: ListBookingInfoForUser(esql); break;
-					case 15: keepon = false; break;
+					case 15: ListCinemasNearZipCode(esql); break;
+					case 16: ListShowsPlayingDuringTimeWindow(esql); break;
+					case 17: OccupancyAndRevenueReport(esql); break;
+					case 18: RemoveShowDay(esql); break;
+					case 19: PurgeJobProgress(esql); break;
+					case 20: keepon = false; break;
+					default : System.out.println("Unrecognized choice!"); break;
 				}
+				operation.finish("menu " + choice, "done", true);
 			}
 		}catch(Exception e){
 			System.err.println (e.getMessage ());
+			failed = -1;
 		}finally{
+			Metrics.stopExporting();
 			try{
 				if(esql != null) {
 					System.out.print("Disconnecting from database...");
@@ -300,45 +1070,198 @@ public class Ticketmaster{
 				// ignored.
 			}
 		}
+		if (failed != 0) {
+			// so scripts can tell a batch with failed commands
+			System.exit(1);
+		}//end if
 	}
 
-	public static int readChoice() {
-		int input;
-		// returns only if a correct value is given.
-		do {
-			System.out.print("Please make your choice: ");
-			try { // read the integer, parse it and break.
-				input = Integer.parseInt(in.readLine());
-				break;
-			}catch (Exception e) {
-				System.out.println("Your input is invalid!");
-				continue;
-			}//end try
-		}while (true);
-		return input;
-	}//end readChoice
-	
-	//refrenced this for this function https://stackoverflow.com/questions/20536566/creating-a-random-string-with-a-z-and-0-9-in-java
-	public static String getSaltString() {
-        String SALTCHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890";
-        StringBuilder salt = new StringBuilder();
-        Random rnd = new Random();
-        while (salt.length() < 18) { // length of the random string.
-            int index = (int) (rnd.nextFloat() * SALTCHARS.length());
-            salt.append(SALTCHARS.charAt(index));
-        }
-        String saltStr = salt.toString();
-        return saltStr;
+	/**
+	 * Read-only mode for box office kiosks.  The listings are served from
+	 * a catalog snapshot written by CatalogSnapshot, so they keep working
+	 * while the database is slow or unreachable.
+	 *
+	 * @param file the snapshot file
+	 */
+	public static void kiosk(String file) {
+		CatalogSnapshot catalog;
+		try{
+			catalog = CatalogSnapshot.open(new File(file));
+		}catch(Exception e){
+			System.err.println("Unable to open catalog snapshot " + file + ": " + e.getMessage());
+			return;
+		}
+		System.out.printf("Catalog snapshot of %tF %<tR%n", catalog.exportedAt());
 
-    }
-	
-	public static void AddUser(Ticketmaster esql){//1     
-		String email; 
-		String fname;
-		String lname;
+		boolean keepon = true;
+		while(keepon){
+			System.out.println("KIOSK MENU");
+			System.out.println("----------");
+			System.out.println("1. List all Theaters in a Cinema Playing a Given Show");
+			System.out.println("2. List all Shows that Start at a Given Time and Date");
+			System.out.println("3. List Movie Titles Containing \"love\" Released After 2010");
+			System.out.println("4. List Movie and Show Info at a Given Cinema Between Date Range");
+			System.out.println("5. Show the Seat Map of a Theater");
+			System.out.println("6. EXIT");
+			switch (readChoice()){
+				case 1: KioskTheatersPlayingShow(catalog); break;
+				case 2: KioskShowsStartingOnTimeAndDate(catalog); break;
+				case 3: printRows(Arrays.asList("title"), toRows(catalog.titlesWithWord("love", LocalDate.of(2011, 1, 1)))); break;
+				case 4: KioskMovieAndShowInfoAtCinemaInDateRange(catalog); break;
+				case 5: KioskSeatMap(catalog); break;
+				case 6: keepon = false; break;
+				default : System.out.println("Unrecognized choice!"); break;
+			}
+		}
+	}
+
+	/**
+	 * Method to print rows under a header, tab separated like
+	 * executeQueryAndPrintResult.
+	 */
+	public static void printRows(List<String> header, List<List<String>> rows) {
+		for (String column : header) {
+			System.out.print(column + "\t");
+		}
+		System.out.println();
+		for (List<String> record : rows) {
+			for (String value : record) {
+				System.out.print(value + "\t");
+			}
+			System.out.println();
+		}
+	}
+
+	private static List<List<String>> toRows(List<String> values) {
+		List<List<String>> rows = new ArrayList<List<String>>();
+		for (String value : values) {
+			rows.add(Arrays.asList(value));
+		}
+		return rows;
+	}
+
+	/**
+	 * Method to read a number, asking again until one is given.
+	 */
+	private static long readId(String prompt) {
+		while (true) {
+			System.out.print(prompt);
+			try {
+				return Long.parseLong(in.readLine().trim());
+			}catch (Exception e) {
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Method to run a named operation for the menu, the same code the
+	 * batch runner and the API run, and print why it failed.
+	 *
+	 * @param esql the database to run it on
+	 * @param name the operation name
+	 * @param args its arguments
+	 * @return what the operation did, or null when it failed
+	 */
+	public static Operations.Result runOperation(Ticketmaster esql, String name, Map<String, Object> args) {
+		try {
+			Operations.Result result = Operations.run(esql, esql, name, new Operations.Arguments(args));
+			if (result.error != null) {
+				System.out.println("Error: " + result.fields.get("message"));
+				return null;
+			}
+			return result;
+		}catch (Exception e) {
+			System.out.println("Please try again later. " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Method to print the listing of a named operation one page at a time,
+	 * asking before each further page.  Pages use keyset pagination, so no
+	 * listing is ever fetched in full.
+	 *
+	 * @param esql the database to read from
+	 * @param name the operation name
+	 * @param args its arguments
+	 * @return the number of rows printed, or -1 when the operation failed
+	 */
+	public static int listOperation(Ticketmaster esql, String name, Map<String, Object> args) {
+		List<List<String>> page = new ArrayList<List<String>>();
+		int rowCount = 0;
+		args.put("pagesize", KeysetQuery.DEFAULT_PAGE_SIZE);
+		while (true) {
+			Operations.Result result = runOperation(esql, name, args);
+			if (result == null) return rowCount == 0 ? -1 : rowCount;
+			String token;
+			page.clear();
+			try {
+				token = result.rows(esql, page::add);
+			}catch (Exception e) {
+				System.out.println("Please try again later. " + e.getMessage());
+				return rowCount == 0 ? -1 : rowCount;
+			}
+			if (rowCount == 0 && !page.isEmpty()) {
+				for (String column : result.columns()) {
+					System.out.print(column + "\t");
+				}
+				System.out.println();
+			}
+			for (List<String> record : page) {
+				for (String value : record) {
+					System.out.print(value + "\t");
+				}
+				System.out.println();
+				++rowCount;
+			}
+			if (token == null) return rowCount;
+			System.out.print("Show more? (y/n): ");
+			try {
+				if (!"y".equals(in.readLine())) return rowCount;
+			}catch (Exception e) {
+				return rowCount;
+			}
+			args.put("token", token);
+		}
+	}
+
+	public static int readChoice() {
+		int input;
+		// returns only if a correct value is given.
+		do {
+			System.out.print("Please make your choice: ");
+			try { // read the integer, parse it and break.
+				input = Integer.parseInt(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+				continue;
+			}//end try
+		}while (true);
+		return input;
+	}//end readChoice
+	
+	//refrenced this for this function https://stackoverflow.com/questions/20536566/creating-a-random-string-with-a-z-and-0-9-in-java
+	public static String getSaltString() {
+        String SALTCHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ1234567890";
+        StringBuilder salt = new StringBuilder();
+        Random rnd = new Random();
+        while (salt.length() < 18) { // length of the random string.
+            int index = (int) (rnd.nextFloat() * SALTCHARS.length());
+            salt.append(SALTCHARS.charAt(index));
+        }
+        String saltStr = salt.toString();
+        return saltStr;
+
+    }
+	
+	public static void AddUser(Ticketmaster esql){//1     
+		String email; 
+		String fname;
+		String lname;
 		String phone;
 		String pwd;
-                String query;
 		
         //first name		
         while (true)
@@ -446,30 +1369,15 @@ public class Ticketmaster{
 			}
 		}
 		
-		try
-		{
-			//System.out.println( email + "," + lname + "," + fname + "," + phone + "," + pwd );
-			//System.out.println("testing");
-			
-			query = "INSERT INTO Users " + "VALUES ('" + email + "', '" + lname + "', '" + fname + "', " + phone + ", '" + pwd +"')";
-			System.out.println(query);
-			esql.executeUpdate(query);
-	
-			int test=esql.executeQuery("SELECT * FROM Users");
-			System.out.println(test);
-
-		
-
-// insert the data
-         //query="INSERT INTO Users " + "VALUES (email, fname, lname,phone , pwd)";
-		 //esql.executeUpdate(query);
-			
-		}
-		catch (Exception e)
-		{
-			System.err.println("Query failed: " + e.getMessage());
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("fname", fname);
+		args.put("lname", lname);
+		args.put("email", email);
+		args.put("phone", phone);
+		args.put("pwd", pwd);
+		if (runOperation(esql, "add-user", args) != null) {
+			System.out.println("User " + email + " has been added.");
 		}
-		
 			}
 		
 			
@@ -494,10 +1402,6 @@ public class Ticketmaster{
         String seats = "";
         int sid ;
         String email = "";
-        String[] queries = new String[3];
-        String insert_query  = "";
-        int number_rows_returned = 0;
-        int errors = 0;
 		
 
         
@@ -633,62 +1537,16 @@ public class Ticketmaster{
 		
 
         
-        queries[0] = "SELECT * FROM Bookings WHERE bid = " + bid;
-        queries[1] = "SELECT * FROM Shows WHERE sid = " + sid;
-        queries[2] = "SELECT * FROM Users WHERE email = \'" + email + "\'";
-
-        for(int i = 0; i < 3; ++i){
-            try { //check if bid, sid, or email exists
-                number_rows_returned = esql.executeQueryAndPrintResult(queries[i]);
-            }catch (SQLException e) {
-                System.out.println("We did an oopsie on our end. Please try again later.");
-                return;
-            }
-
-            switch(i){
-                case 0:{
-                    if(number_rows_returned > 0){
-                        System.out.println("Error: Booking id " + bid + " already exists!");
-                        errors++;
-                    }
-                    break;
-                }
-                case 1:	{
-                    if(number_rows_returned == 0){
-                        System.out.println("Error: Show with sid " + sid + " does not exist!");
-                        errors++;
-                    }
-                    break;
-                }
-                case 2:{
-                    if(number_rows_returned == 0){
-                        System.out.println("Error: User with email " + email + " does not exist!");
-                        errors++;
-                    }
-                    break;
-                }
-            }
-        }
-     
-        if(errors > 0){
-            System.out.println("Please fix all errors and try again");
-            return;
-        }else{
-            insert_query = "INSERT INTO Bookings (bid, status, bdatetime, seats, sid, email) VALUES (\'" + bid + "\', \'" + status + "\', \'" + bdatetime + "\', \'" + seats + "\', \'" + sid + "\', \'" + email +"\')";
-            try {
-                esql.executeUpdate(insert_query);
-                System.out.println("Booking " + bid + " has been successfully added. Have a nice day :)");
-            }catch (SQLException e) {
-                System.out.println("We did an oopsie on our end. Please try again later.");
-            }
-        }
-		
-		
-		
-		
-		
-		
-		
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("bid", bid);
+		args.put("status", status);
+		args.put("bdatetime", bdatetime);
+		args.put("seats", seats);
+		args.put("sid", sid);
+		args.put("email", email);
+		if (runOperation(esql, "add-booking", args) != null) {
+			System.out.println("Booking " + bid + " has been successfully added. Have a nice day :)");
+		}
 	}
 	
 	public static void AddMovieShowingToTheater(Ticketmaster esql){//3
@@ -700,11 +1558,6 @@ public class Ticketmaster{
 		
 		
 		
-		String query;
-		String query2;
-		String query3;
-		String query4;
-		int rows;
 		
 		//movies 
 		String mvid;
@@ -743,18 +1596,6 @@ public class Ticketmaster{
 				continue;
 			}
 		}
-		        query = "SELECT * FROM Theaters WHERE tid = " + tid;
-				
-			try { 
-            rows = esql.executeQueryAndPrintResult(query);
-        }catch (Exception e) {
-            System.out.println(" Please try again later.");
-            return;
-        }
-		
-		
-		
-		
 		//movie information
 		
 		//mvid
@@ -925,15 +1766,6 @@ public class Ticketmaster{
 			}
 		}
 
-     query2 = "INSERT INTO Movies (mvid, title, rdate, country, description, duration, lang, genre) VALUES (\'" + mvid + "\', \'" + title + "\', \'" + rdate + "\', \'" + country + "\', \'" + description + "\', \'" + duration +"\', \'" + lang +"\', \'" + genre +"\')";
-        try {
-            esql.executeUpdate(query2);
-            System.out.println("Movie " + mvid + " added");
-        }catch (Exception e) {
-            System.out.println(" Please try again later.");
-        }
-
-		
 		//shows 
 		
 		//show id
@@ -1019,30 +1851,33 @@ public class Ticketmaster{
 			}
 		}
 		
-		query3 = "INSERT INTO Shows (sid, mvid, sdate, sttime, edtime) VALUES (\'" + sid + "\', \'" + mvid + "\', \'" + sdate + "\', \'" + sttime + "\', \'" + edtime + "\')";
-        try {
-            esql.executeUpdate(query3);
-            System.out.println("Show " + sid + " has been successfully added. Have a nice day :)");
-        }catch (Exception e) {
-            System.out.println("Please try again later.");
-        }
-		
-		
-		 query4 = "INSERT INTO Plays (sid, tid) VALUES (\'" + sid + "\', \'" + tid + "\')";
-        try {
-            esql.executeUpdate(query4);
-            System.out.println("Play with Show " + sid + " and Theater " + tid + " has been successfully added.Have a nice day :)");
-        } catch (Exception e) {
-            System.out.println(" Please try again later.");
-        }
-		
-		
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("tid", tid);
+		args.put("mvid", mvid);
+		args.put("title", title);
+		args.put("rdate", rdate);
+		args.put("country", country);
+		args.put("description", description);
+		args.put("duration", duration);
+		args.put("lang", lang);
+		args.put("genre", genre);
+		args.put("sid", sid);
+		args.put("sdate", sdate);
+		args.put("sttime", sttime);
+		args.put("edtime", edtime);
+		// the movie, show and play are added together or not at all
+		Operations.Result result = runOperation(esql, "add-movie-showing", args);
+		if (result != null) {
+			if (Boolean.TRUE.equals(result.fields.get("movieAdded"))) {
+				System.out.println("Movie " + mvid + " added");
+			}
+			System.out.println("Show " + sid + " has been successfully added to Theater " + tid + ". Have a nice day :)");
+		}
 	}
 	
 	public static void CancelPendingBookings(Ticketmaster esql){//4
 		
 		String input;
-		String query;
 		
 		
 		
@@ -1059,13 +1894,10 @@ public class Ticketmaster{
 		}
 		try {
 			if (input.equals("y")) {
-				query = "UPDATE Bookings SET seats = " + 0 + "WHERE status = 'Pending'" + ";"; 
-				esql.executeUpdate(query);				
-				
-				query = "UPDATE Bookings SET status = 'Canceled' WHERE status = 'Pending'" + ";"; 
-				esql.executeUpdate(query);
-				
-				System.out.println("Successfully canceled all pending Bookings."); 
+				Operations.Result result = runOperation(esql, "cancel-pending-bookings", new LinkedHashMap<String, Object>());
+				if (result != null) {
+					System.out.println("Successfully canceled " + result.fields.get("canceled") + " pending Bookings.");
+				}
 			}
 			else if (!input.equals("n")) {
 				throw new RuntimeException("Please input (y/n) next time");
@@ -1083,10 +1915,7 @@ public class Ticketmaster{
 			String sid;
 			String sid2;
 			List<List<String>> result = new ArrayList<List<String>>();
-			String seats;
 			String showSeats;
-			String newSeat;
-			String oldSeat;
 		//bid	
 			  while (true)
 		{
@@ -1107,14 +1936,16 @@ public class Ticketmaster{
 			}
 		}
 		
-		// current seats
-		        seats = "SELECT ssid FROM ShowSeats WHERE bid = " + bid;				
-				try{
-            esql.executeQueryAndPrintResult(seats);
-        }catch (Exception e){
-            System.out.println("Please try again later.");
-            return;
-        }
+		// current seats, from the booking store like the change itself
+		try{
+			System.out.println("ssid");
+			for (long ssid : esql.getStore().seatsOf(Long.parseLong(bid))) {
+				System.out.println(ssid);
+			}
+		}catch (Exception e){
+			System.out.println("Please try again later.");
+			return;
+		}
 
 
         // change seats 
@@ -1150,11 +1981,15 @@ public class Ticketmaster{
 		 try{
             result = esql.executeQueryAndReturnResult(showSeats);
         }catch (Exception e){
-            System.out.println("Something went wrong sorry");
-            return;
+            // only a hint, the change itself checks the seat
+            System.out.println("The free seats could not be listed: " + e.getMessage());
+            result = null;
         }
 		
-		if(result.size()==0)
+		if(result == null)
+		{
+		 // asked for the new seat all the same
+		}else if(result.size()==0)
 		{
 		 System.out.println("Sorry no seats available at this time, please call customer support .");
 
@@ -1189,30 +2024,19 @@ public class Ticketmaster{
 		
 		
 		
-		       oldSeat = "UPDATE ShowSeats SET bid = NULL WHERE ssid = " + sid;
-               newSeat = "UPDATE ShowSeats SET bid = " + bid + " WHERE ssid = " + sid2;
-        try{
-            esql.executeUpdate(oldSeat);
-            esql.executeUpdate(newSeat);
-            System.out.println("Booking has been successfully updated! :)");
-        }catch (Exception e){
-            System.out.println("Please try again later.");
-            return;
-        }
-		
-		
-
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("bid", bid);
+		args.put("from", sid);
+		args.put("to", sid2);
+		// checked and moved under row locks, the seat must still be free at the same price
+		if (runOperation(esql, "change-seat", args) != null) {
+			System.out.println("Booking has been successfully updated! :)");
+		}
 	}
 	
 	public static void RemovePayment(Ticketmaster esql){//6
 	
 	String pid;
-	String bid;
-	String query;
-    List<List<String>> result = new ArrayList<List<String>>();
-	
-	String queryUpdate;
-	String queryDelete;
 	
 
 		
@@ -1232,58 +2056,23 @@ public class Ticketmaster{
 		
 	
 		
-				query="SELECT bid FROM Payments WHERE pid = " + pid;
-
-		
-		try{
-            result = esql.executeQueryAndReturnResult(query);
-            bid = result.get(0).get(0);
-            System.out.println("Booking " + pid + " found: " + bid);
-		}catch (Exception e) {
-			System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
-			return;
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("pid", pid);
+		// the payment is removed and its booking cancelled together
+		Operations.Result result = runOperation(esql, "remove-payment", args);
+		if (result != null) {
+			System.out.println("Booking " + result.fields.get("bid") + " cancelled, pid removed: " + pid);
 		}
-		
-		queryUpdate="UPDATE Bookings SET status = \'Cancelled\' WHERE bid = " + bid;
-	    queryDelete = "DELETE FROM Payments WHERE pid = " + pid;
-		
-		try{
-            esql.executeUpdate(queryUpdate);
-            esql.executeUpdate(queryDelete);
-			System.out.println("pid removed: " + pid);
-
-		}catch (Exception e) {
-				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
-				return;
-			}
-			
-			
-
-		
-	
-		
 	}
 	
 	public static void ClearCancelledBookings(Ticketmaster esql){//7
 	
-	   String query;
-		List<List<String>> query_result  = new ArrayList<List<String>>();
 
-		query = "SELECT COUNT (*) FROM bookings WHERE status = 'Canceled'";
-		try {
-			query_result = esql.executeQueryAndReturnResult(query);
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
+		// deleted a chunk at a time in the background, so pending bookings are not held up
+		Operations.Result result = runOperation(esql, "clear-cancelled-bookings", new LinkedHashMap<String, Object>());
+		if (result != null) {
+			System.out.println("\nDeleting " + result.fields.get("bookings") + " bookings in the background, see option 19 for progress.");
 		}
-
-		query = "DELETE FROM bookings WHERE status = 'Canceled'";
-		try {
-			esql.executeQuery(query);
-		} catch(Exception e) {
-		}
-		System.out.println("\nTotal Bookings deleted: " + Integer.parseInt(query_result.get(0).get(0)));
-		
-		
 	}
 	
 	public static void RemoveShowsOnDate(Ticketmaster esql){//8
@@ -1292,9 +2081,7 @@ public class Ticketmaster{
 		
 		String cid;
 		
-		String query;
 		
-		String deleteQuery;
 		
 		
 		//date
@@ -1340,37 +2127,15 @@ public class Ticketmaster{
 	}
 		}
 		
-		query = "SELECT * FROM Shows Where sdate = \'" + date + "\' AND sid IN (SELECT p.sid FROM Plays p, Theaters t WHERE p.tid = t.tid AND t.cid = " + cid + ")";
-        System.out.println("Delete all Shows on the date " + date + " in Cinema " + cid + ": ");
-		
-		try{
-			
-            esql.executeQueryAndPrintResult(query);
-
-	
-		}		catch (Exception e)
-			{
-				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
-				return;
-		
-	}
-	
-	
-	        deleteQuery = "DELETE FROM Shows Where sdate = \'" + date + "\' AND sid IN (SELECT p.sid FROM Plays p, Theaters t WHERE p.tid = t.tid AND t.cid = " + cid + ")";
-			
-             try{
-            esql.executeUpdate(deleteQuery);
-            System.out.println("Deleted.");
-        }catch (Exception e)
-			{
-				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
-				return;
-		
-	}
-	
-	
-	
-	
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("date", date);
+		args.put("cid", cid);
+		// the shows go with their plays, seats and bookings, a chunk at a time in the background
+		Operations.Result result = runOperation(esql, "remove-shows-on-date", args);
+		if (result != null) {
+			System.out.println("Deleting " + result.fields.get("shows") + " shows on the date " + date + " in Cinema " + cid
+				+ " in the background, see option 19 for progress.");
+		}
 	}
 	
 	public static void ListTheatersPlayingShow(Ticketmaster esql){//9
@@ -1378,7 +2143,6 @@ public class Ticketmaster{
 		
 		String cid;
 		String sid;
-		String query;
 		
 		
 		// cid
@@ -1422,17 +2186,11 @@ public class Ticketmaster{
 			}
 		}
 		
-		    query = "SELECT t FROM Theaters t, Plays p WHERE p.sid = " + sid + " AND t.cid = " + cid + " AND p.tid = t.tid";
-                    System.out.println("Here are all the  Theaters in Cinema " + cid + " playing the show " + sid + ": ");
-
-		   try {
-		esql.executeQueryAndPrintResult(query);
-
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-		
-		
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("cid", cid);
+		args.put("sid", sid);
+		System.out.println("Here are all the  Theaters in Cinema " + cid + " playing the show " + sid + ": ");
+		listOperation(esql, "theaters-playing-show", args);
 	}
 	
 	public static void ListShowsStartingOnTimeAndDate(Ticketmaster esql){//10
@@ -1440,7 +2198,6 @@ public class Ticketmaster{
 		
 		String date;
 		String time;
-		String query;
 		
 		// date
 		 while (true)
@@ -1487,50 +2244,19 @@ public class Ticketmaster{
 		}
 		
 		
-		query = "SELECT * FROM Shows WHERE sdate = '" + date + "' AND sttime = '" + time + "'";
-        System.out.println("All Shows that start on " + date + " at " + time + ": ");
-		try {
-			esql.executeQueryAndPrintResult(query);
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-		
-		
-		
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("date", date);
+		args.put("time", time);
+		System.out.println("All Shows that start on " + date + " at " + time + ": ");
+		listOperation(esql, "shows-starting-at", args);
 	}
 
 	public static void ListMovieTitlesContainingLoveReleasedAfter2010(Ticketmaster esql){//11
-		//
-		
-		String query = "SELECT title FROM movies WHERE ";
-		query += "(title like 'Love %'";
-		query += "or title like 'love %'";
-		query += "or title like '% Love'";
-		query += "or title like '% love'";
-		query += "or title like '% Love %'";
-		query += "or title like '% love %') ";
-		query += "and rdate >=  '2011-01-01' "; 
-		query += "ORDER BY title";
-		try {
-			esql.executeQueryAndPrintResult(query);
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-		}
-		
+		listOperation(esql, "love-titles", new LinkedHashMap<String, Object>());
 	}
 
 	public static void ListUsersWithPendingBooking(Ticketmaster esql){//12
-		//
-		String query = "SELECT u.fname, u.lname, u.email FROM Users u, Bookings b WHERE b.status = \'Pending\' AND b.email = u.email ";
-		
-        
-		try {
-			esql.executeQueryAndPrintResult(query);
-		} catch(Exception e) {
-			System.out.println(e.getMessage());
-			return;
-		}
-		
+		listOperation(esql, "users-with-pending-booking", new LinkedHashMap<String, Object>());
 	}
 
 	public static void ListMovieAndShowInfoAtCinemaInDateRange(Ticketmaster esql){//13
@@ -1540,9 +2266,6 @@ public class Ticketmaster{
 		String cid;
 		String mvid;
 		
-		String shows;
-		
-		List<List<String>> results = new ArrayList<List<String>>();
 
 		
 		
@@ -1632,23 +2355,13 @@ public class Ticketmaster{
 		
 		
 		  
-		  shows = "SELECT m.title as Title, m.duration  as Duration, s.sdate as Showdate, s.sttime FROM Plays p, Shows s, Cinemas c, Theaters t, Movies m WHERE c.cid = t.cid AND t.tid = p.tid AND p.sid = s.sid AND s.mvid = m.mvid " + 
-            "AND m.mvid = " + mvid + " AND c.cid = " + cid + " AND s.sdate > \'" + startdate + "\' AND s.sdate < \'" + enddate + "\'";
-        
-		
-		try { 
-            results = esql.executeQueryAndReturnResult(shows);
-        }catch (Exception e) {
-            System.out.println(" Please try again later. " + e);
-            return;
-        }
-		
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("cid", cid);
+		args.put("mvid", mvid);
+		args.put("from", startdate);
+		args.put("to", enddate);
 		System.out.println("Displaying shows at Cinema " + cid + " with mvid " + mvid + " between " + startdate + " and " + enddate);
-        for(List<String> dat: results){
-                System.out.printf("|%30s %10s %15s %12s",
-                dat.get(0) + " ", dat.get(1) + " ", dat.get(2) + " ", dat.get(3) + " |");
-        }
-       
+		listOperation(esql, "shows-at-cinema-between", args);
     }
 		
 	
@@ -1662,8 +2375,6 @@ public class Ticketmaster{
 		
 		String email;
 		int row;
-		String query;
-		String query2;
 		
 		 while (true)
 		{
@@ -1685,37 +2396,351 @@ public class Ticketmaster{
 		}
 		
 		
-      query = "SELECT * FROM Bookings WHERE email = \'" + email + "\'";
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("email", email);
+		// one read on the maintained history instead of joining six tables
+		row = listOperation(esql, "bookings-of-user", args);
+		if (row == 0) {
+			System.out.println("Error: no bookings found for " + email + ".");
+		}
+    } 
 
-      try { 
-            row = esql.executeQueryAndPrintResult(query);
-		
-	}catch (Exception e)
+	public static void ListCinemasNearZipCode(Ticketmaster esql){//15
+		String zip;
+		String state;
+		String radius;
+
+		while (true)
+		{
+			System.out.print("Please enter zip code: ");
+			try
+			{
+				zip = in.readLine();
+				Integer.parseInt(zip.trim());
+				break;
+			}
+			catch (Exception e)
 			{
 				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
-				return;
+				continue;
 			}
-			
-			if (row > 0){
-            System.out.println("User " + email + " exists.");
-        }
-        else { 
-            System.out.println("Error:" + email + " does not exist.");
-            return;
-        }
-		
-		query2 = "SELECT m.title, s.sdate, s.sttime, t.tname, cs.sno FROM Movies m, Shows s, Bookings b, ShowSeats ss, Theaters t, CinemaSeats cs WHERE b.email = \'" + email + "\' AND s.sid = b.sid AND m.mvid = s.mvid AND b.bid = ss.bid AND cs.csid = ss.csid AND cs.tid = t.tid";
-       
-        try{
-            esql.executeQueryAndPrintResult(query2);
-        }catch (Exception e)
+		}
+
+		while (true)
+		{
+			System.out.print("Please enter state code, example CA: ");
+			try
+			{
+				state = in.readLine();
+				if (state.trim().length() != 2)
+				{
+					throw new RuntimeException("Your input is invalid! State code must be two letters");
+				}
+				break;
+			}
+			catch (Exception e)
 			{
 				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
-				return;
+				continue;
 			}
-		
-		
-    } 
+		}
+
+		while (true)
+		{
+			System.out.print("Please enter a radius in km, or leave empty for the 5 closest cinemas: ");
+			try
+			{
+				radius = in.readLine().trim();
+				if (radius.length() > 0) Double.parseDouble(radius);
+				break;
+			}
+			catch (Exception e)
+			{
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				continue;
+			}
+		}
+
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("zip", zip);
+		args.put("state", state);
+		args.put("radius", radius);
+		listOperation(esql, "cinemas-near", args);
+	}
+
+	public static void ListShowsPlayingDuringTimeWindow(Ticketmaster esql){//16
+		LocalDate date;
+		LocalTime from;
+		LocalTime to;
+
+		while (true)
+		{
+			System.out.print("Please enter the date in MM/DD/YYYY: ");
+			try
+			{
+				date = ShowIntervalIndex.parseDate(in.readLine());
+				break;
+			}
+			catch (Exception e)
+			{
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				continue;
+			}
+		}
+
+		while (true)
+		{
+			System.out.print("Please enter the start of the window, example 19:00 or 7pm: ");
+			try
+			{
+				from = ShowIntervalIndex.parseTime(in.readLine());
+				break;
+			}
+			catch (Exception e)
+			{
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				continue;
+			}
+		}
+
+		while (true)
+		{
+			System.out.print("Please enter the end of the window, example 21:00 or 9pm: ");
+			try
+			{
+				to = ShowIntervalIndex.parseTime(in.readLine());
+				break;
+			}
+			catch (Exception e)
+			{
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				continue;
+			}
+		}
+
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("date", date);
+		args.put("from", from);
+		args.put("to", to);
+		System.out.println("All Shows playing on " + date + " between " + from + " and " + to + ": ");
+		listOperation(esql, "shows-playing-during", args);
+	}
+
+	public static void OccupancyAndRevenueReport(Ticketmaster esql){//17
+		String kind;
+		long id;
+
+		while (true)
+		{
+			System.out.print("Report on a (s)how, (c)inema or cit(y)? ");
+			try
+			{
+				kind = in.readLine().trim();
+				if (!kind.equals("s") && !kind.equals("c") && !kind.equals("y"))
+				{
+					throw new RuntimeException("Please enter s, c or y");
+				}
+				break;
+			}
+			catch (Exception e)
+			{
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				continue;
+			}
+		}
+
+		while (true)
+		{
+			System.out.print(kind.equals("s") ? "Please enter show id: " : kind.equals("c") ? "Please enter cinema id: " : "Please enter city id: ");
+			try
+			{
+				id = Long.parseLong(in.readLine().trim());
+				break;
+			}
+			catch (Exception e)
+			{
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				continue;
+			}
+		}
+
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("kind", kind.equals("s") ? "show" : kind.equals("c") ? "cinema" : "city");
+		args.put("id", id);
+		Operations.Result result = runOperation(esql, "occupancy-and-revenue", args);
+		if (result == null) {
+			return;
+		}
+		if (kind.equals("s")) {
+			int seats = (Integer) result.fields.get("seats");
+			int taken = (Integer) result.fields.get("taken");
+			System.out.printf("Show %d: %d of %d seats taken (%.1f%%)%n", id, taken, seats, 100.0 * taken / seats);
+		}else{
+			System.out.printf("%s %d revenue: %.2f%n", kind.equals("c") ? "Cinema" : "City", id, result.fields.get("revenue"));
+		}
+	}
+
+	public static void RemoveShowDay(Ticketmaster esql){//18
+		LocalDate date;
+		String input;
+		boolean partitioned;
+
+		try {
+			partitioned = esql.isPartitioned();
+		} catch(Exception e) {
+			System.out.println(e.getMessage());
+			return;
+		}
+
+		while (true)
+		{
+			System.out.print("Please enter the date in MM/DD/YYYY: ");
+			try
+			{
+				date = ShowIntervalIndex.parseDate(in.readLine());
+				break;
+			}
+			catch (Exception e)
+			{
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				continue;
+			}
+		}
+
+		// only a partitioned day can be archived, else it is deleted row by row
+		input = "n";
+		if (partitioned) {
+			while (true)
+			{
+				System.out.print("Archive the day instead of dropping it? (y/n): ");
+				try
+				{
+					input = in.readLine();
+					if (!input.equals("y") && !input.equals("n"))
+					{
+						throw new RuntimeException("Please input (y/n)");
+					}
+					break;
+				}
+				catch (Exception e)
+				{
+					System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+					continue;
+				}
+			}
+		}
+
+		Map<String, Object> args = new LinkedHashMap<String, Object>();
+		args.put("date", date);
+		args.put("archive", input);
+		Operations.Result result = runOperation(esql, "remove-show-day", args);
+		if (result == null) {
+			return;
+		}
+		if (!partitioned) {
+			System.out.println("Removed " + result.fields.get("removed") + " of " + date + ".");
+		}else{
+			System.out.println((input.equals("y") ? "Archived " : "Dropped ") + result.fields.get("shows") + " shows and "
+				+ result.fields.get("bookings") + " bookings of " + date + ".");
+		}
+	}
+
+	public static void PurgeJobProgress(Ticketmaster esql){//19
+		if (listOperation(esql, "purge-jobs", new LinkedHashMap<String, Object>()) == 0) {
+			System.out.println("No purge jobs were started.");
+		}
+	}
+
+	public static void KioskTheatersPlayingShow(CatalogSnapshot catalog){//kiosk 1
+		long cid = readId("Please enter cid: ");
+		long sid = readId("Please enter sid: ");
+		System.out.println("Here are all the  Theaters in Cinema " + cid + " playing the show " + sid + ": ");
+		printRows(Arrays.asList("tid", "cid", "tname", "tseats"), catalog.theatersPlaying(cid, sid));
+	}
+
+	public static void KioskShowsStartingOnTimeAndDate(CatalogSnapshot catalog){//kiosk 2
+		LocalDate date;
+		LocalTime time;
+
+		while (true)
+		{
+			System.out.print("Please enter the date in MM/DD/YYYY: ");
+			try
+			{
+				date = ShowIntervalIndex.parseDate(in.readLine());
+				break;
+			}
+			catch (Exception e)
+			{
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				continue;
+			}
+		}
+
+		while (true)
+		{
+			System.out.print("Please enter the time in HM:MM example 1:00 or 0:56 : ");
+			try
+			{
+				time = ShowIntervalIndex.parseTime(in.readLine());
+				break;
+			}
+			catch (Exception e)
+			{
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				continue;
+			}
+		}
+
+		System.out.println("All Shows that start on " + date + " at " + time + ": ");
+		printRows(Arrays.asList("sid", "mvid", "sdate", "sttime", "edtime"), catalog.showsStartingAt(date, time));
+	}
+
+	public static void KioskMovieAndShowInfoAtCinemaInDateRange(CatalogSnapshot catalog){//kiosk 4
+		LocalDate startdate;
+		LocalDate enddate;
+
+		while (true)
+		{
+			System.out.print("Enter start date as mm/dd/yy: ");
+			try
+			{
+				startdate = ShowIntervalIndex.parseDate(in.readLine());
+				break;
+			}
+			catch (Exception e)
+			{
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				continue;
+			}
+		}
+
+		while (true)
+		{
+			System.out.print("Enter end date as mm/dd/yy: ");
+			try
+			{
+				enddate = ShowIntervalIndex.parseDate(in.readLine());
+				break;
+			}
+			catch (Exception e)
+			{
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				continue;
+			}
+		}
+
+		long cid = readId("Enter enter cinema id ");
+		long mvid = readId("Enter enter movie id ");
+		System.out.println("Displaying shows at Cinema " + cid + " with mvid " + mvid + " between " + startdate + " and " + enddate);
+		printRows(Arrays.asList("title", "duration", "sdate", "sttime"), catalog.showsOfMovieAtCinema(cid, mvid, startdate, enddate));
+	}
+
+	public static void KioskSeatMap(CatalogSnapshot catalog){//kiosk 5
+		long tid = readId("Please enter tid: ");
+		System.out.println("Seats of theater " + tid + ": ");
+		printRows(Arrays.asList("csid", "tid", "sno", "stype"), catalog.seatMap(tid));
+	}
 		
 };
 	
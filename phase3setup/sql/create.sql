@@ -1,3 +1,4 @@
+DROP TABLE IF EXISTS UserBookingHistory;
 DROP TABLE IF EXISTS Plays;
 DROP TABLE IF EXISTS ShowSeats;
 DROP TABLE IF EXISTS Payments;
@@ -128,6 +129,26 @@ CREATE TABLE Plays (
 );
 
 
+-- Materialized views
+
+-- One row per booked seat, maintained by the application on every booking,
+-- seat change, payment removal and cancellation
+CREATE TABLE UserBookingHistory (
+    email VARCHAR(64) NOT NULL,  -- User account
+    bid BIGINT NOT NULL,  -- Booking ID
+    ssid BIGINT NOT NULL,  -- Show seat ID
+    status VARCHAR(16) NOT NULL,  -- Booking status
+    title VARCHAR(128) NOT NULL,  -- Movie title
+    sdate DATE NOT NULL,  -- Show date
+    sttime TIME NOT NULL,  -- Start time
+    tname VARCHAR(64) NOT NULL,  -- Theater name
+    sno INTEGER NOT NULL,  -- Seat number in the theater
+    PRIMARY KEY(email, bid, ssid)
+);
+
+CREATE INDEX UserBookingHistory_bid ON UserBookingHistory(bid);
+
+
 ----------------------------
 -- INSERT DATA STATEMENTS --
 ----------------------------
@@ -239,3 +260,9 @@ COPY Plays (
 )
 FROM 'Plays.csv'
 WITH DELIMITER ',';
+
+
+INSERT INTO UserBookingHistory
+SELECT b.email, b.bid, ss.ssid, b.status, m.title, s.sdate, s.sttime, t.tname, cs.sno
+FROM Movies m, Shows s, Bookings b, ShowSeats ss, Theaters t, CinemaSeats cs
+WHERE s.sid = b.sid AND m.mvid = s.mvid AND b.bid = ss.bid AND cs.csid = ss.csid AND cs.tid = t.tid;
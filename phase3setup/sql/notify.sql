@@ -0,0 +1,203 @@
+-- Change notifications for the in-process caches
+--
+-- Run once after create.sql, after partition.sql when it is used, and
+-- after the initial bulk load (every loaded row would be announced):
+--   psql -h localhost $dbname < notify.sql
+--
+-- Every row written to Users, Movies, Shows, Plays, ShowSeats, Bookings
+-- and Payments is announced on the ticketmaster_changes channel.  Each
+-- running Ticketmaster listens and patches its show graph, show index and
+-- booking rollups and its existence filters with the changes other
+-- processes make (ChangeListener).
+--
+-- Payload: txid,seq,pid,table,op,fields... where fields are
+--   Users       email   (last, it may hold commas)
+--   Movies      mvid
+--   Shows       sid,mvid,sdate,sttime,edtime
+--   Plays       sid,tid
+--   ShowSeats   ssid,sid,old bid,new bid   (empty when null)
+--   Bookings    bid,sid,status
+--   Payments    pid,bid,amount
+-- of the new row, or of the old row on DELETE.
+--
+-- The triggers are statement level: one call per statement announces
+-- every row it changed, read from its transition tables.  txid is the
+-- writing transaction (txid_current()), pid its backend, and seq numbers
+-- the notifications of the backend from 1.  seq is kept in a setting of
+-- the session, so writers share no row and take no lock; a rolled back
+-- transaction also rolls back its numbers, so the notifications that are
+-- delivered from one backend have no holes.  A listener seeing a hole in
+-- the numbers of a backend has missed notifications and reloads.
+--
+-- Run it again to upgrade from the row level triggers and the
+-- change_counter table of earlier versions.
+
+BEGIN;
+
+DROP TABLE IF EXISTS change_counter;
+
+CREATE OR REPLACE FUNCTION notify_seq() RETURNS BIGINT AS $$
+    SELECT set_config('ticketmaster.notify_seq',
+        (coalesce(nullif(current_setting('ticketmaster.notify_seq', true), ''), '0')::BIGINT + 1)::TEXT, false)::BIGINT;
+$$ LANGUAGE sql VOLATILE;
+
+CREATE OR REPLACE FUNCTION notify_change() RETURNS trigger AS $$
+DECLARE
+    changed REFCURSOR;
+    r RECORD;
+    head TEXT;
+    fields TEXT;
+BEGIN
+    -- TG_ARGV[0] names the table, TG_TABLE_NAME would give the partition
+    head := concat_ws(',', TG_ARGV[0], TG_OP);
+    IF TG_ARGV[0] = 'ShowSeats' AND TG_OP = 'UPDATE' THEN
+        -- only the booking of a seat changes what the caches hold
+        OPEN changed FOR SELECT n.ssid, n.sid, o.bid AS old_bid, n.bid AS new_bid
+            FROM old_rows o JOIN new_rows n ON n.ssid = o.ssid WHERE o.bid IS DISTINCT FROM n.bid;
+    ELSIF TG_OP = 'DELETE' THEN
+        OPEN changed FOR SELECT * FROM old_rows;
+    ELSE
+        OPEN changed FOR SELECT * FROM new_rows;
+    END IF;
+    LOOP
+        FETCH changed INTO r;
+        EXIT WHEN NOT FOUND;
+        IF TG_ARGV[0] = 'Users' THEN
+            fields := r.email;
+        ELSIF TG_ARGV[0] = 'Movies' THEN
+            fields := r.mvid;
+        ELSIF TG_ARGV[0] = 'Shows' THEN
+            fields := concat_ws(',', r.sid, r.mvid, r.sdate, r.sttime, r.edtime);
+        ELSIF TG_ARGV[0] = 'Plays' THEN
+            fields := concat_ws(',', r.sid, r.tid);
+        ELSIF TG_ARGV[0] = 'ShowSeats' THEN
+            IF TG_OP = 'UPDATE' THEN
+                fields := concat(r.ssid, ',', r.sid, ',', r.old_bid, ',', r.new_bid);
+            ELSIF TG_OP = 'INSERT' THEN
+                fields := concat(r.ssid, ',', r.sid, ',,', r.bid);
+            ELSE
+                fields := concat(r.ssid, ',', r.sid, ',', r.bid, ',');
+            END IF;
+        ELSIF TG_ARGV[0] = 'Bookings' THEN
+            fields := concat(r.bid, ',', r.sid, ',', r.status);
+        ELSIF TG_ARGV[0] = 'Payments' THEN
+            fields := concat(r.pid, ',', r.bid, ',', r.amount);
+        END IF;
+        PERFORM pg_notify('ticketmaster_changes', concat_ws(',', txid_current(), notify_seq(), pg_backend_pid(), head, fields));
+    END LOOP;
+    CLOSE changed;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- the row level triggers of earlier versions
+DROP TRIGGER IF EXISTS Users_notify ON Users;
+DROP TRIGGER IF EXISTS Movies_notify ON Movies;
+DROP TRIGGER IF EXISTS Shows_notify ON Shows;
+DROP TRIGGER IF EXISTS Plays_notify ON Plays;
+DROP TRIGGER IF EXISTS ShowSeats_notify ON ShowSeats;
+DROP TRIGGER IF EXISTS Bookings_notify ON Bookings;
+DROP TRIGGER IF EXISTS Payments_notify ON Payments;
+
+-- a trigger with transition tables fires on one event only, so three per table
+DROP TRIGGER IF EXISTS Users_notify_insert ON Users;
+CREATE TRIGGER Users_notify_insert AFTER INSERT ON Users
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Users');
+
+DROP TRIGGER IF EXISTS Users_notify_delete ON Users;
+CREATE TRIGGER Users_notify_delete AFTER DELETE ON Users
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Users');
+
+DROP TRIGGER IF EXISTS Movies_notify_insert ON Movies;
+CREATE TRIGGER Movies_notify_insert AFTER INSERT ON Movies
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Movies');
+
+DROP TRIGGER IF EXISTS Movies_notify_update ON Movies;
+CREATE TRIGGER Movies_notify_update AFTER UPDATE ON Movies
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Movies');
+
+DROP TRIGGER IF EXISTS Movies_notify_delete ON Movies;
+CREATE TRIGGER Movies_notify_delete AFTER DELETE ON Movies
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Movies');
+
+DROP TRIGGER IF EXISTS Shows_notify_insert ON Shows;
+CREATE TRIGGER Shows_notify_insert AFTER INSERT ON Shows
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Shows');
+
+DROP TRIGGER IF EXISTS Shows_notify_update ON Shows;
+CREATE TRIGGER Shows_notify_update AFTER UPDATE ON Shows
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Shows');
+
+DROP TRIGGER IF EXISTS Shows_notify_delete ON Shows;
+CREATE TRIGGER Shows_notify_delete AFTER DELETE ON Shows
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Shows');
+
+DROP TRIGGER IF EXISTS Plays_notify_insert ON Plays;
+CREATE TRIGGER Plays_notify_insert AFTER INSERT ON Plays
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Plays');
+
+DROP TRIGGER IF EXISTS Plays_notify_update ON Plays;
+CREATE TRIGGER Plays_notify_update AFTER UPDATE ON Plays
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Plays');
+
+DROP TRIGGER IF EXISTS Plays_notify_delete ON Plays;
+CREATE TRIGGER Plays_notify_delete AFTER DELETE ON Plays
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Plays');
+
+DROP TRIGGER IF EXISTS ShowSeats_notify_insert ON ShowSeats;
+CREATE TRIGGER ShowSeats_notify_insert AFTER INSERT ON ShowSeats
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('ShowSeats');
+
+DROP TRIGGER IF EXISTS ShowSeats_notify_update ON ShowSeats;
+CREATE TRIGGER ShowSeats_notify_update AFTER UPDATE ON ShowSeats
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('ShowSeats');
+
+DROP TRIGGER IF EXISTS ShowSeats_notify_delete ON ShowSeats;
+CREATE TRIGGER ShowSeats_notify_delete AFTER DELETE ON ShowSeats
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('ShowSeats');
+
+DROP TRIGGER IF EXISTS Bookings_notify_insert ON Bookings;
+CREATE TRIGGER Bookings_notify_insert AFTER INSERT ON Bookings
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Bookings');
+
+DROP TRIGGER IF EXISTS Bookings_notify_update ON Bookings;
+CREATE TRIGGER Bookings_notify_update AFTER UPDATE ON Bookings
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Bookings');
+
+DROP TRIGGER IF EXISTS Bookings_notify_delete ON Bookings;
+CREATE TRIGGER Bookings_notify_delete AFTER DELETE ON Bookings
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Bookings');
+
+DROP TRIGGER IF EXISTS Payments_notify_insert ON Payments;
+CREATE TRIGGER Payments_notify_insert AFTER INSERT ON Payments
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Payments');
+
+DROP TRIGGER IF EXISTS Payments_notify_update ON Payments;
+CREATE TRIGGER Payments_notify_update AFTER UPDATE ON Payments
+    REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Payments');
+
+DROP TRIGGER IF EXISTS Payments_notify_delete ON Payments;
+CREATE TRIGGER Payments_notify_delete AFTER DELETE ON Payments
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION notify_change('Payments');
+
+COMMIT;
@@ -0,0 +1,222 @@
+-- Date partitioning for Shows, ShowSeats and Plays
+--
+-- Run once after create.sql (PostgreSQL 12 or later):
+--   psql -h localhost $dbname < partition.sql
+--
+-- Shows, ShowSeats and Plays become RANGE partitioned on the show date,
+-- one partition per day plus a default partition, so a day of shows can
+-- be removed by detaching or dropping three tables instead of deleting
+-- rows, and queries with a date predicate only scan that day.
+--
+-- Keys that reference Shows now include the show date, so ShowSeats,
+-- Plays and Bookings get an sdate column.  Rows of ShowSeats and Plays
+-- are routed to their partition by it, so writers must give it; for
+-- Bookings it is filled from Shows on insert, so AddBooking is unchanged.
+-- A primary key of a partitioned table must contain the partition key,
+-- so the primary key of Shows only makes sid unique per date.  Every sid
+-- is also claimed in ShowIds, which is not partitioned, so a sid taken on
+-- another date fails with a unique violation as it did before.
+
+BEGIN;
+
+ALTER TABLE Plays RENAME TO Plays_old;
+ALTER TABLE ShowSeats RENAME TO ShowSeats_old;
+ALTER TABLE Shows RENAME TO Shows_old;
+
+CREATE TABLE Shows (
+    sid BIGINT NOT NULL,  -- Show ID
+    mvid BIGINT NOT NULL,  -- Movie ID
+    sdate DATE NOT NULL,  -- Show date
+    sttime TIME NOT NULL,  -- Start time
+    edtime TIME NOT NULL,  -- End time
+    PRIMARY KEY(sid, sdate),
+    FOREIGN KEY(mvid) REFERENCES Movies(mvid)
+) PARTITION BY RANGE (sdate);
+
+CREATE TABLE ShowSeats (
+    ssid BIGINT NOT NULL,  -- Show seat ID
+    sid BIGINT NOT NULL,  -- Show ID
+    csid BIGINT NOT NULL, -- Cinema seat ID
+    bid BIGINT, -- Booking ID
+    price REAL NOT NULL,
+    sdate DATE NOT NULL,  -- Show date, copied from Shows
+    PRIMARY KEY(ssid, sdate),
+    FOREIGN KEY(sid, sdate) REFERENCES Shows(sid, sdate),
+    FOREIGN KEY(csid) REFERENCES CinemaSeats(csid),
+    FOREIGN KEY(bid) REFERENCES Bookings(bid),
+    UNIQUE(sid, csid, sdate)  -- The same seat can only be booked once for the same show
+) PARTITION BY RANGE (sdate);
+
+CREATE TABLE Plays (
+    sid BIGINT NOT NULL,  -- Show ID
+    tid BIGINT NOT NULL,  -- Theater ID
+    sdate DATE NOT NULL,  -- Show date, copied from Shows
+    PRIMARY KEY(sid, tid, sdate),
+    FOREIGN KEY(sid, sdate) REFERENCES Shows(sid, sdate),
+    FOREIGN KEY(tid) REFERENCES Theaters(tid)
+) PARTITION BY RANGE (sdate);
+
+-- sid -> its one date; kept by claim_show_id and remove_show_day
+CREATE TABLE ShowIds (
+    sid BIGINT NOT NULL,  -- Show ID
+    sdate DATE NOT NULL,  -- Show date
+    PRIMARY KEY(sid)
+);
+
+CREATE TABLE Shows_default PARTITION OF Shows DEFAULT;
+CREATE TABLE ShowSeats_default PARTITION OF ShowSeats DEFAULT;
+CREATE TABLE Plays_default PARTITION OF Plays DEFAULT;
+
+CREATE SCHEMA IF NOT EXISTS archive;
+
+
+-- Functions
+
+-- Claims the sid of a new show in ShowIds, so it is unique over all
+-- dates, and gives it back when the show is deleted
+CREATE OR REPLACE FUNCTION claim_show_id() RETURNS trigger AS $$
+BEGIN
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        DELETE FROM ShowIds WHERE sid = OLD.sid;
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO ShowIds (sid, sdate) VALUES (NEW.sid, NEW.sdate);
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Fills Bookings.sdate from the one date of the show
+CREATE OR REPLACE FUNCTION fill_show_date() RETURNS trigger AS $$
+BEGIN
+    IF NEW.sdate IS NULL OR (TG_OP = 'UPDATE' AND NEW.sid IS DISTINCT FROM OLD.sid) THEN
+        SELECT i.sdate INTO NEW.sdate FROM ShowIds i WHERE i.sid = NEW.sid;
+    END IF;
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Creates the Shows, ShowSeats and Plays partitions of a range of days.
+-- Days whose shows already sit in the default partition are skipped with
+-- a notice; they stay there until removed.  Returns the number of days
+-- created.
+CREATE OR REPLACE FUNCTION create_show_partitions(first_day DATE, days INTEGER) RETURNS INTEGER AS $$
+DECLARE
+    day DATE;
+    suffix TEXT;
+    created INTEGER := 0;
+BEGIN
+    FOR i IN 0 .. days - 1 LOOP
+        day := first_day + i;
+        suffix := to_char(day, 'YYYYMMDD');
+        CONTINUE WHEN to_regclass('shows_' || suffix) IS NOT NULL;
+        IF EXISTS (SELECT 1 FROM Shows_default WHERE sdate = day) THEN
+            RAISE NOTICE 'shows of % are in the default partition, no partition created', day;
+            CONTINUE;
+        END IF;
+        EXECUTE format('CREATE TABLE %I PARTITION OF Shows FOR VALUES FROM (%L) TO (%L)', 'shows_' || suffix, day, day + 1);
+        EXECUTE format('CREATE TABLE %I PARTITION OF ShowSeats FOR VALUES FROM (%L) TO (%L)', 'showseats_' || suffix, day, day + 1);
+        EXECUTE format('CREATE TABLE %I PARTITION OF Plays FOR VALUES FROM (%L) TO (%L)', 'plays_' || suffix, day, day + 1);
+        created := created + 1;
+    END LOOP;
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Removes every show of a day with its seats, plays, bookings and
+-- payments.  With keep, the day's Shows, ShowSeats and Plays partitions
+-- are detached into the archive schema, and its bookings and payments
+-- are copied there; otherwise the partitions are dropped.  A day held
+-- by the default partition is deleted row by row.
+-- Returns ('show', sid) and ('booking', bid) for every removed row.
+CREATE OR REPLACE FUNCTION remove_show_day(day DATE, keep BOOLEAN) RETURNS TABLE(kind TEXT, id BIGINT) AS $$
+DECLARE
+    suffix TEXT := to_char(day, 'YYYYMMDD');
+    part TEXT;
+    fk RECORD;
+BEGIN
+    RETURN QUERY SELECT 'show'::TEXT, s.sid FROM Shows s WHERE s.sdate = day;
+    RETURN QUERY SELECT 'booking'::TEXT, b.bid FROM Bookings b WHERE b.sdate = day;
+
+    IF keep THEN
+        EXECUTE format('CREATE TABLE archive.%I AS SELECT * FROM Bookings WHERE sdate = %L', 'bookings_' || suffix, day);
+        EXECUTE format('CREATE TABLE archive.%I AS SELECT p.* FROM Payments p, Bookings b WHERE p.bid = b.bid AND b.sdate = %L', 'payments_' || suffix, day);
+    END IF;
+    DELETE FROM UserBookingHistory WHERE bid IN (SELECT b.bid FROM Bookings b WHERE b.sdate = day);
+    -- a dropped or detached partition fires no delete triggers
+    DELETE FROM ShowIds WHERE sdate = day;
+
+    IF to_regclass('shows_' || suffix) IS NULL THEN
+        DELETE FROM ShowSeats WHERE sdate = day;
+        DELETE FROM Plays WHERE sdate = day;
+        DELETE FROM Payments WHERE bid IN (SELECT b.bid FROM Bookings b WHERE b.sdate = day);
+        DELETE FROM Bookings WHERE sdate = day;
+        DELETE FROM Shows WHERE sdate = day;
+        RETURN;
+    END IF;
+
+    -- seats reference bookings and plays reference shows, so they go first
+    FOREACH part IN ARRAY ARRAY['showseats_' || suffix, 'plays_' || suffix] LOOP
+        EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', split_part(part, '_', 1), part);
+        IF keep THEN
+            FOR fk IN SELECT conname FROM pg_constraint WHERE conrelid = part::regclass AND contype = 'f' LOOP
+                EXECUTE format('ALTER TABLE %I DROP CONSTRAINT %I', part, fk.conname);
+            END LOOP;
+            EXECUTE format('ALTER TABLE %I SET SCHEMA archive', part);
+        ELSE
+            EXECUTE format('DROP TABLE %I', part);
+        END IF;
+    END LOOP;
+
+    DELETE FROM Payments WHERE bid IN (SELECT b.bid FROM Bookings b WHERE b.sdate = day);
+    DELETE FROM Bookings WHERE sdate = day;
+
+    part := 'shows_' || suffix;
+    EXECUTE format('ALTER TABLE Shows DETACH PARTITION %I', part);
+    IF keep THEN
+        FOR fk IN SELECT conname FROM pg_constraint WHERE conrelid = part::regclass AND contype = 'f' LOOP
+            EXECUTE format('ALTER TABLE %I DROP CONSTRAINT %I', part, fk.conname);
+        END LOOP;
+        EXECUTE format('ALTER TABLE %I SET SCHEMA archive', part);
+    ELSE
+        EXECUTE format('DROP TABLE %I', part);
+    END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- Move the data
+
+CREATE TRIGGER Shows_claim_id AFTER INSERT OR UPDATE OF sid, sdate OR DELETE ON Shows
+    FOR EACH ROW EXECUTE FUNCTION claim_show_id();
+
+SELECT create_show_partitions(d, 1) FROM (SELECT DISTINCT sdate AS d FROM Shows_old) days;
+SELECT create_show_partitions(current_date, 60);
+
+INSERT INTO Shows SELECT * FROM Shows_old;
+INSERT INTO ShowSeats (ssid, sid, csid, bid, price, sdate)
+SELECT ss.ssid, ss.sid, ss.csid, ss.bid, ss.price, s.sdate FROM ShowSeats_old ss, Shows_old s WHERE ss.sid = s.sid;
+INSERT INTO Plays (sid, tid, sdate)
+SELECT p.sid, p.tid, s.sdate FROM Plays_old p, Shows_old s WHERE p.sid = s.sid;
+
+ALTER TABLE Bookings ADD COLUMN sdate DATE;
+UPDATE Bookings b SET sdate = s.sdate FROM Shows_old s WHERE b.sid = s.sid;
+ALTER TABLE Bookings ALTER COLUMN sdate SET NOT NULL;
+
+DROP TABLE Plays_old;
+DROP TABLE ShowSeats_old;
+-- drops the old Bookings.sid foreign key with it
+DROP TABLE Shows_old CASCADE;
+
+ALTER TABLE Bookings ADD FOREIGN KEY(sid, sdate) REFERENCES Shows(sid, sdate);
+CREATE INDEX Bookings_sdate ON Bookings(sdate);
+
+CREATE TRIGGER Bookings_sdate BEFORE INSERT OR UPDATE OF sid ON Bookings
+    FOR EACH ROW EXECUTE FUNCTION fill_show_date();
+
+COMMIT;
+
+ANALYZE Shows;
+ANALYZE ShowSeats;
+ANALYZE Plays;
+ANALYZE Bookings;